@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.framework;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.AbstractMap;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This Map is used for case-insensitive key lookup in a Dictionary during
+ * filter evaluation.
+ * <p>
+ * The keys of the dictionary are case folded once into a hash table from the
+ * folded key to the key of the dictionary. Values are always read from the
+ * dictionary. A lookup with an already folded key, such as the attribute of a
+ * compiled filter, does not need to fold the key again.
+ * <p>
+ * This Map implementation only supports the get operation using a String key
+ * as no other operations are used by the Filter implementation.
+ */
+final class CaseFoldedDictionary extends AbstractMap<String,Object>
+		implements Map<String,Object> {
+	private final Dictionary<String, ? >			dictionary;
+	private final Map<String,String>				keys;
+
+	/**
+	 * Create a case-insensitive map for the specified dictionary.
+	 *
+	 * @param dictionary The dictionary.
+	 * @throws IllegalArgumentException If {@code dictionary} contains case
+	 *             variants of the same key name.
+	 */
+	CaseFoldedDictionary(Dictionary<String, ? > dictionary) {
+		this.dictionary = requireNonNull(dictionary);
+		int size = dictionary.size();
+		Map<String,String> table = new HashMap<>((size * 4 + 2) / 3);
+		for (Enumeration< ? > e = dictionary.keys(); e.hasMoreElements();) {
+			Object k = e.nextElement();
+			if (k instanceof String) {
+				String key = (String) k;
+				if (table.put(fold(key), key) != null) {
+					throw new IllegalArgumentException(
+							"case variants of the same key name: " + key);
+				}
+			}
+		}
+		this.keys = table;
+	}
+
+	/**
+	 * Case fold the specified key. Two keys are equal ignoring case if and
+	 * only if their case folded forms are equal.
+	 *
+	 * @param key The key to fold.
+	 * @return The case folded key.
+	 */
+	static String fold(String key) {
+		int length = key.length();
+		int i = 0;
+		for (; i < length; i++) {
+			char c = key.charAt(i);
+			if (((c >= 'A') && (c <= 'Z')) || (c > 0x7F)) {
+				break;
+			}
+		}
+		if (i == length) {
+			// common case: nothing to fold
+			return key;
+		}
+		char[] chars = key.toCharArray();
+		for (; i < length; i++) {
+			chars[i] = Character
+					.toLowerCase(Character.toUpperCase(chars[i]));
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public Object get(Object o) {
+		return getFolded(fold((String) o));
+	}
+
+	/**
+	 * Returns the value of the specified case folded key.
+	 *
+	 * @param folded A key already case folded by {@link #fold(String)}.
+	 * @return The value or {@code null} if the key is not present.
+	 */
+	Object getFolded(String folded) {
+		String key = keys.get(folded);
+		if (key == null) {
+			return null;
+		}
+		return dictionary.get(key);
+	}
+
+	@Override
+	public Set<Entry<String,Object>> entrySet() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.framework;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.Map;
+
+/**
+ * Compiled form of a {@link FilterImpl}.
+ * <p>
+ * The filter tree is compiled once into a tree of evaluation nodes where:
+ * <ul>
+ * <li>the operands of each conjunction and disjunction are ordered so that
+ * cheaper and more selective operands are evaluated first,</li>
+ * <li>the literal of a simple item is converted to a value type once, when it
+ * is first compared against a value of that type, and the result is kept for
+ * later matches,</li>
+ * <li>the properties are read through a {@link Accessor} directly from the
+ * {@code Map}, {@code Dictionary} or {@code ServiceReference} so that no
+ * wrapper object is allocated for a match, and</li>
+ * <li>the attribute names are case folded once for case-insensitive lookup in
+ * a {@link CaseFoldedDictionary}.</li>
+ * </ul>
+ * The semantics of the match methods are identical to those of the
+ * {@link FilterImpl} from which this compiled filter was created. The
+ * {@link #toString() filter string}, {@link #equals(Object) equality} and
+ * {@link #hashCode() hash code} are those of the source filter.
+ *
+ * @ThreadSafe
+ */
+final class CompiledFilter implements Filter {
+	private final FilterImpl	filter;
+	private final Node			root;
+
+	/**
+	 * Compile the specified filter.
+	 *
+	 * @param filter The filter to compile.
+	 * @return The compiled form of the specified filter.
+	 */
+	static CompiledFilter compile(FilterImpl filter) {
+		return new CompiledFilter(filter, compileNode(filter));
+	}
+
+	private CompiledFilter(FilterImpl filter, Node root) {
+		this.filter = requireNonNull(filter);
+		this.root = root;
+	}
+
+	/**
+	 * Returns the filter from which this compiled filter was created.
+	 *
+	 * @return The source filter.
+	 */
+	FilterImpl filter() {
+		return filter;
+	}
+
+	@Override
+	public boolean match(ServiceReference< ? > reference) {
+		if (reference == null) {
+			return root.matches(null, Accessor.NONE);
+		}
+		return root.matches(reference, Accessor.SERVICE_REFERENCE);
+	}
+
+	@Override
+	public boolean match(Dictionary<String, ? > dictionary) {
+		if (dictionary == null) {
+			return root.matches(null, Accessor.NONE);
+		}
+		return root.matches(FilterImpl.caseInsensitive(dictionary),
+				Accessor.CASE_FOLDED);
+	}
+
+	@Override
+	public boolean matchCase(Dictionary<String, ? > dictionary) {
+		if (dictionary == null) {
+			return root.matches(null, Accessor.NONE);
+		}
+		return root.matches(dictionary, Accessor.DICTIONARY);
+	}
+
+	@Override
+	public boolean matches(Map<String, ? > map) {
+		if (map == null) {
+			return root.matches(null, Accessor.NONE);
+		}
+		return root.matches(map, Accessor.MAP);
+	}
+
+	/**
+	 * Match this compiled filter against the properties read through the
+	 * specified accessor.
+	 *
+	 * @param source The source of the properties.
+	 * @param accessor The accessor for properties of the source.
+	 * @return {@code true} if the properties match this filter.
+	 */
+	boolean matches(Object source, Accessor accessor) {
+		return root.matches(source, accessor);
+	}
+
+	@Override
+	public String toString() {
+		return filter.toString();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return filter.equals(obj);
+	}
+
+	@Override
+	public int hashCode() {
+		return filter.hashCode();
+	}
+
+	/**
+	 * Reads attribute values from a property source. The accessors are
+	 * stateless singletons so that matching does not allocate.
+	 */
+	static abstract class Accessor {
+		/**
+		 * Accessor for a missing property source.
+		 */
+		static final Accessor	NONE				= new Accessor() {
+			@Override
+			Object get(Object source, String key) {
+				return null;
+			}
+		};
+		/**
+		 * Accessor for a {@code CaseFoldedDictionary} property source. The
+		 * key must be case folded.
+		 */
+		static final Accessor	CASE_FOLDED			= new Accessor(true) {
+			@Override
+			Object get(Object source, String key) {
+				return ((CaseFoldedDictionary) source).getFolded(key);
+			}
+		};
+		/**
+		 * Accessor for a {@code Map} property source.
+		 */
+		static final Accessor	MAP					= new Accessor() {
+			@Override
+			Object get(Object source, String key) {
+				return ((Map< ? , ? >) source).get(key);
+			}
+		};
+		/**
+		 * Accessor for a {@code Dictionary} property source.
+		 */
+		static final Accessor	DICTIONARY			= new Accessor() {
+			@Override
+			Object get(Object source, String key) {
+				return ((Dictionary< ? , ? >) source).get(key);
+			}
+		};
+		/**
+		 * Accessor for a {@code ServiceReference} property source.
+		 */
+		static final Accessor	SERVICE_REFERENCE	= new Accessor() {
+			@Override
+			Object get(Object source, String key) {
+				return ((ServiceReference< ? >) source).getProperty(key);
+			}
+		};
+
+		final boolean folded;
+
+		Accessor() {
+			this(false);
+		}
+
+		Accessor(boolean folded) {
+			this.folded = folded;
+		}
+
+		/**
+		 * Returns the value of the specified key.
+		 *
+		 * @param source The property source.
+		 * @param key The attribute name, case folded if this accessor
+		 *            requires {@link #folded folded} keys.
+		 * @return The value or {@code null} if the key is not present.
+		 */
+		abstract Object get(Object source, String key);
+	}
+
+	/*
+	 * Relative evaluation costs used to order operands. An equality test on
+	 * objectClass is the cheapest and most selective test in a service filter.
+	 */
+	private static final int	COST_OBJECTCLASS	= 1;
+	private static final int	COST_PRESENT		= 2;
+	private static final int	COST_EQUAL			= 3;
+	private static final int	COST_COMPARE		= 4;
+	private static final int	COST_APPROX			= 6;
+	private static final int	COST_SUBSTRING		= 8;
+
+	private static Node compileNode(FilterImpl filter) {
+		if (filter instanceof FilterImpl.And) {
+			return new And(compileOperands(((FilterImpl.And) filter).operands));
+		}
+		if (filter instanceof FilterImpl.Or) {
+			return new Or(compileOperands(((FilterImpl.Or) filter).operands));
+		}
+		if (filter instanceof FilterImpl.Not) {
+			return new Not(compileNode(((FilterImpl.Not) filter).operand));
+		}
+		FilterImpl.Item item = (FilterImpl.Item) filter;
+		int cost;
+		if (item instanceof FilterImpl.Present) {
+			cost = COST_PRESENT;
+		} else if (item instanceof FilterImpl.Substring) {
+			cost = COST_SUBSTRING
+					+ ((FilterImpl.Substring) item).substrings.length;
+		} else if (item instanceof FilterImpl.Approx) {
+			cost = COST_APPROX;
+		} else if ((item instanceof FilterImpl.LessEqual)
+				|| (item instanceof FilterImpl.GreaterEqual)) {
+			cost = COST_COMPARE;
+		} else {
+			cost = Constants.OBJECTCLASS.equalsIgnoreCase(item.attr)
+					? COST_OBJECTCLASS
+					: COST_EQUAL;
+		}
+		return new Leaf(item, cost);
+	}
+
+	private static Node[] compileOperands(FilterImpl[] operands) {
+		Node[] nodes = new Node[operands.length];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = compileNode(operands[i]);
+		}
+		// stable sort keeps the source order for operands of equal cost
+		Arrays.sort(nodes, Comparator.comparingInt(node -> node.cost));
+		return nodes;
+	}
+
+	static abstract class Node {
+		final int cost;
+
+		Node(int cost) {
+			this.cost = cost;
+		}
+
+		abstract boolean matches(Object source, Accessor accessor);
+	}
+
+	private static final class And extends Node {
+		private final Node[] operands;
+
+		And(Node[] operands) {
+			super(sum(operands));
+			this.operands = operands;
+		}
+
+		@Override
+		boolean matches(Object source, Accessor accessor) {
+			for (Node operand : operands) {
+				if (!operand.matches(source, accessor)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final class Or extends Node {
+		private final Node[] operands;
+
+		Or(Node[] operands) {
+			super(sum(operands));
+			this.operands = operands;
+		}
+
+		@Override
+		boolean matches(Object source, Accessor accessor) {
+			for (Node operand : operands) {
+				if (operand.matches(source, accessor)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class Not extends Node {
+		private final Node operand;
+
+		Not(Node operand) {
+			super(operand.cost);
+			this.operand = operand;
+		}
+
+		@Override
+		boolean matches(Object source, Accessor accessor) {
+			return !operand.matches(source, accessor);
+		}
+	}
+
+	private static final class Leaf extends Node {
+		private final FilterImpl.Item	item;
+		private final String			attr;
+		private final String			folded;
+
+		Leaf(FilterImpl.Item item, int cost) {
+			super(cost);
+			this.item = item;
+			this.attr = item.attr;
+			this.folded = CaseFoldedDictionary.fold(item.attr);
+		}
+
+		@Override
+		boolean matches(Object source, Accessor accessor) {
+			return item.matchesValue(
+					accessor.get(source, accessor.folded ? folded : attr));
+		}
+	}
+
+	static int sum(Node[] nodes) {
+		int cost = 0;
+		for (Node node : nodes) {
+			cost += node.cost;
+		}
+		return cost;
+	}
+}
@@ -18,23 +18,18 @@
 
 package org.osgi.framework;
 
-import static java.util.Objects.requireNonNull;
-
+import java.lang.ref.WeakReference;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Dictionary;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.Function;
 
 /**
@@ -153,7 +148,12 @@ import java.util.function.Function;
  */
 abstract class FilterImpl implements Filter {
 	/* normalized filter string for Filter object */
-	private transient String filterString;
+	private transient String			filterString;
+	/*
+	 * compiled form used to match this filter; races are benign since the
+	 * compiled filter is immutable
+	 */
+	private transient CompiledFilter	compiled;
 
 	/**
 	 * Creates a {@link FilterImpl} object. This filter object may be used to
@@ -188,8 +188,7 @@ abstract class FilterImpl implements Filter {
 	 */
 	@Override
 	public boolean match(ServiceReference< ? > reference) {
-		return matches0((reference != null) ? new ServiceReferenceMap(reference)
-				: Collections.emptyMap());
+		return compile().match(reference);
 	}
 
 	/**
@@ -206,9 +205,7 @@ abstract class FilterImpl implements Filter {
 	 */
 	@Override
 	public boolean match(Dictionary<String, ? > dictionary) {
-		return matches0(
-				(dictionary != null) ? new CaseInsensitiveMap(dictionary)
-						: Collections.emptyMap());
+		return compile().match(dictionary);
 	}
 
 	/**
@@ -224,8 +221,7 @@ abstract class FilterImpl implements Filter {
 	 */
 	@Override
 	public boolean matchCase(Dictionary<String, ? > dictionary) {
-		return matches0((dictionary != null) ? DictionaryMap.asMap(dictionary)
-				: Collections.emptyMap());
+		return compile().matchCase(dictionary);
 	}
 
 	/**
@@ -242,10 +238,39 @@ abstract class FilterImpl implements Filter {
 	 */
 	@Override
 	public boolean matches(Map<String, ? > map) {
-		return matches0((map != null) ? map : Collections.emptyMap());
+		return compile().matches(map);
 	}
 
-	abstract boolean matches0(Map<String, ? > map);
+	/**
+	 * Returns the compiled form of this filter.
+	 * <p>
+	 * The compiled form evaluates the same filter without re-walking this
+	 * filter tree and without allocating wrappers for the match argument. It
+	 * is created on the first match and used by all match methods.
+	 * 
+	 * @return The compiled form of this filter.
+	 */
+	CompiledFilter compile() {
+		CompiledFilter result = compiled;
+		if (result == null) {
+			compiled = result = CompiledFilter.compile(this);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a Map for case-insensitive key lookup in the specified
+	 * dictionary.
+	 * 
+	 * @param dictionary The dictionary.
+	 * @return A Map for case-insensitive key lookup.
+	 * @throws IllegalArgumentException If {@code dictionary} contains case
+	 *             variants of the same key name.
+	 */
+	static CaseFoldedDictionary caseInsensitive(
+			Dictionary<String, ? > dictionary) {
+		return new CaseFoldedDictionary(dictionary);
+	}
 
 	/**
 	 * Returns this {@code Filter}'s filter string.
@@ -312,22 +337,12 @@ abstract class FilterImpl implements Filter {
 	}
 
 	static final class And extends FilterImpl {
-		private final FilterImpl[] operands;
+		final FilterImpl[] operands;
 
 		And(FilterImpl[] operands) {
 			this.operands = operands;
 		}
 
-		@Override
-		boolean matches0(Map<String, ? > map) {
-			for (FilterImpl operand : operands) {
-				if (!operand.matches0(map)) {
-					return false;
-				}
-			}
-			return true;
-		}
-
 		@Override
 		StringBuilder normalize(StringBuilder sb) {
 			sb.append('(').append('&');
@@ -339,22 +354,12 @@ abstract class FilterImpl implements Filter {
 	}
 
 	static final class Or extends FilterImpl {
-		private final FilterImpl[] operands;
+		final FilterImpl[] operands;
 
 		Or(FilterImpl[] operands) {
 			this.operands = operands;
 		}
 
-		@Override
-		boolean matches0(Map<String, ? > map) {
-			for (FilterImpl operand : operands) {
-				if (operand.matches0(map)) {
-					return true;
-				}
-			}
-			return false;
-		}
-
 		@Override
 		StringBuilder normalize(StringBuilder sb) {
 			sb.append('(').append('|');
@@ -366,17 +371,12 @@ abstract class FilterImpl implements Filter {
 	}
 
 	static final class Not extends FilterImpl {
-		private final FilterImpl operand;
+		final FilterImpl operand;
 
 		Not(FilterImpl operand) {
 			this.operand = operand;
 		}
 
-		@Override
-		boolean matches0(Map<String, ? > map) {
-			return !operand.matches0(map);
-		}
-
 		@Override
 		StringBuilder normalize(StringBuilder sb) {
 			sb.append('(').append('!');
@@ -392,9 +392,15 @@ abstract class FilterImpl implements Filter {
 			this.attr = attr;
 		}
 
-		@Override
-		boolean matches0(Map<String, ? > map) {
-			return compare(map.get(attr));
+		/**
+		 * Match the value of this item's attribute.
+		 * 
+		 * @param value1 The attribute value or {@code null} if the attribute is
+		 *            not present.
+		 * @return {@code true} if the value matches this item.
+		 */
+		boolean matchesValue(Object value1) {
+			return compare(value1);
 		}
 
 		private boolean compare(Object value1) {
@@ -604,8 +610,8 @@ abstract class FilterImpl implements Filter {
 		}
 
 		@Override
-		boolean matches0(Map<String, ? > map) {
-			return map.get(attr) != null;
+		boolean matchesValue(Object value1) {
+			return value1 != null;
 		}
 
 		@Override
@@ -683,22 +689,74 @@ abstract class FilterImpl implements Filter {
 	}
 
 	static class Equal extends Item {
-		final String value;
-		private Object	cached;
+		/* marker for a literal which cannot be converted to a type */
+		private static final Object	INVALID	= new Object();
+
+		final String				value;
+		/*
+		 * Converted literals. Each is null until the literal is first compared
+		 * against a value of the type and INVALID if the literal cannot be
+		 * converted to the type. Races are benign since the conversion result
+		 * is always the same immutable value.
+		 */
+		private Object				longValue;
+		private Object				doubleValue;
+		private Object				floatValue;
+		private Object				booleanValue;
+		private Object				versionValue;
+		private Converted			converted;
 
 		Equal(String attr, String value) {
 			super(attr);
 			this.value = value;
 		}
-		
-		private <T> T convert(Class<T> type, Function<String, ? extends T> converter) {
-			@SuppressWarnings("unchecked")
-			T converted = (T) cached;
-			if ((converted != null) && type.isInstance(converted)) {
-				return converted;
+
+		private Object convert(Function<String, ? > converter) {
+			try {
+				return converter.apply(value.trim());
+			} catch (Exception e) {
+				return INVALID;
+			}
+		}
+
+		private Object longValue() {
+			Object result = longValue;
+			if (result == null) {
+				longValue = result = convert(Long::valueOf);
+			}
+			return result;
+		}
+
+		private Object doubleValue() {
+			Object result = doubleValue;
+			if (result == null) {
+				doubleValue = result = convert(Double::valueOf);
 			}
-			cached = converted = converter.apply(value.trim());
-			return converted;
+			return result;
+		}
+
+		private Object floatValue() {
+			Object result = floatValue;
+			if (result == null) {
+				floatValue = result = convert(Float::valueOf);
+			}
+			return result;
+		}
+
+		private Object booleanValue() {
+			Object result = booleanValue;
+			if (result == null) {
+				booleanValue = result = convert(Boolean::valueOf);
+			}
+			return result;
+		}
+
+		private Object versionValue() {
+			Object result = versionValue;
+			if (result == null) {
+				versionValue = result = convert(Version::valueOf);
+			}
+			return result;
 		}
 
 		boolean comparison(int compare) {
@@ -712,18 +770,21 @@ abstract class FilterImpl implements Filter {
 
 		@Override
 		boolean compare_Version(Version value1) {
+			Object version2 = versionValue();
+			if (version2 == INVALID) {
+				return false;
+			}
 			try {
-				Version version2 = convert(Version.class, Version::valueOf);
-				return comparison(value1.compareTo(version2));
+				return comparison(value1.compareTo((Version) version2));
 			} catch (Exception e) {
-				// if the valueOf or compareTo method throws an exception
+				// if the compareTo method throws an exception
 				return false;
 			}
 		}
 
 		@Override
 		boolean compare_Boolean(boolean boolval) {
-			boolean boolval2 = convert(Boolean.class, Boolean::valueOf).booleanValue();
+			boolean boolval2 = ((Boolean) booleanValue()).booleanValue();
 			return comparison(Boolean.compare(boolval, boolval2));
 		}
 
@@ -740,35 +801,32 @@ abstract class FilterImpl implements Filter {
 
 		@Override
 		boolean compare_Double(double doubleval) {
-			double doubleval2;
-			try {
-				doubleval2 = convert(Double.class, Double::valueOf).doubleValue();
-			} catch (IllegalArgumentException e) {
+			Object doubleval2 = doubleValue();
+			if (doubleval2 == INVALID) {
 				return false;
 			}
-			return comparison(Double.compare(doubleval, doubleval2));
+			return comparison(Double.compare(doubleval,
+					((Double) doubleval2).doubleValue()));
 		}
 
 		@Override
 		boolean compare_Float(float floatval) {
-			float floatval2;
-			try {
-				floatval2 = convert(Float.class, Float::valueOf).floatValue();
-			} catch (IllegalArgumentException e) {
+			Object floatval2 = floatValue();
+			if (floatval2 == INVALID) {
 				return false;
 			}
-			return comparison(Float.compare(floatval, floatval2));
+			return comparison(
+					Float.compare(floatval, ((Float) floatval2).floatValue()));
 		}
 
 		@Override
 		boolean compare_Long(long longval) {
-			long longval2;
-			try {
-				longval2 = convert(Long.class, Long::valueOf).longValue();
-			} catch (IllegalArgumentException e) {
+			Object longval2 = longValue();
+			if (longval2 == INVALID) {
 				return false;
 			}
-			return comparison(Long.compare(longval, longval2));
+			return comparison(
+					Long.compare(longval, ((Long) longval2).longValue()));
 		}
 
 		@Override
@@ -805,7 +863,24 @@ abstract class FilterImpl implements Filter {
 			return encodeValue(sb, value).append(')');
 		}
 
+		/**
+		 * Convert the literal to the specified type. The result of the most
+		 * recent conversion is cached since a given attribute is usually of a
+		 * single type. The cache refers to the type weakly so that this filter
+		 * does not keep the type, and its class loader, reachable through the
+		 * key.
+		 */
 		Object valueOf(Class< ? > target) {
+			Converted c = converted;
+			if ((c != null) && (c.type.get() == target)) {
+				return c.value;
+			}
+			Object result = valueOf0(target);
+			converted = new Converted(target, result);
+			return result;
+		}
+
+		private Object valueOf0(Class< ? > target) {
 			do {
 				Method method;
 				try {
@@ -854,6 +929,16 @@ abstract class FilterImpl implements Filter {
 				});
 			}
 		}
+
+		private static final class Converted {
+			final WeakReference<Class< ? >>	type;
+			final Object					value;
+
+			Converted(Class< ? > type, Object value) {
+				this.type = new WeakReference<>(type);
+				this.value = value;
+			}
+		}
 	}
 
 	static final class LessEqual extends Equal {
@@ -1278,109 +1363,4 @@ abstract class FilterImpl implements Filter {
 			}
 		}
 	}
-
-	/**
-	 * This Map is used for key lookup during filter evaluation. This Map
-	 * implementation only supports the get operation using a String key as no
-	 * other operations are used by the Filter implementation.
-	 */
-	private static class DictionaryMap extends AbstractMap<String,Object>
-			implements Map<String,Object> {
-		static Map<String, ? > asMap(Dictionary<String, ? > dictionary) {
-			if (dictionary instanceof Map) {
-				@SuppressWarnings("unchecked")
-				Map<String, ? > coerced = (Map<String, ? >) dictionary;
-				return coerced;
-			}
-			return new DictionaryMap(dictionary);
-		}
-
-		private final Dictionary<String, ? > dictionary;
-
-		DictionaryMap(Dictionary<String, ? > dictionary) {
-			this.dictionary = requireNonNull(dictionary);
-		}
-
-		@Override
-		public Object get(Object key) {
-			return dictionary.get(key);
-		}
-
-		@Override
-		public Set<Entry<String,Object>> entrySet() {
-			throw new UnsupportedOperationException();
-		}
-	}
-
-	/**
-	 * This Map is used for case-insensitive key lookup during filter
-	 * evaluation. This Map implementation only supports the get operation using
-	 * a String key as no other operations are used by the Filter
-	 * implementation.
-	 */
-	private static final class CaseInsensitiveMap
-			extends DictionaryMap implements Map<String,Object> {
-		private final String[]					keys;
-
-		/**
-		 * Create a case insensitive map from the specified dictionary.
-		 * 
-		 * @param dictionary
-		 * @throws IllegalArgumentException If {@code dictionary} contains case
-		 *             variants of the same key name.
-		 */
-		CaseInsensitiveMap(Dictionary<String, ? > dictionary) {
-			super(dictionary);
-			List<String> keyList = new ArrayList<>(dictionary.size());
-			for (Enumeration< ? > e = dictionary.keys(); e.hasMoreElements();) {
-				Object k = e.nextElement();
-				if (k instanceof String) {
-					String key = (String) k;
-					for (String i : keyList) {
-						if (key.equalsIgnoreCase(i)) {
-							throw new IllegalArgumentException();
-						}
-					}
-					keyList.add(key);
-				}
-			}
-			this.keys = keyList.toArray(new String[0]);
-		}
-
-		@Override
-		public Object get(Object o) {
-			String k = (String) o;
-			for (String key : keys) {
-				if (key.equalsIgnoreCase(k)) {
-					return super.get(key);
-				}
-			}
-			return null;
-		}
-	}
-
-	/**
-	 * This Map is used for key lookup from a ServiceReference during filter
-	 * evaluation. This Map implementation only supports the get operation using
-	 * a String key as no other operations are used by the Filter
-	 * implementation.
-	 */
-	private static final class ServiceReferenceMap
-			extends AbstractMap<String,Object> implements Map<String,Object> {
-		private final ServiceReference< ? > reference;
-
-		ServiceReferenceMap(ServiceReference< ? > reference) {
-			this.reference = requireNonNull(reference);
-		}
-
-		@Override
-		public Object get(Object key) {
-			return reference.getProperty((String) key);
-		}
-
-		@Override
-		public Set<Entry<String,Object>> entrySet() {
-			throw new UnsupportedOperationException();
-		}
-	}
 }
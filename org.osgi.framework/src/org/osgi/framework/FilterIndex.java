@@ -0,0 +1,360 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.framework;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.CompiledFilter.Accessor;
+
+/**
+ * Index of many filters for bulk matching against a single set of
+ * properties.
+ * <p>
+ * Each registered filter is indexed on one mandatory equality term taken from
+ * the filter's top level conjunction, preferring an
+ * {@link Constants#OBJECTCLASS objectClass} term. When properties are
+ * matched, only the filters whose indexed term is satisfied by the property
+ * values, and the filters which have no mandatory equality term, are
+ * evaluated.
+ * <p>
+ * A term is only used to select candidates when the property value is a
+ * {@code String}, or an array or collection of {@code String}s, since then
+ * the filter's equality test is exactly {@code String} equality. For property
+ * values of other types, all filters indexed on the attribute are evaluated.
+ * <p>
+ * The values of the matching filters are returned in no particular order. A
+ * value registered with several matching filters is returned once for each
+ * of them.
+ * <p>
+ * Registration is synchronized while matching is lock free and does not
+ * observe a partially updated index.
+ *
+ * @param <T> The type of the value registered with each filter.
+ * @ThreadSafe
+ * @since 1.11
+ * @author $Id$
+ */
+public final class FilterIndex<T> {
+	/* attribute name -> entries indexed on a term for that attribute */
+	private final Map<String,Attribute<T>>	index		= new ConcurrentHashMap<>();
+	/* entries without an indexable term; copy on write */
+	private volatile Entry<T>[]				unindexed	= newArray(0);
+	private int								size;
+
+	/**
+	 * Create an empty filter index.
+	 */
+	public FilterIndex() {
+		// empty
+	}
+
+	/**
+	 * Register a filter and its associated value.
+	 *
+	 * @param filter The filter.
+	 * @param value The value returned when the filter matches.
+	 */
+	public synchronized void add(Filter filter, T value) {
+		Entry<T> entry = new Entry<>(compile(filter), requireNonNull(value));
+		FilterImpl.Equal term = indexTerm(entry.filter.filter());
+		if (term == null) {
+			unindexed = append(unindexed, entry);
+		} else {
+			Map<String,Entry<T>[]> values = index
+					.computeIfAbsent(term.attr, Attribute::new).values;
+			values.put(term.value,
+					append(values.getOrDefault(term.value, newArray(0)),
+							entry));
+		}
+		size++;
+	}
+
+	/**
+	 * Unregister a filter and its associated value.
+	 *
+	 * @param filter The filter.
+	 * @param value The value registered with the filter.
+	 * @return {@code true} if the filter and value were registered.
+	 */
+	public synchronized boolean remove(Filter filter, T value) {
+		CompiledFilter compiled = compile(filter);
+		FilterImpl.Equal term = indexTerm(compiled.filter());
+		if (term == null) {
+			Entry<T>[] entries = remove(unindexed, compiled, value);
+			if (entries == null) {
+				return false;
+			}
+			unindexed = entries;
+		} else {
+			Attribute<T> attribute = index.get(term.attr);
+			if (attribute == null) {
+				return false;
+			}
+			Map<String,Entry<T>[]> values = attribute.values;
+			Entry<T>[] current = values.get(term.value);
+			if (current == null) {
+				return false;
+			}
+			Entry<T>[] entries = remove(current, compiled, value);
+			if (entries == null) {
+				return false;
+			}
+			if (entries.length == 0) {
+				values.remove(term.value);
+				if (values.isEmpty()) {
+					index.remove(term.attr);
+				}
+			} else {
+				values.put(term.value, entries);
+			}
+		}
+		size--;
+		return true;
+	}
+
+	/**
+	 * Returns the number of registered filters.
+	 *
+	 * @return The number of registered filters.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the values of the registered filters which match the properties
+	 * of the specified service. Keys are looked up in a case insensitive
+	 * manner.
+	 *
+	 * @param reference The service reference.
+	 * @return The values of the matching filters.
+	 */
+	public List<T> match(ServiceReference< ? > reference) {
+		return match(requireNonNull(reference), Accessor.SERVICE_REFERENCE);
+	}
+
+	/**
+	 * Returns the values of the registered filters which match the specified
+	 * dictionary. Keys are looked up in a case insensitive manner.
+	 *
+	 * @param dictionary The dictionary.
+	 * @return The values of the matching filters.
+	 * @throws IllegalArgumentException If {@code dictionary} contains case
+	 *             variants of the same key name.
+	 */
+	public List<T> match(Dictionary<String, ? > dictionary) {
+		return match(FilterImpl.caseInsensitive(dictionary),
+				Accessor.CASE_FOLDED);
+	}
+
+	/**
+	 * Returns the values of the registered filters which match the specified
+	 * dictionary. Keys are looked up in a case sensitive manner.
+	 *
+	 * @param dictionary The dictionary.
+	 * @return The values of the matching filters.
+	 */
+	public List<T> matchCase(Dictionary<String, ? > dictionary) {
+		return match(requireNonNull(dictionary), Accessor.DICTIONARY);
+	}
+
+	/**
+	 * Returns the values of the registered filters which match the specified
+	 * map. Keys are looked up in a case sensitive manner.
+	 *
+	 * @param map The map.
+	 * @return The values of the matching filters.
+	 */
+	public List<T> matches(Map<String, ? > map) {
+		return match(requireNonNull(map), Accessor.MAP);
+	}
+
+	private List<T> match(Object source, Accessor accessor) {
+		List<T> result = new ArrayList<>();
+		evaluate(unindexed, source, accessor, result);
+		for (Attribute<T> attribute : index.values()) {
+			Object property = accessor.get(source,
+					accessor.folded ? attribute.folded : attribute.attr);
+			if (property == null) {
+				// mandatory equality term cannot be satisfied
+				continue;
+			}
+			Map<String,Entry<T>[]> values = attribute.values;
+			if (property instanceof String) {
+				evaluate(values.get(property), source, accessor, result);
+			} else if (property instanceof String[]) {
+				String[] array = (String[]) property;
+				for (int i = 0; i < array.length; i++) {
+					if ((array[i] != null) && !contains(array, i)) {
+						evaluate(values.get(array[i]), source, accessor,
+								result);
+					}
+				}
+			} else if (isStrings(property)) {
+				Object[] array = ((Collection< ? >) property).toArray();
+				for (int i = 0; i < array.length; i++) {
+					if (!contains(array, i)) {
+						evaluate(values.get(array[i]), source, accessor,
+								result);
+					}
+				}
+			} else {
+				// non-String values may match literals of other spellings
+				for (Entry<T>[] entries : values.values()) {
+					evaluate(entries, source, accessor, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void evaluate(Entry<T>[] entries, Object source, Accessor accessor,
+			List<T> result) {
+		if (entries == null) {
+			return;
+		}
+		for (Entry<T> entry : entries) {
+			if (entry.filter.matches(source, accessor)) {
+				result.add(entry.value);
+			}
+		}
+	}
+
+	/**
+	 * Returns the equality term to index the specified filter on or
+	 * {@code null} if the filter has no mandatory equality term.
+	 */
+	static FilterImpl.Equal indexTerm(FilterImpl filter) {
+		if (isEqual(filter)) {
+			return (FilterImpl.Equal) filter;
+		}
+		if (!(filter instanceof FilterImpl.And)) {
+			return null;
+		}
+		FilterImpl.Equal result = null;
+		for (FilterImpl operand : ((FilterImpl.And) filter).operands) {
+			FilterImpl.Equal term = indexTerm(operand);
+			if (term != null) {
+				if (term.attr.equalsIgnoreCase(Constants.OBJECTCLASS)) {
+					return term;
+				}
+				if (result == null) {
+					result = term;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean isEqual(FilterImpl filter) {
+		// subclasses of Equal are not equality tests
+		return filter.getClass() == FilterImpl.Equal.class;
+	}
+
+	private static CompiledFilter compile(Filter filter) {
+		if (filter instanceof CompiledFilter) {
+			return (CompiledFilter) filter;
+		}
+		if (filter instanceof FilterImpl) {
+			return ((FilterImpl) filter).compile();
+		}
+		return FilterImpl.createFilter(filter.toString()).compile();
+	}
+
+	private static boolean isStrings(Object property) {
+		if (!(property instanceof Collection)) {
+			return false;
+		}
+		for (Object element : (Collection< ? >) property) {
+			if (!(element instanceof String)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean contains(Object[] array, int end) {
+		Object value = array[end];
+		for (int i = 0; i < end; i++) {
+			if (value.equals(array[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static <T> Entry<T>[] append(Entry<T>[] entries, Entry<T> entry) {
+		Entry<T>[] result = Arrays.copyOf(entries, entries.length + 1);
+		result[entries.length] = entry;
+		return result;
+	}
+
+	/* returns null if not found */
+	private static <T> Entry<T>[] remove(Entry<T>[] entries,
+			CompiledFilter filter, T value) {
+		for (int i = 0; i < entries.length; i++) {
+			Entry<T> entry = entries[i];
+			if (entry.value.equals(value) && entry.filter.equals(filter)) {
+				Entry<T>[] result = newArray(entries.length - 1);
+				System.arraycopy(entries, 0, result, 0, i);
+				System.arraycopy(entries, i + 1, result, i,
+						result.length - i);
+				return result;
+			}
+		}
+		return null;
+	}
+
+	private static <T> Entry<T>[] newArray(int length) {
+		/* arrays of a generic type can only be created with a wildcard */
+		@SuppressWarnings("unchecked")
+		Entry<T>[] array = (Entry<T>[]) new Entry< ? >[length];
+		return array;
+	}
+
+	private static final class Attribute<T> {
+		final String					attr;
+		final String					folded;
+		/* term value -> entries indexed on that term; copy on write */
+		final Map<String,Entry<T>[]>	values	= new ConcurrentHashMap<>();
+
+		Attribute(String attr) {
+			this.attr = attr;
+			this.folded = CaseFoldedDictionary.fold(attr);
+		}
+	}
+
+	private static final class Entry<T> {
+		final CompiledFilter	filter;
+		final T					value;
+
+		Entry(CompiledFilter filter, T value) {
+			this.filter = filter;
+			this.value = value;
+		}
+	}
+}
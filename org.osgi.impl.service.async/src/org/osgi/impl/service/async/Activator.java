@@ -32,25 +32,31 @@ import org.osgi.service.log.LogService;
 import org.osgi.util.tracker.ServiceTracker;
 
 public class Activator implements BundleActivator {
+
+	/**
+	 * The framework property which selects the executor. If it is set to
+	 * {@code virtualThreads}, every asynchronous call runs on a new virtual
+	 * thread, if the Java runtime supports virtual threads. Otherwise a fixed
+	 * thread pool is used.
+	 */
+	static final String	EXECUTOR_PROPERTY	= "org.osgi.impl.service.async.executor";
+
+	/**
+	 * The framework property which sets the number of threads of the fixed
+	 * thread pool.
+	 */
+	static final String	THREADS_PROPERTY	= "org.osgi.impl.service.async.threads";
+
+	private static final int	DEFAULT_THREADS		= 10;
 	
-	private final ExecutorService executor = Executors.newFixedThreadPool(10, new ThreadFactory() {
-		
-		private final AtomicInteger count = new AtomicInteger();
-		
-																			@Override
-		public Thread newThread(final Runnable r) {
-			Thread t = new Thread((Runnable) () -> AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
-				r.run();
-				return null;
-			}), "Asynchronous Execution Service Thread " + count.incrementAndGet());
-			return t;
-		}
-	});
+	private volatile ExecutorService executor;
 	
 	private volatile ServiceTracker<LogService, LogService> logServiceTracker;
 	
 	@Override
 	public void start(BundleContext context) throws Exception {
+		executor = createExecutor(context);
+		
 		logServiceTracker = new ServiceTracker<LogService, LogService>(context, LogService.class, null);
 		logServiceTracker.open();
 		
@@ -62,4 +68,62 @@ public class Activator implements BundleActivator {
 		executor.shutdownNow();
 		logServiceTracker.close();
 	}
+
+	private static ExecutorService createExecutor(BundleContext context) {
+		if ("virtualThreads".equalsIgnoreCase(context.getProperty(EXECUTOR_PROPERTY))) {
+			ExecutorService virtual = newVirtualThreadExecutor();
+			if (virtual != null) {
+				return virtual;
+			}
+		}
+		int threads = DEFAULT_THREADS;
+		String value = context.getProperty(THREADS_PROPERTY);
+		if (value != null) {
+			try {
+				threads = Math.max(1, Integer.parseInt(value.trim()));
+			} catch (NumberFormatException nfe) {
+				// use the default
+			}
+		}
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread t = new Thread(privileged(r), "Asynchronous Execution Service Thread " + count.incrementAndGet());
+				return t;
+			}
+		});
+	}
+
+	/*
+	 * Virtual threads are found reflectively since this code must run on Java
+	 * runtimes without virtual threads.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderType.getMethod("name", String.class, long.class)
+					.invoke(builder, "Asynchronous Execution Service Thread ", 1L);
+			final ThreadFactory virtualFactory = (ThreadFactory) builderType
+					.getMethod("factory")
+					.invoke(builder);
+			ThreadFactory factory = r -> virtualFactory.newThread(privileged(r));
+			return (ExecutorService) Executors.class
+					.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (Exception e) {
+			// virtual threads are not supported
+			return null;
+		}
+	}
+
+	private static Runnable privileged(final Runnable r) {
+		return () -> AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
+			r.run();
+			return null;
+		});
+	}
 }
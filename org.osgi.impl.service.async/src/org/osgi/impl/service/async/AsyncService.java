@@ -17,13 +17,16 @@
  *******************************************************************************/
 package org.osgi.impl.service.async;
 
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ExecutorService;
 
 import org.osgi.framework.Bundle;
@@ -42,10 +45,6 @@ public class AsyncService implements Async {
 	private static final class CGLibAwareClassLoader extends ClassLoader {
 		private final ClassLoader serviceTypeLoader;
 
-		CGLibAwareClassLoader(Bundle registeringBundle) {
-			this.serviceTypeLoader = registeringBundle.adapt(BundleWiring.class).getClassLoader();
-		}
-
 		CGLibAwareClassLoader(ClassLoader loader) {
 			this.serviceTypeLoader = loader;
 		}
@@ -61,9 +60,41 @@ public class AsyncService implements Async {
 		}
 	}
 
+	/**
+	 * The class loaders in which the mediators are defined, and the interface
+	 * mediator classes, for the class loader of a mediated service. Everything
+	 * is weakly referenced, since the mediator class loaders refer to the
+	 * service class loader as their parent.
+	 */
+	private static final class Mediators {
+		WeakReference<ClassLoader>							proxyLoader;
+		WeakReference<CGLibAwareClassLoader>				cglibLoader;
+		final Map<Class<?>, WeakReference<Class<?>>>	proxyClasses	= new WeakHashMap<Class<?>, WeakReference<Class<?>>>();
+	}
+
+	/**
+	 * The constructors of the interface mediator classes.
+	 */
+	private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+		@Override
+		protected Constructor<?> computeValue(Class<?> proxyClass) {
+			try {
+				Constructor<?> constructor = proxyClass
+						.getConstructor(InvocationHandler.class);
+				constructor.setAccessible(true);
+				return constructor;
+			} catch (NoSuchMethodException nsme) {
+				throw new IllegalArgumentException("Unable to mediate the type " + proxyClass.getName(), nsme);
+			}
+		}
+	};
+
+	// @GuardedBy("MEDIATORS")
+	private static final Map<ClassLoader, Mediators> MEDIATORS = new WeakHashMap<ClassLoader, Mediators>();
+
 	private final Bundle clientBundle;
 	
-	private final ConcurrentMap<Thread, MethodCall> invocations = new ConcurrentHashMap<Thread, MethodCall>();
+	private final ThreadLocal<MethodCall> invocations = new ThreadLocal<MethodCall>();
 	
 	private final ExecutorService executor;
 	
@@ -88,15 +119,11 @@ public class AsyncService implements Async {
 		TrackingInvocationHandler handler = new TrackingInvocationHandler(this, 
 				clientBundle, logServiceTracker, service);
 		
+		ClassLoader serviceLoader = service.getClass().getClassLoader();
 		if(iface.isInterface()) {
-			return (T) Proxy.newProxyInstance(
-					new ClassLoader(service.getClass().getClassLoader()) {
-						// empty
-					}, 
-					new Class[] {iface}, handler);
+			return (T) proxyInterface(iface, handler, serviceLoader);
 		} else {
-			return (T) proxyClass(iface, handler, 
-					new CGLibAwareClassLoader(service.getClass().getClassLoader()));
+			return (T) proxyClass(iface, handler, cglibLoader(serviceLoader));
 		}
 	}
 
@@ -113,20 +140,80 @@ public class AsyncService implements Async {
 				clientBundle, logServiceTracker, ref);
 		
 		Bundle registeringBundle = ref.getBundle();
+		ClassLoader serviceLoader = registeringBundle.adapt(BundleWiring.class)
+				.getClassLoader();
 
 		if(iface.isInterface()) {
-			return (T) Proxy.newProxyInstance(
-					new ClassLoader(registeringBundle.adapt(BundleWiring.class)
-							.getClassLoader()) {
-						// empty
-					}, 
-					new Class[] {iface}, handler);
+			return (T) proxyInterface(iface, handler, serviceLoader);
 		} else {
-			return (T) proxyClass(iface, handler, 
-					new CGLibAwareClassLoader(registeringBundle));
+			return (T) proxyClass(iface, handler, cglibLoader(serviceLoader));
 		}
 	}
 
+	/**
+	 * Creates a mediator for an interface. The mediator class is defined by a
+	 * class loader which is shared by all mediators for the services of the
+	 * specified class loader, so it is only generated once for the interface.
+	 * The first mediator is created by {@link Proxy#newProxyInstance} and the
+	 * constructor of its class is used for the later ones.
+	 */
+	private static Object proxyInterface(Class<?> iface,
+			TrackingInvocationHandler handler, ClassLoader serviceLoader) {
+		Class<?> proxyClass;
+		synchronized (MEDIATORS) {
+			Mediators mediators = getMediators(serviceLoader);
+			WeakReference<Class<?>> cached = mediators.proxyClasses.get(iface);
+			proxyClass = cached == null ? null : cached.get();
+			if (proxyClass == null) {
+				ClassLoader proxyLoader = mediators.proxyLoader == null ? null
+						: mediators.proxyLoader.get();
+				if (proxyLoader == null) {
+					proxyLoader = new ClassLoader(serviceLoader) {
+						// empty
+					};
+					mediators.proxyLoader = new WeakReference<ClassLoader>(proxyLoader);
+				}
+				Object proxy = Proxy.newProxyInstance(proxyLoader,
+						new Class<?>[] {iface}, handler);
+				mediators.proxyClasses.put(iface, new WeakReference<Class<?>>(proxy.getClass()));
+				return proxy;
+			}
+		}
+		try {
+			return CONSTRUCTORS.get(proxyClass).newInstance(handler);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to mediate the type " + iface.getName(), e);
+		}
+	}
+
+	/**
+	 * Gets the class loader for the CGLib mediators for the services of the
+	 * specified class loader. Reusing it lets CGLib reuse the classes it
+	 * generated for it.
+	 */
+	private static ClassLoader cglibLoader(ClassLoader serviceLoader) {
+		synchronized (MEDIATORS) {
+			Mediators mediators = getMediators(serviceLoader);
+			CGLibAwareClassLoader loader = mediators.cglibLoader == null ? null
+					: mediators.cglibLoader.get();
+			if (loader == null) {
+				loader = new CGLibAwareClassLoader(serviceLoader);
+				mediators.cglibLoader = new WeakReference<CGLibAwareClassLoader>(loader);
+			}
+			return loader;
+		}
+	}
+
+	// @GuardedBy("MEDIATORS")
+	private static Mediators getMediators(ClassLoader serviceLoader) {
+		Mediators mediators = MEDIATORS.get(serviceLoader);
+		if (mediators == null) {
+			mediators = new Mediators();
+			MEDIATORS.put(serviceLoader, mediators);
+		}
+		return mediators;
+	}
+
 	private Object proxyClass(Class<?> mostSpecificClass, 
 			TrackingInvocationHandler handler, ClassLoader classLoader) {
 		
@@ -183,14 +270,19 @@ public class AsyncService implements Async {
 	}
 
 	void registerInvocation(MethodCall invocation) {
-		if(invocations.putIfAbsent(Thread.currentThread(), invocation) != null) {
-			invocations.remove(Thread.currentThread());
+		if(invocations.get() != null) {
+			invocations.remove();
 			throw new IllegalStateException("Incorrect API usage - this thread already has a pending method call");
 		}
+		invocations.set(invocation);
 	}
 
 	MethodCall consumeCurrentInvocation() {
-		return invocations.remove(Thread.currentThread());
+		MethodCall invocation = invocations.get();
+		if(invocation != null) {
+			invocations.remove();
+		}
+		return invocation;
 	}
 
 }
@@ -17,6 +17,7 @@
  *******************************************************************************/
 package org.osgi.impl.service.async;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.security.AccessControlContext;
 import java.security.AccessController;
@@ -45,19 +46,20 @@ public class FireAndForgetWork implements Runnable {
 	public void run() {
 		try {
 			final Object service = methodCall.getService();
-			// This is necessary for non public methods. The original mediator call must
-			// have been allowed to happen, so this should always be safe.
-			methodCall.method.setAccessible(true);
+			final MethodHandle handle = methodCall.getHandle();
 			
 			AccessController.doPrivileged((PrivilegedAction<Void>) () -> {
 				started.resolve(null);
 				try {
-					methodCall.method.invoke(service, methodCall.arguments);
+					methodCall.invoke(handle, service);
 					cleanup.resolve(null);
 				} catch (InvocationTargetException ite) {
 					cleanup.fail(ite.getTargetException());
 				} catch (Exception e) {
 					cleanup.fail(e);
+				} catch (Error e) {
+					cleanup.fail(e);
+					throw e;
 				}
 				return null;
 			}, acc);
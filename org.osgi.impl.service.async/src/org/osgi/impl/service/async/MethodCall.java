@@ -17,7 +17,13 @@
  *******************************************************************************/
 package org.osgi.impl.service.async;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -34,6 +40,20 @@ import org.osgi.util.tracker.ServiceTracker;
 
 
 public class MethodCall {
+
+	private static final Object[] NO_ARGUMENTS = new Object[0];
+
+	/**
+	 * The method handles used to invoke the mediated methods, by declaring
+	 * class. They are kept with the class, so they do not keep it from being
+	 * unloaded.
+	 */
+	private static final ClassValue<ConcurrentMap<Method, MethodHandle>> HANDLES = new ClassValue<ConcurrentMap<Method, MethodHandle>>() {
+		@Override
+		protected ConcurrentMap<Method, MethodHandle> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<Method, MethodHandle>();
+		}
+	};
 	
 	private final Bundle clientBundle;
 	private final ServiceTracker<LogService, LogService> logServiceTracker;
@@ -76,6 +96,48 @@ public class MethodCall {
 		}
 	}
 	
+	/**
+	 * Gets the method handle used to invoke the method. The handle has the
+	 * type (Object, Object[])Object, and is created once for every method.
+	 */
+	MethodHandle getHandle() throws IllegalAccessException {
+		ConcurrentMap<Method, MethodHandle> handles = HANDLES.get(method.getDeclaringClass());
+		MethodHandle handle = handles.get(method);
+		if(handle == null) {
+			// This is necessary for non public methods. The original mediator call must
+			// have been allowed to happen, so this should always be safe.
+			method.setAccessible(true);
+			int count = method.getParameterTypes().length;
+			handle = MethodHandles.lookup().unreflect(method)
+					.asFixedArity()
+					.asType(MethodType.genericMethodType(count + 1))
+					.asSpreader(Object[].class, count);
+			MethodHandle existing = handles.putIfAbsent(method, handle);
+			if(existing != null) {
+				handle = existing;
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * Invokes the method on the specified service object through the
+	 * specified handle.
+	 * 
+	 * @throws InvocationTargetException if the method throws an exception
+	 * @throws Error if the method throws an error, which is not wrapped
+	 */
+	Object invoke(MethodHandle handle, Object svc) throws InvocationTargetException {
+		Object[] args = (arguments == null) ? NO_ARGUMENTS : arguments;
+		try {
+			return handle.invokeExact(svc, args);
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+	
 	void releaseService() {
 		if(reference != null) {
 			BundleContext bc = clientBundle.getBundleContext();
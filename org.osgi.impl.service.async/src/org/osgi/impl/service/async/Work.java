@@ -17,6 +17,7 @@
  *******************************************************************************/
 package org.osgi.impl.service.async;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.security.AccessControlContext;
 import java.security.AccessController;
@@ -44,14 +45,12 @@ public class Work<T> implements Runnable {
 	public void run() {
 		try {
 			final Object service = methodCall.getService();
-			// This is necessary for non public methods. The original mediator call must
-			// have been allowed to happen, so this should always be safe.
-			methodCall.method.setAccessible(true);
+			final MethodHandle handle = methodCall.getHandle();
 			
 			@SuppressWarnings("unchecked")
 			T returnValue = AccessController.doPrivileged(
-					(PrivilegedExceptionAction<T>) () -> (T) methodCall.method
-							.invoke(service, methodCall.arguments),
+					(PrivilegedExceptionAction<T>) () -> (T) methodCall
+							.invoke(handle, service),
 					acc);
 			
 			
@@ -66,6 +65,9 @@ public class Work<T> implements Runnable {
 			deferred.fail(targetException);
 		} catch (Exception e) {
 			deferred.fail(e);
+		} catch (Error e) {
+			deferred.fail(e);
+			throw e;
 		} finally {
 			methodCall.releaseService();
 		}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.dmt.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.osgi.impl.service.dmt.export.SubtreeReader;
+import org.osgi.impl.service.dmt.export.SubtreeVisitor;
+import org.osgi.service.dmt.Acl;
+import org.osgi.service.dmt.DmtData;
+import org.osgi.service.dmt.DmtException;
+import org.osgi.service.dmt.DmtSession;
+import org.osgi.service.dmt.MetaNode;
+import org.osgi.test.cases.dmt.tc4.ext.junit.DmtAdminTestCase;
+import org.osgi.test.cases.dmt.tc4.ext.util.TestDataPlugin;
+
+public class SubtreeReaderTest extends DmtAdminTestCase {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		getDmtAdmin();
+
+		TestDataPlugin dataPlugin = new TestDataPlugin();
+		setInteriorNode(dataPlugin, "./A");
+		setInteriorNode(dataPlugin, "./A/B");
+		setLeafNode(dataPlugin, "./A/B/D");
+		setLeafNode(dataPlugin, "./A/B/C");
+		setInteriorNode(dataPlugin, "./A/E");
+		setLeafNode(dataPlugin, "./A/E/F");
+		registerDataPlugin(dataPlugin, "./A");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		unregisterPlugins();
+		closeDmtSession();
+		super.tearDown();
+	}
+
+	public void testSessionIsSubtreeReader() throws DmtException {
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		assertTrue(session instanceof SubtreeReader);
+		session.close();
+	}
+
+	public void testReadSubtree() throws DmtException {
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		final List<String> uris = new ArrayList<>();
+		final List<DmtData> values = new ArrayList<>();
+		((SubtreeReader) session).readSubtree("./A", new SubtreeVisitor() {
+			@Override
+			public boolean visit(String nodeUri, boolean leaf, DmtData value,
+					MetaNode metaNode, Acl acl) throws DmtException {
+				assertEquals(session.isLeafNode(nodeUri), leaf);
+				uris.add(nodeUri);
+				values.add(value);
+				return true;
+			}
+		});
+
+		assertEquals(Arrays.asList("./A", "./A/B", "./A/B/C", "./A/B/D",
+				"./A/E", "./A/E/F"), uris);
+		assertEquals(Arrays.asList(null, null, new DmtData("./A/B/C:Value"),
+				new DmtData("./A/B/D:Value"), null,
+				new DmtData("./A/E/F:Value")), values);
+		session.close();
+	}
+
+	public void testReadSubtreeRelativeToSessionRoot() throws DmtException {
+		session = dmtAdmin.getSession("./A", DmtSession.LOCK_TYPE_SHARED);
+		final List<String> uris = new ArrayList<>();
+		((SubtreeReader) session).readSubtree("E", new SubtreeVisitor() {
+			@Override
+			public boolean visit(String nodeUri, boolean leaf, DmtData value,
+					MetaNode metaNode, Acl acl) {
+				uris.add(nodeUri);
+				return true;
+			}
+		});
+
+		assertEquals(Arrays.asList("./A/E", "./A/E/F"), uris);
+		session.close();
+	}
+
+	public void testReadSubtreeSkipsChildren() throws DmtException {
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		final List<String> uris = new ArrayList<>();
+		((SubtreeReader) session).readSubtree("./A", new SubtreeVisitor() {
+			@Override
+			public boolean visit(String nodeUri, boolean leaf, DmtData value,
+					MetaNode metaNode, Acl acl) {
+				uris.add(nodeUri);
+				return !nodeUri.equals("./A/B");
+			}
+		});
+
+		assertEquals(Arrays.asList("./A", "./A/B", "./A/E", "./A/E/F"), uris);
+		session.close();
+	}
+
+	public void testReadSubtreeVisitorException() throws DmtException {
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		final List<String> uris = new ArrayList<>();
+		try {
+			((SubtreeReader) session).readSubtree("./A", new SubtreeVisitor() {
+				@Override
+				public boolean visit(String nodeUri, boolean leaf,
+						DmtData value, MetaNode metaNode, Acl acl)
+						throws DmtException {
+					uris.add(nodeUri);
+					if (nodeUri.equals("./A/B/C"))
+						throw new DmtException(nodeUri,
+								DmtException.COMMAND_FAILED, "stop");
+					return true;
+				}
+			});
+			fail();
+		} catch (DmtException exception) {
+			assertEquals(DmtException.COMMAND_FAILED, exception.getCode());
+			assertEquals("./A/B/C", exception.getURI());
+		}
+
+		assertEquals(Arrays.asList("./A", "./A/B", "./A/B/C"), uris);
+		assertEquals(DmtSession.STATE_OPEN, session.getState());
+		session.close();
+	}
+
+	public void testReadSubtreeNodeNotFound() throws DmtException {
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		try {
+			((SubtreeReader) session).readSubtree("./A/X",
+					new SubtreeVisitor() {
+						@Override
+						public boolean visit(String nodeUri, boolean leaf,
+								DmtData value, MetaNode metaNode, Acl acl) {
+							fail();
+							return false;
+						}
+					});
+			fail();
+		} catch (DmtException exception) {
+			assertEquals(DmtException.NODE_NOT_FOUND, exception.getCode());
+		}
+		session.close();
+	}
+}
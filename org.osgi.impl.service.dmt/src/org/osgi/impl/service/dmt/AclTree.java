@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.dmt;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.osgi.service.dmt.Acl;
+
+/**
+ * An immutable tree of the ACLs assigned to DMT nodes, keyed by the segments
+ * of the node paths.
+ * <p>
+ * Every update returns a new tree which shares all unchanged subtrees with
+ * the old one, so an update only copies the nodes on the path to the changed
+ * node, and a snapshot of the ACLs is just a reference to the current tree.
+ * The tree only contains the paths leading to nodes with an ACL, so the
+ * number of children of a tree node stays small even for large DMTs.
+ */
+final class AclTree {
+	static final AclTree				EMPTY	= new AclTree(null,
+			Collections.<String,AclTree> emptyMap());
+
+	private final Acl					acl;
+	private final Map<String,AclTree>	children;
+
+	private AclTree(Acl acl, Map<String,AclTree> children) {
+		this.acl = acl;
+		this.children = children;
+	}
+
+	/**
+	 * Returns the ACL assigned to the given node.
+	 *
+	 * @param node the absolute node
+	 * @return the ACL of the node, or <code>null</code> if it has none
+	 */
+	Acl get(Node node) {
+		AclTree tree = getSubtree(node.getPath());
+		return tree == null ? null : tree.acl;
+	}
+
+	/**
+	 * Returns the effective ACL of the given node, which is the ACL of the
+	 * node or of its closest ancestor that has a non-empty ACL. The ACLs are
+	 * looked up in a single descent from the root.
+	 *
+	 * @param node the absolute node
+	 * @return the effective ACL, or <code>null</code> if neither the node nor
+	 *         any of its ancestors have a non-empty ACL
+	 */
+	Acl getEffective(Node node) {
+		String[] path = node.getPath();
+		Acl effective = null;
+		AclTree tree = this;
+		for (int i = 0;; i++) {
+			if (tree.acl != null && !DmtSessionImpl.isEmptyAcl(tree.acl))
+				effective = tree.acl;
+			if (i == path.length)
+				return effective;
+			tree = tree.children.get(path[i]);
+			if (tree == null)
+				return effective;
+		}
+	}
+
+	/**
+	 * Assigns an ACL to the given node.
+	 *
+	 * @param node the absolute node
+	 * @param newAcl the ACL, must not be <code>null</code>
+	 * @return the updated tree
+	 */
+	AclTree put(Node node, Acl newAcl) {
+		String[] path = node.getPath();
+		AclTree tree = getSubtree(path);
+		return replace(path, new AclTree(newAcl,
+				tree == null ? EMPTY.children : tree.children));
+	}
+
+	/**
+	 * Removes the ACL of the given node, keeping the ACLs of its descendants.
+	 *
+	 * @param node the absolute node
+	 * @return the updated tree
+	 */
+	AclTree remove(Node node) {
+		String[] path = node.getPath();
+		AclTree tree = getSubtree(path);
+		if (tree == null || tree.acl == null)
+			return this;
+		return replace(path, tree.children.isEmpty() ? null
+				: new AclTree(null, tree.children));
+	}
+
+	/**
+	 * Moves the ACLs of a node and its descendants to another node. The moved
+	 * ACLs replace the ACLs already assigned to the same nodes in the new
+	 * location.
+	 *
+	 * @param node the absolute node to move the ACLs from
+	 * @param newNode the absolute node to move the ACLs to, or
+	 *            <code>null</code> to remove the ACLs
+	 * @return the updated tree
+	 */
+	AclTree move(Node node, Node newNode) {
+		String[] path = node.getPath();
+		AclTree moved = getSubtree(path);
+		if (moved == null)
+			return this;
+		AclTree result = replace(path, null);
+		if (newNode == null)
+			return result;
+		String[] newPath = newNode.getPath();
+		return result.replace(newPath,
+				merge(result.getSubtree(newPath), moved));
+	}
+
+	/**
+	 * Returns the subtree of the ACLs of the given node and its descendants.
+	 *
+	 * @param node the absolute node
+	 * @return the subtree, or <code>null</code> if neither the node nor its
+	 *         descendants have an ACL
+	 */
+	AclTree getSubtree(Node node) {
+		return getSubtree(node.getPath());
+	}
+
+	/**
+	 * Returns the subtree of the ACLs of a child node.
+	 *
+	 * @param segment the name of the child node
+	 * @return the subtree, or <code>null</code> if neither the child node nor
+	 *         its descendants have an ACL
+	 */
+	AclTree getChild(String segment) {
+		return children.get(segment);
+	}
+
+	/**
+	 * Returns the ACL of the root of this tree.
+	 *
+	 * @return the ACL, or <code>null</code> if the root has none
+	 */
+	Acl getAcl() {
+		return acl;
+	}
+
+	private AclTree getSubtree(String[] path) {
+		AclTree tree = this;
+		for (int i = 0; tree != null && i < path.length; i++)
+			tree = tree.children.get(path[i]);
+		return tree;
+	}
+
+	// returns a tree in which the subtree at the given path is replaced
+	private AclTree replace(String[] path, AclTree subtree) {
+		AclTree result = replace(path, 0, subtree);
+		return result == null ? EMPTY : result;
+	}
+
+	// returns null if the resulting tree does not contain any ACL
+	private AclTree replace(String[] path, int index, AclTree subtree) {
+		if (index == path.length)
+			return subtree;
+
+		AclTree child = children.get(path[index]);
+		AclTree newChild;
+		if (child != null)
+			newChild = child.replace(path, index + 1, subtree);
+		else if (subtree != null)
+			newChild = EMPTY.replace(path, index + 1, subtree);
+		else
+			return this;
+		if (newChild == child)
+			return this;
+
+		Map<String,AclTree> newChildren = new HashMap<>(children);
+		if (newChild == null)
+			newChildren.remove(path[index]);
+		else
+			newChildren.put(path[index], newChild);
+		if (acl == null && newChildren.isEmpty())
+			return null;
+		return new AclTree(acl,
+				newChildren.isEmpty() ? EMPTY.children : newChildren);
+	}
+
+	// the entries of the source tree replace the ones of the target tree
+	private static AclTree merge(AclTree target, AclTree source) {
+		if (target == null)
+			return source;
+		Map<String,AclTree> mergedChildren = new HashMap<>(target.children);
+		for (Map.Entry<String,AclTree> entry : source.children.entrySet())
+			mergedChildren.put(entry.getKey(), merge(
+					target.children.get(entry.getKey()), entry.getValue()));
+		return new AclTree(source.acl != null ? source.acl : target.acl,
+				mergedChildren.isEmpty() ? EMPTY.children : mergedChildren);
+	}
+}
@@ -22,11 +22,8 @@ package org.osgi.impl.service.dmt;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
-import java.util.Vector;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
@@ -71,23 +68,69 @@ public class DmtAdminCore
 	private static long sessionOpenTimeout = -1;
 	private static long sessionIdleTimeout = -1;
     
-    // all currently registered DmtEventListener refs matching the filter above
-	protected Set<ServiceReference<DmtEventListener>>	dmtEventListenerRefs;
+    // all currently registered DmtEventListener refs matching the filter above,
+    // with their parsed filter properties
+	private final Map<ServiceReference<DmtEventListener>,ListenerFilter>	dmtEventListeners;
 
 	@SuppressWarnings("hiding")
 	private Context										context;
     private DmtPrincipalPermissionAdmin dmtPermissionAdmin;
     
-    private List<SessionWrapper> openSessions; // a list of DmtSession refs to open sessions
+    // the open sessions and the subtree locks they hold
+	private final Map<SessionWrapper,SessionLockManager.Lock>	openSessions;
+	private final SessionLockManager							lockManager;
+
+	/**
+	 * The event filter of a DmtEventListener, parsed from its service
+	 * properties when it is registered or modified.
+	 */
+	static final class ListenerFilter {
+		final int					types;
+		final Node[]				subtrees;
+		final Collection<String>	principals;
+
+		ListenerFilter(int types, Node[] subtrees,
+				Collection<String> principals) {
+			this.types = types;
+			this.subtrees = subtrees;
+			this.principals = principals;
+		}
+
+		boolean matches(DmtEventCore event) {
+			if ((event.getType() & types) == 0)
+				return false;
+
+			if (event.getType() == DmtEvent.SESSION_OPENED
+					|| event.getType() == DmtEvent.SESSION_CLOSED) {
+				// these events don't have nodes or newNodes
+				// ensure that session.rooturi is part of at least one subtree
+				Node sessionRoot = new Node(Uri.toPath(
+						(String) event.getProperty("session.rooturi")));
+				for (Node subtree : subtrees)
+					if (sessionRoot.isAncestorOf(subtree))
+						return true;
+				return false;
+			}
+
+			for (Node subtree : subtrees)
+				if (event.containsNodeUnderRoot(subtree))
+					// one match is sufficient
+					return true;
+			return false;
+		}
+	}
 
 	public DmtAdminCore(DmtPrincipalPermissionAdmin dmtPermissionAdmin,
             Context context) throws InvalidSyntaxException {
 		super(context.getBundleContext(), context.getBundleContext().createFilter(FILTER_DMT_EVENT_LISTENER), null);
-		super.open();
+		// the tracker calls back into this instance as soon as it is opened
+		dmtEventListeners = new ConcurrentHashMap<>();
         this.context = context;
+		super.open();
 		this.dmtPermissionAdmin = dmtPermissionAdmin;
 		
-		openSessions = new Vector<>();
+		openSessions = new ConcurrentHashMap<>();
+		lockManager = new SessionLockManager();
 	}
 
 	public DmtSession getSession(String subtreeUri, Bundle initiatingBundle) throws DmtException {
@@ -99,7 +142,7 @@ public class DmtAdminCore
 		return getSession(null, subtreeUri, lockMode, initiatingBundle);
 	}
 
-	public synchronized DmtSession getSession(String principal,
+	public DmtSession getSession(String principal,
             String subtreeUri, int lockMode, Bundle initiatingBundle) throws DmtException {
 		
         checkLockMode(lockMode);
@@ -115,12 +158,25 @@ public class DmtAdminCore
                 lockMode, permissions, context, this, initiatingBundle);
                 
         // passing the normalized variant of the subtreeUri parameter
-		waitUntilNoConflictingSessions(session.getRootNode(), lockMode);
-		session.open();
-        openSessions.add(session); 
-        
+		SessionLockManager.Lock lock = lockManager.acquire(
+				session.getRootNode(), lockMode, getSessionCreationTimeout());
+		if (lock == null)
+			throw new DmtException(session.getRootNode().getUri(),
+					DmtException.SESSION_CREATION_TIMEOUT,
+					"Session creation timed out because of concurrent " +
+					"sessions blocking access to Device Management Tree.");
+
         // it must be ensured that releaseSession is called for each session
-        // that is added to the list, otherwise threads might get stuck
+        // that is added to the map, otherwise threads might get stuck
+		openSessions.put(session, lock);
+		boolean opened = false;
+		try {
+			session.open();
+			opened = true;
+		} finally {
+			if (!opened && openSessions.remove(session) != null)
+				lockManager.release(lock);
+		}
         return session;
 	}
 
@@ -130,8 +186,11 @@ public class DmtAdminCore
 	@Override
 	public DmtEventListener addingService(
 			ServiceReference<DmtEventListener> ref) {
-		if ( isValidDmtEventListener(ref) )
-			getDmtEventListenerRefs().add(ref);
+		ListenerFilter filter = createListenerFilter(ref);
+		if (filter != null) {
+			dmtEventListeners.put(ref, filter);
+			updateListenerTypes();
+		}
 		return context.getBundleContext().getService(ref);
 	}
 
@@ -141,10 +200,12 @@ public class DmtAdminCore
 	@Override
 	public void modifiedService(ServiceReference<DmtEventListener> ref,
 			DmtEventListener service) {
-		if ( isValidDmtEventListener(ref) )
-			getDmtEventListenerRefs().add(ref);
+		ListenerFilter filter = createListenerFilter(ref);
+		if (filter != null)
+			dmtEventListeners.put(ref, filter);
 		else
-			getDmtEventListenerRefs().remove(ref);
+			dmtEventListeners.remove(ref);
+		updateListenerTypes();
 	}
 
 	/**
@@ -153,7 +214,8 @@ public class DmtAdminCore
 	@Override
 	public void removedService(ServiceReference<DmtEventListener> ref,
 			DmtEventListener service) {
-		getDmtEventListenerRefs().remove(ref);
+		dmtEventListeners.remove(ref);
+		updateListenerTypes();
 		context.getBundleContext().ungetService(ref);
 	}
 
@@ -166,52 +228,16 @@ public class DmtAdminCore
                     "Unknown lockMode '" + lockMode + "' specified.");
     }
     
-    // Note, that this does not provide fair scheduling of waiting sessions,
-    // the order of sessions depends on the order of thread activation when
-    // notifyAll is called.  Some threads may be "starved", i.e. timed out.
-    private void waitUntilNoConflictingSessions(Node subtreeNode, int lockMode) 
-            throws DmtException {
-        final long timeLimit = System.currentTimeMillis() + getSessionCreationTimeout();
-        
-        while(conflictsWithOpenSessions(subtreeNode, lockMode)) {
-            long timeLeft = timeLimit - System.currentTimeMillis();
-            
-            // throw exception if this session cannot run and time runs out
-            if(timeLeft <= 0) 
-                throw new DmtException(subtreeNode.getUri(), 
-                        DmtException.SESSION_CREATION_TIMEOUT,
-                        "Session creation timed out because of concurrent " +
-                        "sessions blocking access to Device Management Tree.");
-            
-            try {
-                wait(timeLeft);
-			} catch (InterruptedException e) {
-				// ignore
-			}
-            
-            // if wait() terminated because of timeout, then there must still
-            // be a conflict (if the code works as it should)
-        }
-    }
-    
-    private boolean conflictsWithOpenSessions(Node subtreeNode, int lockMode) {
-		Iterator<SessionWrapper> i = openSessions.iterator();
-        while (i.hasNext()) {
-            DmtSessionImpl openSession = i.next();
-            if(subtreeNode.isOnSameBranch(openSession.getRootNode()) && 
-                    (lockMode != DmtSession.LOCK_TYPE_SHARED || 
-                     openSession.getLockType() != DmtSession.LOCK_TYPE_SHARED))
-                return true; // only two shared sessions can be on one branch
-        }
-        return false;
-    }
-
-    synchronized void releaseSession(DmtSession session) {
-        if(!openSessions.remove(session))
+    void releaseSession(DmtSession session) {
+		SessionLockManager.Lock lock = openSessions.remove(session);
+		if (lock == null) {
             context.log(LogService.LOG_INFO, "Session release notification " +
                     "from unknown session!", null);
-        
-        notifyAll(); // wake all waiting sessions, and reevaluate conflicts
+			return;
+		}
+
+		// wakes only the waiting sessions that can run now
+		lockManager.release(lock);
     }
     
 
@@ -276,60 +302,25 @@ public class DmtAdminCore
 	
     void dispatchEvent(final DmtEventCore event) {
 
-		Set<ServiceReference<DmtEventListener>> refs = getDmtEventListenerRefs();
-		for (ServiceReference<DmtEventListener> ref : refs) {
+		for (Map.Entry<ServiceReference<DmtEventListener>,ListenerFilter> entry : dmtEventListeners
+				.entrySet()) {
+			ServiceReference<DmtEventListener> ref = entry.getKey();
+			ListenerFilter filter = entry.getValue();
 
-    		// there are only valid refs at this point, so we don't need type-checks anymore
-    		int type = ((Integer) ref.getProperty(DmtEventListener.FILTER_EVENT)).intValue();
-    		
-    		// type check
-    		if ( (event.getType() & type) == 0 )
+    		// type and subtree check, before any per-listener event is created
+    		if ( ! filter.matches(event) )
     			continue;
 
-    		// subtree check
-    		Collection<String> subtrees = Util.toCollection(ref.getProperty(DmtEventListener.FILTER_SUBTREE));
-    		Collection<String> principals = Util.toCollection(ref.getProperty(DmtEventListener.FILTER_PRINCIPAL));
     		// Acl filtering is performed during initialization of the DmtEventImpl
-    		final DmtEventImpl dmtEvent = new DmtEventImpl(event, principals);
+    		final DmtEventImpl dmtEvent = new DmtEventImpl(event, filter.principals);
 
     		if ( event.getType() == DmtEvent.SESSION_OPENED || event.getType() == DmtEvent.SESSION_CLOSED ) {
-    			// these events don't have nodes or newNodes
-    			// ensure that session.rooturi is part of at least one subtree
-	    		boolean subtreeMatch = false;
-    			Node sessionRoot = new Node( Uri.toPath((String) event.getProperty("session.rooturi")));
-    			for (String subtree : subtrees) {
-					if (sessionRoot
-							.isAncestorOf(new Node(Uri.toPath(subtree)))) {
-    					subtreeMatch = true;
-    					break;
-    				}
-    			}
-    			if ( ! subtreeMatch )
-    				continue;
-    			
     			// check permission against session.rooturi
-	    		if ( ! hasGetPermission(ref, new String[] {sessionRoot.getUri()}) )
+	    		if ( ! hasGetPermission(ref, new String[] {(String) event.getProperty("session.rooturi")}) )
 	    			continue;
-    			
     		}
     		else {
-    		
-	    		boolean subtreeMatch = false;
-	    		for (String subtree : subtrees ) {
-	    			if ( event.containsNodeUnderRoot(new Node(Uri.toPath(subtree))) ) {
-	    				// one match is sufficient
-	    				subtreeMatch = true;
-	    				break;
-	    			}
-	    		}
-	    		if ( ! subtreeMatch )
-	    			continue;
-	
 	    		// according to spec 2.0 empty nodes are allowed now
-//	    		// are there still nodes left after Acl filtering ?
-//	    		if (dmtEvent.getNodes().length == 0 )
-//	    			continue;
-	    		
 	    		// permission checks (receiving bundle must have GET permission for EACH node/newnode)
 	    		if ( ! hasGetPermission(ref, dmtEvent.getNodes()) )
 	    			continue;
@@ -378,14 +369,16 @@ public class DmtAdminCore
 	}
     
 
-	// lazy getter
-	private Set<ServiceReference<DmtEventListener>> getDmtEventListenerRefs() {
-		if (dmtEventListenerRefs == null)
-			dmtEventListenerRefs = new HashSet<>();
-		return dmtEventListenerRefs;
+	// only the event types some local listener is registered for are queued
+	private synchronized void updateListenerTypes() {
+		int types = 0;
+		for (ListenerFilter filter : dmtEventListeners.values())
+			types |= filter.types;
+		EventDispatcher.setLocalListenerTypes(types);
 	}
-	
-	private boolean isValidDmtEventListener(
+
+	// returns null if the registration of the listener is invalid
+	private ListenerFilter createListenerFilter(
 			ServiceReference<DmtEventListener> ref) {
     	int type = -1;
     	try {
@@ -393,45 +386,52 @@ public class DmtAdminCore
     		if((type & ~ALL_EVENT_TYPES) != 0) {
     			context.log(LogService.LOG_ERROR, "Type parameter contains bits " +
     	                "that do not correspond to any event type.", null);
-                return false;
+                return null;
     		}
     		
     		// rootUri's are mandatory
     		Collection<String> subtrees = Util.toCollection( ref.getProperty(DmtEventListener.FILTER_SUBTREE));
     		if ( subtrees == null ) {
     			context.log(LogService.LOG_ERROR, "The subtree property of the registered DmtEventListener is not of type String+", null);
-    			return false;
+    			return null;
     		}
 
     		// check validity of the root-uris
+    		Node[] subtreeNodes = new Node[subtrees.size()];
+    		int i = 0;
     		for (String subtree : subtrees) {
     			Node node = Node.validateAndNormalizeUri(subtree);
     			if ( !node.isAbsolute() ) {
         			context.log(LogService.LOG_ERROR, "The subtree property of the registered DmtEventListener holds invalid uris", null);
-    				return false;
+    				return null;
     			}
+    			subtreeNodes[i++] = new Node(Uri.toPath(subtree));
     		}
-    		
+
+    		// registration seems valid, security checks happen before delivery
+    		return new ListenerFilter(type, subtreeNodes,
+    				Util.toCollection(ref.getProperty(DmtEventListener.FILTER_PRINCIPAL)));
     	}
     	catch (Exception x ) {
-    		return false;
+    		return null;
     	}
-
-    	// registration seems valid, security checks happen before delivery
-        return true;
     }
 
     /**
      * Gets a callback from the Dispatcher whenever some mapping has changed.
      * Checks if any session is tainted by this change and invalidates such sessions immediately.
+     * The plugin routes cached by all open sessions are cleared.
      */
 	@Override
 	public synchronized void pluginMappingChanged(String pluginRoot,
 			ServiceReference< ? > ref) {
 		if ( pluginRoot == null || pluginRoot.length() == 0 )
 			return;
-		SessionWrapper[] sessions = openSessions.toArray(new SessionWrapper[openSessions.size()]);
+		SessionWrapper[] sessions = openSessions.keySet()
+				.toArray(new SessionWrapper[0]);
 		for (SessionWrapper session : sessions) {
+			// the plugins responsible for the nodes of the session may change
+			session.clearPluginRoutes();
 			if ( pluginRoot.startsWith(session.getRootUri() ))
 				session.invalidateSession(true, false, 
 						new DmtException(pluginRoot, DmtException.CONCURRENT_ACCESS, "Changed plugin (un-)mapping affects this session --> session is invalidated!"));
@@ -25,6 +25,7 @@ import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.impl.service.dmt.export.DmtPrincipalPermissionAdmin;
 import org.osgi.service.dmt.DmtAdmin;
+import org.osgi.service.log.LogService;
 
 /*
  * Service factory class for the Dmt Admin service. Stores each Dmt Admin
@@ -70,22 +71,57 @@ public class DmtAdminFactory implements ServiceFactory<DmtAdmin> {
     }
     
     class LocalEventProxy implements Runnable {
+        // the minimum time between two reports of the event queue metrics
+        private static final long REPORT_INTERVAL = 60000;
+
         private boolean running = false;
+        private long lastReport;
+        private long lastDelivered;
+        private long lastDropped;
         
         @Override
 		public void run() {
             running = true;
+            lastReport = System.currentTimeMillis();
             
             while(running) {
                 DmtEventCore event = EventDispatcher.getNextLocalEvent(10000);
-                if(event != null)
+                if(event != null) {
                 	// events are now dispatched by the dmtAdmin centrally
                 	dmtAdmin.dispatchEvent(event);
+                	EventDispatcher.localEventDelivered(event);
+                }
+                if (System.currentTimeMillis() - lastReport >= REPORT_INTERVAL)
+                    report();
             }
         }
         
+        // the LOG_* constants are deprecated in newer Log Service versions,
+        // but this bundle is built against and imports Log Service 1.3
+        @SuppressWarnings("deprecation")
         void stop() {
             running = false;
+            context.log(LogService.LOG_INFO, "Local event delivery stopped: "
+                    + EventDispatcher.getLocalEventQueue(), null);
+        }
+
+        // logs the event queue metrics if events were delivered since the
+        // last report, with a warning if events were dropped
+        @SuppressWarnings("deprecation")
+        private void report() {
+            lastReport = System.currentTimeMillis();
+            EventQueue queue = EventDispatcher.getLocalEventQueue();
+            long delivered = queue.getDeliveredCount();
+            long dropped = queue.getDroppedCount();
+            if (dropped != lastDropped)
+                context.log(LogService.LOG_WARNING, (dropped - lastDropped)
+                        + " events were dropped from the full local event "
+                        + "queue: " + queue, null);
+            else if (delivered != lastDelivered)
+                context.log(LogService.LOG_DEBUG, "Local event delivery: "
+                        + queue, null);
+            lastDelivered = delivered;
+            lastDropped = dropped;
         }
     }
 }
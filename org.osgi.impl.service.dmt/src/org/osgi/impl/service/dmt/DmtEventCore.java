@@ -38,6 +38,8 @@ public class DmtEventCore {
     private List<Node> newNodes;
     private List<Acl> acls;
 	private Dictionary<String,Object>	props;
+    // the System.nanoTime() at which the event was queued for local delivery
+    long queued;
 
     static int getType(String topic) {
     	if (DmtConstants.EVENT_TOPIC_ADDED.equals(topic))
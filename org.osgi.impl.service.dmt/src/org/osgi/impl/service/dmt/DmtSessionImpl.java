@@ -33,13 +33,14 @@ import java.util.Hashtable;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map.Entry;
 import java.util.TreeSet;
 import java.util.Vector;
 
 import org.osgi.framework.Bundle;
 import org.osgi.impl.service.dmt.dispatcher.Plugin;
 import org.osgi.impl.service.dmt.dispatcher.Segment;
+import org.osgi.impl.service.dmt.export.SubtreeReader;
+import org.osgi.impl.service.dmt.export.SubtreeVisitor;
 import org.osgi.service.dmt.Acl;
 import org.osgi.service.dmt.DmtConstants;
 import org.osgi.service.dmt.DmtData;
@@ -61,7 +62,7 @@ import org.osgi.service.permissionadmin.PermissionInfo;
 // OPTIMIZE node handling (e.g. retrieve plugin from dispatcher only once per API call)
 // OPTIMIZE only retrieve meta-data once per API call
 // OPTIMIZE only call commit/rollback for plugins that were actually modified since the last transaction boundary
-public class DmtSessionImpl implements DmtSession {
+public class DmtSessionImpl implements DmtSession, SubtreeReader {
 	private static final int SHOULD_NOT_EXIST = 0;
 	private static final int SHOULD_EXIST = 1;
 	private static final int SHOULD_BE_LEAF = 2; // implies SHOULD_EXIST
@@ -70,11 +71,13 @@ public class DmtSessionImpl implements DmtSession {
 	private static final Class< ? >[]	PERMISSION_CONSTRUCTOR_SIG	= new Class[] {
 			String.class, String.class };
 
-	private static Hashtable<Node,Acl>	acls;
+	// The ACL tree is immutable, updates replace it while holding aclLock.
+	private static final Object			aclLock						= new Object();
+	private static volatile AclTree		acls;
 
-	// Stores the ACL table at the start of each transaction in an atomic
+	// Stores the ACL tree at the start of each transaction in an atomic
 	// session. Can be static because atomic session cannot run in parallel.
-	private static Hashtable<Node,Acl>	savedAcls;
+	private static AclTree				savedAcls;
 
 	static {
 		init_acls();
@@ -98,6 +101,12 @@ public class DmtSessionImpl implements DmtSession {
 	
 	private Hashtable<String,Node>		validatedNodes;
 
+	// Plugins resolved by the dispatcher for the nodes of this session. The
+	// tables are replaced when the plugin mapping changes, so that a lookup
+	// racing with the change cannot store a stale route in the new table.
+	private volatile Hashtable<Node,Plugin<DataPlugin>>	dataPluginRoutes	= new Hashtable<>();
+	private volatile Hashtable<Node,Plugin<ExecPlugin>>	execPluginRoutes	= new Hashtable<>();
+
 	// Session creation is done in two phases:
 	// - DmtAdmin creates a new DmtSessionImpl instance (this should indicate
 	// as many errors as possible, but must not call any plugins)
@@ -153,8 +162,8 @@ public class DmtSessionImpl implements DmtSession {
 		checkNodePermission(subtreeNode, Acl.GET);
 
 		if (lockMode == LOCK_TYPE_ATOMIC)
-			// shallow copy is enough, Nodes and Acls are immutable
-			savedAcls = new Hashtable<>(acls);
+			// the tree is immutable, no copy is needed
+			savedAcls = acls;
 
 		state = STATE_OPEN;
 
@@ -242,8 +251,9 @@ public class DmtSessionImpl implements DmtSession {
 
 		// changed to CLOSED if this method finishes without error
 		state = STATE_INVALID;
-		// clear cache
+		// clear caches
 		getValidatedNodeCache().clear();
+		clearPluginRoutes();
 
 		try {
 			closeAndRelease(lockMode == LOCK_TYPE_ATOMIC);
@@ -301,7 +311,7 @@ public class DmtSessionImpl implements DmtSession {
 
 		commitPlugins();
 
-		savedAcls = new Hashtable<>(acls);
+		savedAcls = acls;
 
 		state = STATE_OPEN;
 	}
@@ -346,7 +356,7 @@ public class DmtSessionImpl implements DmtSession {
 		// changed back to OPEN if this method finishes without error
 		state = STATE_INVALID;
 
-		acls = new Hashtable<>(savedAcls);
+		acls = savedAcls;
 
 		rollbackPlugins();
 
@@ -408,8 +418,7 @@ public class DmtSessionImpl implements DmtSession {
 
 		checkOperation(node, Acl.EXEC, MetaNode.CMD_EXECUTE);
 
-		Plugin<ExecPlugin> dispatcherPlugin = context.getPluginDispatcher()
-				.getExecPluginFor(node.getPath());
+		Plugin<ExecPlugin> dispatcherPlugin = getExecPluginFor(node);
 		// plugins are not responsible for their mountpoints subtrees --> command must fail
 		if (dispatcherPlugin == null || isBelowMountPoint(nodeUri, dispatcherPlugin))
 			throw new DmtException(node.getUri(), DmtException.COMMAND_FAILED,
@@ -469,9 +478,7 @@ public class DmtSessionImpl implements DmtSession {
 
 		// if it is directly matched in the responsible plugins dataRootURI,
 		// then it can't be a structural node
-		Plugin<DataPlugin> plugin = context.getPluginDispatcher()
-				.getDataPluginFor(
-				nodePath.getPath());
+		Plugin<DataPlugin> plugin = getDataPluginFor(nodePath);
 		for (Segment<DataPlugin> segment : plugin.getOwns()) {
 			if (nodePath.getUri().equals(segment.getUri().toString()))
 				return false;
@@ -547,8 +554,7 @@ public class DmtSessionImpl implements DmtSession {
 		// maintained by the DmtAdmin, not by the plugin
 		Node node = makeAbsoluteUriAndCheck(nodeUri, SHOULD_EXIST);
 		checkOperation(node, Acl.GET, MetaNode.CMD_GET);
-		Acl acl = acls.get(node);
-		return acl == null ? null : acl;
+		return acls.get(node);
 	}
 
 	// GET property op
@@ -563,6 +569,79 @@ public class DmtSessionImpl implements DmtSession {
 		return getEffectiveNodeAclNoCheck(node);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Unlike reading the nodes one by one, the walk only resolves the plugin
+	 * session again below the nodes at which the dispatcher knows a different
+	 * plugin could be mapped, and resolves the effective ACLs while
+	 * descending.
+	 */
+	@Override
+	public synchronized void readSubtree(String nodeUri,
+			SubtreeVisitor visitor) throws DmtException {
+		checkSession();
+		Node node = makeAbsoluteUriAndCheck(nodeUri, SHOULD_EXIST);
+		AclTree aclTree = acls;
+		Node parent = node.getParent();
+		readSubtree(node, getReadableDataSession(node),
+				context.getPluginDispatcher().findSegment(node.getPath()),
+				aclTree.getSubtree(node),
+				parent == null ? null : aclTree.getEffective(parent), visitor);
+	}
+
+	private void readSubtree(Node node, ReadableDataSession pluginSession,
+			Segment<DataPlugin> segment, AclTree aclTree, Acl inheritedAcl,
+			SubtreeVisitor visitor) throws DmtException {
+		Acl acl = aclTree == null ? null : aclTree.getAcl();
+		Acl effectiveAcl = acl == null || isEmptyAcl(acl) ? inheritedAcl : acl;
+		checkGetPermission(node, effectiveAcl);
+
+		String[] path = node.getPath();
+		// only nodes known to the dispatcher can be scaffold nodes
+		boolean scaffold = segment != null && isScaffoldNode(node);
+		MetaNode metaNode = scaffold ? new ScaffoldMetaNode()
+				: internalGetMetaNode(node, pluginSession);
+		boolean leaf = !scaffold && pluginSession.isLeafNode(path);
+		DmtData value = null;
+		if (leaf && (metaNode == null || metaNode.can(MetaNode.CMD_GET)))
+			value = pluginSession.getNodeValue(path);
+
+		if (!visitor.visit(node.getUri(), leaf, value, metaNode, acl) || leaf)
+			return;
+
+		String[] pluginChildNodes = scaffold ? new String[0]
+				: pluginSession.getChildNodeNames(path);
+		String[] children = mergeChildNodeNames(pluginChildNodes, segment);
+		for (int i = 0; i < children.length; i++) {
+			Node child = node.appendSegment(children[i]);
+			Segment<DataPlugin> childSegment = segment == null ? null
+					: segment.getChild(children[i]);
+			// plugins can only be mapped on segments known to the dispatcher
+			ReadableDataSession childSession = childSegment == null
+					&& !scaffold ? pluginSession
+							: getReadableDataSession(child);
+			readSubtree(child, childSession, childSegment,
+					aclTree == null ? null : aclTree.getChild(children[i]),
+					effectiveAcl, visitor);
+		}
+	}
+
+	// checks GET permission with an effective ACL that is already known
+	private void checkGetPermission(Node node, Acl effectiveAcl)
+			throws DmtException {
+		if (principal == null) {
+			checkLocalPermission(node, writeAclCommands(Acl.GET));
+			return;
+		}
+		if (effectiveAcl == null || !effectiveAcl.isPermitted(principal, Acl.GET))
+			throw new DmtException(node.getUri(),
+					DmtException.PERMISSION_DENIED, "Principal '" + principal
+							+ "' does not have the required permissions ("
+							+ writeAclCommands(Acl.GET) + ") on the node "
+							+ "to perform this operation.");
+	}
+
 	// REPLACE property op
 	@Override
 	public synchronized void setNodeAcl(String nodeUri, Acl acl)
@@ -590,10 +669,12 @@ public class DmtSessionImpl implements DmtSession {
 					DmtException.COMMAND_NOT_ALLOWED, "Root ACL must allow "
 							+ "the Add operation for all principals.");
 
-		if (acl == null || isEmptyAcl(acl))
-			acls.remove(node);
-		else
-			acls.put(node, acl);
+		synchronized (aclLock) {
+			if (acl == null || isEmptyAcl(acl))
+				acls = acls.remove(node);
+			else
+				acls = acls.put(node, acl);
+		}
 
 		getReadableDataSession(node).nodeChanged(node.getPath());
 
@@ -608,22 +689,26 @@ public class DmtSessionImpl implements DmtSession {
 		checkNodePermission(node, Acl.GET);
 		// not checking meta-data for the GET capability, meta-data should
 		// always be publicly available
-		MetaNode metaNode = null;
 		if (isScaffoldNode(nodeUri))
-			metaNode = new ScaffoldMetaNode();
-		else {
-			try {
-				metaNode = getMetaNodeNoCheck(node);
-			} catch (DmtException e) {
-				// if plugins does not provide such Metadata, then DmtAdmin must do that
-				if (e.getCode() == DmtException.NODE_NOT_FOUND && isSharedMountPoint(node)) 
-					metaNode = new SharedMountPointMetaNode( getParentScope(node));
-				else 
-					// forward original exception
-					throw e;
-			}
+			return new ScaffoldMetaNode();
+		return internalGetMetaNode(node, null);
+	}
+
+	// precondition: node is not a scaffold node
+	// the plugin session is looked up if it is not given
+	private MetaNode internalGetMetaNode(Node node,
+			ReadableDataSession pluginSession) throws DmtException {
+		try {
+			if (pluginSession == null)
+				return getMetaNodeNoCheck(node);
+			return pluginSession.getMetaNode(node.getPath());
+		} catch (DmtException e) {
+			// if plugins does not provide such Metadata, then DmtAdmin must do that
+			if (e.getCode() == DmtException.NODE_NOT_FOUND && isSharedMountPoint(node)) 
+				return new SharedMountPointMetaNode( getParentScope(node));
+			// forward original exception
+			throw e;
 		}
-		return metaNode;
 	}
 	
 	/**
@@ -634,8 +719,7 @@ public class DmtSessionImpl implements DmtSession {
 	private boolean isSharedMountPoint( Node node ) {
 		String uri = node.getUri();
 		String mpUri = uri.substring(0, uri.lastIndexOf("/") + 1) + "#";
-		Plugin<DataPlugin> plugin = context.getPluginDispatcher()
-				.getDataPluginFor(node.getParent().getPath());
+		Plugin<DataPlugin> plugin = getDataPluginFor(node.getParent());
 		if ( plugin != null ) {
 			Iterator<String> it = plugin.getMountPoints().iterator();
 			while (it.hasNext()) {
@@ -780,12 +864,17 @@ public class DmtSessionImpl implements DmtSession {
 					node.getPath());
 		}
 
+		return mergeChildNodeNames(pluginChildNodes, context
+				.getPluginDispatcher().findSegment(node.getPath()));
+	}
+
+	// merges the child node names reported by the plugin with the ones of
+	// the child segments known to the dispatcher
+	private static String[] mergeChildNodeNames(String[] pluginChildNodes,
+			Segment<DataPlugin> segment) {
 		// Segment segment =
 		// context.getPluginDispatcher().root.getSegmentFor(node.getPath(), 1);
 		Vector<String> v = new Vector<String>();
-		Segment<DataPlugin> segment = context.getPluginDispatcher()
-				.findSegment(
-				node.getPath());
 		if (segment != null) {
 			List<Segment<DataPlugin>> childSegments = segment.getChildren();
 			for (Segment<DataPlugin> child : childSegments)
@@ -1562,7 +1651,9 @@ public class DmtSessionImpl implements DmtSession {
 				Acl parentAcl = getEffectiveNodeAclNoCheck(parent);
 				Acl newAcl = parentAcl.addPermission(principal, Acl.ADD
 						| Acl.DELETE | Acl.REPLACE);
-				acls.put(node, newAcl);
+				synchronized (aclLock) {
+					acls = acls.put(node, newAcl);
+				}
 			}
 		}
 	}
@@ -1712,8 +1803,7 @@ public class DmtSessionImpl implements DmtSession {
 
 		// SD: path must be absolute
 		// get the reference of the responsible plugin from the new dispatcher
-		Plugin<DataPlugin> dispatcherPlugin = context.getPluginDispatcher()
-				.getDataPluginFor(node.getPath());
+		Plugin<DataPlugin> dispatcherPlugin = getDataPluginFor(node);
 		Node root = getLongestRootForPlugin(dispatcherPlugin, node);
 
 		// If we found a plugin session handling the node, and the potential
@@ -1997,17 +2087,49 @@ public class DmtSessionImpl implements DmtSession {
 	}
 
 	private Node makeAbsoluteUri(String nodeUri) throws DmtException {
-		// simple caching for validated uris
-		Node node = nodeUri != null ? (Node)getValidatedNodeCache().get(nodeUri) : null;
-		if ( node == null ) {
-			node = Node.validateAndNormalizeUri(nodeUri);
-			getValidatedNodeCache().put(nodeUri, node);
-		}
-		if (node.isAbsolute()) {
-			checkNodeIsInSession(node, "");
+		// simple caching for validated uris, the cached nodes are absolute
+		// and inside the session
+		Node node = nodeUri != null ? getValidatedNodeCache().get(nodeUri) : null;
+		if ( node != null )
 			return node;
+		node = Node.validateAndNormalizeUri(nodeUri);
+		if (node.isAbsolute())
+			checkNodeIsInSession(node, "");
+		else
+			node = subtreeNode.appendRelativeNode(node);
+		getValidatedNodeCache().put(nodeUri, node);
+		return node;
+	}
+
+	// routes are cached until the plugin mapping changes
+	private Plugin<DataPlugin> getDataPluginFor(Node node) {
+		Hashtable<Node,Plugin<DataPlugin>> routes = dataPluginRoutes;
+		Plugin<DataPlugin> plugin = routes.get(node);
+		if (plugin == null) {
+			plugin = context.getPluginDispatcher()
+					.getDataPluginFor(node.getPath());
+			if (plugin != null)
+				routes.put(node, plugin);
 		}
-		return subtreeNode.appendRelativeNode(node);
+		return plugin;
+	}
+
+	private Plugin<ExecPlugin> getExecPluginFor(Node node) {
+		Hashtable<Node,Plugin<ExecPlugin>> routes = execPluginRoutes;
+		Plugin<ExecPlugin> plugin = routes.get(node);
+		if (plugin == null) {
+			plugin = context.getPluginDispatcher()
+					.getExecPluginFor(node.getPath());
+			if (plugin != null)
+				routes.put(node, plugin);
+		}
+		return plugin;
+	}
+
+	// called by DmtAdmin when plugins have been mapped or unmapped
+	void clearPluginRoutes() {
+		dataPluginRoutes = new Hashtable<>();
+		execPluginRoutes = new Hashtable<>();
 	}
 
 	private void checkNodeIsInSession(Node node, String uriExplanation)
@@ -2056,39 +2178,14 @@ public class DmtSessionImpl implements DmtSession {
 	// Move ACL entries from 'node' to 'newNode'.
 	// If 'newNode' is 'null', the ACL entries are removed (moved to nowhere).
 	private static void moveAclEntries(Node node, Node newNode) {
-		synchronized (acls) {
-			Hashtable<Node,Acl> newEntries = null;
-			if (newNode != null)
-				newEntries = new Hashtable<>();
-			Iterator<Entry<Node,Acl>> i = acls.entrySet().iterator();
-			while (i.hasNext()) {
-				Entry<Node,Acl> entry = i.next();
-				Node relativeNode = node.getRelativeNode(entry.getKey());
-				if (relativeNode != null) {
-					if (newNode != null)
-						newEntries.put(
-								newNode.appendRelativeNode(relativeNode),
-								entry.getValue());
-					i.remove();
-				}
-			}
-			if (newNode != null)
-				acls.putAll(newEntries);
+		synchronized (aclLock) {
+			acls = acls.move(node, newNode);
 		}
 	}
 
+	// the root ACL must not be empty, so every node has an effective ACL
 	private static Acl getEffectiveNodeAclNoCheck(Node node) {
-		Acl acl;
-		synchronized (acls) {
-			acl = acls.get(node);
-			// must finish whithout NullPointerException, because root ACL must
-			// not be empty
-			while (acl == null || isEmptyAcl(acl)) {
-				node = node.getParent();
-				acl = acls.get(node);
-			}
-		}
-		return acl;
+		return acls.getEffective(node);
 	}
 
 	// precondition: node parameter must be an absolute node
@@ -2169,13 +2266,15 @@ public class DmtSessionImpl implements DmtSession {
 		return base;
 	}
 
-	private static boolean isEmptyAcl(Acl acl) {
+	static boolean isEmptyAcl(Acl acl) {
 		return acl.getPermissions("*") == 0 && acl.getPrincipals().length == 0;
 	}
 
 	static void init_acls() {
-		acls = new Hashtable<>();
-		acls.put(Node.ROOT_NODE, new Acl("Add=*&Get=*&Replace=*"));
+		synchronized (aclLock) {
+			acls = AclTree.EMPTY.put(Node.ROOT_NODE,
+					new Acl("Add=*&Get=*&Replace=*"));
+		}
 	}
 
 	@Override
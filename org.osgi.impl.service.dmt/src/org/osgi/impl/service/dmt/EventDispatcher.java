@@ -23,7 +23,6 @@ import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -44,34 +43,39 @@ import org.osgi.service.log.LogService;
 //this queue is emptied by DmtAdminFactory, which forwards the events to all
 //locally registered DmtEventListeners
 public class EventDispatcher {
-	private static LinkedList<DmtEventCore> localEventQueue = new LinkedList<>();
+	// the number of events that can wait for local delivery before further
+	// events are dropped; sessions post events while holding their subtree
+	// locks, so they cannot be made to wait for room
+	private static final int	LOCAL_EVENT_QUEUE_CAPACITY	= 4096;
+
+	private static final EventQueue	localEventQueue	= new EventQueue(
+			LOCAL_EVENT_QUEUE_CAPACITY);
+
+	// the union of the event types the local listeners are registered for,
+	// events of other types are not queued for local delivery
+	private static volatile int	localListenerTypes;
 
-	private static void postLocalEvent(DmtEventCore event) {
-		synchronized (localEventQueue) {
-			localEventQueue.addLast(event);
-			localEventQueue.notifyAll();
-		}
-	}
 
 	// Retrieve the next event from the queue. If there are no events, block
 	// until one is added, or until the given timeout time (in milliseconds) has
 	// elapsed. A timeout of zero blocks indefinitely. In case of timeout, or
 	// if the wait has been interrupted, the method returns "null".
 	static DmtEventCore getNextLocalEvent(int timeout) {
-		synchronized (localEventQueue) {
-			if (localEventQueue.size() == 0) {
-				try {
-					localEventQueue.wait(timeout);
-				} catch (InterruptedException e) {
-					// do nothing
-				}
-
-				if (localEventQueue.size() == 0)
-					return null;
-			}
+		return localEventQueue.take(timeout);
+	}
 
-			return localEventQueue.removeFirst();
-		}
+	// Records the end of the delivery of an event retrieved from the queue.
+	static void localEventDelivered(DmtEventCore event) {
+		localEventQueue.delivered(event);
+	}
+
+	static void setLocalListenerTypes(int types) {
+		localListenerTypes = types;
+	}
+
+	// The local event queue, whose metrics DmtAdminFactory reports in the log.
+	static EventQueue getLocalEventQueue() {
+		return localEventQueue;
 	}
 	
 	private final int sessionId;
@@ -79,7 +83,7 @@ public class EventDispatcher {
 	private final Bundle initiatingBundle;
 	private Collection<String> signers;
 	
-	private LinkedList<DmtEventCore>	events;
+	private ArrayList<DmtEventCore>		events;
 
 	public EventDispatcher(Context context, int sessionId, Bundle initiatingBundle) {
 		this.sessionId = sessionId;
@@ -92,7 +96,7 @@ public class EventDispatcher {
 			// bugfix for 2350
 			signers.add(cert.getSubjectDN().getName());
 
-		events = new LinkedList<>();
+		events = new ArrayList<>();
 	}
 
 	synchronized void clear() {
@@ -108,13 +112,12 @@ public class EventDispatcher {
 	synchronized void add(int type, Node node, Node newNode, Acl acl,
 			boolean isAtomic) {
 		if (isAtomic) { // add event to event store, for delivery at commit
-			Integer typeInteger = Integer.valueOf(type);
-			DmtEventCore event = events.size() > 0 ? (DmtEventCore) events
-					.getLast() : null;
-			// create new DmtEventCore, if it is the first event at all or
-			// the type differs from previous event
+			// add the node to the last event if it has the same type, so only
+			// a run of changes of the same type is merged into one event
+			DmtEventCore event = events.isEmpty() ? null
+					: events.get(events.size() - 1);
 			if (event == null || event.getType() != type) {
-				event = new DmtEventCore(typeInteger.intValue(), sessionId);
+				event = new DmtEventCore(type, sessionId);
 				events.add(event);
 			}
 			// only add this node, if it differs from last node in this event
@@ -197,6 +200,21 @@ public class EventDispatcher {
 
 	}
 
+	// the LOG_* constants are deprecated in newer Log Service versions, but
+	// this bundle is built against and imports Log Service 1.3
+	@SuppressWarnings("deprecation")
+	private void postLocalEvent(DmtEventCore event) {
+		if ((event.getType() & localListenerTypes) == 0
+				|| localEventQueue.offer(event))
+			return;
+		// log the start of an overflow only, the number of dropped events is
+		// reported with the queue metrics
+		if (localEventQueue.startOverflow())
+			context.log(LogService.LOG_WARNING, "The local event queue is "
+					+ "full, events are dropped until it has room again: "
+					+ localEventQueue, null);
+	}
+
 	private void postOSGiEvent(DmtEventCore dmtEvent) {
 		final EventAdmin eventChannel = context.getTracker(
 				EventAdmin.class).getService();
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.dmt;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded queue of DMT events, filled by any number of sessions and emptied
+ * by a single delivery thread.
+ * <p>
+ * Adding and removing events takes no lock. The sessions add events while
+ * they hold the locks of their subtrees, and a listener may open a session on
+ * an overlapping subtree in its callback, so a full queue never makes a
+ * session wait for room: the event is dropped and counted instead. The
+ * queue is in overflow from the first dropped event until the delivery
+ * thread has emptied half of it, so that the overflow can be logged once
+ * rather than for each dropped event.
+ * <p>
+ * The queue keeps simple metrics of the current and the highest number of
+ * queued events, of the number of dropped events, and of the time between
+ * queueing an event and the end of its delivery.
+ */
+final class EventQueue {
+	private final int							capacity;
+	private final ConcurrentLinkedQueue<DmtEventCore>	events			= new ConcurrentLinkedQueue<>();
+	// the number of queued events and of producers about to queue one
+	private final AtomicInteger					depth			= new AtomicInteger();
+	private volatile Thread						waitingConsumer;
+	private final AtomicBoolean					overflow		= new AtomicBoolean();
+
+	private final AtomicInteger					maxDepth		= new AtomicInteger();
+	private final AtomicLong					dropped			= new AtomicLong();
+	private final AtomicLong					delivered		= new AtomicLong();
+	private final AtomicLong					totalLatency	= new AtomicLong();
+	private final AtomicLong					maxLatency		= new AtomicLong();
+
+	EventQueue(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException(
+					"The capacity of the event queue must be positive.");
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Adds an event to the end of the queue, unless the queue is full. This
+	 * method never blocks.
+	 *
+	 * @param event the event to add
+	 * @return <code>true</code> if the event was added, <code>false</code> if
+	 *         it was dropped because the queue is full
+	 */
+	boolean offer(DmtEventCore event) {
+		for (;;) {
+			int d = depth.get();
+			if (d >= capacity) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			if (depth.compareAndSet(d, d + 1)) {
+				updateMax(maxDepth, d + 1);
+				break;
+			}
+		}
+
+		event.queued = System.nanoTime();
+		events.offer(event);
+
+		Thread waiting = waitingConsumer;
+		if (waiting != null)
+			LockSupport.unpark(waiting);
+		return true;
+	}
+
+	/**
+	 * Marks the queue as being in overflow after an event has been dropped.
+	 *
+	 * @return <code>true</code> if this call started the overflow, that is if
+	 *         the queue has been emptied to half of its capacity since the
+	 *         previous overflow
+	 */
+	boolean startOverflow() {
+		return overflow.compareAndSet(false, true);
+	}
+
+	/**
+	 * Removes the first event of the queue. If there are no events, blocks
+	 * until one is added, or until the given timeout has elapsed. A timeout
+	 * of zero blocks indefinitely. Only a single thread may take events from
+	 * the queue.
+	 *
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return the first event, or <code>null</code> in case of timeout or if
+	 *         the wait has been interrupted
+	 */
+	DmtEventCore take(long timeout) {
+		DmtEventCore event = events.poll();
+		if (event == null) {
+			final long deadline = System.nanoTime()
+					+ TimeUnit.MILLISECONDS.toNanos(timeout);
+			// producers unpark the waiting consumer after adding an event,
+			// so the queue is checked again after publishing the thread
+			waitingConsumer = Thread.currentThread();
+			try {
+				while ((event = events.poll()) == null) {
+					if (timeout == 0)
+						LockSupport.park(this);
+					else {
+						long nanos = deadline - System.nanoTime();
+						if (nanos <= 0)
+							return null;
+						LockSupport.parkNanos(this, nanos);
+					}
+					if (Thread.interrupted())
+						return null;
+				}
+			} finally {
+				waitingConsumer = null;
+			}
+		}
+		int remaining = depth.decrementAndGet();
+		// the overflow ends once half of the queue is free again, so a
+		// queue which is kept full is not reported for each event
+		if (overflow.get() && remaining <= capacity / 2)
+			overflow.set(false);
+		return event;
+	}
+
+	/**
+	 * Records that the delivery of an event taken from this queue has
+	 * finished.
+	 *
+	 * @param event the delivered event
+	 */
+	void delivered(DmtEventCore event) {
+		long latency = System.nanoTime() - event.queued;
+		delivered.incrementAndGet();
+		totalLatency.addAndGet(latency);
+		updateMax(maxLatency, latency);
+	}
+
+	int getCapacity() {
+		return capacity;
+	}
+
+	int getDepth() {
+		return depth.get();
+	}
+
+	int getMaxDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * @return the number of events dropped because the queue was full
+	 */
+	long getDroppedCount() {
+		return dropped.get();
+	}
+
+	long getDeliveredCount() {
+		return delivered.get();
+	}
+
+	/**
+	 * @return the average time between queueing and delivering an event, in
+	 *         nanoseconds
+	 */
+	long getAverageLatency() {
+		long count = delivered.get();
+		return count == 0 ? 0 : totalLatency.get() / count;
+	}
+
+	/**
+	 * @return the longest time between queueing and delivering an event, in
+	 *         nanoseconds
+	 */
+	long getMaxLatency() {
+		return maxLatency.get();
+	}
+
+	@Override
+	public String toString() {
+		return "EventQueue(depth=" + getDepth() + ", maxDepth="
+				+ getMaxDepth() + ", capacity=" + capacity + ", dropped="
+				+ getDroppedCount() + ", delivered="
+				+ getDeliveredCount() + ", avgLatency=" + getAverageLatency()
+				+ "ns, maxLatency=" + getMaxLatency() + "ns)";
+	}
+
+	private static void updateMax(AtomicInteger max, int value) {
+		int current;
+		while (value > (current = max.get()))
+			if (max.compareAndSet(current, value))
+				return;
+	}
+
+	private static void updateMax(AtomicLong max, long value) {
+		long current;
+		while (value > (current = max.get()))
+			if (max.compareAndSet(current, value))
+				return;
+	}
+}
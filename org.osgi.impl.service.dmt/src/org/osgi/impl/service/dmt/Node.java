@@ -117,6 +117,8 @@ public class Node {
             return new Node(uri);
 
         StringBuffer sb = new StringBuffer();
+		// the normalized segments, kept so the URI is not parsed again
+		List<String> segments = new ArrayList<>();
         int len = uri.length();
         int start = 0;
 		@SuppressWarnings("unused")
@@ -130,22 +132,22 @@ public class Node {
                 if ( i - start == 0 )
                     throw new DmtException(uri, DmtException.INVALID_URI,
                     "The URI has empty segments: " + uri);
-                appendName(sb, uri, start, i);
+                appendName(sb, segments, uri, start, i);
                 numSegments++;
                 start = i+1;
             }
         }
         
-        appendName(sb, uri, start, len);
+        appendName(sb, segments, uri, start, len);
         numSegments++;
         
-        return new Node(sb.toString());
+        return new Node(sb.toString(), segments.toArray(new String[0]));
     }
 
     
     
-    private static void appendName(StringBuffer sb, String uri, 
-            int start, int end) throws DmtException {
+    private static void appendName(StringBuffer sb, List<String> segments,
+            String uri, int start, int end) throws DmtException {
         String segment = uri.substring(start, end);
         if(sb.length() != 0) { // this is not the first segment
             if(segment.equals("."))
@@ -154,7 +156,9 @@ public class Node {
                         "other than the beginning of the URI.");
             sb.append('/');
         }
-        sb.append(validateAndNormalizeNodeName(segment));
+        String name = validateAndNormalizeNodeName(segment);
+        sb.append(name);
+        segments.add(name);
     }
     
     static String[] getUriArray(Node[] nodes) {
@@ -197,6 +201,12 @@ public class Node {
         path = null;
     }
     
+    // precondition: URI is validated and normalized, and path is its parsed form
+    private Node(String uri, String[] path) {
+        this.uri = uri;
+        this.path = path;
+    }
+    
     // precondition: path is valid (originates from a previous Node object)
     Node(String[] path) {
         this.path = path;
@@ -292,12 +302,21 @@ public class Node {
         if(relativeNode.isEmpty())
             return this;
         
-        return new Node(getUri() + '/' + relativeNode.getUri());
+        return new Node(getUri() + '/' + relativeNode.getUri(),
+                concat(getPath(), relativeNode.getPath()));
     }
 
     // precondition: segment parameter is validated and normalized
     Node appendSegment(String segment) {
-        return new Node(getUri() + '/' + segment);
+        return new Node(getUri() + '/' + segment,
+                concat(getPath(), new String[] {segment}));
+    }
+    
+    private static String[] concat(String[] path1, String[] path2) {
+        String[] result = new String[path1.length + path2.length];
+        System.arraycopy(path1, 0, result, 0, path1.length);
+        System.arraycopy(path2, 0, result, path1.length, path2.length);
+        return result;
     }
     
     // precondition: both nodes are absolute
@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.dmt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.osgi.service.dmt.DmtSession;
+
+/**
+ * Grants the subtree locks of DMT sessions.
+ * <p>
+ * The locks are kept in a tree which mirrors the DMT paths of the sessions.
+ * Every tree node counts the shared and exclusive locks held and requested on
+ * its own path, and the ones held and requested anywhere below it. Deciding
+ * whether a session conflicts with the other sessions therefore only visits
+ * the path of its root node, instead of every open session. Atomic sessions
+ * lock their subtree exclusively.
+ * <p>
+ * Sessions are admitted in the order of their requests: a request is not
+ * granted while an earlier request on the same branch of the tree, which
+ * conflicts with it, is still waiting. Every waiting request has its own
+ * condition, so a released lock only wakes the requests on its branch that
+ * can run now.
+ */
+class SessionLockManager {
+
+	private static final Comparator<Lock>	IN_REQUEST_ORDER	= new Comparator<Lock>() {
+		@Override
+		public int compare(Lock l1, Lock l2) {
+			return Long.compare(l1.sequence, l2.sequence);
+		}
+	};
+
+	private final ReentrantLock				lock				= new ReentrantLock();
+	// @GuardedBy("lock")
+	private final LockNode					root				= new LockNode(
+			null, null);
+	// @GuardedBy("lock")
+	private long							nextSequence;
+
+	/**
+	 * A lock held or requested by a session.
+	 */
+	static final class Lock {
+		final LockNode	node;
+		final boolean	exclusive;
+		final long		sequence;
+		final Condition	granted;
+		// @GuardedBy("SessionLockManager.lock")
+		boolean			held;
+		// @GuardedBy("SessionLockManager.lock")
+		boolean			released;
+
+		Lock(LockNode node, boolean exclusive, long sequence,
+				Condition granted) {
+			this.node = node;
+			this.exclusive = exclusive;
+			this.sequence = sequence;
+			this.granted = granted;
+		}
+
+		boolean conflictsWith(Lock other) {
+			return exclusive || other.exclusive;
+		}
+	}
+
+	/**
+	 * A node of the lock tree. All fields are guarded by the lock of the
+	 * manager.
+	 */
+	static final class LockNode {
+		final LockNode				parent;
+		final String				segment;
+		final Map<String,LockNode>	children	= new HashMap<>();
+		final List<Lock>			waiting		= new LinkedList<>();
+
+		// locks held and requested on this node
+		int							shared;
+		int							exclusive;
+		int							waitingShared;
+		int							waitingExclusive;
+
+		// locks held and requested on the descendants of this node
+		int							sharedBelow;
+		int							exclusiveBelow;
+		int							waitingSharedBelow;
+		int							waitingExclusiveBelow;
+
+		LockNode(LockNode parent, String segment) {
+			this.parent = parent;
+			this.segment = segment;
+		}
+
+		boolean hasWaitersBelow() {
+			return waitingSharedBelow + waitingExclusiveBelow > 0;
+		}
+
+		boolean isUnused() {
+			return children.isEmpty() && shared == 0 && exclusive == 0
+					&& waitingShared == 0 && waitingExclusive == 0;
+		}
+	}
+
+	/**
+	 * Waits until the subtree of a session can be locked.
+	 * <p>
+	 * The lock is granted when neither the locks held on the same branch of
+	 * the tree, nor the earlier requests waiting on it, conflict with the
+	 * requested lock mode. Only shared locks can coexist on one branch. The
+	 * wait is not interrupted by {@link Thread#interrupt()}, but the interrupt
+	 * status of the thread is preserved.
+	 *
+	 * @param subtreeNode the absolute root node of the session
+	 * @param lockMode the lock mode of the session
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return the granted lock, or <code>null</code> if the lock could not be
+	 *         granted before the timeout
+	 */
+	Lock acquire(Node subtreeNode, int lockMode, long timeout) {
+		final long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(timeout);
+		boolean interrupted = false;
+		lock.lock();
+		try {
+			LockNode node = getLockNode(subtreeNode.getPath());
+			Lock request = new Lock(node,
+					lockMode != DmtSession.LOCK_TYPE_SHARED, nextSequence++,
+					lock.newCondition());
+
+			if (!conflictsWithHeld(node, request.exclusive)
+					&& !conflictsWithWaiting(node, request.exclusive)) {
+				grant(request);
+				return request;
+			}
+
+			node.waiting.add(request);
+			updateWaiting(request, 1);
+			while (!request.held) {
+				long nanos = deadline - System.nanoTime();
+				if (nanos <= 0) {
+					node.waiting.remove(request);
+					updateWaiting(request, -1);
+					// later requests may only have waited for this one
+					grantWaiting(node);
+					prune(node);
+					return null;
+				}
+				try {
+					request.granted.awaitNanos(nanos);
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			return request;
+		} finally {
+			lock.unlock();
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Releases a lock granted by {@link #acquire(Node, int, long)} and grants
+	 * the waiting requests on its branch which no longer conflict. Releasing a
+	 * lock more than once has no effect.
+	 *
+	 * @param held the lock to release
+	 */
+	void release(Lock held) {
+		lock.lock();
+		try {
+			if (!held.held || held.released)
+				return;
+			held.released = true;
+			updateHeld(held, -1);
+			grantWaiting(held.node);
+			prune(held.node);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// @GuardedBy("lock")
+	private LockNode getLockNode(String[] path) {
+		LockNode node = root;
+		for (String segment : path) {
+			LockNode child = node.children.get(segment);
+			if (child == null) {
+				child = new LockNode(node, segment);
+				node.children.put(segment, child);
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	// @GuardedBy("lock")
+	private void prune(LockNode node) {
+		while (node.parent != null && node.isUnused()) {
+			node.parent.children.remove(node.segment);
+			node = node.parent;
+		}
+	}
+
+	// @GuardedBy("lock")
+	private static boolean conflictsWithHeld(LockNode node, boolean exclusive) {
+		if (node.exclusiveBelow > 0 || (exclusive && node.sharedBelow > 0))
+			return true;
+		for (LockNode n = node; n != null; n = n.parent)
+			if (n.exclusive > 0 || (exclusive && n.shared > 0))
+				return true;
+		return false;
+	}
+
+	// @GuardedBy("lock")
+	private static boolean conflictsWithWaiting(LockNode node,
+			boolean exclusive) {
+		if (node.waitingExclusiveBelow > 0
+				|| (exclusive && node.waitingSharedBelow > 0))
+			return true;
+		for (LockNode n = node; n != null; n = n.parent)
+			if (n.waitingExclusive > 0 || (exclusive && n.waitingShared > 0))
+				return true;
+		return false;
+	}
+
+	// @GuardedBy("lock")
+	private void grant(Lock request) {
+		request.held = true;
+		updateHeld(request, 1);
+	}
+
+	/*
+	 * Grants, in request order, the waiting requests on the branch of the
+	 * given node which conflict neither with the held locks nor with an
+	 * earlier waiting request. Only those requests are signalled.
+	 */
+	// @GuardedBy("lock")
+	private void grantWaiting(LockNode node) {
+		List<Lock> candidates = new ArrayList<>();
+		for (LockNode n = node.parent; n != null; n = n.parent)
+			candidates.addAll(n.waiting);
+		collectWaiting(node, candidates);
+		if (candidates.isEmpty())
+			return;
+		Collections.sort(candidates, IN_REQUEST_ORDER);
+
+		for (Lock request : candidates) {
+			if (conflictsWithHeld(request.node, request.exclusive)
+					|| hasEarlierConflict(request))
+				continue;
+			request.node.waiting.remove(request);
+			updateWaiting(request, -1);
+			grant(request);
+			request.granted.signal();
+		}
+	}
+
+	// @GuardedBy("lock")
+	private static void collectWaiting(LockNode node, List<Lock> waiting) {
+		waiting.addAll(node.waiting);
+		if (node.hasWaitersBelow())
+			for (LockNode child : node.children.values())
+				collectWaiting(child, waiting);
+	}
+
+	// @GuardedBy("lock")
+	private static boolean hasEarlierConflict(Lock request) {
+		for (LockNode n = request.node; n != null; n = n.parent)
+			if (hasEarlierConflict(request, n.waiting))
+				return true;
+		if (request.node.hasWaitersBelow())
+			for (LockNode child : request.node.children.values())
+				if (hasEarlierConflictBelow(request, child))
+					return true;
+		return false;
+	}
+
+	// @GuardedBy("lock")
+	private static boolean hasEarlierConflictBelow(Lock request,
+			LockNode node) {
+		if (hasEarlierConflict(request, node.waiting))
+			return true;
+		if (node.hasWaitersBelow())
+			for (LockNode child : node.children.values())
+				if (hasEarlierConflictBelow(request, child))
+					return true;
+		return false;
+	}
+
+	private static boolean hasEarlierConflict(Lock request,
+			List<Lock> waiting) {
+		for (Lock other : waiting)
+			if (other.sequence < request.sequence
+					&& request.conflictsWith(other))
+				return true;
+		return false;
+	}
+
+	// @GuardedBy("lock")
+	private static void updateHeld(Lock l, int delta) {
+		if (l.exclusive) {
+			l.node.exclusive += delta;
+			for (LockNode n = l.node.parent; n != null; n = n.parent)
+				n.exclusiveBelow += delta;
+		} else {
+			l.node.shared += delta;
+			for (LockNode n = l.node.parent; n != null; n = n.parent)
+				n.sharedBelow += delta;
+		}
+	}
+
+	// @GuardedBy("lock")
+	private static void updateWaiting(Lock l, int delta) {
+		if (l.exclusive) {
+			l.node.waitingExclusive += delta;
+			for (LockNode n = l.node.parent; n != null; n = n.parent)
+				n.waitingExclusiveBelow += delta;
+		} else {
+			l.node.waitingShared += delta;
+			for (LockNode n = l.node.parent; n != null; n = n.parent)
+				n.waitingSharedBelow += delta;
+		}
+	}
+}
@@ -25,6 +25,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 
 import org.osgi.framework.Bundle;
+import org.osgi.impl.service.dmt.export.SubtreeVisitor;
 import org.osgi.service.dmt.Acl;
 import org.osgi.service.dmt.DmtData;
 import org.osgi.service.dmt.DmtException;
@@ -568,6 +569,24 @@ class SessionWrapper extends DmtSessionImpl {
         }
     }
 
+    @Override
+	public void readSubtree(String nodeUri, SubtreeVisitor visitor)
+            throws DmtException {
+        stopTimer();
+        try {
+            super.readSubtree(nodeUri, visitor);
+        } catch(DmtException e) {
+            if(e.isFatal())
+                invalidateSession(e);
+            throw e;
+        } catch(PluginUnregisteredException e) {
+            invalidateSession();
+            throw new DmtIllegalStateException(e.getMessage());
+        } finally {
+            startTimer();
+        }
+    }
+
     @Override
 	public MetaNode getMetaNode(String nodeUri) throws DmtException {
         stopTimer();
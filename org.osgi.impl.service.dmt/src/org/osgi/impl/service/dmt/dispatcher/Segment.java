@@ -20,6 +20,8 @@ package org.osgi.impl.service.dmt.dispatcher;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.service.dmt.DmtException;
 
@@ -30,7 +32,8 @@ import org.osgi.service.dmt.DmtException;
  * is responsible for. Segments without an assigned plugin just ensure that the 
  * whole tree is browsable and are created/removed as needed when plugins are 
  * mapped/unmapped.
- * Each Segment knows its parent and children.
+ * Each Segment knows its parent and children. The children are also indexed
+ * by name, so resolving a path costs one hash lookup per segment.
  * @author steffen
  *
  */
@@ -39,6 +42,8 @@ public class Segment<P> {
 	final Segment<P>		parent;
 	final String name;
 	final List<Segment<P>>	children	= new ArrayList<>();
+	// the children by name, lookups do not need to lock the segment
+	final Map<String,Segment<P>>	childIndex	= new ConcurrentHashMap<>();
 	Plugin<P>				plugin;
 	boolean locked;
 	Thread lockedThread;
@@ -66,9 +71,10 @@ public class Segment<P> {
 	 * @throws DmtException
 	 */
 	synchronized void release(Segment<P> child) throws DmtException {
-		if (child != null)
+		if (child != null) {
 			getChildren().remove(child);
-		else
+			childIndex.remove(child.name, child);
+		} else
 			plugin = null;
 		// remove current node only from parent, if:
 		// - not top-level
@@ -101,29 +107,39 @@ public class Segment<P> {
 
 		@SuppressWarnings("hiding")
 		String name = path[i];
-		for (Segment<P> child : children) {
-			if (child.name.equals(name))
-				return child.getSegmentFor(path, i + 1, add);
-		}
+		Segment<P> child = childIndex.get(name);
+		if (child != null)
+			return child.getSegmentFor(path, i + 1, add);
 		if (!add)
 			return null;
-		Segment<P> child = new Segment<>(this, name);
+		child = new Segment<>(this, name);
 		// SD: don't add mount points "#"
-		if (!"#".equals(name))
+		if (!"#".equals(name)) {
 			children.add(child);
+			childIndex.put(name, child);
+		}
 		return child.getSegmentFor(path, i + 1, add);
 	}
 
+	/**
+	 * finds the plugin responsible for the given path in a single descent,
+	 * remembering the deepest segment with an assigned plugin on the way
+	 * 
+	 * @param path
+	 * @param i ... the index of the first path segment below this segment
+	 * @return the responsible plugin or null
+	 */
 	public Plugin<P> getPluginFor(String[] path, int i) {
-		if (i < path.length) {
-			@SuppressWarnings("hiding")
-			String name = path[i];
-			for (Segment<P> child : children) {
-				if (child.name.equals(name))
-					return child.getPluginFor(path, i + 1);
-			}
+		Plugin<P> found = getPlugin();
+		Segment<P> segment = this;
+		for (; i < path.length; i++) {
+			segment = segment.childIndex.get(path[i]);
+			if (segment == null)
+				break;
+			if (segment.plugin != null)
+				found = segment.plugin;
 		}
-		return this.getPlugin();
+		return found;
 	}
 
 	Plugin<P> getPlugin() {
@@ -192,6 +208,14 @@ public class Segment<P> {
 		return children;
 	}
 
+	/**
+	 * @param name ... the name of the child segment
+	 * @return the child segment with the given name or null
+	 */
+	public Segment<P> getChild(@SuppressWarnings("hiding") String name) {
+		return childIndex.get(name);
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.dmt.export;
+
+import org.osgi.service.dmt.DmtException;
+import org.osgi.service.dmt.DmtIllegalStateException;
+
+/**
+ * Reads a whole subtree of the Device Management Tree in one call. The
+ * <code>DmtSession</code> objects returned by this DmtAdmin implementation
+ * implement this interface, so a management agent can cast its session to
+ * read a subtree without a separate call for each node.
+ */
+public interface SubtreeReader {
+	/**
+	 * Reads the given node and its subtree in a single walk, passing every
+	 * node to the visitor together with its value, meta-data and ACL. GET
+	 * permission is required for every visited node.
+	 * 
+	 * @param nodeUri the URI of the root of the subtree, relative to the
+	 *            session root or absolute
+	 * @param visitor receives the nodes of the subtree
+	 * @throws DmtException with the same codes as the individual read
+	 *         operations, or if thrown by the visitor
+	 * @throws DmtIllegalStateException if the session was already closed or
+	 *         invalidated
+	 * @throws SecurityException if the caller does not have the necessary
+	 *         permissions
+	 */
+	void readSubtree(String nodeUri, SubtreeVisitor visitor)
+			throws DmtException;
+}
@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.dmt.export;
+
+import org.osgi.service.dmt.Acl;
+import org.osgi.service.dmt.DmtData;
+import org.osgi.service.dmt.DmtException;
+import org.osgi.service.dmt.MetaNode;
+
+/**
+ * Receives the nodes of a subtree read with
+ * {@link SubtreeReader#readSubtree(String, SubtreeVisitor)}.
+ * <p>
+ * The nodes are visited depth first, a node before its children and the
+ * children in the order of their names.
+ */
+public interface SubtreeVisitor {
+
+	/**
+	 * Called for each node of the subtree.
+	 * 
+	 * @param nodeUri the absolute URI of the node
+	 * @param leaf <code>true</code> if the node is a leaf node
+	 * @param value the value of a leaf node, <code>null</code> for interior
+	 *            nodes and for leaf nodes whose meta-data does not allow the
+	 *            Get operation
+	 * @param metaNode the meta-data of the node, can be <code>null</code>
+	 * @param acl the ACL assigned to the node, or <code>null</code> if the
+	 *            node has no ACL of its own
+	 * @return <code>true</code> to visit the children of an interior node,
+	 *         <code>false</code> to skip them
+	 * @throws DmtException to abort the read, the exception is thrown by
+	 *             <code>readSubtree</code>
+	 */
+	boolean visit(String nodeUri, boolean leaf, DmtData value,
+			MetaNode metaNode, Acl acl) throws DmtException;
+}
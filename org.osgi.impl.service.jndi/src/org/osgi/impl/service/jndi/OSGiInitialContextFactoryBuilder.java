@@ -25,15 +25,14 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.security.PrivilegedExceptionAction;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -92,13 +91,23 @@ class OSGiInitialContextFactoryBuilder implements
 	private ServiceTracker<ObjectFactory,ObjectFactory>									m_urlContextFactoryServiceTracker		= null;
 	ServiceTracker<DirObjectFactory,DirObjectFactory>									m_dirObjectFactoryServiceTracker		= null;
 
+	/*
+	 * Ranked service references of the trackers above, cached until the
+	 * tracking count of their tracker changes.
+	 */
+	private RankedServiceReferences<InitialContextFactory>							m_contextFactories						= null;
+	private RankedServiceReferences<InitialContextFactoryBuilder>					m_contextFactoryBuilders				= null;
+	private RankedServiceReferences<ObjectFactory>									m_objectFactories						= null;
+	private RankedServiceReferences<ObjectFactoryBuilder>							m_objectFactoryBuilders					= null;
+	private RankedServiceReferences<ObjectFactory>									m_urlContextFactories					= null;
+	private RankedServiceReferences<DirObjectFactory>								m_dirObjectFactories					= null;
+
 	
 	/* 
 	 * Map of OSGi services to a List of Contexts created by that service.  
 	 * Each service services as a key to a list of Context implementations.  
 	 */
-	final Map<Object,List<Context>>														m_mapOfServicesToContexts				= Collections
-			.synchronizedMap(new HashMap<>());
+	final Map<Object,List<Context>>														m_mapOfServicesToContexts				= new ConcurrentHashMap<>();
 	
 
 	public OSGiInitialContextFactoryBuilder(BundleContext callerBundleContext, BundleContext implBundleContext) {
@@ -145,7 +154,7 @@ class OSGiInitialContextFactoryBuilder implements
 			final String initialContextFactoryName = 
 				(String) environment.get(Context.INITIAL_CONTEXT_FACTORY);
 			Object factory = 
-				obtainFactoryService(initialContextFactoryName, m_contextFactoryServiceTracker);
+				obtainFactoryService(initialContextFactoryName, m_contextFactories);
 			if (factory != null) {
 				return new InitialContextFactoryWrapper(
 						(InitialContextFactory) factory, this);
@@ -230,32 +239,20 @@ class OSGiInitialContextFactoryBuilder implements
 	 */
 	@Override
 	public ObjectFactory getURLContextFactory(String urlScheme) {
-		if (m_urlContextFactoryServiceTracker.getServiceReferences() != null) {
-			ServiceReference<ObjectFactory>[] serviceReferences = ServiceUtils
-					.sortServiceTrackerReferences(m_urlContextFactoryServiceTracker);
-			for (int i = 0; i < serviceReferences.length; i++) {
-				ServiceReference<ObjectFactory> serviceReference = serviceReferences[i];
-				if (serviceReference.getProperty(JNDIConstants.JNDI_URLSCHEME).equals(urlScheme)) {
-					return m_callerBundleContext.getService(serviceReference);
-				}
-			}
+		ServiceReference<ObjectFactory> serviceReference = m_urlContextFactories
+				.getServiceReference(urlScheme);
+		if (serviceReference != null) {
+			return m_callerBundleContext.getService(serviceReference);
 		}
 		return null;
 	}
 	
 	@Override
 	public void associateFactoryService(Object factory, Context createdContext) {
-		if(m_mapOfServicesToContexts.containsKey(factory)) {
-			List<Context> listOfContexts =
-				m_mapOfServicesToContexts.get(factory);
-			listOfContexts.add(createdContext);
-			m_mapOfServicesToContexts.put(factory, listOfContexts);
-		} else {
-			List<Context> listOfContexts = new LinkedList<>();
-			listOfContexts.add(createdContext);
-			m_mapOfServicesToContexts.put(factory, listOfContexts);
-		}
-		
+		m_mapOfServicesToContexts
+				.computeIfAbsent(factory,
+						key -> Collections.synchronizedList(new LinkedList<>()))
+				.add(createdContext);
 	}
 
 	@Override
@@ -306,6 +303,19 @@ class OSGiInitialContextFactoryBuilder implements
 						ObjectFactory.class);
 
 
+		m_contextFactories = new RankedServiceReferences<>(
+				m_contextFactoryServiceTracker, Constants.OBJECTCLASS);
+		m_contextFactoryBuilders = new RankedServiceReferences<>(
+				m_contextFactoryBuilderServiceTracker, Constants.OBJECTCLASS);
+		m_objectFactories = new RankedServiceReferences<>(
+				m_objectFactoryServiceTracker, Constants.OBJECTCLASS);
+		m_dirObjectFactories = new RankedServiceReferences<>(
+				m_dirObjectFactoryServiceTracker, Constants.OBJECTCLASS);
+		m_objectFactoryBuilders = new RankedServiceReferences<>(
+				m_objectFactoryBuilderServiceTracker, Constants.OBJECTCLASS);
+		m_urlContextFactories = new RankedServiceReferences<>(
+				m_urlContextFactoryServiceTracker, JNDIConstants.JNDI_URLSCHEME);
+
 		// open trackers
 		m_contextFactoryServiceTracker.open();
 		m_contextFactoryBuilderServiceTracker.open();
@@ -316,17 +326,11 @@ class OSGiInitialContextFactoryBuilder implements
 	}
 
 	<T> T obtainFactoryService(String factoryServiceInterface,
-			ServiceTracker<T,T> serviceTracker) {
-		ServiceReference<T>[] serviceReferences = ServiceUtils
-				.sortServiceTrackerReferences(serviceTracker);
-		for (int i = 0; i < serviceReferences.length; i++) {
-			ServiceReference<T> serviceReference = serviceReferences[i];
-			String[] serviceInterfaces = (String[]) serviceReference
-					.getProperty(Constants.OBJECTCLASS);
-			List<String> interfaceList = Arrays.asList(serviceInterfaces);
-			if (interfaceList.contains(factoryServiceInterface)) {
-				return m_callerBundleContext.getService(serviceReference);
-			}
+			RankedServiceReferences<T> factories) {
+		ServiceReference<T> serviceReference = factories
+				.getServiceReference(factoryServiceInterface);
+		if (serviceReference != null) {
+			return m_callerBundleContext.getService(serviceReference);
 		}
 
 		return null;
@@ -345,38 +349,35 @@ class OSGiInitialContextFactoryBuilder implements
 	 */
 	private InitialContextFactory getContextFactoryFromBuilder(
 			Hashtable< ? , ? > environment) {
-		if (m_contextFactoryBuilderServiceTracker.getServiceReferences() != null) {
-			final ServiceReference<InitialContextFactoryBuilder>[] serviceReferences = ServiceUtils
-					.sortServiceTrackerReferences(
-							m_contextFactoryBuilderServiceTracker);
-			for (int i = 0; i < serviceReferences.length; i++) {
-				ServiceReference<InitialContextFactoryBuilder> serviceReference = serviceReferences[i];
-				InitialContextFactoryBuilder builder = 
-					m_callerBundleContext.getService(serviceReference);
-				try {
-					// if builder is null, then service is not available
-					if (builder != null) {
-						InitialContextFactory contextFactory = builder
-								.createInitialContextFactory(environment);
-						// the first builder to return a non-null result is
-						// given precedence as per Section 5.2.1.1 of RFC
-						// 142
-						if (contextFactory != null) {
-							return new DefaultBuilderSupportedInitialContextFactory(
-									contextFactory, builder);
-						}
+		final ServiceReference<InitialContextFactoryBuilder>[] serviceReferences = m_contextFactoryBuilders
+				.getServiceReferences();
+		for (int i = 0; i < serviceReferences.length; i++) {
+			ServiceReference<InitialContextFactoryBuilder> serviceReference = serviceReferences[i];
+			InitialContextFactoryBuilder builder = 
+				m_callerBundleContext.getService(serviceReference);
+			try {
+				// if builder is null, then service is not available
+				if (builder != null) {
+					InitialContextFactory contextFactory = builder
+							.createInitialContextFactory(environment);
+					// the first builder to return a non-null result is
+					// given precedence as per Section 5.2.1.1 of RFC
+					// 142
+					if (contextFactory != null) {
+						return new DefaultBuilderSupportedInitialContextFactory(
+								contextFactory, builder);
 					}
 				}
-				catch (NamingException namingException) {
-					// catch exception, allow iteration to continue
-					logger.log(Level.FINE, 
-							     "NamingException occurred while invoking on an InitialContextFactoryBuilder",
-							     namingException);
-				}
 			}
-
+			catch (NamingException namingException) {
+				// catch exception, allow iteration to continue
+				logger.log(Level.FINE, 
+						     "NamingException occurred while invoking on an InitialContextFactoryBuilder",
+						     namingException);
+			}
 		}
 
+
 		return null;
 	}
 	
@@ -396,18 +397,16 @@ class OSGiInitialContextFactoryBuilder implements
 	 */
 	private InitialContextFactory getDefaultInitialContextFactory(
 			Hashtable< ? , ? > environment) throws NamingException {
-		if (m_contextFactoryServiceTracker.getServiceReferences() != null) {
-			ServiceReference<InitialContextFactory>[] serviceReferences = ServiceUtils
-					.sortServiceTrackerReferences(m_contextFactoryServiceTracker);
-			for (int i = 0; i < serviceReferences.length; i++) {
-				ServiceReference<InitialContextFactory> serviceReference = serviceReferences[i];
-				InitialContextFactory factoryService = 
-					m_callerBundleContext.getService(serviceReference);
-				if(factoryService.getInitialContext(environment) != null) {
-					return factoryService;
-				} else {
-					m_callerBundleContext.ungetService(serviceReference);
-				}
+		ServiceReference<InitialContextFactory>[] serviceReferences = m_contextFactories
+				.getServiceReferences();
+		for (int i = 0; i < serviceReferences.length; i++) {
+			ServiceReference<InitialContextFactory> serviceReference = serviceReferences[i];
+			InitialContextFactory factoryService = 
+				m_callerBundleContext.getService(serviceReference);
+			if(factoryService.getInitialContext(environment) != null) {
+				return factoryService;
+			} else {
+				m_callerBundleContext.ungetService(serviceReference);
 			}
 		}
 		
@@ -429,29 +428,26 @@ class OSGiInitialContextFactoryBuilder implements
 	 */
 	private ObjectFactory getObjectFactoryFromBuilder(
 			Hashtable< ? , ? > environment, Object refInfo) {
-		if (m_objectFactoryBuilderServiceTracker.getServiceReferences() != null) {
-			final ServiceReference<ObjectFactoryBuilder>[] serviceReferences = ServiceUtils
-					.sortServiceTrackerReferences(
-							m_objectFactoryBuilderServiceTracker);
-			for (int i = 0; i < serviceReferences.length; i++) {
-				ServiceReference<ObjectFactoryBuilder> serviceReference = serviceReferences[i];
-				ObjectFactoryBuilder builder = m_callerBundleContext
-						.getService(serviceReference);
-				try {
-					ObjectFactory factory = 
-						builder.createObjectFactory(refInfo, environment);
-		
-					if (factory != null) {
-						return factory;
-					}
-				}
-				catch (NamingException namingException) {
-					// catch exception, allow iteration to continue
-					logger.log(Level.FINE, 
-						     "NamingException occurred while invoking on an ObjectFactoryBuilder",
-						     namingException);
+		final ServiceReference<ObjectFactoryBuilder>[] serviceReferences = m_objectFactoryBuilders
+				.getServiceReferences();
+		for (int i = 0; i < serviceReferences.length; i++) {
+			ServiceReference<ObjectFactoryBuilder> serviceReference = serviceReferences[i];
+			ObjectFactoryBuilder builder = m_callerBundleContext
+					.getService(serviceReference);
+			try {
+				ObjectFactory factory = 
+					builder.createObjectFactory(refInfo, environment);
+	
+				if (factory != null) {
+					return factory;
 				}
 			}
+			catch (NamingException namingException) {
+				// catch exception, allow iteration to continue
+				logger.log(Level.FINE, 
+					     "NamingException occurred while invoking on an ObjectFactoryBuilder",
+					     namingException);
+			}
 		}
 		
 		return null;
@@ -610,30 +606,28 @@ class OSGiInitialContextFactoryBuilder implements
 	Object resolveObjectUsingObjectFactories(Object objectToResolve, Name name,
 			Context context, Hashtable< ? , ? > environment)
 			throws NamingException {
-		if (m_objectFactoryServiceTracker.getServiceReferences() != null) {
-			final ServiceReference<ObjectFactory>[] serviceReferences = ServiceUtils
-					.sortServiceTrackerReferences(m_objectFactoryServiceTracker);
-			for (int i = 0; i < serviceReferences.length; i++) {
-				ServiceReference<ObjectFactory> serviceReference = serviceReferences[i];
-				ObjectFactory factory = 
-					m_callerBundleContext.getService(serviceReference);
-				try {
-					Object result = 
-						factory.getObjectInstance(objectToResolve, name, context, environment);
+		final ServiceReference<ObjectFactory>[] serviceReferences = m_objectFactories
+				.getServiceReferences();
+		for (int i = 0; i < serviceReferences.length; i++) {
+			ServiceReference<ObjectFactory> serviceReference = serviceReferences[i];
+			ObjectFactory factory = 
+				m_callerBundleContext.getService(serviceReference);
+			try {
+				Object result = 
+					factory.getObjectInstance(objectToResolve, name, context, environment);
 
-					// release the service for this factory
-					m_callerBundleContext.ungetService(serviceReference);
+				// release the service for this factory
+				m_callerBundleContext.ungetService(serviceReference);
 
-					if (result != null) {
-						// return resolved object
-						return result;
-					} 
-				}
-				catch (Exception exception) {
-					NamingException namingException = new NamingException("Exception occurred while trying to resolve object using ObjectFactory search");
-					namingException.setRootCause(exception);
-					throw namingException;
-				}
+				if (result != null) {
+					// return resolved object
+					return result;
+				} 
+			}
+			catch (Exception exception) {
+				NamingException namingException = new NamingException("Exception occurred while trying to resolve object using ObjectFactory search");
+				namingException.setRootCause(exception);
+				throw namingException;
 			}
 		}
 		
@@ -644,30 +638,28 @@ class OSGiInitialContextFactoryBuilder implements
 	Object resolveObjectUsingDirObjectFactories(Object objectToResolve,
 			Name name, Context context, Hashtable< ? , ? > environment,
 			Attributes attributes) throws NamingException {
-		if (m_dirObjectFactoryServiceTracker.getServiceReferences() != null) {
-			final ServiceReference<DirObjectFactory>[] serviceReferences = ServiceUtils
-					.sortServiceTrackerReferences(m_dirObjectFactoryServiceTracker);
-			for (int i = 0; i < serviceReferences.length; i++) {
-				ServiceReference<DirObjectFactory> serviceReference = serviceReferences[i];
-				DirObjectFactory factory = 
-					m_callerBundleContext.getService(serviceReference);
-				try {
-					Object result = 
-						factory.getObjectInstance(objectToResolve, name, context, environment, attributes);
-		
-					// release the service reference
-					m_callerBundleContext.ungetService(serviceReference);
-					
-					if (result != null) {
-						// return the resolved object 
-						return result;
-					} 
-				}
-				catch (Exception exception) {
-					NamingException namingException = new NamingException("Exception occurred while trying to resolve object using ObjectFactory search");
-					namingException.setRootCause(exception);
-					throw namingException;
-				}
+		final ServiceReference<DirObjectFactory>[] serviceReferences = m_dirObjectFactories
+				.getServiceReferences();
+		for (int i = 0; i < serviceReferences.length; i++) {
+			ServiceReference<DirObjectFactory> serviceReference = serviceReferences[i];
+			DirObjectFactory factory = 
+				m_callerBundleContext.getService(serviceReference);
+			try {
+				Object result = 
+					factory.getObjectInstance(objectToResolve, name, context, environment, attributes);
+	
+				// release the service reference
+				m_callerBundleContext.ungetService(serviceReference);
+				
+				if (result != null) {
+					// return the resolved object 
+					return result;
+				} 
+			}
+			catch (Exception exception) {
+				NamingException namingException = new NamingException("Exception occurred while trying to resolve object using ObjectFactory search");
+				namingException.setRootCause(exception);
+				throw namingException;
 			}
 		}
 		
@@ -1040,7 +1032,7 @@ class OSGiInitialContextFactoryBuilder implements
 				// that also supports the custom interface.
 				Reference reference = (Reference)objectToResolve;
 				Object factory = 
-					obtainFactoryService(reference.getFactoryClassName(), m_objectFactoryServiceTracker);
+					obtainFactoryService(reference.getFactoryClassName(), m_objectFactories);
 				if (factory != null) {
 					ObjectFactory objectFactory = (ObjectFactory)factory;
 					Object resolvedObject = 
@@ -1075,7 +1067,7 @@ class OSGiInitialContextFactoryBuilder implements
 				// that also supports the custom interface.
 				Reference reference = (Reference)objectToResolve;
 				Object factory = 
-					obtainFactoryService(reference.getFactoryClassName(), m_dirObjectFactoryServiceTracker);
+					obtainFactoryService(reference.getFactoryClassName(), m_dirObjectFactories);
 				if (factory != null) {
 					DirObjectFactory dirObjectFactory = (DirObjectFactory)factory;
 					Object resolvedObject = 
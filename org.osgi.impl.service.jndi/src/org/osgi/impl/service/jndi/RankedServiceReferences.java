@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.impl.service.jndi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Caches the ServiceReferences of a ServiceTracker in service ranking order.
+ *
+ * The sorted references, and the highest ranked reference found for each
+ * requested key, are kept until the tracking count of the tracker changes.
+ * The key is matched against a service property, which may be a String or a
+ * String array.
+ *
+ *
+ * @author $Id$
+ */
+class RankedServiceReferences<T> {
+	/* upper bound on the number of keys cached for one tracking count */
+	private static final int		MAX_KEYS	= 256;
+
+	/* marks a key that has no matching service */
+	private static final Object		NO_MATCH	= new Object();
+
+	private final ServiceTracker<T,T>	m_serviceTracker;
+	private final String				m_keyProperty;
+
+	private volatile Snapshot<T>		m_snapshot;
+
+	/**
+	 * @param serviceTracker the tracker which provides the references
+	 * @param keyProperty the service property which is matched against the
+	 *        keys passed to {@link #getServiceReference(String)}
+	 */
+	RankedServiceReferences(ServiceTracker<T,T> serviceTracker, String keyProperty) {
+		m_serviceTracker = serviceTracker;
+		m_keyProperty = keyProperty;
+	}
+
+	/**
+	 * @return the references of the tracked services, sorted by service
+	 *         ranking, or a zero-length array if no services are tracked. The
+	 *         array is shared and must not be modified.
+	 */
+	ServiceReference<T>[] getServiceReferences() {
+		return snapshot().m_references;
+	}
+
+	/**
+	 * @param key the value of the key property to match
+	 * @return the highest ranked reference whose key property matches the
+	 *         given key, or null if no tracked service matches
+	 */
+	@SuppressWarnings("unchecked")
+	ServiceReference<T> getServiceReference(String key) {
+		if (key == null) {
+			return null;
+		}
+		final Snapshot<T> snapshot = snapshot();
+		Object match = snapshot.m_matches.get(key);
+		if (match == null) {
+			match = NO_MATCH;
+			for (ServiceReference<T> serviceReference : snapshot.m_references) {
+				if (matches(serviceReference.getProperty(m_keyProperty), key)) {
+					match = serviceReference;
+					break;
+				}
+			}
+			if (snapshot.m_matches.size() < MAX_KEYS) {
+				snapshot.m_matches.put(key, match);
+			}
+		}
+
+		return (match == NO_MATCH) ? null : (ServiceReference<T>) match;
+	}
+
+	private Snapshot<T> snapshot() {
+		Snapshot<T> snapshot = m_snapshot;
+		// read the count before the references, so that a change made while
+		// sorting leaves a stale count behind and forces another rebuild
+		final int trackingCount = m_serviceTracker.getTrackingCount();
+		if ((snapshot == null) || (snapshot.m_trackingCount != trackingCount)) {
+			snapshot = new Snapshot<>(trackingCount,
+					ServiceUtils.sortServiceTrackerReferences(m_serviceTracker));
+			m_snapshot = snapshot;
+		}
+		return snapshot;
+	}
+
+	private static boolean matches(Object value, String key) {
+		if (value instanceof String[]) {
+			for (String element : (String[]) value) {
+				if (key.equals(element)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return key.equals(value);
+	}
+
+	private static final class Snapshot<T> {
+		final int							m_trackingCount;
+		final ServiceReference<T>[]			m_references;
+		final ConcurrentMap<String,Object>	m_matches	= new ConcurrentHashMap<>();
+
+		Snapshot(int trackingCount, ServiceReference<T>[] references) {
+			m_trackingCount = trackingCount;
+			m_references = references;
+		}
+	}
+}
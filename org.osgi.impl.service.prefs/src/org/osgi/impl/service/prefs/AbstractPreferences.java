@@ -31,6 +31,16 @@ import org.osgi.service.prefs.Preferences;
  * users of the <tt>Preferences</tt> facility should have no need to consult
  * this documentation. </strong>
  * 
+ * <p>
+ * Modifications are done with the lock of the node held. Reads of the
+ * preferences, keys and children of a node, and the lookup of existing child
+ * nodes, do not take any lock. The {@link #getSpi(String)},
+ * {@link #keysSpi()}, {@link #childrenNamesSpi()} and
+ * {@link #cachedChildSpi(String)} methods must therefore be safe to call
+ * without the node lock, concurrently with a modification of the node. The
+ * implementation chooses how, for example with a concurrent map or with a
+ * copy of its data that it replaces on every modification.
+ * 
  * @author $Id$
  */
 public abstract class AbstractPreferences implements Preferences {
@@ -55,9 +65,10 @@ public abstract class AbstractPreferences implements Preferences {
 	// commented out the final modifier to stop fastjavac from complaining
 	/**
 	 * This field is used to keep track of whether or not this node has been
-	 * removed. Once it's set to true, it will never be reset to false.
+	 * removed. Once it's set to true, it will never be reset to false. It is
+	 * set with the lock held, and read without it.
 	 */
-	private boolean							removed	= false;
+	private volatile boolean				removed	= false;
 	/**
 	 * An object whose monitor is used to lock this node. This object is used in
 	 * preference to the node itself to reduce the likelihood of intentional or
@@ -132,10 +143,10 @@ public abstract class AbstractPreferences implements Preferences {
 	 * {@link Preferences#get(String,String)}.
 	 * 
 	 * <p>
-	 * This implementation obtains this preference node's lock, checks that the
-	 * node has not been removed, invokes {@link#getSpi(String)}, and returns
-	 * the result, unless the <tt>getSpi</tt> invocation returns <tt>null</tt>
-	 * in which case this invocation returns <tt>def</tt>.
+	 * This implementation checks that the node has not been removed, invokes
+	 * {@link #getSpi(String)} without taking this preference node's lock, and
+	 * returns the result, unless the <tt>getSpi</tt> invocation returns
+	 * <tt>null</tt> in which case this invocation returns <tt>def</tt>.
 	 * 
 	 * @param key key whose associated value is to be returned.
 	 * @param def the value to be returned in the event that this preference
@@ -149,12 +160,12 @@ public abstract class AbstractPreferences implements Preferences {
 	 */
 	@Override
 	public String get(String key, String def) {
-		synchronized (lock) {
-			if (removed)
-				throw new IllegalStateException("Node has been removed.");
-			String result = getSpi(key);
-			return (result == null ? def : result);
-		}
+		if (key == null)
+			throw new NullPointerException();
+		if (removed)
+			throw new IllegalStateException("Node has been removed.");
+		String result = getSpi(key);
+		return (result == null ? def : result);
 	}
 
 	/**
@@ -171,6 +182,8 @@ public abstract class AbstractPreferences implements Preferences {
 	 */
 	@Override
 	public void remove(String key) {
+		if (key == null)
+			throw new NullPointerException();
 		synchronized (lock) {
 			if (removed)
 				throw new IllegalStateException("Node has been removed.");
@@ -541,8 +554,8 @@ public abstract class AbstractPreferences implements Preferences {
 	 * {@link Preferences#keys()}.
 	 * 
 	 * <p>
-	 * This implementation obtains this preference node's lock, checks that the
-	 * node has not been removed and invokes {@link #keysSpi()}.
+	 * This implementation checks that the node has not been removed and
+	 * invokes {@link #keysSpi()} without taking this preference node's lock.
 	 * 
 	 * @return an array of the keys that have an associated value in this
 	 *         preference node.
@@ -554,11 +567,9 @@ public abstract class AbstractPreferences implements Preferences {
 	 */
 	@Override
 	public String[] keys() throws BackingStoreException {
-		synchronized (lock) {
-			if (removed)
-				throw new IllegalStateException("Node has been removed.");
-			return keysSpi();
-		}
+		if (removed)
+			throw new IllegalStateException("Node has been removed.");
+		return keysSpi();
 	}
 
 	/**
@@ -566,8 +577,9 @@ public abstract class AbstractPreferences implements Preferences {
 	 * in {@link Preferences#childrenNames()}.
 	 * 
 	 * <p>
-	 * This implementation obtains this preference node's lock, checks that the
-	 * node has not been removed and invokes {@link #childrenNamesSpi()}.
+	 * This implementation checks that the node has not been removed and
+	 * invokes {@link #childrenNamesSpi()} without taking this preference
+	 * node's lock.
 	 * 
 	 * @return the children of this preference node.
 	 * @throws BackingStoreException if this operation cannot be completed due
@@ -578,11 +590,9 @@ public abstract class AbstractPreferences implements Preferences {
 	 */
 	@Override
 	public String[] childrenNames() throws BackingStoreException {
-		synchronized (lock) {
-			if (removed)
-				throw new IllegalStateException("Node has been removed.");
-			return childrenNamesSpi();
-		}
+		if (removed)
+			throw new IllegalStateException("Node has been removed.");
+		return childrenNamesSpi();
 	}
 
 	/**
@@ -590,9 +600,8 @@ public abstract class AbstractPreferences implements Preferences {
 	 * {@link Preferences#parent()}.
 	 * 
 	 * <p>
-	 * This implementation obtains this preference node's lock, checks that the
-	 * node has not been removed and returns the parent value that was passed to
-	 * this node's constructor.
+	 * This implementation checks that the node has not been removed and returns
+	 * the parent value that was passed to this node's constructor.
 	 * 
 	 * @return the parent of this preference node.
 	 * @throws IllegalStateException if this node (or an ancestor) has been
@@ -600,11 +609,9 @@ public abstract class AbstractPreferences implements Preferences {
 	 */
 	@Override
 	public Preferences parent() {
-		synchronized (lock) {
-			if (removed)
-				throw new IllegalStateException("Node has been removed.");
-			return parent;
-		}
+		if (removed)
+			throw new IllegalStateException("Node has been removed.");
+		return parent;
 	}
 
 	/**
@@ -612,15 +619,17 @@ public abstract class AbstractPreferences implements Preferences {
 	 * {@link Preferences#node(String)}.
 	 * 
 	 * <p>
-	 * This implementation obtains this preference node's lock and checks that
-	 * the node has not been removed. If <tt>path</tt> is <tt>""</tt>, this
-	 * node is returned; if <tt>path</tt> is <tt>"/"</tt>, this node's root
-	 * is returned. Otherwise, this breaks <tt>path</tt> into tokens and
-	 * recursively traverses the path from this node (or from the root, if the
-	 * first character of <tt>path</tt> is <tt>'/'</tt>) to the named node,
-	 * "consuming" a name and a slash from <tt>path</tt> at each step of the
-	 * traversal. At each step, the current node is locked and the {@link
-	 * #childSpi(String)} method is invoked. When there are no more tokens, the
+	 * This implementation checks that the node has not been removed. If
+	 * <tt>path</tt> is <tt>""</tt>, this node is returned; if <tt>path</tt>
+	 * is <tt>"/"</tt>, this node's root is returned. Otherwise, this breaks
+	 * <tt>path</tt> into tokens and recursively traverses the path from this
+	 * node (or from the root, if the first character of <tt>path</tt> is
+	 * <tt>'/'</tt>) to the named node, "consuming" a name and a slash from
+	 * <tt>path</tt> at each step of the traversal. At each step, an existing
+	 * child is looked up with {@link #cachedChildSpi(String)} without
+	 * locking; if there is none, the current node is locked and the {@link
+	 * #childSpi(String)} method is invoked. No lock is held while the
+	 * traversal proceeds to the child. When there are no more tokens, the
 	 * value returned by <tt>child</tt> is returned by this method. If during
 	 * the traversal, two <tt>"/"</tt> tokens occur consecutively, or the
 	 * final token is <tt>"/"</tt> (rather than a name>, an appropriate
@@ -636,17 +645,14 @@ public abstract class AbstractPreferences implements Preferences {
 	 */
 	@Override
 	public Preferences node(String path) {
-		synchronized (lock) {
-			if (removed)
-				throw new IllegalStateException("Node has been removed.");
-			if (path.equals(""))
-				return this;
-			if (path.equals("/"))
-				return root;
-			if (path.charAt(0) != '/')
-				return node(new StringTokenizer(path, "/", true));
-		}
-		// Absolute path. Note that we've dropped our lock to avoid deadlock
+		if (removed)
+			throw new IllegalStateException("Node has been removed.");
+		if (path.equals(""))
+			return this;
+		if (path.equals("/"))
+			return root;
+		if (path.charAt(0) != '/')
+			return node(new StringTokenizer(path, "/", true));
 		return root.node(new StringTokenizer(path.substring(1), "/", true));
 	}
 
@@ -657,15 +663,21 @@ public abstract class AbstractPreferences implements Preferences {
 		String token = path.nextToken();
 		if (token.equals("/")) // Check for consecutive slashes
 			throw new IllegalArgumentException("Consecutive slashes in path");
-		synchronized (lock) {
-			AbstractPreferences child = childSpi(token);
-			if (!path.hasMoreTokens())
-				return child;
-			path.nextToken(); // Consume slash
-			if (!path.hasMoreTokens())
-				throw new IllegalArgumentException("Path ends with slash");
-			return child.node(path);
+		AbstractPreferences child = cachedChildSpi(token);
+		if (child == null) {
+			synchronized (lock) {
+				// the node may have been removed since the traversal passed it
+				if (removed)
+					throw new IllegalStateException("Node has been removed.");
+				child = childSpi(token);
+			}
 		}
+		if (!path.hasMoreTokens())
+			return child;
+		path.nextToken(); // Consume slash
+		if (!path.hasMoreTokens())
+			throw new IllegalArgumentException("Path ends with slash");
+		return child.node(path);
 	}
 
 	/**
@@ -815,7 +827,8 @@ public abstract class AbstractPreferences implements Preferences {
 	 * (The implementor needn't check for either of these things.)
 	 * 
 	 * <p>
-	 * This method is invoked with the lock on this node held.
+	 * This method is invoked without the lock on this node held, possibly
+	 * while another thread modifies the node.
 	 */
 	protected abstract String getSpi(String key);
 
@@ -854,7 +867,8 @@ public abstract class AbstractPreferences implements Preferences {
 	 * preferences.) It is guaranteed that this node has not been removed.
 	 * 
 	 * <p>
-	 * This method is invoked with the lock on this node held.
+	 * This method is invoked without the lock on this node held, possibly
+	 * while another thread modifies the node.
 	 * 
 	 * @return an array of the keys that have an associated value in this
 	 *         preference node.
@@ -869,7 +883,8 @@ public abstract class AbstractPreferences implements Preferences {
 	 * array will be of size zero if this node has no children.)
 	 * 
 	 * <p>
-	 * This method is invoked with the lock on this node held.
+	 * This method is invoked without the lock on this node held, possibly
+	 * while another thread modifies the node.
 	 * 
 	 * @return an array of the keys that have an associated value in this
 	 *         preference node.
@@ -932,6 +947,26 @@ public abstract class AbstractPreferences implements Preferences {
 	protected abstract AbstractPreferences childSpi(
 			@SuppressWarnings("hiding") String name);
 
+	/**
+	 * Returns the named child if it has already been created by {@link
+	 * #childSpi(String)} and not been removed, or null otherwise. It is
+	 * guaranteed that <tt>child</tt> is non-null, non-empty and does not
+	 * contain the slash character ('/').
+	 * 
+	 * <p>
+	 * This method is invoked without the lock on this node held, possibly
+	 * while another thread modifies the node. This implementation returns
+	 * null, so every lookup locks the node and invokes <tt>childSpi</tt>.
+	 * 
+	 * @param name The name of the child node to return, relative to this
+	 *        preference node.
+	 * @return The named child node, or null.
+	 */
+	protected AbstractPreferences cachedChildSpi(
+			@SuppressWarnings("hiding") String name) {
+		return null;
+	}
+
 	/**
 	 * Returns the absolute path name of this preferences node.
 	 */
@@ -945,8 +980,6 @@ public abstract class AbstractPreferences implements Preferences {
 	 * with the {@link #removeNode()}method, otherwise false.
 	 */
 	protected boolean isRemoved() {
-		synchronized (lock) {
-			return removed;
-		}
+		return removed;
 	}
 }
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.prefs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A file of fixed size pages holding one binary record per preferences node,
+ * accessed through a memory mapping.
+ * <p>
+ * A record is stored in a chain of pages. The first page holds the id of the
+ * record, the generation in which it was written, its length and a CRC32
+ * checksum of its data. Changed records are never written in place: a new
+ * version is written to free pages, and the first page of the old version is
+ * marked free once the new one is on the disk. When a crash leaves two
+ * versions of a record, the one with the highest generation is used; a torn
+ * record fails its checksum and is ignored. Only the pages of the records
+ * written since the last commit are touched, whatever the size of the file.
+ * <p>
+ * The methods of this class are not synchronized; the caller must serialize
+ * the access to a store.
+ *
+ * @author $Id$
+ */
+class PageStore {
+	private static final long	MAGIC		= 0x4F53474950524546L;	// OSGIPREF
+	private static final int	VERSION		= 1;
+	static final int			PAGE_SIZE	= 256;
+	// the minimum number of pages added when the file grows
+	private static final int	GROWTH		= 64;
+	private static final int	MAX_PAGES	= Integer.MAX_VALUE / PAGE_SIZE;
+
+	// page types
+	private static final byte	FREE		= 0;
+	private static final byte	HEAD		= 1;
+	private static final byte	MORE		= 2;
+
+	// page layout: type, next page, and for a first page the record header
+	private static final int	TYPE		= 0;
+	private static final int	NEXT		= 4;
+	private static final int	ID			= 8;
+	private static final int	GENERATION	= 16;
+	private static final int	LENGTH		= 24;
+	private static final int	CRC			= 28;
+	private static final int	HEAD_DATA	= 32;
+	private static final int	MORE_DATA	= 8;
+
+	private final File					file;
+	private FileChannel					channel;
+	private MappedByteBuffer			buffer;
+	private int							pageCount;
+	/**
+	 * The generation of the records written until the next commit.
+	 */
+	private long						generation;
+	/**
+	 * The pages of the current version of every record, by record id.
+	 */
+	private final Map<Long,int[]>		chains		= new HashMap<>();
+	/**
+	 * The pages which are in use, or which may not be reused before the next
+	 * commit.
+	 */
+	private final BitSet				used		= new BitSet();
+	/**
+	 * The page chains of the records replaced or removed since the last
+	 * commit.
+	 */
+	private final List<int[]>			released	= new ArrayList<>();
+	// the lowest page which may be free
+	private int							firstFree	= 1;
+
+	PageStore(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the store and reads the current version of every record. Old
+	 * versions and torn records left by a crash are freed.
+	 *
+	 * @return the data of the records by record id
+	 * @throws IOException if the file cannot be read or is not a preferences
+	 *         store
+	 */
+	Map<Long,byte[]> open() throws IOException {
+		map(0);
+		if (pageCount == 0) {
+			map(GROWTH);
+			buffer.putLong(0, MAGIC);
+			buffer.putInt(8, VERSION);
+			buffer.putInt(12, PAGE_SIZE);
+			buffer.force();
+		}
+		else
+			if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION
+					|| buffer.getInt(12) != PAGE_SIZE) {
+				throw new IOException("Not a preferences store: " + file);
+			}
+		used.set(0);
+
+		Map<Long,byte[]> records = new TreeMap<>();
+		Map<Long,Long> generations = new HashMap<>();
+		List<Integer> stale = new ArrayList<>();
+		long maxGeneration = 0;
+		CRC32 crc = new CRC32();
+		for (int page = 1; page < pageCount; page++) {
+			int offset = page * PAGE_SIZE;
+			if (buffer.get(offset + TYPE) != HEAD) {
+				continue;
+			}
+			long gen = buffer.getLong(offset + GENERATION);
+			maxGeneration = Math.max(maxGeneration, gen);
+			int[] chain = readChain(page);
+			byte[] data = chain == null ? null : readData(chain, crc);
+			if (data == null) {
+				stale.add(Integer.valueOf(page));
+				continue;
+			}
+			Long id = Long.valueOf(buffer.getLong(offset + ID));
+			Long current = generations.get(id);
+			if (current != null) {
+				int[] other = chains.get(id);
+				if (current.longValue() > gen) {
+					stale.add(Integer.valueOf(page));
+					continue;
+				}
+				stale.add(Integer.valueOf(other[0]));
+				clear(other);
+			}
+			generations.put(id, Long.valueOf(gen));
+			chains.put(id, chain);
+			records.put(id, data);
+			for (int p : chain) {
+				used.set(p);
+			}
+		}
+		generation = maxGeneration + 1;
+		if (!stale.isEmpty()) {
+			for (Integer page : stale) {
+				buffer.put(page.intValue() * PAGE_SIZE + TYPE, FREE);
+			}
+			buffer.force();
+		}
+		return records;
+	}
+
+	/**
+	 * Writes a new version of a record. The record is durable after the next
+	 * commit; until then the previous version remains valid on the disk.
+	 */
+	void write(long id, byte[] data) throws IOException {
+		int count = pagesFor(data.length);
+		int[] chain = allocate(count);
+		int pos = 0;
+		for (int i = 0; i < count; i++) {
+			int offset = chain[i] * PAGE_SIZE;
+			int dataOffset = i == 0 ? HEAD_DATA : MORE_DATA;
+			int n = Math.min(PAGE_SIZE - dataOffset, data.length - pos);
+			buffer.position(offset + dataOffset);
+			buffer.put(data, pos, n);
+			pos += n;
+			buffer.putInt(offset + NEXT, i + 1 < count ? chain[i + 1] : -1);
+			if (i > 0) {
+				buffer.put(offset + TYPE, MORE);
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		int offset = chain[0] * PAGE_SIZE;
+		buffer.putLong(offset + ID, id);
+		buffer.putLong(offset + GENERATION, generation);
+		buffer.putInt(offset + LENGTH, data.length);
+		buffer.putInt(offset + CRC, (int) crc.getValue());
+		buffer.put(offset + TYPE, HEAD);
+
+		int[] old = chains.put(Long.valueOf(id), chain);
+		if (old != null) {
+			released.add(old);
+		}
+	}
+
+	/**
+	 * Removes a record. The removal is durable after the next commit.
+	 */
+	void remove(long id) {
+		int[] old = chains.remove(Long.valueOf(id));
+		if (old != null) {
+			released.add(old);
+		}
+	}
+
+	/**
+	 * Forces the records written since the last commit to the disk, and then
+	 * frees the pages of the versions they replace and of the removed records.
+	 */
+	void commit() throws IOException {
+		// records written after a failed commit must supersede the ones
+		// written before it
+		generation++;
+		map(pageCount);
+		buffer.force();
+		if (!released.isEmpty()) {
+			for (int[] chain : released) {
+				buffer.put(chain[0] * PAGE_SIZE + TYPE, FREE);
+			}
+			buffer.force();
+			for (int[] chain : released) {
+				clear(chain);
+			}
+			released.clear();
+		}
+	}
+
+	/**
+	 * Closes the file. The store is opened again by the next write or commit.
+	 */
+	void close() throws IOException {
+		buffer = null;
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/* -------- Private methods -------- */
+	/*
+	 * Maps the file, growing it to at least the specified number of pages.
+	 */
+	private void map(int pages) throws IOException {
+		if (channel == null) {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			pageCount = (int) (channel.size() / PAGE_SIZE);
+			buffer = null;
+		}
+		if (buffer != null && pages <= pageCount) {
+			return;
+		}
+		if (pages > pageCount) {
+			if (pages > MAX_PAGES) {
+				throw new IOException("Preferences store too large: " + file);
+			}
+			if (buffer != null) {
+				// the pages written through the old mapping
+				buffer.force();
+			}
+			pageCount = pages;
+		}
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+				(long) pageCount * PAGE_SIZE);
+	}
+
+	private int[] allocate(int count) throws IOException {
+		int[] chain = new int[count];
+		int page = firstFree;
+		for (int i = 0; i < count; i++) {
+			page = used.nextClearBit(page);
+			chain[i] = page++;
+		}
+		int last = chain[count - 1];
+		if (last >= pageCount) {
+			map(Math.max(last + 1, pageCount + Math.max(GROWTH, pageCount / 2)));
+		}
+		else {
+			map(pageCount);
+		}
+		for (int p : chain) {
+			used.set(p);
+		}
+		firstFree = used.nextClearBit(chain[0]);
+		return chain;
+	}
+
+	private void clear(int[] chain) {
+		for (int p : chain) {
+			used.clear(p);
+			if (p < firstFree) {
+				firstFree = p;
+			}
+		}
+	}
+
+	/*
+	 * Follows the chain of pages of the record starting at the specified page.
+	 * Returns null if the chain is broken.
+	 */
+	private int[] readChain(int page) {
+		int length = buffer.getInt(page * PAGE_SIZE + LENGTH);
+		if (length < 0 || length > (long) pageCount * PAGE_SIZE) {
+			return null;
+		}
+		int count = pagesFor(length);
+		int[] chain = new int[count];
+		chain[0] = page;
+		for (int i = 1; i < count; i++) {
+			int next = buffer.getInt(chain[i - 1] * PAGE_SIZE + NEXT);
+			if (next <= 0 || next >= pageCount
+					|| buffer.get(next * PAGE_SIZE + TYPE) != MORE) {
+				return null;
+			}
+			chain[i] = next;
+		}
+		return chain;
+	}
+
+	/*
+	 * Reads the data of a record. Returns null if the checksum does not
+	 * match.
+	 */
+	private byte[] readData(int[] chain, CRC32 crc) {
+		int first = chain[0] * PAGE_SIZE;
+		byte[] data = new byte[buffer.getInt(first + LENGTH)];
+		int pos = 0;
+		for (int i = 0; i < chain.length; i++) {
+			int dataOffset = i == 0 ? HEAD_DATA : MORE_DATA;
+			int n = Math.min(PAGE_SIZE - dataOffset, data.length - pos);
+			ByteBuffer page = buffer.duplicate();
+			page.position(chain[i] * PAGE_SIZE + dataOffset);
+			page.get(data, pos, n);
+			pos += n;
+		}
+		crc.reset();
+		crc.update(data, 0, data.length);
+		if ((int) crc.getValue() != buffer.getInt(first + CRC)) {
+			return null;
+		}
+		return data;
+	}
+
+	private static int pagesFor(int length) {
+		int rest = length - (PAGE_SIZE - HEAD_DATA);
+		if (rest <= 0) {
+			return 1;
+		}
+		return 1 + (rest + PAGE_SIZE - MORE_DATA - 1) / (PAGE_SIZE - MORE_DATA);
+	}
+}
@@ -74,9 +74,10 @@ public class PreferencesServiceImpl implements PreferencesService {
 	@Override
 	public synchronized Preferences getSystemPreferences() {
 		if ((systemPreferences == null) || (systemPreferences.isRemoved())) {
-			File file = new File(prefsRootDir, "system.prefs");
+			File file = new File(prefsRootDir, "system.db");
+			File textFile = new File(prefsRootDir, "system.prefs");
 			File tmpFile = new File(prefsRootDir, "system.tmp");
-			systemPreferences = new SimpleRootPref(file, tmpFile);
+			systemPreferences = new SimpleRootPref(file, textFile, tmpFile);
 		}
 		return systemPreferences;
 	}
@@ -86,9 +87,10 @@ public class PreferencesServiceImpl implements PreferencesService {
 		AbstractPreferences userPreferences = (AbstractPreferences) userPreferencesTable
 				.get(user);
 		if ((userPreferences == null) || (userPreferences.isRemoved())) {
-			File file = new File(usersRootDir, user + ".prefs");
+			File file = new File(usersRootDir, user + ".db");
+			File textFile = new File(usersRootDir, user + ".prefs");
 			File tmpFile = new File(usersRootDir, user + ".tmp");
-			userPreferences = new SimpleRootPref(file, tmpFile);
+			userPreferences = new SimpleRootPref(file, textFile, tmpFile);
 			userPreferencesTable.put(user, userPreferences);
 		}
 		return userPreferences;
@@ -105,7 +107,7 @@ public class PreferencesServiceImpl implements PreferencesService {
 	}
 
 	/*
-	 * flush all preference trees
+	 * flush all preference trees and close their store files
 	 */
 	synchronized void flushAll() {
 		try {
@@ -121,5 +123,13 @@ public class PreferencesServiceImpl implements PreferencesService {
 		catch (BackingStoreException e) {
 			e.printStackTrace();
 		}
+		// the files are opened again if a tree is still used
+		if (systemPreferences != null) {
+			((SimpleRootPref) systemPreferences).close();
+		}
+		Enumeration<Preferences> elements = userPreferencesTable.elements();
+		while (elements.hasMoreElements()) {
+			((SimpleRootPref) elements.nextElement()).close();
+		}
 	}
 }
@@ -17,29 +17,56 @@
  *******************************************************************************/
 package org.osgi.impl.service.prefs;
 
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.osgi.service.prefs.BackingStoreException;
-import org.osgi.service.prefs.Preferences;
 
 /**
  * Simple "proof of concept" Preferences implementation. This implementation
- * achieves persistence by using a text-file-based offline backup facility,
- * storing the entire preference tree into a single file.
+ * achieves persistence by storing every node as a record in a single
+ * {@link PageStore} file per preference tree. Modified nodes are marked in
+ * their root, so a flush only writes the records of these nodes.
+ * <p>
+ * The preferences of a node are kept in a concurrent map, which is modified
+ * with the lock of the node held and read without locking. The children of a
+ * node, which change far less often, are kept in a map which is never
+ * modified once published: a modification copies the map, changes the copy
+ * and publishes it, with the lock of the node held.
  * 
  * @author $Id$
  */
 class SimplePreferences extends AbstractPreferences {
-	private static final int	INIT_HASHTABLE_SIZE	= 3;
-	private Hashtable<String,String>		prefs				= new Hashtable<>(
-															INIT_HASHTABLE_SIZE);
-	private Hashtable<String,Preferences>	kids				= new Hashtable<>(
-															INIT_HASHTABLE_SIZE);
+	// @GuardedBy("lock") for writes
+	private final Map<String,String>				prefs	= new ConcurrentHashMap<>();
+	// @GuardedBy("lock") for writes
+	private volatile Map<String,SimplePreferences>	kids	= Collections
+			.emptyMap();
+	/**
+	 * The id of the record of this node in the store, and of the record of
+	 * its parent.
+	 */
+	long									id;
+	final long								parentId;
 
 	protected SimplePreferences(SimplePreferences parent, String name) {
 		super(parent, name);
-		setModified();
+		if (parent == null) {
+			parentId = -1;
+		}
+		else {
+			id = ((SimpleRootPref) root).newId();
+			parentId = parent.id;
+			setModified();
+		}
 	}
 
 	@Override
@@ -61,37 +88,25 @@ class SimplePreferences extends AbstractPreferences {
 
 	@Override
 	protected String[] keysSpi() {
-		Enumeration<String> enumeration = prefs.keys();
-		String[] result = new String[prefs.size()];
-		for (int i = 0; enumeration.hasMoreElements(); i++) {
-			result[i] = enumeration.nextElement();
-		}
-		return result;
-		// Java 2 version:
-		// return (String[]) prefs.keySet().toArray(new String[prefs.size()]);
+		return prefs.keySet().toArray(new String[0]);
 	}
 
 	@Override
 	public String[] childrenNamesSpi() {
-		Enumeration<String> enumeration = kids.keys();
-		String[] result = new String[kids.size()];
-		for (int i = 0; enumeration.hasMoreElements(); i++) {
-			result[i] = enumeration.nextElement();
-		}
-		return result;
-		// Java 2 version:
-		// return (String[])
-		//    kids.keySet().toArray(new String[kids.size()]);
+		Map<String,SimplePreferences> current = kids;
+		return current.keySet().toArray(new String[current.size()]);
 	}
 
+	/*
+	 * The lock of this node is not held while flushing, since the root locks
+	 * the modified nodes to write them.
+	 */
 	@Override
 	public void flush() throws BackingStoreException {
-		synchronized (lock) {
-			if (isRemoved()) {
-				throw new IllegalStateException("Node has been removed.");
-			}
-			root.flush();
+		if (isRemoved()) {
+			throw new IllegalStateException("Node has been removed.");
 		}
+		root.flush();
 	}
 
 	@Override
@@ -101,21 +116,92 @@ class SimplePreferences extends AbstractPreferences {
 
 	@Override
 	protected AbstractPreferences childSpi(String name) {
-		AbstractPreferences result = (AbstractPreferences) kids.get(name);
+		SimplePreferences result = kids.get(name);
 		if (result == null) {
 			result = new SimplePreferences(this, name);
-			kids.put(name, result);
+			Map<String,SimplePreferences> copy = new HashMap<>(kids);
+			copy.put(name, result);
+			kids = copy;
 		}
 		return result;
 	}
 
+	@Override
+	protected AbstractPreferences cachedChildSpi(String name) {
+		return kids.get(name);
+	}
+
 	@Override
 	protected void removeSpi() throws BackingStoreException{
-		((SimplePreferences) parent()).kids.remove(name());
+		// invoked with the lock of the parent held
+		SimplePreferences parent = (SimplePreferences) parent();
+		Map<String,SimplePreferences> copy = new HashMap<>(parent.kids);
+		copy.remove(name());
+		parent.kids = copy;
 		setModified();
 	}
 
 	void setModified() {
-		((SimplePreferences) root).setModified();
+		((SimpleRootPref) root).setModified(this);
+	}
+
+	/**
+	 * Returns the record of this node in the store: the id of the parent, the
+	 * name and the preferences of the node. Must be called with the lock on
+	 * this node held.
+	 */
+	byte[] toRecord() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(parentId);
+		writeString(out, name());
+		out.writeInt(prefs.size());
+		for (Map.Entry<String,String> entry : prefs.entrySet()) {
+			writeString(out, entry.getKey());
+			writeString(out, entry.getValue());
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes a string of a record as its length and its UTF-8 encoding.
+	 * Unlike {@link DataOutput#writeUTF(String)} this is not limited to 64KB,
+	 * so values of any length can be stored.
+	 */
+	static void writeString(DataOutput out, String s) throws IOException {
+		byte[] data = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutput, String)}.
+	 */
+	static String readString(DataInput in) throws IOException {
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		return new String(data, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sets the preferences read from the store, without marking the node as
+	 * modified.
+	 */
+	void load(Map<String,String> values) {
+		synchronized (lock) {
+			prefs.putAll(values);
+		}
+	}
+
+	/**
+	 * Adds the preferences imported from a text file in one step, and marks
+	 * the node as modified. No preference change events are sent.
+	 */
+	void importAll(Map<String,String> values) {
+		synchronized (lock) {
+			prefs.putAll(values);
+			setModified();
+		}
 	}
 }
@@ -13,39 +13,70 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  *
- * SPDX-License-Identifier: Apache-2.0 
+ * SPDX-License-Identifier: Apache-2.0
  *******************************************************************************/
 package org.osgi.impl.service.prefs;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.service.prefs.BackingStoreException;
 
 /**
  * Root node for a tree of SimplePreferences nodes. This implementation passes
- * all flush() commands to the root node which saves out the whole tree.
- * 
+ * all flush() commands to the root node which saves out the nodes of the tree
+ * modified since the last flush.
+ *
  * @author $Id$
  */
 class SimpleRootPref extends SimplePreferences {
-	final File		preferencesFile;
-	final File		tmpFile;
-	private boolean	modified	= false;
+	final File							storeFile;
+	final File							textFile;
+	final File							tmpFile;
+	/**
+	 * The store of the tree, or <code>null</code> if it could not be opened.
+	 */
+	// @GuardedBy("lock")
+	private PageStore					store;
+	private final AtomicLong			lastId			= new AtomicLong();
+	private final Object				modifiedLock	= new Object();
+	// @GuardedBy("modifiedLock")
+	private Set<SimplePreferences>		modified		= new HashSet<>();
 
-	public SimpleRootPref(final File preferencesFile, File tmpFile) {
+	/**
+	 * Creates the root node and reads the tree from the store file. If there
+	 * is a text file written by an earlier version of this implementation,
+	 * the tree is read from it instead and written to a new store file, after
+	 * which the text file is deleted.
+	 *
+	 * @param storeFile the file of the store
+	 * @param textFile the text file of earlier versions
+	 * @param tmpFile the temporary file of earlier versions
+	 */
+	public SimpleRootPref(File storeFile, File textFile, File tmpFile) {
 		super(null, "");
-		this.preferencesFile = preferencesFile;
+		this.storeFile = storeFile;
+		this.textFile = textFile;
 		this.tmpFile = tmpFile;
 		//j2security
 		AccessController.doPrivileged(new PrivilegedAction<Void>() {
 			@Override
 			public Void run() {
 				//endblock
-				TextFileSupport.read(preferencesFile, SimpleRootPref.this);
+				load();
 				//j2security
 				return null;
 			}
@@ -53,71 +84,79 @@ class SimpleRootPref extends SimplePreferences {
 		//endblock
 	}
 
-	// Attempt to avoid possible data loss on e.g. a power
-	// failure while writing the file: Write to a temp file
-	// and then rename it.
 	@Override
 	public void flush() throws BackingStoreException {
 		synchronized (lock) {
 			if (isRemoved()) {	// RFC 60
 				throw new IllegalStateException("Node has been removed.");
 			}
-			if (modified) {
-				modified = false;
-				//j2security
-				try {
-					AccessController
-							.doPrivileged(
-									new PrivilegedExceptionAction<Void>() {
-								@Override
-										public Void run()
-										throws BackingStoreException {
-									//endblock
-									tmpFile.delete();
-									TextFileSupport.write(tmpFile,
-											SimpleRootPref.this);
-									if (!tmpFile.renameTo(preferencesFile)) {
-										// can't rename to existing file on
-										// Windows
-										preferencesFile.delete();
-										if (!tmpFile
-												.renameTo(preferencesFile)) {
-											throw new BackingStoreException(
-													"rename " + "failed");
-										}
-									}
-									//j2security
-									return null;
-								}
-							});
+			final Set<SimplePreferences> nodes;
+			synchronized (modifiedLock) {
+				if (modified.isEmpty()) {
+					return;
 				}
-				catch (PrivilegedActionException pae) {
-					throw (BackingStoreException) pae.getException();
+				nodes = modified;
+				modified = new HashSet<>();
+			}
+			//j2security
+			try {
+				AccessController
+						.doPrivileged(new PrivilegedExceptionAction<Void>() {
+							@Override
+							public Void run() throws BackingStoreException {
+								//endblock
+								write(nodes);
+								//j2security
+								return null;
+							}
+						});
+			}
+			catch (PrivilegedActionException pae) {
+				synchronized (modifiedLock) {
+					modified.addAll(nodes);
 				}
-				//endblock
+				throw (BackingStoreException) pae.getException();
 			}
+			//endblock
 		}
 	}
 
 	/*
 	 * Not synchronized on lock, to avoid deadlock, and so that modifications
-	 * can be done concurrently with flush. When a modification occurs during a
-	 * flush, the change may or may not be included in the flushed file, but the
-	 * modified flag will be left set, so the next flush will be sure to write
-	 * the file again, whether or not it is really necessary.
-	 * 
-	 * (The other way to avoid deadlock would be to have a single lock object
-	 * for the whole tree. This would avoid the occasional unnecessary writing
-	 * out of the file, but at the cost of holding up all accesses during a
-	 * flush.)
+	 * can be done concurrently with flush. The modified nodes are collected in
+	 * a set which the flush takes over. The flush writes a node with the lock
+	 * on the node held, so a modification in progress when the set is taken
+	 * over is included in the written node; a node modified later is added to
+	 * the new set and written by the next flush.
 	 */
-	@Override
-	void setModified() {
-		modified = true;
+	void setModified(SimplePreferences node) {
+		synchronized (modifiedLock) {
+			modified.add(node);
+		}
+	}
+
+	long newId() {
+		return lastId.incrementAndGet();
+	}
+
+	/**
+	 * Closes the store file. It is opened again by the next flush.
+	 */
+	void close() {
+		synchronized (lock) {
+			if (store != null) {
+				try {
+					store.close();
+				}
+				catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 	}
 
 	/*
-	 * RFC 60 Override SimplePreferences since we have no parent. 
+	 * RFC 60 Override SimplePreferences since we have no parent.
 	 * Delete the backing store.
 	 */
 	@Override
@@ -130,8 +169,18 @@ class SimpleRootPref extends SimplePreferences {
 						public Void run()
 								throws BackingStoreException {
 							//endblock
+							if (store != null) {
+								try {
+									store.close();
+								}
+								catch (IOException e) {
+									// the file is deleted anyway
+								}
+								store = null;
+							}
+							storeFile.delete();
+							textFile.delete();
 							tmpFile.delete();
-							preferencesFile.delete();
 							//j2security
 							return null;
 						}
@@ -143,4 +192,161 @@ class SimpleRootPref extends SimplePreferences {
 		//endblock
 		setModified();
 	}
+
+	/* -------- Private methods -------- */
+	private void load() {
+		try {
+			if (textFile.exists()) {
+				migrate();
+				return;
+			}
+			Map<Long,byte[]> records;
+			store = new PageStore(storeFile);
+			try {
+				records = store.open();
+			}
+			catch (IOException e) {
+				// keep the unreadable file and start with an empty tree
+				System.err.println("Couldn't read preferences from: "
+						+ storeFile);
+				e.printStackTrace();
+				store.close();
+				File bad = new File(storeFile.getPath() + ".bad");
+				bad.delete();
+				if (!storeFile.renameTo(bad)) {
+					storeFile.delete();
+				}
+				store = new PageStore(storeFile);
+				records = store.open();
+			}
+			build(records);
+		}
+		catch (IOException e) {
+			System.err.println("Couldn't open preferences store: "
+					+ storeFile);
+			e.printStackTrace();
+			store = null;
+		}
+		synchronized (modifiedLock) {
+			modified.clear();
+		}
+	}
+
+	/*
+	 * Reads the tree from the text file and writes all nodes to a new store.
+	 * The text file is only deleted once the store is committed, so an
+	 * interrupted migration is started again with the next root.
+	 */
+	private void migrate() throws IOException {
+		TextFileSupport.read(textFile, this);
+		storeFile.delete();
+		store = new PageStore(storeFile);
+		store.open();
+		try {
+			flush();
+		}
+		catch (BackingStoreException e) {
+			// the nodes stay modified, so the next flush writes them again
+			System.err.println("Couldn't write preferences to: " + storeFile);
+			e.printStackTrace();
+			return;
+		}
+		textFile.delete();
+		tmpFile.delete();
+	}
+
+	/*
+	 * Creates the nodes of the tree from the records of the store. A record
+	 * whose parent is missing, which can be left by a crash during a flush, is
+	 * removed. So is the older of two nodes with the same name.
+	 */
+	private void build(Map<Long,byte[]> records) throws IOException {
+		Map<Long,Map<String,Long>> children = new HashMap<>();
+		long maxId = 0;
+		for (Map.Entry<Long,byte[]> entry : records.entrySet()) {
+			Long id = entry.getKey();
+			maxId = Math.max(maxId, id.longValue());
+			if (id.longValue() == 0) {
+				continue;
+			}
+			DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(entry.getValue()));
+			Long parentId = Long.valueOf(in.readLong());
+			String name = readString(in);
+			Map<String,Long> kids = children.get(parentId);
+			if (kids == null) {
+				kids = new HashMap<>();
+				children.put(parentId, kids);
+			}
+			Long other = kids.put(name, id);
+			if (other != null && other.longValue() > id.longValue()) {
+				kids.put(name, other);
+			}
+		}
+
+		List<SimplePreferences> work = new ArrayList<>();
+		work.add(this);
+		while (!work.isEmpty()) {
+			SimplePreferences node = work.remove(work.size() - 1);
+			byte[] record = records.remove(Long.valueOf(node.id));
+			if (record != null) {
+				DataInputStream in = new DataInputStream(
+						new ByteArrayInputStream(record));
+				in.readLong();
+				readString(in);
+				int n = in.readInt();
+				Map<String,String> values = new HashMap<>(n * 2);
+				for (; n > 0; n--) {
+					values.put(readString(in), readString(in));
+				}
+				node.load(values);
+			}
+			Map<String,Long> kids = children.get(Long.valueOf(node.id));
+			if (kids != null) {
+				for (Map.Entry<String,Long> kid : kids.entrySet()) {
+					SimplePreferences child = (SimplePreferences) node
+							.childSpi(kid.getKey());
+					child.id = kid.getValue().longValue();
+					work.add(child);
+				}
+			}
+		}
+		lastId.set(maxId);
+
+		if (!records.isEmpty()) {
+			for (Long id : records.keySet()) {
+				store.remove(id.longValue());
+			}
+			store.commit();
+		}
+	}
+
+	/*
+	 * Writes the records of the specified nodes, or removes them if the nodes
+	 * have been removed, and commits the store.
+	 */
+	private void write(Set<SimplePreferences> nodes)
+			throws BackingStoreException {
+		if (store == null) {
+			throw new BackingStoreException("Couldn't open preferences store: "
+					+ storeFile);
+		}
+		try {
+			for (SimplePreferences node : nodes) {
+				synchronized (node.lock) {
+					if (node.isRemoved()) {
+						store.remove(node.id);
+					}
+					else {
+						store.write(node.id, node.toRecord());
+					}
+				}
+			}
+			store.commit();
+		}
+		catch (IOException e) {
+			throw new BackingStoreException("Couldn't write preferences to: "
+					+ storeFile, e);
+		}
+	}
 }
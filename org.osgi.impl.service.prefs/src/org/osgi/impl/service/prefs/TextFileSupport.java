@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.osgi.service.prefs.BackingStoreException;
 import org.osgi.service.prefs.Preferences;
@@ -33,7 +35,7 @@ import org.osgi.service.prefs.Preferences;
  * @author $Id$
  */
 class TextFileSupport {
-	static void read(File preferencesFile, Preferences prefs) {
+	static void read(File preferencesFile, SimplePreferences prefs) {
 		try {
 			if (!preferencesFile.exists()) {
 				return;
@@ -107,20 +109,26 @@ class TextFileSupport {
 	 * @throws InvalidPreferencesFormatException if the input Properties file
 	 *         has an invalid key.
 	 */
-	private static void importPreferences(BufferedReader br, Preferences root)
+	private static void importPreferences(BufferedReader br,
+			SimplePreferences root)
 			throws IOException, InvalidPreferencesFormatException {
 		int nextChar = br.read();
 		do {
 			if (nextChar != '/') {
 				throw new InvalidPreferencesFormatException("'/' expected");
 			}
-			Preferences prefs = root.node(readLine(br));
+			SimplePreferences prefs = (SimplePreferences) root
+					.node(readLine(br));
 			nextChar = importPrefs(br, prefs);
 		} while (nextChar != -1);
 	}
 
-	private static int importPrefs(BufferedReader br, Preferences prefs)
+	/*
+	 * Reads the preferences of a node and adds them to the node at once.
+	 */
+	private static int importPrefs(BufferedReader br, SimplePreferences prefs)
 			throws IOException {
+		Map<String,String> values = new HashMap<>();
 		int nextChar;
 		for (;;) {
 			nextChar = br.read();
@@ -129,8 +137,9 @@ class TextFileSupport {
 			}
 			String key = readKey(nextChar, br);
 			String value = readLine(br);
-			prefs.put(key, value);
+			values.put(key, value);
 		}
+		prefs.importAll(values);
 		return nextChar;
 	}
 
@@ -32,12 +32,15 @@ public class Activator implements BundleActivator {
 
 	private Component	component;
 
+	private RestService	service;
+
 	@Override
 	public void start(final BundleContext context) throws Exception {
 		component = new Component();
 		component.getServers().add(Protocol.HTTP, 8888);
 		component.getClients().add(Protocol.CLAP);
-		component.getDefaultHost().attach("", new RestService(context));
+		service = new RestService(context);
+		component.getDefaultHost().attach("", service);
 		component.start();
 	}
 
@@ -45,6 +48,8 @@ public class Activator implements BundleActivator {
 	public void stop(final BundleContext context) throws Exception {
 		component.stop();
 		component = null;
+		service.close();
+		service = null;
 	}
 
 }
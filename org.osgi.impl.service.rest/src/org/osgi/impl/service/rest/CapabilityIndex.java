@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.impl.service.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+
+/**
+ * Index of the capabilities declared by the current revisions of the
+ * installed bundles, maintained from bundle events. The capabilities are
+ * grouped by namespace, so that a query filter is only evaluated against the
+ * capabilities in its namespace, and the bundles matching a filter are
+ * remembered until the next bundle event.
+ */
+public final class CapabilityIndex implements SynchronousBundleListener {
+
+	/** upper bound on the number of filters remembered for one generation */
+	private static final int						MAX_FILTERS	= 256;
+
+	private static final Bundle[]					NO_BUNDLES	= new Bundle[0];
+
+	private final ConcurrentMap<Long, Indexed>		bundles		= new ConcurrentHashMap<Long, Indexed>();
+
+	private final AtomicLong						generation	= new AtomicLong();
+
+	private volatile Snapshot						snapshot;
+
+	void open(final BundleContext context) {
+		context.addBundleListener(this);
+		for (final Bundle bundle : context.getBundles()) {
+			index(bundle);
+		}
+	}
+
+	void close(final BundleContext context) {
+		context.removeBundleListener(this);
+	}
+
+	@Override
+	public void bundleChanged(final BundleEvent event) {
+		final Bundle bundle = event.getBundle();
+		switch (event.getType()) {
+			case BundleEvent.INSTALLED :
+			case BundleEvent.UPDATED :
+			case BundleEvent.UNRESOLVED :
+				index(bundle);
+				break;
+			case BundleEvent.UNINSTALLED :
+				bundles.remove(Long.valueOf(bundle.getBundleId()));
+				generation.incrementAndGet();
+				break;
+			default :
+				// the declared capabilities do not change
+				break;
+		}
+	}
+
+	private void index(final Bundle bundle) {
+		final BundleRevision revision = bundle.adapt(BundleRevision.class);
+		if (revision == null) {
+			// uninstalled
+			bundles.remove(Long.valueOf(bundle.getBundleId()));
+		} else {
+			final Map<String, List<Map<String, Object>>> capabilities = new HashMap<String, List<Map<String, Object>>>();
+			for (final Capability cap : revision.getCapabilities(null)) {
+				List<Map<String, Object>> attributes = capabilities.get(cap.getNamespace());
+				if (attributes == null) {
+					attributes = new ArrayList<Map<String, Object>>(1);
+					capabilities.put(cap.getNamespace(), attributes);
+				}
+				attributes.add(cap.getAttributes());
+			}
+			bundles.put(Long.valueOf(bundle.getBundleId()), new Indexed(bundle, capabilities));
+		}
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Get the bundles matching a set of query filters.
+	 *
+	 * @param filters the filters, keyed by the namespace of the capabilities
+	 *            they are matched against. A bundle matches a filter if it
+	 *            declares at least one capability in the namespace whose
+	 *            attributes match the filter.
+	 * @return the bundles matching all filters, ordered by bundle id. The
+	 *         array must not be modified.
+	 * @throws InvalidSyntaxException if a filter is invalid.
+	 */
+	public Bundle[] getBundles(final Map<String, String> filters)
+			throws InvalidSyntaxException {
+		final Snapshot snapshot = snapshot();
+		Bundle[] result = snapshot.all;
+		for (final Map.Entry<String, String> filter : filters.entrySet()) {
+			final Bundle[] matching = snapshot.getBundles(filter.getKey(), filter.getValue());
+			result = (result == snapshot.all) ? matching : retain(result, matching);
+			if (result.length == 0) {
+				break;
+			}
+		}
+		return result;
+	}
+
+	private Snapshot snapshot() {
+		Snapshot snapshot = this.snapshot;
+		// read the generation before the bundles, so that a change made while
+		// building leaves a stale generation behind and forces another rebuild
+		final long current = generation.get();
+		if (snapshot == null || snapshot.generation != current) {
+			snapshot = new Snapshot(current, new TreeMap<Long, Indexed>(bundles).values());
+			this.snapshot = snapshot;
+		}
+		return snapshot;
+	}
+
+	/*
+	 * Intersects two arrays of bundles ordered by bundle id.
+	 */
+	private static Bundle[] retain(final Bundle[] bundles, final Bundle[] retained) {
+		final Bundle[] result = new Bundle[Math.min(bundles.length, retained.length)];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while (i < bundles.length && j < retained.length) {
+			final long id = bundles[i].getBundleId();
+			final long retainedId = retained[j].getBundleId();
+			if (id < retainedId) {
+				i++;
+			} else if (id > retainedId) {
+				j++;
+			} else {
+				result[size++] = bundles[i];
+				i++;
+				j++;
+			}
+		}
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
+
+	private static final class Indexed {
+		final Bundle										bundle;
+		final Map<String, List<Map<String, Object>>>		capabilities;
+
+		Indexed(final Bundle bundle, final Map<String, List<Map<String, Object>>> capabilities) {
+			this.bundle = bundle;
+			this.capabilities = capabilities;
+		}
+	}
+
+	private static final class Snapshot {
+		final long											generation;
+
+		final Bundle[]										all;
+
+		// namespace -> bundles in id order, with the attributes of their
+		// capabilities in the namespace
+		final Map<String, List<Indexed>>					namespaces	= new HashMap<String, List<Indexed>>();
+
+		final ConcurrentMap<String, Bundle[]>				matches		= new ConcurrentHashMap<String, Bundle[]>();
+
+		Snapshot(final long generation, final Iterable<Indexed> bundles) {
+			this.generation = generation;
+			final List<Bundle> all = new ArrayList<Bundle>();
+			for (final Indexed indexed : bundles) {
+				all.add(indexed.bundle);
+				for (final String namespace : indexed.capabilities.keySet()) {
+					List<Indexed> list = namespaces.get(namespace);
+					if (list == null) {
+						list = new ArrayList<Indexed>();
+						namespaces.put(namespace, list);
+					}
+					list.add(indexed);
+				}
+			}
+			this.all = all.toArray(new Bundle[all.size()]);
+		}
+
+		Bundle[] getBundles(final String namespace, final String filterString)
+				throws InvalidSyntaxException {
+			final String key = namespace + '\n' + filterString;
+			Bundle[] result = matches.get(key);
+			if (result != null) {
+				return result;
+			}
+
+			final Filter filter = FrameworkUtil.createFilter(filterString);
+			final List<Indexed> candidates = namespaces.get(namespace);
+			final List<Bundle> matching = new ArrayList<Bundle>();
+			for (final Indexed indexed : candidates == null ? Collections.<Indexed> emptyList() : candidates) {
+				for (final Map<String, Object> attributes : indexed.capabilities.get(namespace)) {
+					if (filter.matches(attributes)) {
+						matching.add(indexed.bundle);
+						break;
+					}
+				}
+			}
+			result = matching.isEmpty() ? NO_BUNDLES : matching.toArray(new Bundle[matching.size()]);
+			if (matches.size() < MAX_FILTERS) {
+				matches.put(key, result);
+			}
+			return result;
+		}
+	}
+
+}
@@ -18,7 +18,8 @@
 
 package org.osgi.impl.service.rest;
 
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Array;
@@ -27,25 +28,16 @@ import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.SchemaFactory;
 
 import org.json.JSONObject;
 import org.osgi.impl.service.rest.pojos.BundleExceptionPojo;
 import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 /**
  * Reflector to create pojos from JSON Object representations and vice versa.
@@ -55,7 +47,7 @@ import org.xml.sax.SAXException;
  */
 public class PojoReflector<B> {
 
-	private static HashMap<Class<?>, PojoReflector<?>>	reflectorCache	= new HashMap<Class<?>, PojoReflector<?>>();
+	private static final Map<Class<?>, PojoReflector<?>>	reflectorCache	= new ConcurrentHashMap<Class<?>, PojoReflector<?>>();
 
 	private final Class<B>								clazz;
 
@@ -63,25 +55,15 @@ public class PojoReflector<B> {
 
 	private final HashMap<String, Method>				getterMethodTable;
 
-	private static final DocumentBuilderFactory			factory;
-
 	private static final Map<Class<?>, String>			typeCache		= new HashMap<Class<?>, String>();
 
 	private static final String							SCHEMA_LOCATION	= "http://www.osgi.org/xmlns/rest/v1.0.0 rest.xsd";
 
 	private static final String							REST_NS			= "rest";
 
-	static {
-		final SchemaFactory sfact = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-		factory = DocumentBuilderFactory.newInstance();
-		try {
-			factory.setSchema(sfact.newSchema(new StreamSource(PojoReflector.class.getResourceAsStream("/rest.xsd"))));
-			factory.setNamespaceAware(true);
-			factory.setValidating(true);
-		} catch (SAXException e) {
-			e.printStackTrace();
-		}
+	private static final String							XML_DECLARATION	= "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
 
+	static {
 		typeCache.put(String.class, "String");
 		typeCache.put(Long.class, "Long");
 		typeCache.put(Double.class, "Double");
@@ -93,12 +75,15 @@ public class PojoReflector<B> {
 		typeCache.put(Short.class, "Short");
 	}
 
+	@SuppressWarnings("unchecked")
 	public static <T> PojoReflector<T> getReflector(final Class<T> clazz) {
-		@SuppressWarnings("unchecked")
 		PojoReflector<T> r = (PojoReflector<T>) reflectorCache.get(clazz);
 		if (r == null) {
 			r = new PojoReflector<T>(clazz);
-			reflectorCache.put(clazz, r);
+			final PojoReflector<T> existing = (PojoReflector<T>) reflectorCache.putIfAbsent(clazz, r);
+			if (existing != null) {
+				r = existing;
+			}
 		}
 		return r;
 	}
@@ -181,20 +166,37 @@ public class PojoReflector<B> {
 		return instance;
 	}
 
-	public Document xmlFromBean(final B bean) throws Exception {
-		final DocumentBuilder builder = factory.newDocumentBuilder();
-		final Document doc = builder.newDocument();
-
-		final Element rootNode = xmlFromBean(bean, doc);
-		rootNode.setAttributeNS(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI,
-				"xsi:schemaLocation", SCHEMA_LOCATION);
-		doc.appendChild(rootNode);
+	/**
+	 * Writes the XML representation of a pojo, or of a list of pojos, to a
+	 * character stream. The document is written element by element, without
+	 * building a DOM tree first.
+	 */
+	public static void writeXml(final Object bean, final Writer out) throws Exception {
+		writeXml(bean, null, out);
+	}
 
-		return doc;
+	/**
+	 * Writes the XML representation of a list of pojos, restricted to the
+	 * given fields of the pojos in the list.
+	 *
+	 * @param fields the names of the fields to write, or {@code null} to
+	 *            write all fields.
+	 */
+	public static void writeXml(final Object bean, final Set<String> fields, final Writer out) throws Exception {
+		out.write(XML_DECLARATION);
+		writeXml(bean, fields, out, true);
 	}
 
-	public Element xmlFromBean(final Object bean, final Document doc) throws Exception {
-		final Element rootNode = doc.createElementNS(REST_NS, bean.getClass().getAnnotation(RootNode.class).name());
+	private static void writeXml(final Object bean, final Set<String> fields, final Writer out, final boolean root) throws Exception {
+		final String name = bean.getClass().getAnnotation(RootNode.class).name();
+		out.write('<');
+		out.write(name);
+		if (root) {
+			out.write(" xmlns=\"" + REST_NS + "\" xmlns:xsi=\""
+					+ XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI
+					+ "\" xsi:schemaLocation=\"" + SCHEMA_LOCATION + "\"");
+		}
+		out.write('>');
 		if (bean instanceof Collection) {
 			String elemName = null;
 			boolean complex = false;
@@ -211,105 +213,282 @@ public class PojoReflector<B> {
 				}
 
 				if (complex) {
-					rootNode.appendChild(getReflector(o.getClass()).xmlFromBean(o, doc));
+					writeXml(o, fields, out, false);
 				} else {
-					rootNode.appendChild(toXml(o, elemName, doc));
+					toXml(o, elemName, out);
 				}
 			}
 		} else if (bean instanceof BundleExceptionPojo) {
 			final BundleExceptionPojo p = (BundleExceptionPojo) bean;
 
-			final Element tc = doc.createElementNS(REST_NS, "typecode");
-			tc.setTextContent(Integer.toString(p.getTypecode()));
-			rootNode.appendChild(tc);
-			final Element msg = doc.createElementNS(REST_NS, "message");
-			msg.setTextContent(p.getMessage());
-			rootNode.appendChild(msg);
+			toXml(Integer.valueOf(p.getTypecode()), "typecode", out);
+			toXml(p.getMessage(), "message", out);
 		} else {
-			for (final Map.Entry<String, Method> entry : getterMethodTable.entrySet()) {
+			for (final Map.Entry<String, Method> entry : getReflector(bean.getClass()).getterMethodTable.entrySet()) {
 				final String field = entry.getKey();
+				if (fields != null && !fields.contains(field)) {
+					continue;
+				}
 				final Object o = entry.getValue().invoke(bean);
-				rootNode.appendChild(toXml(o, field, doc));
+				toXml(o, field, out);
 			}
 		}
-
-		return rootNode;
-	}
-
-	// for debugging only
-	@SuppressWarnings("unused")
-	private final String printDoc(final Document doc) throws Exception {
-		TransformerFactory tf = TransformerFactory.newInstance();
-		Transformer transformer = tf.newTransformer();
-		transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-		StringWriter writer = new StringWriter();
-		transformer.transform(new DOMSource(doc), new StreamResult(writer));
-		return writer.getBuffer().toString();
+		endElement(name, out);
 	}
 
-	private static Element toXml(final Object o, final String name, final Document doc) {
-		final Element e = doc.createElementNS(REST_NS, name);
+	private static void toXml(final Object o, final String name, final Writer out) throws IOException {
+		out.write('<');
+		out.write(name);
+		out.write('>');
 
 		if ("usingBundles".equals(name)) {
 			for (final String bundle : (String[]) o) {
-				e.appendChild(toXml(bundle, "bundle", doc));
+				toXml(bundle, "bundle", out);
 			}
 		} else if (o instanceof Map) {
 			@SuppressWarnings("unchecked")
 			final Map<Object, Object> map = (Map<Object, Object>) o;
 			for (final Map.Entry<Object, Object> entry : map.entrySet()) {
-				final Element elem = doc.createElementNS(REST_NS, "property");
-				elem.setAttribute("name", entry.getKey().toString());
+				out.write("<property");
+				writeAttribute("name", entry.getKey().toString(), out);
 				final Object val = entry.getValue();
 				if (val.getClass().isArray()) {
-					final String type = getType(o.getClass().getComponentType());
-					if (type != null) {
-						e.setAttribute("type", type);
-					}
+					out.write('>');
 					final int len = Array.getLength(val);
-					final StringBuilder sb = new StringBuilder();
 					for (int i = 0; i < len; i++) {
-						sb.append(Array.get(val, i).toString());
-						if (i < len) {
-							sb.append('\n');
-						}
+						escape(Array.get(val, i).toString(), out);
+						out.write('\n');
 					}
-					elem.setTextContent(sb.toString());
+					endElement("property", out);
 				} else {
 					final String type = getType(val.getClass());
 					if (type != null) {
-						elem.setAttribute("type", type);
+						writeAttribute("type", type, out);
 					}
-					elem.setAttribute("value", val.toString());
+					writeAttribute("value", val.toString(), out);
+					out.write("/>");
 				}
-				e.appendChild(elem);
 			}
-		} else {
-			e.setTextContent(o.toString());
+		} else if (o != null) {
+			escape(o.toString(), out);
 		}
 
-		return e;
+		endElement(name, out);
 	}
 
 	private static String getType(Class<? extends Object> cls) {
 		return typeCache.get(cls);
 	}
 
-	public static Document mapToXml(final Map<String, String> map) throws Exception {
-		final DocumentBuilder builder = factory.newDocumentBuilder();
-		final Document doc = builder.newDocument();
+	/**
+	 * Writes the XML representation of a bundle header to a character stream.
+	 */
+	public static void writeMapXml(final Map<String, String> map, final Writer out) throws IOException {
+		out.write(XML_DECLARATION);
+		out.write("<bundleHeader xmlns=\"" + REST_NS + "\">");
+
+		for (final Map.Entry<String, String> entry : map.entrySet()) {
+			out.write("<entry");
+			writeAttribute("key", entry.getKey(), out);
+			writeAttribute("value", entry.getValue(), out);
+			out.write("/>");
+		}
+
+		endElement("bundleHeader", out);
+	}
+
+	private static void endElement(final String name, final Writer out) throws IOException {
+		out.write("</");
+		out.write(name);
+		out.write('>');
+	}
+
+	private static void writeAttribute(final String name, final String value, final Writer out) throws IOException {
+		out.write(' ');
+		out.write(name);
+		out.write("=\"");
+		escape(value, out);
+		out.write('"');
+	}
+
+	/*
+	 * Escapes character data and attribute values alike. Whitespace other than
+	 * blanks is written as character references, so that it survives
+	 * attribute value normalization.
+	 */
+	private static void escape(final String s, final Writer out) throws IOException {
+		final int len = s.length();
+		int start = 0;
+		for (int i = 0; i < len; i++) {
+			final String escape;
+			switch (s.charAt(i)) {
+				case '&' :
+					escape = "&amp;";
+					break;
+				case '<' :
+					escape = "&lt;";
+					break;
+				case '>' :
+					escape = "&gt;";
+					break;
+				case '"' :
+					escape = "&quot;";
+					break;
+				case '\n' :
+					escape = "&#10;";
+					break;
+				case '\r' :
+					escape = "&#13;";
+					break;
+				case '\t' :
+					escape = "&#9;";
+					break;
+				default :
+					continue;
+			}
+			out.write(s, start, i - start);
+			out.write(escape);
+			start = i + 1;
+		}
+		out.write(s, start, len - start);
+	}
 
-		final Element rootNode = doc.createElementNS(REST_NS, "bundleHeader");
-		doc.appendChild(rootNode);
+	/**
+	 * Writes the JSON representation of a pojo, a list of pojos, or a map to
+	 * a character stream. Pojos are written as objects of their non-null
+	 * properties, in the same form as {@link JSONObject#JSONObject(Object)}
+	 * would produce, but without building a JSON tree first.
+	 */
+	public static void writeJson(final Object o, final Writer out) throws Exception {
+		writeJson(o, null, out);
+	}
 
-		for (final String key : map.keySet()) {
-			final Element entry = doc.createElementNS(REST_NS, "entry");
-			entry.setAttribute("key", key);
-			entry.setAttribute("value", map.get(key));
-			rootNode.appendChild(entry);
+	/**
+	 * Writes the JSON representation of a list of pojos, restricted to the
+	 * given fields of the pojos in the list.
+	 *
+	 * @param fields the names of the fields to write, or {@code null} to
+	 *            write all fields.
+	 */
+	public static void writeJson(final Object o, final Set<String> fields, final Writer out) throws Exception {
+		if (o == null) {
+			out.write("null");
+		} else if (o instanceof String || o instanceof Character) {
+			quote(o.toString(), out);
+		} else if (o instanceof Boolean) {
+			out.write(o.toString());
+		} else if (o instanceof Number) {
+			final Number n = (Number) o;
+			if ((n instanceof Double && !Double.isFinite(n.doubleValue()))
+					|| (n instanceof Float && !Float.isFinite(n.floatValue()))) {
+				quote(n.toString(), out);
+			} else {
+				out.write(n.toString());
+			}
+		} else if (o instanceof Map) {
+			out.write('{');
+			boolean first = true;
+			for (final Map.Entry<?, ?> entry : ((Map<?, ?>) o).entrySet()) {
+				if (entry.getValue() == null) {
+					continue;
+				}
+				if (!first) {
+					out.write(',');
+				}
+				first = false;
+				quote(String.valueOf(entry.getKey()), out);
+				out.write(':');
+				writeJson(entry.getValue(), out);
+			}
+			out.write('}');
+		} else if (o instanceof Collection) {
+			out.write('[');
+			boolean first = true;
+			for (final Object element : (Collection<?>) o) {
+				if (!first) {
+					out.write(',');
+				}
+				first = false;
+				writeJson(element, fields, out);
+			}
+			out.write(']');
+		} else if (o.getClass().isArray()) {
+			out.write('[');
+			final int len = Array.getLength(o);
+			for (int i = 0; i < len; i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				writeJson(Array.get(o, i), fields, out);
+			}
+			out.write(']');
+		} else if (o.getClass().isAnnotationPresent(RootNode.class)) {
+			out.write('{');
+			boolean first = true;
+			for (final Map.Entry<String, Method> entry : getReflector(o.getClass()).getterMethodTable.entrySet()) {
+				if (fields != null && !fields.contains(entry.getKey())) {
+					continue;
+				}
+				final Object value = entry.getValue().invoke(o);
+				if (value == null) {
+					continue;
+				}
+				if (!first) {
+					out.write(',');
+				}
+				first = false;
+				quote(entry.getKey(), out);
+				out.write(':');
+				writeJson(value, out);
+			}
+			out.write('}');
+		} else {
+			quote(o.toString(), out);
 		}
+	}
 
-		return doc;
+	private static void quote(final String s, final Writer out) throws IOException {
+		out.write('"');
+		final int len = s.length();
+		int start = 0;
+		for (int i = 0; i < len; i++) {
+			final char c = s.charAt(i);
+			final String escape;
+			switch (c) {
+				case '"' :
+					escape = "\\\"";
+					break;
+				case '\\' :
+					escape = "\\\\";
+					break;
+				case '\b' :
+					escape = "\\b";
+					break;
+				case '\t' :
+					escape = "\\t";
+					break;
+				case '\n' :
+					escape = "\\n";
+					break;
+				case '\f' :
+					escape = "\\f";
+					break;
+				case '\r' :
+					escape = "\\r";
+					break;
+				default :
+					if (c < ' ' || c == '\u2028' || c == '\u2029') {
+						escape = String.format("\\u%04x", Integer.valueOf(c));
+					} else {
+						continue;
+					}
+			}
+			out.write(s, start, i - start);
+			out.write(escape);
+			start = i + 1;
+		}
+		out.write(s, start, len - start);
+		out.write('"');
 	}
 
 	@Retention(RetentionPolicy.RUNTIME)
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.impl.service.rest;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * Cache of serialized representations. Bundle and service events advance a
+ * generation counter, which the resources use to build the entity tags of
+ * their representations. A cached representation is only served while its
+ * entity tag is current. The entity tags also contain the epoch of the cache,
+ * since the generations of a new cache, after a restart of the bundle or the
+ * framework, start again from zero.
+ */
+public final class RepresentationCache implements SynchronousBundleListener, AllServiceListener {
+
+	private static final int			MAX_ENTRIES			= 32;
+
+	/** upper bound on the total size of the cached content, in bytes */
+	public static final int				MAX_CONTENT_SIZE	= 16 * 1024 * 1024;
+
+	private final String				epoch				= Long.toString(System.currentTimeMillis(), 36)
+			+ Integer.toString(new Random().nextInt() & Integer.MAX_VALUE, 36);
+
+	private final AtomicLong			bundleGeneration	= new AtomicLong();
+
+	private final AtomicLong			serviceGeneration	= new AtomicLong();
+
+	// @GuardedBy("this")
+	private final Map<String, Entry>	entries				= new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	// @GuardedBy("this")
+	private long						contentSize;
+
+	void open(final BundleContext context) {
+		context.addBundleListener(this);
+		context.addServiceListener(this);
+	}
+
+	void close(final BundleContext context) {
+		context.removeServiceListener(this);
+		context.removeBundleListener(this);
+	}
+
+	@Override
+	public void bundleChanged(final BundleEvent event) {
+		bundleGeneration.incrementAndGet();
+	}
+
+	@Override
+	public void serviceChanged(final ServiceEvent event) {
+		serviceGeneration.incrementAndGet();
+	}
+
+	/**
+	 * @return the epoch of this cache, which differs between instances.
+	 */
+	public String getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return the generation of the bundles, which changes with every bundle
+	 *         event.
+	 */
+	public long getBundleGeneration() {
+		return bundleGeneration.get();
+	}
+
+	/**
+	 * @return the generation of the services, which changes with every
+	 *         service event.
+	 */
+	public long getServiceGeneration() {
+		return serviceGeneration.get();
+	}
+
+	/**
+	 * Get a cached representation.
+	 *
+	 * @param key the key of the representation.
+	 * @param tag the current entity tag of the representation.
+	 * @return the cached content, or null if no content is cached for the
+	 *         given tag.
+	 */
+	public synchronized byte[] get(final String key, final String tag) {
+		final Entry entry = entries.get(key);
+		if (entry == null || !entry.tag.equals(tag)) {
+			return null;
+		}
+		return entry.content;
+	}
+
+	/**
+	 * Cache a representation, evicting the least recently used ones if the
+	 * cache is full.
+	 *
+	 * @param key the key of the representation.
+	 * @param tag the entity tag of the representation.
+	 * @param content the serialized representation.
+	 */
+	public synchronized void put(final String key, final String tag, final byte[] content) {
+		if (content.length > MAX_CONTENT_SIZE) {
+			return;
+		}
+		remove(key);
+		entries.put(key, new Entry(tag, content));
+		contentSize += content.length;
+
+		final Iterator<Entry> iter = entries.values().iterator();
+		while (entries.size() > MAX_ENTRIES || contentSize > MAX_CONTENT_SIZE) {
+			contentSize -= iter.next().content.length;
+			iter.remove();
+		}
+	}
+
+	// @GuardedBy("this")
+	private void remove(final String key) {
+		final Entry entry = entries.remove(key);
+		if (entry != null) {
+			contentSize -= entry.content.length;
+		}
+	}
+
+	private static final class Entry {
+		final String	tag;
+		final byte[]	content;
+
+		Entry(final String tag, final byte[] content) {
+			this.tag = tag;
+			this.content = content;
+		}
+	}
+
+}
@@ -54,16 +54,30 @@ public class RestService extends Application {
 
 	public static final String													TRACKER_ATTR		= "tracker";
 
+	public static final String													CACHE_ATTR			= "cache";
+
+	public static final String													INDEX_ATTR			= "index";
+
 	public static final String													SERVICE_ID_KEY		= "serviceId";
 
 	public static final String													FILTER_ID_KEY		= "filter";
 
+	public static final String													OFFSET_KEY			= "offset";
+
+	public static final String													LIMIT_KEY			= "limit";
+
+	public static final String													FIELDS_KEY			= "fields";
+
 	public static final String													BUNDLE_ID_KEY		= "bundleId";
 
 	private final BundleContext													context;
 
 	private ServiceTracker<RestApiExtension, Class<? extends ServerResource>>	tracker;
 
+	private RepresentationCache													cache;
+
+	private CapabilityIndex														index;
+
 	RestService(final BundleContext context) {
 		this.context = context;
 	}
@@ -112,6 +126,14 @@ public class RestService extends Application {
 		tracker.open();
 
 		attributes.put(TRACKER_ATTR, tracker);
+
+		cache = new RepresentationCache();
+		cache.open(context);
+		attributes.put(CACHE_ATTR, cache);
+
+		index = new CapabilityIndex();
+		index.open(context);
+		attributes.put(INDEX_ATTR, index);
 		getContext().setAttributes(attributes);
 
 		extensions.attach("", ExtensionsResource.class);
@@ -119,6 +141,25 @@ public class RestService extends Application {
 		return root;
 	}
 
+	/**
+	 * Closes the extension tracker and removes the listeners of the cache and
+	 * the capability index.
+	 */
+	synchronized void close() {
+		if (tracker != null) {
+			tracker.close();
+			tracker = null;
+		}
+		if (cache != null) {
+			cache.close(context);
+			cache = null;
+		}
+		if (index != null) {
+			index.close(context);
+			index = null;
+		}
+	}
+
 	protected static class ExtensionsTrackerCustomizer
 			implements
 			ServiceTrackerCustomizer<RestApiExtension, Class<? extends ServerResource>> {
@@ -35,8 +35,10 @@ import org.osgi.impl.service.rest.PojoReflector.RootNode;
 public final class ServicePojoList extends ArrayList<String> {
 
 	public ServicePojoList(ServiceReference<?>[] srefs) {
-		for (final ServiceReference<?> sref : srefs) {
-			add("framework/service/" + sref.getProperty(Constants.SERVICE_ID));
+		if (srefs != null) {
+			for (final ServiceReference<?> sref : srefs) {
+				add("framework/service/" + sref.getProperty(Constants.SERVICE_ID));
+			}
 		}
 	}
 
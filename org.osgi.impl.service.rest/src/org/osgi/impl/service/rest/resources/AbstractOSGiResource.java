@@ -19,36 +19,36 @@
 package org.osgi.impl.service.rest.resources;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
-import org.json.JSONArray;
-import org.json.JSONException;
+import java.util.Set;
+import java.util.function.Supplier;
 import org.json.JSONObject;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
-import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
-import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.impl.service.rest.CapabilityIndex;
 import org.osgi.impl.service.rest.PojoReflector;
+import org.osgi.impl.service.rest.RepresentationCache;
 import org.osgi.impl.service.rest.RestService;
 import org.osgi.impl.service.rest.pojos.BundleExceptionPojo;
-import org.osgi.impl.service.rest.pojos.ServicePojo;
-import org.osgi.resource.Capability;
 import org.osgi.service.rest.RestApiExtension;
 import org.osgi.util.tracker.ServiceTracker;
+import org.restlet.data.CharacterSet;
 import org.restlet.data.MediaType;
+import org.restlet.data.Parameter;
 import org.restlet.data.Status;
+import org.restlet.data.Tag;
+import org.restlet.representation.ByteArrayRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.representation.Variant;
 import org.restlet.resource.ServerResource;
@@ -114,6 +114,16 @@ public class AbstractOSGiResource<T> extends ServerResource {
 				.getAttributes().get(RestService.TRACKER_ATTR);
 	}
 
+	protected RepresentationCache getCache() {
+		return (RepresentationCache) getContext().getAttributes().get(
+				RestService.CACHE_ATTR);
+	}
+
+	protected CapabilityIndex getIndex() {
+		return (CapabilityIndex) getContext().getAttributes().get(
+				RestService.INDEX_ATTR);
+	}
+
 	protected FrameworkStartLevel getFrameworkStartLevel() {
 		return getBundleContext().getBundle(0).adapt(FrameworkStartLevel.class);
 	}
@@ -130,59 +140,105 @@ public class AbstractOSGiResource<T> extends ServerResource {
 
 	protected Bundle[] getBundles()
 			throws InvalidSyntaxException {
-		final BundleContext context = getBundleContext();
-
-		if (getQuery().isEmpty()) {
-			return context.getBundles();
-		}
-		final Map<String, String> filterMap = getQuery().getValuesMap();
-
-		final Bundle[] bundles = context.getBundles();
-
-		final ArrayList<BundleRevision> workingSet = new ArrayList<BundleRevision>();
-		for (Bundle bundle : bundles) {
-			workingSet.add(bundle.adapt(BundleRevision.class));
-		}
+		final Map<String, String> filterMap = new HashMap<String, String>();
+		for (final Parameter param : getQuery()) {
+			final String name = param.getName();
+			if (RestService.OFFSET_KEY.equals(name)
+					|| RestService.LIMIT_KEY.equals(name)
+					|| RestService.FIELDS_KEY.equals(name)) {
+				continue;
+			}
 
-		for (final Map.Entry<String, String> filterDir : filterMap.entrySet()) {
 			final String namespace;
-			final Filter filter;
-			if (filterDir.getValue() == null) {
+			final String filter;
+			if (param.getValue() == null) {
 				namespace = IdentityNamespace.IDENTITY_NAMESPACE;
-				filter = FrameworkUtil.createFilter(filterDir.getKey());
+				filter = name;
 			} else {
-				namespace = filterDir.getKey();
-				filter = FrameworkUtil.createFilter(filterDir.getValue());
+				namespace = name;
+				filter = param.getValue();
 			}
 
-			final Iterator<BundleRevision> iter = workingSet.iterator();
-			bundleLoop: while (iter.hasNext()) {
-				final BundleRevision rev = iter.next();
-				final List<Capability> caps = rev
-						.getCapabilities(namespace);
-
-				for (final Capability cap : caps) {
-					if (filter.matches(cap.getAttributes())) {
-						continue bundleLoop;
-					}
-				}
-
-				// no match, remove
-				iter.remove();
+			final String previous = filterMap.get(namespace);
+			if (previous != null
+					&& IdentityNamespace.IDENTITY_NAMESPACE.equals(namespace)) {
+				// a revision has exactly one identity capability
+				filterMap.put(namespace, "(&" + previous + filter + ")");
+			} else {
+				filterMap.put(namespace, filter);
 			}
 		}
 
-		if (workingSet.isEmpty()) {
-			return new Bundle[0];
+		if (filterMap.isEmpty() && !isPaged()) {
+			return getBundleContext().getBundles();
 		}
+		// the index also orders the bundles, so that pages are stable
+		return getIndex().getBundles(filterMap);
+	}
 
-		final Bundle[] result = new Bundle[workingSet.size()];
-		int i = -1;
-		for (final BundleRevision rev : workingSet) {
-			result[++i] = rev.getBundle();
+	/**
+	 * Get the page of a listing requested by the offset and limit query
+	 * parameters.
+	 * 
+	 * @param elements the complete listing, in a stable order.
+	 * @return the requested page, or the complete listing if no page was
+	 *         requested.
+	 * @throws IllegalArgumentException if the offset or limit is invalid.
+	 */
+	protected <E> E[] getPage(final E[] elements) {
+		if (elements == null) {
+			return null;
+		}
+		final int offset = getIntParameter(RestService.OFFSET_KEY, 0);
+		final int limit = getIntParameter(RestService.LIMIT_KEY, Integer.MAX_VALUE);
+		if (offset == 0 && limit >= elements.length) {
+			return elements;
 		}
+		final int from = Math.min(offset, elements.length);
+		return Arrays.copyOfRange(elements, from,
+				from + Math.min(limit, elements.length - from));
+	}
+
+	/**
+	 * @return whether a page of the listing was requested.
+	 */
+	protected boolean isPaged() {
+		return getQuery().getFirst(RestService.OFFSET_KEY) != null
+				|| getQuery().getFirst(RestService.LIMIT_KEY) != null;
+	}
+
+	private int getIntParameter(final String name, final int defaultValue) {
+		final String value = getQuery().getFirstValue(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (!value.matches(number) || value.isEmpty()) {
+			throw new IllegalArgumentException("Invalid " + name + " " + value);
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (final NumberFormatException nfe) {
+			// out of range
+			return Integer.MAX_VALUE;
+		}
+	}
 
-		return result;
+	/**
+	 * @return the fields requested by the fields query parameter, as a comma
+	 *         separated list, or {@code null} if all fields are requested.
+	 */
+	protected Set<String> getFields() {
+		final String value = getQuery().getFirstValue(RestService.FIELDS_KEY);
+		if (value == null) {
+			return null;
+		}
+		final Set<String> fields = new HashSet<String>();
+		for (final String field : value.split(",")) {
+			if (!field.trim().isEmpty()) {
+				fields.add(field.trim());
+			}
+		}
+		return fields;
 	}
 
 	protected Bundle[] getBundleVersionsBySymbolicName(String key) {
@@ -222,71 +278,152 @@ public class AbstractOSGiResource<T> extends ServerResource {
 		}
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * Get the services matching a filter. If a page of the services is
+	 * requested, the services are ordered by service id.
+	 */
+	protected ServiceReference<?>[] getServiceReferences(final String filter)
+			throws InvalidSyntaxException {
+		final ServiceReference<?>[] srefs = getBundleContext()
+				.getAllServiceReferences(null, filter);
+		if (srefs != null && isPaged()) {
+			Arrays.sort(srefs, (a, b) -> ((Long) a.getProperty(Constants.SERVICE_ID))
+					.compareTo((Long) b.getProperty(Constants.SERVICE_ID)));
+		}
+		return srefs;
+	}
+
 	protected Representation getRepresentation(final Object bean,
 			final Variant variant) throws Exception {
-		final Representation rep;
+		return getRepresentation(() -> bean, null, variant);
+	}
 
+	/**
+	 * Get the representation of a bean which is only created when the
+	 * representation is written. If a state tag is given, the representation
+	 * carries an entity tag derived from it, so that conditional requests are
+	 * answered without serializing the bean, and the serialized bean is
+	 * cached until the state tag changes.
+	 * 
+	 * @param bean supplier of the bean.
+	 * @param stateTag the tag of the state the bean is created from, or
+	 *            {@code null} if the representation must not be cached.
+	 * @param variant the requested variant.
+	 */
+	protected Representation getRepresentation(final Supplier<?> bean,
+			final String stateTag, final Variant variant) throws Exception {
+		return getRepresentation(bean, stateTag, null, variant);
+	}
+
+	/**
+	 * Get the representation of a list of beans, restricted to the given
+	 * fields of the beans in the list.
+	 * 
+	 * @param bean supplier of the list of beans.
+	 * @param stateTag the tag of the state the beans are created from, or
+	 *            {@code null} if the representation must not be cached.
+	 * @param fields the fields to represent, or {@code null} for all fields.
+	 * @param variant the requested variant.
+	 */
+	protected Representation getRepresentation(final Supplier<?> bean,
+			final String stateTag, final Set<String> fields,
+			final Variant variant) throws Exception {
 		final MediaType mt;
+		final boolean xml;
 
 		if (xmlMediaType.includes(variant.getMediaType()) ||
 				MediaType.APPLICATION_XML.includes(variant.getMediaType()) ||
 				MediaType.TEXT_XML.includes(variant.getMediaType())) {
 			mt = xmlMediaType;
-
-			if (bean instanceof Map) {
-				// special case: bundle header is a plain map and has no
-				// reflector
-				rep = toRepresentation(PojoReflector.mapToXml((Map<String, String>) bean), new Variant(MediaType.APPLICATION_ALL_XML));
-			} else {
-				rep = toRepresentation(reflector.xmlFromBean((T) bean), new Variant(MediaType.APPLICATION_ALL_XML));
-			}
+			xml = true;
 		} else if (jsonMediaType.includes(variant.getMediaType())
 				|| MediaType.APPLICATION_JSON.includes(variant.getMediaType())
 				|| MediaType.TEXT_PLAIN.includes(variant.getMediaType())) {
 			mt = jsonMediaType;
-
-			// in an ideal world we would not have to massage the data
-			// in order to get it to serialize properly...
-			if (bean instanceof Collection) {
-				final Collection<Object> reprList = new ArrayList<Object>();
-				for (final Object o : (Collection<?>) bean) {
-					if (o instanceof String) {
-						reprList.add(o);
-					} else {
-						reprList.add(jsonObject(o));
-					}
-				}
-				final JSONArray arr = new JSONArray(reprList);
-				rep = toRepresentation(arr, variant);
-			} else if (bean instanceof Map) {
-				rep = toRepresentation(new JSONObject((Map<?, ?>) bean),
-						variant);
-			} else {
-				rep = toRepresentation(jsonObject(bean), variant);
-			}
+			xml = false;
 		} else {
 			throw new UnsupportedOperationException(variant.getMediaType()
 					.toString());
 		}
-		rep.setMediaType(mt);
+
+		final RepresentationCache cache = stateTag == null ? null : getCache();
+		if (cache == null) {
+			return new PojoRepresentation(mt, xml, bean, fields, null, null);
+		}
+
+		final String tag = stateTag + (xml ? "-xml" : "-json");
+		final String key = getReference().getPath() + '?'
+				+ getReference().getQuery() + '|' + mt;
+		final Tag etag = new Tag(tag, false);
+		final Representation rep;
+		final byte[] content = cache.get(key, tag);
+		if (content != null) {
+			rep = new ByteArrayRepresentation(content, mt);
+			rep.setCharacterSet(CharacterSet.UTF_8);
+		} else if (isNotModified(etag)) {
+			// answered with 304, the bean is never created
+			rep = new PojoRepresentation(mt, xml, bean, fields, null, null);
+		} else {
+			// create the bean now, so that failures are reported as errors
+			final Object b = bean.get();
+			rep = new PojoRepresentation(mt, xml, () -> b, fields, cache, key);
+		}
+		rep.setTag(etag);
 		return rep;
 	}
 
-	private JSONObject jsonObject(final Object bean) {
-		if (bean instanceof ServicePojo) {
-			// fix for buggy JSONObject
-			final JSONObject json = new JSONObject(bean);
-			try {
-				json.put("properties", new JSONObject(((ServicePojo) bean).getProperties()));
-				json.put("usingBundles", new JSONArray(((ServicePojo) bean).getUsingBundles()));
-			} catch (final JSONException e) {
-				e.printStackTrace();
+	private boolean isNotModified(final Tag etag) {
+		for (final Tag tag : getConditions().getNoneMatch()) {
+			if (Tag.ALL.equals(tag) || etag.getName().equals(tag.getName())) {
+				return true;
 			}
-			return json;
-		} else {
-			return new JSONObject(bean);
 		}
+		return false;
+	}
+
+	/**
+	 * @return the state tag of the bundles, or {@code null} if representations
+	 *         are not cached. It must be obtained before the bundles are
+	 *         looked up.
+	 */
+	protected String getBundlesTag() {
+		final RepresentationCache cache = getCache();
+		return cache == null ? null
+				: "b" + cache.getEpoch() + "-" + cache.getBundleGeneration();
+	}
+
+	/**
+	 * @return the state tag of the services, or {@code null} if
+	 *         representations are not cached. It must be obtained before the
+	 *         services are looked up.
+	 */
+	protected String getServicesTag() {
+		final RepresentationCache cache = getCache();
+		return cache == null ? null
+				: "s" + cache.getEpoch() + "-" + cache.getServiceGeneration();
+	}
+
+	/**
+	 * Adds the bundles using the given services to a state tag. Getting and
+	 * releasing a service does not cause a service event.
+	 */
+	protected static String addUsingBundles(final String stateTag,
+			final ServiceReference<?>[] srefs) {
+		if (stateTag == null || srefs == null) {
+			return stateTag;
+		}
+		long hash = 17;
+		for (final ServiceReference<?> sref : srefs) {
+			hash = 31 * hash + ((Long) sref.getProperty(Constants.SERVICE_ID)).longValue();
+			final Bundle[] usingBundles = sref.getUsingBundles();
+			if (usingBundles != null) {
+				for (final Bundle using : usingBundles) {
+					hash = 31 * hash + using.getBundleId();
+				}
+			}
+			hash = 31 * hash - 1;
+		}
+		return stateTag + "." + Long.toHexString(hash);
 	}
 
 	protected T fromRepresentation(final Representation r, final MediaType mediaType)
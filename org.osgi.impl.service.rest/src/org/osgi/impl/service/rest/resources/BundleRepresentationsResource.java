@@ -18,6 +18,7 @@
 
 package org.osgi.impl.service.rest.resources;
 
+import org.osgi.framework.Bundle;
 import org.osgi.impl.service.rest.PojoReflector;
 import org.osgi.impl.service.rest.pojos.BundleRepresentationsList;
 import org.restlet.data.MediaType;
@@ -42,8 +43,11 @@ public class BundleRepresentationsResource extends
 	@Override
 	public Representation get(final Variant variant) {
 		try {
+			final String tag = getBundlesTag();
+			final Bundle[] bundles = getPage(getBundles());
 			final Representation rep = getRepresentation(
-					new BundleRepresentationsList(getBundles()), variant);
+					() -> new BundleRepresentationsList(bundles), tag,
+					getFields(), variant);
 			return rep;
 		} catch (final Exception e) {
 			return ERROR(e, variant);
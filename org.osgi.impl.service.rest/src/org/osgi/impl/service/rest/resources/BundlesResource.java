@@ -46,8 +46,10 @@ public class BundlesResource extends AbstractOSGiResource<BundlePojoList> {
 	@Override
 	public Representation get(final Variant variant) {
 		try {
-			final Representation rep = getRepresentation(new BundlePojoList(
-					getBundles()), variant);
+			final String tag = getBundlesTag();
+			final Bundle[] bundles = getPage(getBundles());
+			final Representation rep = getRepresentation(
+					() -> new BundlePojoList(bundles), tag, variant);
 			return rep;
 		} catch (final Exception e) {
 			return ERROR(e, variant);
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.impl.service.rest.resources;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.osgi.impl.service.rest.PojoReflector;
+import org.osgi.impl.service.rest.RepresentationCache;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.MediaType;
+import org.restlet.representation.OutputRepresentation;
+
+/**
+ * Representation which serializes a pojo directly to the response stream when
+ * it is written. If a cache is given, the serialized form is also collected
+ * and cached once it has been written completely.
+ */
+final class PojoRepresentation extends OutputRepresentation {
+
+	private final Supplier<?>				bean;
+
+	private final boolean					xml;
+
+	private final Set<String>				fields;
+
+	private final RepresentationCache		cache;
+
+	private final String					cacheKey;
+
+	PojoRepresentation(final MediaType mediaType, final boolean xml,
+			final Supplier<?> bean, final Set<String> fields,
+			final RepresentationCache cache, final String cacheKey) {
+		super(mediaType);
+		this.bean = bean;
+		this.xml = xml;
+		this.fields = fields;
+		this.cache = cache;
+		this.cacheKey = cacheKey;
+		setCharacterSet(CharacterSet.UTF_8);
+	}
+
+	@Override
+	public void write(final OutputStream outputStream) throws IOException {
+		final CachingOutputStream caching = cache == null ? null
+				: new CachingOutputStream(outputStream);
+		final Writer out = new BufferedWriter(new OutputStreamWriter(
+				caching == null ? outputStream : caching,
+				StandardCharsets.UTF_8));
+		try {
+			write(bean.get(), out);
+		} catch (final IOException ioe) {
+			throw ioe;
+		} catch (final Exception e) {
+			throw new IOException(e);
+		}
+		out.flush();
+
+		if (caching != null && caching.buffer != null) {
+			cache.put(cacheKey, getTag().getName(), caching.buffer.toByteArray());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void write(final Object o, final Writer out) throws Exception {
+		if (xml) {
+			if (o instanceof Map) {
+				// special case: bundle header is a plain map
+				PojoReflector.writeMapXml((Map<String, String>) o, out);
+			} else {
+				PojoReflector.writeXml(o, fields, out);
+			}
+		} else {
+			PojoReflector.writeJson(o, fields, out);
+		}
+	}
+
+	/**
+	 * Copies everything written to the response into a buffer, until the
+	 * representation becomes too large to be cached.
+	 */
+	private static final class CachingOutputStream extends OutputStream {
+		private final OutputStream		out;
+
+		ByteArrayOutputStream			buffer	= new ByteArrayOutputStream(8192);
+
+		CachingOutputStream(final OutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			if (buffer != null) {
+				buffer.write(b);
+				checkSize();
+			}
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			if (buffer != null) {
+				buffer.write(b, off, len);
+				checkSize();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		private void checkSize() {
+			if (buffer.size() > RepresentationCache.MAX_CONTENT_SIZE) {
+				buffer = null;
+			}
+		}
+	}
+
+}
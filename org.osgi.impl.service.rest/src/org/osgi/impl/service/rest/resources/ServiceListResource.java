@@ -44,9 +44,10 @@ public class ServiceListResource extends AbstractOSGiResource<ServicePojoList> {
 		try {
 			final String filter = getQuery().getFirstValue(RestService.FILTER_ID_KEY);
 
-			final ServiceReference<?>[] srefs = getBundleContext()
-					.getAllServiceReferences(null, filter);
-			return getRepresentation(new ServicePojoList(srefs), variant);
+			final String tag = getServicesTag();
+			final ServiceReference<?>[] srefs = getPage(getServiceReferences(filter));
+			return getRepresentation(() -> new ServicePojoList(srefs), tag,
+					variant);
 		} catch (final Exception e) {
 			return ERROR(e, variant);
 		}
@@ -45,9 +45,10 @@ public class ServiceRepresentationsResource extends
 	public Representation get(final Variant variant) {
 		try {
 			final String filter = getQuery().getFirstValue(RestService.FILTER_ID_KEY);
-			final ServiceReference<?>[] srefs = getBundleContext()
-					.getAllServiceReferences(null, filter);
-			return getRepresentation(new ServiceRepresentationList(srefs), variant);
+			final String tag = getServicesTag();
+			final ServiceReference<?>[] srefs = getPage(getServiceReferences(filter));
+			return getRepresentation(() -> new ServiceRepresentationList(srefs),
+					addUsingBundles(tag, srefs), getFields(), variant);
 		} catch (final Exception e) {
 			return ERROR(e, variant);
 		}
@@ -64,10 +64,16 @@ public class GroupImpl extends UserImpl implements Group {
 			throw new IllegalArgumentException("Bad role");
 		@SuppressWarnings("hiding")
 		String name = role.getName();
-		if (basic_members.contains(name) || required_members.contains(name))
-			return false;
-		basic_members.addElement(name);
-		ua.save();
+		long position;
+		synchronized (ua.dblock) {
+			if (basic_members.contains(name)
+					|| required_members.contains(name))
+				return false;
+			basic_members.addElement(name);
+			position = ua.memberAdded(this, name, false);
+		}
+		// Persistently save the change.
+		ua.commit(position);
 		return true;
 	}
 
@@ -82,10 +88,16 @@ public class GroupImpl extends UserImpl implements Group {
 			throw new IllegalArgumentException("Bad role");
 		@SuppressWarnings("hiding")
 		String name = role.getName();
-		if (basic_members.contains(name) || required_members.contains(name))
-			return false;
-		required_members.addElement(name);
-		ua.save();
+		long position;
+		synchronized (ua.dblock) {
+			if (basic_members.contains(name)
+					|| required_members.contains(name))
+				return false;
+			required_members.addElement(name);
+			position = ua.memberAdded(this, name, true);
+		}
+		// Persistently save the change.
+		ua.commit(position);
 		return true;
 	}
 
@@ -101,13 +113,17 @@ public class GroupImpl extends UserImpl implements Group {
 			throw new IllegalArgumentException("Bad role");
 		@SuppressWarnings("hiding")
 		String name = role.getName();
-		synchronized (this) {
+		long position;
+		synchronized (ua.dblock) {
 			boolean removed = basic_members.remove(name)
 					|| required_members.remove(name);
-			if (removed)
-				ua.save();
-			return removed;
+			if (!removed)
+				return false;
+			position = ua.memberRemoved(this, name);
 		}
+		// Persistently save the change.
+		ua.commit(position);
+		return true;
 	}
 
 	/**
@@ -143,47 +159,6 @@ public class GroupImpl extends UserImpl implements Group {
 	}
 
 	/* -------------- Protected methods -------------- */
-	/**
-	 * Checks if this group is implied by the specified authorization context.
-	 * 
-	 * @overrides Role#impliedBy
-	 */
-	@Override
-	protected boolean impliedBy(AuthorizationImpl auth) {
-		Boolean b = auth.cachedHaveRole(this);
-		if (b != null)
-			return b.booleanValue();
-		if (auth.isWorkingOnRole(this)) {
-			System.err.println("Loop in role database: role " + getName()
-					+ " refers to itself.");
-			return auth.cacheHaveRole(this, false);
-		}
-		/* Not yet cached */
-		auth.workingOnRole(this);
-		synchronized (this) {
-			// First check that all required roles are implied.
-			for (Enumeration<String> en = required_members.elements(); en
-					.hasMoreElements();) {
-				RoleImpl role = (RoleImpl) ua
-						.getRole(en.nextElement());
-				if (!role.impliedBy(auth)) {
-					return auth.cacheHaveRole(this, false);
-				}
-			}
-			// Next check that at least one basic role is implied.
-			for (Enumeration<String> en = basic_members.elements(); en
-					.hasMoreElements();) {
-				RoleImpl role = (RoleImpl) ua
-						.getRole(en.nextElement());
-				if (role.impliedBy(auth)) {
-					return auth.cacheHaveRole(this, true);
-				}
-			}
-			// No basic roles implied -> this role not implied
-			return auth.cacheHaveRole(this, false);
-		}
-	}
-
 	/**
 	 * Removes references to the specified role.
 	 * 
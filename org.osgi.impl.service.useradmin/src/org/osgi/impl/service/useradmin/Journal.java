@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.useradmin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of the changes made to the role database since its
+ * last snapshot.
+ * <p>
+ * Every record is stored as its length, a CRC32 checksum and the record
+ * bytes, so a record torn by a crash is detected when the journal is opened,
+ * and dropped with the records after it. Records are appended to a buffer,
+ * which {@link #commit(long)} writes to the file and forces to the disk. The
+ * first thread to commit writes the records of all threads, and the threads
+ * committing meanwhile wait for it, so concurrent changes share a single
+ * write and force.
+ * <p>
+ * Positions in the journal are logical: they count all bytes ever appended,
+ * and do not change when the journal is compacted.
+ */
+final class Journal {
+	/**
+	 * The size of the length and checksum preceding every record.
+	 */
+	private final static int		HEADER	= 8;
+	/**
+	 * The journal file.
+	 */
+	private final File				file;
+	/**
+	 * The channel of the journal file.
+	 */
+	private FileChannel				channel;
+	/**
+	 * The records which have not been written yet.
+	 */
+	private ByteArrayOutputStream	pending	= new ByteArrayOutputStream();
+	/**
+	 * The logical position of the start of the file.
+	 */
+	private long					base;
+	/**
+	 * The logical position up to which the records are written and forced.
+	 */
+	private long					durable;
+	/**
+	 * The logical position of the end of the appended records.
+	 */
+	private long					end;
+	/**
+	 * Flag telling if a thread is writing the pending records.
+	 */
+	private boolean					writing;
+
+	Journal(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Opens the journal file and reads its records. A torn or corrupt record
+	 * at the end of the file is removed from the file.
+	 *
+	 * @return the records, in the order in which they were appended
+	 */
+	synchronized List<byte[]> open() throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate((int) size);
+		while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			// read the whole file
+		}
+		buffer.flip();
+
+		List<byte[]> records = new ArrayList<>();
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= HEADER) {
+			int length = buffer.getInt();
+			int checksum = buffer.getInt();
+			if (length < 0 || length > buffer.remaining())
+				break;
+			byte[] record = new byte[length];
+			buffer.get(record);
+			crc.reset();
+			crc.update(record, 0, length);
+			if ((int) crc.getValue() != checksum)
+				break;
+			records.add(record);
+			end += HEADER + length;
+		}
+		if (end < size) {
+			channel.truncate(end);
+			channel.force(false);
+		}
+		durable = end;
+		return records;
+	}
+
+	/**
+	 * Appends a record to the journal. The record is not written to the file
+	 * before it is committed.
+	 *
+	 * @return the position to commit to make the record durable
+	 */
+	synchronized long append(byte[] record) {
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, record.length);
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(record.length).putInt((int) crc.getValue());
+		pending.write(header.array(), 0, HEADER);
+		pending.write(record, 0, record.length);
+		end += HEADER + record.length;
+		return end;
+	}
+
+	/**
+	 * Writes all records appended up to the specified position to the file,
+	 * if another thread has not done so already, and forces them to the disk.
+	 */
+	void commit(long position) throws IOException {
+		byte[] data;
+		long start;
+		long dataEnd;
+		synchronized (this) {
+			if (!waitForWriter(position))
+				return;
+			writing = true;
+			data = pending.toByteArray();
+			pending.reset();
+			start = durable;
+			dataEnd = end;
+		}
+		boolean written = false;
+		try {
+			write(data, start);
+			written = true;
+		}
+		finally {
+			synchronized (this) {
+				if (written)
+					durable = dataEnd;
+				else
+					restore(data, start);
+				writing = false;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Gets the size of the journal, including the records not written yet.
+	 */
+	synchronized long size() {
+		return end - base;
+	}
+
+	/**
+	 * Gets the position of the end of the records appended so far.
+	 */
+	synchronized long getPosition() {
+		return end;
+	}
+
+	/**
+	 * Removes the records before the specified position from the journal,
+	 * after they have been saved in a snapshot. The remaining records are
+	 * copied to a new file, which replaces the journal file.
+	 */
+	synchronized void compact(long position) throws IOException {
+		waitForWriter(end);
+		if (durable < end) {
+			byte[] data = pending.toByteArray();
+			pending.reset();
+			long start = durable;
+			try {
+				write(data, start);
+			}
+			catch (IOException e) {
+				restore(data, start);
+				throw e;
+			}
+			durable = end;
+		}
+
+		File tmp = new File(file.getPath() + ".tmp");
+		try (FileChannel out = FileChannel.open(tmp.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long from = position - base;
+			long count = channel.size() - from;
+			for (long n = 0; n < count;)
+				n += channel.transferTo(from + n, count - n, out);
+			out.force(false);
+		}
+		channel.close();
+		move(tmp, file);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		base = position;
+	}
+
+	/**
+	 * Writes the pending records and closes the journal file.
+	 */
+	void close() throws IOException {
+		commit(getPosition());
+		synchronized (this) {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Replaces the target file by the source file, atomically if the file
+	 * system supports it.
+	 */
+	static void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/* -------- Private methods -------- */
+	/*
+	 * Waits while another thread writes the pending records. Returns false if
+	 * the records up to the position have been written meanwhile.
+	 */
+	// @GuardedBy("this")
+	private boolean waitForWriter(long position) {
+		boolean interrupted = false;
+		try {
+			while (writing && durable < position) {
+				try {
+					wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			return durable < position;
+		}
+		finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write(byte[] data, long start) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		long offset = start - base;
+		while (buffer.hasRemaining())
+			offset += channel.write(buffer, offset);
+		channel.force(false);
+	}
+
+	/*
+	 * Puts records which could not be written back in front of the pending
+	 * records, and removes any part of them from the file, so they are written
+	 * again by the next commit.
+	 */
+	// @GuardedBy("this")
+	private void restore(byte[] data, long start) {
+		try {
+			channel.truncate(start - base);
+		}
+		catch (IOException e) {
+			// The next write overwrites the partial records
+		}
+		byte[] later = pending.toByteArray();
+		pending.reset();
+		pending.write(data, 0, data.length);
+		pending.write(later, 0, later.length);
+	}
+}
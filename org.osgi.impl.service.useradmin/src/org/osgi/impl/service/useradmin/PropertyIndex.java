@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.useradmin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Hash indexes of the role properties with the configured keys.
+ * <p>
+ * For every indexed key, the roles are indexed by their <code>String</code>
+ * value of the property. Roles with a <code>byte[]</code> value are kept
+ * apart, since a filter can match such a value as well. The indexes only pick
+ * the candidate roles of a query, the query itself is still evaluated for
+ * every candidate. All methods must be called with the role database locked.
+ */
+final class PropertyIndex {
+	/**
+	 * The indexes by lowercased key. The roles with a value are stored as a
+	 * single RoleImpl, or as a Set of RoleImpl if there are several, so unique
+	 * values like user ids cost no extra collection.
+	 */
+	private final Map<String,Map<String,Object>>	indexes		= new HashMap<>();
+	/**
+	 * The roles with a <code>byte[]</code> value, by lowercased key.
+	 */
+	private final Map<String,Set<RoleImpl>>			binaries	= new HashMap<>();
+
+	/**
+	 * Creates the indexes for the specified comma separated property keys.
+	 */
+	PropertyIndex(String keys) {
+		if (keys == null)
+			return;
+		for (StringTokenizer st = new StringTokenizer(keys, ","); st
+				.hasMoreTokens();) {
+			String key = st.nextToken().trim().toLowerCase();
+			if (key.length() > 0) {
+				indexes.put(key, new HashMap<String,Object>());
+				binaries.put(key, new HashSet<RoleImpl>());
+			}
+		}
+	}
+
+	/**
+	 * Checks if the properties with the specified key are indexed.
+	 */
+	boolean isIndexed(String key) {
+		return indexes.containsKey(key.toLowerCase());
+	}
+
+	/**
+	 * Adds all properties of the specified role to the indexes.
+	 */
+	void addAll(RoleImpl role) {
+		for (Map.Entry<String,Object> entry : role.properties.ht.entrySet())
+			add(role, entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Removes all properties of the specified role from the indexes.
+	 */
+	void removeAll(RoleImpl role) {
+		for (Map.Entry<String,Object> entry : role.properties.ht.entrySet())
+			remove(role, entry.getKey(), entry.getValue());
+	}
+
+	/**
+	 * Adds a property of a role to the indexes.
+	 *
+	 * @param lckey the lowercased property key
+	 * @param value the property value, or <code>null</code>
+	 */
+	void add(RoleImpl role, String lckey, Object value) {
+		Map<String,Object> index = indexes.get(lckey);
+		if (index == null || value == null)
+			return;
+		if (!(value instanceof String)) {
+			binaries.get(lckey).add(role);
+			return;
+		}
+		Object roles = index.get(value);
+		if (roles == null)
+			index.put((String) value, role);
+		else if (roles instanceof RoleImpl) {
+			if (roles != role) {
+				Set<RoleImpl> set = new HashSet<>(4);
+				set.add((RoleImpl) roles);
+				set.add(role);
+				index.put((String) value, set);
+			}
+		}
+		else
+			toSet(roles).add(role);
+	}
+
+	/**
+	 * Removes a property of a role from the indexes.
+	 *
+	 * @param lckey the lowercased property key
+	 * @param value the property value, or <code>null</code>
+	 */
+	void remove(RoleImpl role, String lckey, Object value) {
+		Map<String,Object> index = indexes.get(lckey);
+		if (index == null || value == null)
+			return;
+		if (!(value instanceof String)) {
+			binaries.get(lckey).remove(role);
+			return;
+		}
+		Object roles = index.get(value);
+		if (roles == role)
+			index.remove(value);
+		else if (roles instanceof Set) {
+			Set<RoleImpl> set = toSet(roles);
+			set.remove(role);
+			if (set.size() == 1)
+				index.put((String) value, set.iterator().next());
+		}
+	}
+
+	/**
+	 * Gets the roles which have the specified <code>String</code> value for
+	 * the specified key.
+	 *
+	 * @return the roles, or <code>null</code> if the key is not indexed
+	 */
+	Collection<RoleImpl> get(String key, String value) {
+		Map<String,Object> index = indexes.get(key.toLowerCase());
+		if (index == null)
+			return null;
+		Object roles = index.get(value);
+		if (roles == null)
+			return Collections.emptySet();
+		if (roles instanceof RoleImpl)
+			return Collections.singleton((RoleImpl) roles);
+		return toSet(roles);
+	}
+
+	/**
+	 * Gets the roles which may match the specified filter. These are the
+	 * roles having the value of the most selective indexed equality term
+	 * which every match of the filter must satisfy.
+	 *
+	 * @param filter a syntactically valid filter string
+	 * @return the candidate roles, or <code>null</code> if the filter has no
+	 *         indexed equality term and all roles have to be checked
+	 */
+	Collection<RoleImpl> getCandidates(String filter) {
+		if (indexes.isEmpty())
+			return null;
+		Collection<RoleImpl> candidates = null;
+		for (String[] term : getEqualityTerms(filter)) {
+			Collection<RoleImpl> roles = get(term[0], term[1]);
+			if (roles == null)
+				continue;
+			Set<RoleImpl> other = binaries.get(term[0].toLowerCase());
+			if (!other.isEmpty()) {
+				roles = new ArrayList<>(roles);
+				roles.addAll(other);
+			}
+			if (candidates == null || roles.size() < candidates.size())
+				candidates = roles;
+		}
+		return candidates;
+	}
+
+	/* -------- Private methods -------- */
+	@SuppressWarnings("unchecked")
+	private static Set<RoleImpl> toSet(Object roles) {
+		return (Set<RoleImpl>) roles;
+	}
+
+	/*
+	 * Returns the attribute and value of the equality terms which every match
+	 * of the filter must satisfy: the filter itself if it is an equality term,
+	 * or the equality terms directly inside a top level "&". Other terms are
+	 * skipped. The parsing follows the filter syntax of the framework.
+	 */
+	static List<String[]> getEqualityTerms(String filter) {
+		List<String[]> terms = new ArrayList<>(4);
+		char[] chars = filter.toCharArray();
+		try {
+			int pos = skipWhiteSpace(chars, 0);
+			if (chars[pos] != '(')
+				return terms;
+			pos = skipWhiteSpace(chars, pos + 1);
+			if (chars[pos] == '&') {
+				pos = skipWhiteSpace(chars, pos + 1);
+				while (chars[pos] == '(') {
+					int p = skipWhiteSpace(chars, pos + 1);
+					char c = chars[p];
+					if (c == '&' || c == '|' || c == '!')
+						pos = skipFilter(chars, pos);
+					else
+						pos = parseItem(chars, p, terms);
+					pos = skipWhiteSpace(chars, pos + 1);
+				}
+			}
+			else if (chars[pos] != '|' && chars[pos] != '!')
+				parseItem(chars, pos, terms);
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			// Not expected for a valid filter, check all roles
+			terms.clear();
+		}
+		return terms;
+	}
+
+	// returns the position of the closing parenthesis of the item
+	private static int parseItem(char[] chars, int pos, List<String[]> terms) {
+		int begin = pos;
+		int end = pos;
+		char c = chars[pos];
+		while (c != '~' && c != '<' && c != '>' && c != '=' && c != '('
+				&& c != ')') {
+			pos++;
+			if (!Character.isWhitespace(c))
+				end = pos;
+			c = chars[pos];
+		}
+		String attr = new String(chars, begin, end - begin);
+		pos = skipWhiteSpace(chars, pos);
+		boolean equality = chars[pos] == '=';
+		if (!equality)
+			pos++;
+		StringBuilder value = new StringBuilder();
+		for (pos++; chars[pos] != ')'; pos++) {
+			c = chars[pos];
+			if (c == '*')
+				equality = false; // substring or presence
+			else {
+				if (c == '\\')
+					c = chars[++pos];
+				value.append(c);
+			}
+		}
+		if (equality && attr.length() > 0)
+			terms.add(new String[] {attr, value.toString()});
+		return pos;
+	}
+
+	// returns the position of the closing parenthesis of the filter
+	private static int skipFilter(char[] chars, int pos) {
+		int depth = 0;
+		for (;; pos++) {
+			char c = chars[pos];
+			if (c == '\\')
+				pos++;
+			else if (c == '(')
+				depth++;
+			else if (c == ')' && --depth == 0)
+				return pos;
+		}
+	}
+
+	private static int skipWhiteSpace(char[] chars, int pos) {
+		while (pos < chars.length && Character.isWhitespace(chars[pos]))
+			pos++;
+		return pos;
+	}
+}
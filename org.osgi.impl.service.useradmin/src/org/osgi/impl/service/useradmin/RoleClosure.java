@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.impl.service.useradmin;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the roles implied by each user, i.e. of the transitive closure of
+ * the group memberships in the role database.
+ * <p>
+ * Every role is numbered, and the roles implied by a user are kept in a bit
+ * set over these numbers. The bit set of a user is computed when it is first
+ * needed and then shared by all Authorization objects of the user. The groups
+ * are evaluated in an order in which the members of a group come before the
+ * group, so a bit set is computed in a single pass over the groups. At most
+ * {@link #MAX_CLOSURES} bit sets are kept, so the index does not grow with
+ * the number of users ever authorized.
+ * <p>
+ * An index is never modified after it has been published. When roles or
+ * group memberships change, the UserAdmin replaces it with an updated index.
+ * A created role is numbered after the existing roles, so the numbers and
+ * the bit sets computed so far stay valid. When the members of a group
+ * change, only the bit sets in which the group is now implied differently
+ * are dropped, all others are taken over as they are.
+ */
+final class RoleClosure {
+	/**
+	 * The maximum number of bit sets kept by an index.
+	 */
+	static final int					MAX_CLOSURES	= 1024;
+
+	/**
+	 * The number of roles. The arrays below can be longer, and are shared with
+	 * the index this index was created from and the indexes created from it.
+	 * Roles created later are only stored at higher numbers.
+	 */
+	private final int					size;
+	/**
+	 * The names of the roles, indexed by role number.
+	 */
+	private final String[]				names;
+	/**
+	 * Mapping from role names to role numbers. Also contains the roles
+	 * created after this index, with numbers from size on.
+	 */
+	private final ConcurrentMap<String,Integer>	numbers;
+	/**
+	 * The role numbers of the basic and required members of each group, or
+	 * <code>null</code> for roles that are not groups.
+	 */
+	private final int[][]				basic;
+	private final int[][]				required;
+	/**
+	 * The numbers of the groups, members before the groups containing them.
+	 * Groups created after the index was built are missing, they have no
+	 * members so they are never implied.
+	 */
+	private final int[]					order;
+	/**
+	 * The number of the user.anyone role.
+	 */
+	private final int					anyone;
+	/**
+	 * The name of a group that is a member of itself, or <code>null</code>.
+	 */
+	private String						loop;
+	/**
+	 * If a group has a member which is not in the role database.
+	 */
+	private boolean						unresolved;
+	/**
+	 * The roles implied by each user computed so far, by user name.
+	 */
+	private final ConcurrentMap<String,BitSet>	closures	= new ConcurrentHashMap<>();
+	/**
+	 * The roles implied by an Authorization without user.
+	 */
+	private volatile BitSet				noUserClosure;
+
+	/**
+	 * Creates the index of the specified role database. Must be called with
+	 * the role database locked.
+	 */
+	static RoleClosure build(Map<String,RoleImpl> rolemap) {
+		return new RoleClosure(rolemap);
+	}
+
+	private RoleClosure(Map<String,RoleImpl> rolemap) {
+		size = rolemap.size();
+		names = rolemap.keySet().toArray(new String[size]);
+		numbers = new ConcurrentHashMap<>(size * 2);
+		for (int i = 0; i < size; i++)
+			numbers.put(names[i], Integer.valueOf(i));
+		basic = new int[size][];
+		required = new int[size][];
+		for (int i = 0; i < size; i++) {
+			RoleImpl role = rolemap.get(names[i]);
+			if (role instanceof GroupImpl) {
+				GroupImpl group = (GroupImpl) role;
+				basic[i] = toNumbers(group.basic_members);
+				required[i] = toNumbers(group.required_members);
+			}
+		}
+		anyone = number(UserAdminImpl.ANYONE);
+		order = sort();
+	}
+
+	// numbers the created role after the roles of the previous index
+	private RoleClosure(RoleClosure previous, RoleImpl role) {
+		int n = previous.size;
+		size = n + 1;
+		if (n < previous.names.length) {
+			names = previous.names;
+			basic = previous.basic;
+			required = previous.required;
+		}
+		else {
+			int capacity = Math.max(16, n * 2);
+			names = Arrays.copyOf(previous.names, capacity);
+			basic = Arrays.copyOf(previous.basic, capacity);
+			required = Arrays.copyOf(previous.required, capacity);
+		}
+		String name = role.getName();
+		names[n] = name;
+		boolean group = role instanceof GroupImpl;
+		basic[n] = group ? new int[0] : null;
+		required[n] = group ? new int[0] : null;
+		numbers = previous.numbers;
+		numbers.put(name, Integer.valueOf(n));
+		order = previous.order;
+		anyone = previous.anyone;
+		loop = previous.loop;
+		unresolved = previous.unresolved;
+	}
+
+	// updates the members of a group of the previous index
+	private RoleClosure(RoleClosure previous, int changed, GroupImpl group) {
+		size = previous.size;
+		names = previous.names;
+		numbers = previous.numbers;
+		basic = previous.basic.clone();
+		required = previous.required.clone();
+		unresolved = previous.unresolved;
+		basic[changed] = toNumbers(group.basic_members);
+		required[changed] = toNumbers(group.required_members);
+		anyone = previous.anyone;
+		order = sort();
+	}
+
+	/**
+	 * Returns an index in which the specified role is added. Must be called
+	 * on the current index, with the role database locked.
+	 */
+	RoleClosure roleCreated(Map<String,RoleImpl> rolemap, RoleImpl role) {
+		String name = role.getName();
+		// groups may already refer to a role of this name
+		if (unresolved || name.equals(UserAdminImpl.ANYONE))
+			return build(rolemap);
+		RoleClosure next = new RoleClosure(this, role);
+		// only a user of the same name implies the created role
+		for (Map.Entry<String,BitSet> entry : closures.entrySet())
+			if (!entry.getKey().equals(name))
+				next.closures.put(entry.getKey(), entry.getValue());
+		next.noUserClosure = noUserClosure;
+		return next;
+	}
+
+	/**
+	 * Returns an index in which the members of the specified group are
+	 * updated. Must be called on the current index, with the role database
+	 * locked.
+	 */
+	RoleClosure membersChanged(Map<String,RoleImpl> rolemap, GroupImpl group) {
+		int changed = number(group.getName());
+		if (changed < 0)
+			return build(rolemap);
+		RoleClosure next = new RoleClosure(this, changed, group);
+		// with a loop the members of the group can depend on the group
+		if (loop != null || next.loop != null)
+			return next;
+		// the other roles implied by a bit set are not affected by the
+		// group, so the bit set stays valid if the group is still implied
+		// or not implied as before
+		for (Map.Entry<String,BitSet> entry : closures.entrySet())
+			if (next.implies(entry.getValue(), changed) == entry.getValue()
+					.get(changed))
+				next.closures.put(entry.getKey(), entry.getValue());
+		BitSet closure = noUserClosure;
+		if (closure != null
+				&& next.implies(closure, changed) == closure.get(changed))
+			next.noUserClosure = closure;
+		return next;
+	}
+
+	/**
+	 * Checks if the specified user implies the specified role.
+	 */
+	boolean hasRole(String user, String role) {
+		int n = number(role);
+		return n >= 0 && getClosure(user).get(n);
+	}
+
+	/**
+	 * Gets the names of the roles implied by the specified user, except
+	 * user.anyone.
+	 */
+	String[] getRoles(String user) {
+		BitSet closure = getClosure(user);
+		int count = closure.cardinality();
+		if (anyone >= 0 && closure.get(anyone))
+			count--;
+		String[] roles = new String[count];
+		int j = 0;
+		for (int i = closure.nextSetBit(0); i >= 0; i = closure
+				.nextSetBit(i + 1))
+			if (i != anyone)
+				roles[j++] = names[i];
+		return roles;
+	}
+
+	/**
+	 * Gets the name of a group that is a member of itself, or
+	 * <code>null</code> if there are no loops in the role database.
+	 */
+	String getLoop() {
+		return loop;
+	}
+
+	/* -------- Private methods -------- */
+	private BitSet getClosure(String user) {
+		BitSet closure = user == null ? noUserClosure : closures.get(user);
+		if (closure != null)
+			return closure;
+		closure = evaluate(user);
+		if (user == null) {
+			noUserClosure = closure;
+			return closure;
+		}
+		if (closures.size() >= MAX_CLOSURES) {
+			// make room by dropping an arbitrary bit set
+			Iterator<String> it = closures.keySet().iterator();
+			if (it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+		BitSet existing = closures.putIfAbsent(user, closure);
+		return existing == null ? closure : existing;
+	}
+
+	// the roles implied by the user
+	private BitSet evaluate(String user) {
+		BitSet closure = new BitSet(size);
+		// roles and users are implied by their own name, groups are not
+		int own = user == null ? -1 : number(user);
+		if (own >= 0 && basic[own] == null)
+			closure.set(own);
+		if (anyone >= 0)
+			closure.set(anyone);
+		for (int g : order)
+			if (implies(closure, g))
+				closure.set(g);
+		return closure;
+	}
+
+	// if the members of the group set in the closure imply the group
+	private boolean implies(BitSet closure, int group) {
+		return containsAll(closure, required[group])
+				&& containsAny(closure, basic[group]);
+	}
+
+	// the number of the role, or -1 if it is not in this index
+	private int number(String name) {
+		Integer n = numbers.get(name);
+		return n == null || n.intValue() >= size ? -1 : n.intValue();
+	}
+
+	private int[] sort() {
+		int groups = 0;
+		for (int i = 0; i < size; i++)
+			if (basic[i] != null)
+				groups++;
+		int[] sorted = new int[groups];
+		int[] state = new int[size]; // 0 new, 1 visiting, 2 done
+		int next = 0;
+		for (int i = 0; i < size; i++)
+			if (basic[i] != null)
+				next = sort(i, state, sorted, next);
+		return sorted;
+	}
+
+	// depth first, so the members of a group are placed before the group
+	private int sort(int group, int[] state, int[] sorted, int next) {
+		if (state[group] == 2)
+			return next;
+		if (state[group] == 1) {
+			// the group is not implied through the loop
+			if (loop == null)
+				loop = names[group];
+			return next;
+		}
+		state[group] = 1;
+		for (int m : required[group])
+			if (basic[m] != null)
+				next = sort(m, state, sorted, next);
+		for (int m : basic[group])
+			if (basic[m] != null)
+				next = sort(m, state, sorted, next);
+		state[group] = 2;
+		sorted[next] = group;
+		return next + 1;
+	}
+
+	// members which are not in the role database are skipped
+	private int[] toNumbers(Vector<String> members) {
+		int[] result = new int[members.size()];
+		int j = 0;
+		for (String member : members) {
+			int n = number(member);
+			if (n >= 0)
+				result[j++] = n;
+		}
+		if (j == result.length)
+			return result;
+		unresolved = true;
+		return Arrays.copyOf(result, j);
+	}
+
+	private static boolean containsAll(BitSet closure, int[] roles) {
+		for (int r : roles)
+			if (!closure.get(r))
+				return false;
+		return true;
+	}
+
+	private static boolean containsAny(BitSet closure, int[] roles) {
+		for (int r : roles)
+			if (closure.get(r))
+				return true;
+		return false;
+	}
+}
@@ -78,26 +78,6 @@ public class RoleImpl implements Role {
 	}
 
 	/* -------------- Protected methods ----------------- */
-	/**
-	 * Checks if this role is implied by the specified authorization context.
-	 */
-	protected boolean impliedBy(AuthorizationImpl auth) {
-		// Have we already checked this role?
-		Boolean b = auth.cachedHaveRole(this);
-		// b is now true (we are implied), false (we are not implied),
-		// or null (we don't know yet).
-		if (b != null)
-			return b.booleanValue();
-		// Default to say that the role is implied if the name of the
-		// specified role is the same as the name of this role, or if
-		// this role is "user.anyone".
-		String rolename = auth.getName();
-		boolean implied = (rolename != null && rolename.equals(name))
-				|| name.equals(UserAdminImpl.ANYONE);
-		// Cache and return the result.
-		return auth.cacheHaveRole(this, implied);
-	}
-
 	/**
 	 * Removes references to the specified role.
 	 */
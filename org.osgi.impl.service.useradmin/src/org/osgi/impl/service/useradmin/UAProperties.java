@@ -17,6 +17,7 @@
  *******************************************************************************/
 package org.osgi.impl.service.useradmin;
 
+import java.util.Base64;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Hashtable;
@@ -115,47 +116,55 @@ public class UAProperties extends Dictionary<String,Object> {
 
 	@Override
 	public Object remove(Object key) {
+		Object res;
+		long position;
 		synchronized (role.ua.dblock) {
 			if (key instanceof String) {
 				// Check that the caller is allowed to remove the property.
 				role.ua.checkPermission(new UserAdminPermission((String) key,
 						getChangeAction()));
 				String lckey = ((String) key).toLowerCase();
-				Object res = ht.remove(lckey);
+				res = ht.remove(lckey);
 				keymap.remove(lckey);
 				// Notify listeners that a role has changed.
 				role.ua.notifyListeners(UserAdminEvent.ROLE_CHANGED, role);
-				// Persistently save the database.
-				role.ua.save();
-				return res;
+				position = role.ua.propertyChanged(this, (String) key, res,
+						null);
 			}
 			else
 				throw new IllegalArgumentException(
 						"The key must be a String, got " + key.getClass());
 		}
+		// Persistently save the change.
+		role.ua.commit(position);
+		return res;
 	}
 
 	@Override
 	public Object put(String key, Object value) {
+		Object res;
+		long position;
 		synchronized (role.ua.dblock) {
 			if (value instanceof String || value instanceof byte[]) {
 				role.ua.checkPermission(
 						new UserAdminPermission(key, getChangeAction()));
 				String lckey = key.toLowerCase();
-				Object res = ht.put(lckey,
+				res = ht.put(lckey,
 						value instanceof String ? new String((String) value)
 								: ((byte[]) value).clone());
 				keymap.put(lckey, key);
 				role.ua.notifyListeners(UserAdminEvent.ROLE_CHANGED, role);
-				// Persistently save the database.
-				role.ua.save();
-				return res;
+				position = role.ua.propertyChanged(this, key, res,
+						ht.get(lckey));
 			}
 			else
 				throw new IllegalArgumentException(
 						"The value must be of type String or byte[],  got "
 								+ value.getClass());
 		}
+		// Persistently save the change.
+		role.ua.commit(position);
+		return res;
 	}
 
 	@Override
@@ -187,8 +196,8 @@ public class UAProperties extends Dictionary<String,Object> {
 				value = (String) obj; // Should encode special chars
 			}
 			else {
-				vname = name + i + "vb";
-				value = new String((byte[]) obj); // Should base64-encode
+				vname = name + i + "vx";
+				value = Base64.getEncoder().encodeToString((byte[]) obj);
 			}
 			p.put(vname, value);
 		}
@@ -209,6 +218,13 @@ public class UAProperties extends Dictionary<String,Object> {
 				keymap.put(lckey, key);
 				continue;
 			}
+			val = p.getProperty(name + i + "vx");
+			if (val != null) {
+				ht.put(lckey, Base64.getDecoder().decode(val));
+				keymap.put(lckey, key);
+				continue;
+			}
+			// Written by earlier versions, without encoding
 			val = p.getProperty(name + i + "vb");
 			if (val != null) {
 				ht.put(lckey, val.getBytes());
@@ -17,16 +17,24 @@
  *******************************************************************************/
 package org.osgi.impl.service.useradmin;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.security.Permission;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
@@ -43,6 +51,13 @@ import org.osgi.util.tracker.ServiceTracker;
  * {@link org.osgi.service.useradmin.UserAdmin}implementation.
  * 
  * All modifications of the database are synchronized using a lock object.
+ * <p>
+ * The database is persisted as a snapshot property file and a journal of the
+ * changes made since the snapshot was written. Every change is appended to the
+ * journal while the database is locked, and committed after the lock has been
+ * released, so concurrent changes are forced to the disk together. When the
+ * journal has grown larger than the snapshot, a new snapshot is written and
+ * the journal is compacted.
  */
 public class UserAdminImpl implements UserAdmin {
 	/**
@@ -52,7 +67,8 @@ public class UserAdminImpl implements UserAdmin {
 	protected Hashtable<String,RoleImpl>						rolemap;
 	/**
 	 * Database version number. Increases every time the database is modified.
-	 * Used to check if an authorization cache should be invalidated.
+	 * Every journal record holds the version of the change, so the changes
+	 * already contained in the snapshot are skipped when the journal is read.
 	 */
 	protected long					version			= 0;
 	/**
@@ -65,10 +81,32 @@ public class UserAdminImpl implements UserAdmin {
 	 * Property pointing out the file containing the role database information.
 	 */
 	private final static String		DBPROP			= "org.osgi.impl.service.useradmin.db";
+	/**
+	 * Property listing the comma separated keys of the role properties to
+	 * index for the role queries.
+	 */
+	private final static String		INDEXPROP		= "org.osgi.impl.service.useradmin.index";
 	/**
 	 * Local file to use if DBPROP is not set.
 	 */
 	private final static String		DB				= "useradmin.db";
+	/**
+	 * Suffix of the journal file, which is placed next to the database file.
+	 */
+	private final static String		JOURNAL			= ".journal";
+	/**
+	 * The journal is not compacted before it has reached this size.
+	 */
+	private final static long		MIN_JOURNAL_SIZE	= 1024 * 1024;
+	/**
+	 * Journal record types.
+	 */
+	private final static byte		CREATE_ROLE		= 1;
+	private final static byte		REMOVE_ROLE		= 2;
+	private final static byte		PUT_PROPERTY	= 3;
+	private final static byte		REMOVE_PROPERTY	= 4;
+	private final static byte		ADD_MEMBER		= 5;
+	private final static byte		REMOVE_MEMBER	= 6;
 	/**
 	 * The name of the always present role. This role is always implied.
 	 */
@@ -103,6 +141,28 @@ public class UserAdminImpl implements UserAdmin {
 	 * Queue used to asynchronously deliver the events
 	 */
 	private EventQueue				queue;
+	/**
+	 * The roles implied by each user. Replaced whenever roles or group
+	 * memberships change, so Authorization objects can read it without
+	 * locking the database.
+	 */
+	private volatile RoleClosure	roleClosure;
+	/**
+	 * Indexes of the role properties with the configured keys.
+	 */
+	private PropertyIndex			index;
+	/**
+	 * The journal of the changes since the snapshot in the database file.
+	 */
+	private Journal					journal;
+	/**
+	 * The size of the database file when it was last written or read.
+	 */
+	private volatile long			snapshotSize;
+	/**
+	 * Flag telling if a snapshot is being written.
+	 */
+	private final AtomicBoolean		compacting		= new AtomicBoolean();
 
 	/**
 	 * Initializes this UserAdmin.
@@ -115,12 +175,14 @@ public class UserAdminImpl implements UserAdmin {
 		listeners.open();
 		// Initialize the database
 		rolemap = new Hashtable<>();
+		index = new PropertyIndex(activator.bc.getProperty(INDEXPROP));
 		// Load database from file
 		String filename = activator.bc.getProperty(DBPROP);
 		if (filename == null)
 			dbfile = activator.bc.getDataFile(DB);
 		else
 			dbfile = new File(filename);
+		journal = new Journal(new File(dbfile.getPath() + JOURNAL));
 		load();
 		queue = new EventQueue();
 	}
@@ -137,8 +199,10 @@ public class UserAdminImpl implements UserAdmin {
 	public Role createRole(String name, int type) {
 		// Check that the caller has permission to use this method.
 		checkPermission(adminPermission);
+		RoleImpl role;
+		long position;
 		synchronized (dblock) {
-			RoleImpl role = rolemap.get(name);
+			role = rolemap.get(name);
 			if (role != null)
 				return null;
 			switch (type) {
@@ -152,11 +216,13 @@ public class UserAdminImpl implements UserAdmin {
 					throw new IllegalArgumentException("Bad type: " + type);
 			}
 			rolemap.put(name, role);
+			roleClosure = roleClosure.roleCreated(rolemap, role);
 			notifyListeners(UserAdminEvent.ROLE_CREATED, role);
-			// Persistently save the database.
-			save();
-			return role;
+			position = journal(CREATE_ROLE, name, Integer.valueOf(type));
 		}
+		// Persistently save the change.
+		commit(position);
+		return role;
 	}
 
 	/**
@@ -170,21 +236,25 @@ public class UserAdminImpl implements UserAdmin {
 			return false;
 		// Check that the caller has permission to use this method.
 		checkPermission(adminPermission);
+		long position;
 		synchronized (dblock) {
 			RoleImpl role = rolemap.get(name);
 			if (role == null)
 				return false;
 			notifyListeners(UserAdminEvent.ROLE_REMOVED, role);
 			rolemap.remove(name);
+			index.removeAll(role);
 			// Remove all references to this role from groups.
 			for (Enumeration<RoleImpl> en = rolemap.elements(); en
 					.hasMoreElements();) {
 				en.nextElement().removeReferenceTo(role);
 			}
-			// Persistently save the database.
-			save();
-			return true;
+			setRoleClosure(RoleClosure.build(rolemap));
+			position = journal(REMOVE_ROLE, name);
 		}
+		// Persistently save the change.
+		commit(position);
+		return true;
 	}
 
 	/**
@@ -206,10 +276,12 @@ public class UserAdminImpl implements UserAdmin {
 	public User getUser(String key, String value) {
 		User user = null;
 		synchronized (dblock) {
-			// Linear search. A real implementation will do something else.
-			for (Enumeration<RoleImpl> en = rolemap.elements(); en
-					.hasMoreElements();) {
-				Role role = en.nextElement();
+			// Only the roles with the value need to be checked if the key
+			// is indexed, otherwise all roles are searched.
+			Collection<RoleImpl> roles = index.get(key, value);
+			if (roles == null)
+				roles = rolemap.values();
+			for (RoleImpl role : roles) {
 				Object pval = role.getProperties().get(key);
 				if (pval != null && pval instanceof String
 						&& value.equals(pval)) {
@@ -231,8 +303,8 @@ public class UserAdminImpl implements UserAdmin {
 	@Override
 	public Role[] getRoles(String filterstr) throws InvalidSyntaxException {
 		synchronized (dblock) {
-			Enumeration<RoleImpl> en = rolemap.elements();
 			if (filterstr == null) {
+				Enumeration<RoleImpl> en = rolemap.elements();
 				Role[] roles = new Role[rolemap.size()];
 				for (int i = 0; en.hasMoreElements(); i++)
 					roles[i] = en.nextElement();
@@ -240,9 +312,14 @@ public class UserAdminImpl implements UserAdmin {
 			}
 			else {
 				Filter filter = activator.bc.createFilter(filterstr);
+				// Only the roles matching an indexed equality term of the
+				// filter need to be checked.
+				Collection<RoleImpl> candidates = index
+						.getCandidates(filterstr);
+				if (candidates == null)
+					candidates = rolemap.values();
 				Vector<Role> matches = new Vector<>();
-				while (en.hasMoreElements()) {
-					Role role = en.nextElement();
+				for (RoleImpl role : candidates) {
 					if (filter.match(role.getProperties()))
 						matches.addElement(role);
 				}
@@ -273,6 +350,76 @@ public class UserAdminImpl implements UserAdmin {
 	protected void die() {
 		queue.close();
 		alive[0] = false;
+		try {
+			journal.close();
+		}
+		catch (IOException e) {
+			log.error("IO error saving user db", e);
+		}
+	}
+
+	/**
+	 * Gets the roles implied by each user.
+	 */
+	RoleClosure getRoleClosure() {
+		return roleClosure;
+	}
+
+	/**
+	 * Records that a member has been added to the specified group. Must be
+	 * called with the database locked.
+	 * 
+	 * @return the journal position to commit
+	 */
+	long memberAdded(GroupImpl group, String member, boolean required) {
+		setRoleClosure(roleClosure.membersChanged(rolemap, group));
+		return journal(ADD_MEMBER, group.getName(), member,
+				Boolean.valueOf(required));
+	}
+
+	/**
+	 * Records that a member has been removed from the specified group. Must
+	 * be called with the database locked.
+	 * 
+	 * @return the journal position to commit
+	 */
+	long memberRemoved(GroupImpl group, String member) {
+		setRoleClosure(roleClosure.membersChanged(rolemap, group));
+		return journal(REMOVE_MEMBER, group.getName(), member);
+	}
+
+	private void setRoleClosure(RoleClosure closure) {
+		if (closure.getLoop() != null)
+			log.warning("Loop in role database: role " + closure.getLoop()
+					+ " refers to itself.");
+		roleClosure = closure;
+	}
+
+	/**
+	 * Records that a property or credential of a role has changed. Must be
+	 * called with the database locked.
+	 * 
+	 * @param newValue the new value, or <code>null</code> if the property has
+	 *            been removed
+	 * @return the journal position to commit
+	 */
+	long propertyChanged(UAProperties properties, String key,
+			Object oldValue, Object newValue) {
+		RoleImpl role = properties.role;
+		// Roles which have been removed are no longer saved
+		if (rolemap.get(role.getName()) != role)
+			return journal.getPosition();
+		boolean credential = properties instanceof UACredentials;
+		String lckey = key.toLowerCase();
+		if (!credential) {
+			index.remove(role, lckey, oldValue);
+			index.add(role, lckey, newValue);
+		}
+		if (newValue == null)
+			return journal(REMOVE_PROPERTY, role.getName(),
+					Boolean.valueOf(credential), lckey);
+		return journal(PUT_PROPERTY, role.getName(),
+				Boolean.valueOf(credential), key, newValue);
 	}
 
 	/**
@@ -288,11 +435,107 @@ public class UserAdminImpl implements UserAdmin {
 	}
 
 	/**
-	 * Save the user manager database as a property file.
+	 * Appends a change to the journal. Must be called with the database
+	 * locked. The fields are Strings, byte arrays, Integers or Booleans.
+	 * 
+	 * @return the journal position to commit
 	 */
-	protected void save() {
-		// Invalidates all caches
+	private long journal(byte type, Object... fields) {
 		version++;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeLong(version);
+			out.writeByte(type);
+			for (Object field : fields) {
+				if (field instanceof String)
+					writeBytes(out, ((String) field)
+							.getBytes(StandardCharsets.UTF_8), 's');
+				else
+					if (field instanceof byte[])
+						writeBytes(out, (byte[]) field, 'b');
+					else
+						if (field instanceof Integer)
+							out.writeInt(((Integer) field).intValue());
+						else
+							out.writeBoolean(((Boolean) field).booleanValue());
+			}
+		}
+		catch (IOException e) {
+			// Not thrown by a ByteArrayOutputStream
+		}
+		return journal.append(bytes.toByteArray());
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] value,
+			char kind) throws IOException {
+		out.writeByte(kind);
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		int kind = in.readByte();
+		byte[] value = new byte[in.readInt()];
+		in.readFully(value);
+		return kind == 's' ? new String(value, StandardCharsets.UTF_8)
+				: value;
+	}
+
+	/**
+	 * Makes the changes appended to the journal up to the specified position
+	 * durable, and writes a new snapshot if the journal has grown too large.
+	 * Must be called without holding the database lock, so that other changes
+	 * can be committed together with this one.
+	 */
+	protected void commit(long position) {
+		try {
+			journal.commit(position);
+		}
+		catch (IOException e) {
+			log.error("IO error saving user db", e);
+		}
+		if (journal.size() > Math.max(MIN_JOURNAL_SIZE, snapshotSize))
+			compact();
+	}
+
+	/**
+	 * Writes a snapshot of the database and removes the changes it contains
+	 * from the journal.
+	 */
+	private void compact() {
+		if (!compacting.compareAndSet(false, true))
+			return;
+		try {
+			Properties p;
+			long position;
+			synchronized (dblock) {
+				p = snapshot();
+				position = journal.getPosition();
+			}
+			File tmp = new File(dbfile.getPath() + ".tmp");
+			try (FileOutputStream out = new FileOutputStream(tmp)) {
+				p.store(out, "User manager database, version "
+						+ p.getProperty("version"));
+				out.getFD().sync();
+			}
+			Journal.move(tmp, dbfile);
+			snapshotSize = dbfile.length();
+			journal.compact(position);
+		}
+		catch (IOException e) {
+			log.error("IO error saving user db", e);
+		}
+		finally {
+			compacting.set(false);
+		}
+	}
+
+	/**
+	 * Creates a property file image of the database. Must be called with the
+	 * database locked.
+	 */
+	private Properties snapshot() {
 		Properties p = new Properties();
 		int counter = 0;
 		for (Enumeration<RoleImpl> en = rolemap.elements(); en
@@ -327,26 +570,22 @@ public class UserAdminImpl implements UserAdmin {
 			}
 		}
 		p.put("version", "" + version);
-		try {
-			p.store(new FileOutputStream(dbfile),
-					"User manager database, version " + version);
-		}
-		catch (IOException e) {
-			log.error("IO error saving user db", e);
-		}
+		return p;
 	}
 
 	/**
-	 * Load the user manager database from a property file.
+	 * Load the user manager database from a property file, and apply the
+	 * changes recorded in the journal.
 	 */
 	void load() {
 		rolemap = new Hashtable<>();
 		// Load the database with the predefined roles
 		rolemap.put(ANYONE, new RoleImpl(this, ANYONE, Role.ROLE));
 		Properties p = new Properties();
-		try {
-			p.load(new FileInputStream(dbfile));
+		try (InputStream in = new FileInputStream(dbfile)) {
+			p.load(in);
 			version = Long.parseLong(p.getProperty("version"));
+			snapshotSize = dbfile.length();
 		}
 		catch (FileNotFoundException e) {
 			// file has not been created yet, ok
@@ -393,6 +632,92 @@ public class UserAdminImpl implements UserAdmin {
 			if (role instanceof UserImpl)
 				((UserImpl) role).credentials.load(counter + "c", p);
 		}
+		try {
+			for (byte[] record : journal.open())
+				replay(record);
+		}
+		catch (IOException e) {
+			log.error("Error reading user db journal", e);
+		}
+		for (RoleImpl role : rolemap.values())
+			index.addAll(role);
+		setRoleClosure(RoleClosure.build(rolemap));
+	}
+
+	/**
+	 * Applies a change recorded in the journal to the database, unless the
+	 * snapshot already contains it.
+	 */
+	private void replay(byte[] record) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(record));
+		long v = in.readLong();
+		if (v <= version)
+			return;
+		version = v;
+		byte type = in.readByte();
+		String name = (String) readValue(in);
+		RoleImpl role = rolemap.get(name);
+		switch (type) {
+			case CREATE_ROLE :
+				if (role != null)
+					break;
+				if (in.readInt() == Role.GROUP)
+					rolemap.put(name, new GroupImpl(this, name));
+				else
+					rolemap.put(name, new UserImpl(this, name));
+				break;
+			case REMOVE_ROLE :
+				if (role == null || name.equals(ANYONE))
+					break;
+				rolemap.remove(name);
+				for (RoleImpl r : rolemap.values())
+					r.removeReferenceTo(role);
+				break;
+			case PUT_PROPERTY :
+			case REMOVE_PROPERTY :
+				UAProperties properties = null;
+				if (in.readBoolean()) {
+					if (role instanceof UserImpl)
+						properties = ((UserImpl) role).credentials;
+				}
+				else
+					if (role != null)
+						properties = role.properties;
+				String key = (String) readValue(in);
+				if (properties == null)
+					break;
+				String lckey = key.toLowerCase();
+				if (type == PUT_PROPERTY) {
+					properties.ht.put(lckey, readValue(in));
+					properties.keymap.put(lckey, key);
+				}
+				else {
+					properties.ht.remove(lckey);
+					properties.keymap.remove(lckey);
+				}
+				break;
+			case ADD_MEMBER :
+				String member = (String) readValue(in);
+				if (role instanceof GroupImpl) {
+					GroupImpl group = (GroupImpl) role;
+					if (in.readBoolean())
+						group.required_members.addElement(member);
+					else
+						group.basic_members.addElement(member);
+				}
+				break;
+			case REMOVE_MEMBER :
+				member = (String) readValue(in);
+				if (role instanceof GroupImpl) {
+					GroupImpl group = (GroupImpl) role;
+					if (!group.basic_members.remove(member))
+						group.required_members.remove(member);
+				}
+				break;
+			default :
+				log.warning("Bad journal record type: " + type);
+		}
 	}
 
 	public void checkPermission(Permission permission) {
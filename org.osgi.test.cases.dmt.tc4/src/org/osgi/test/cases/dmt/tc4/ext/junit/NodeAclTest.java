@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0 
+ *******************************************************************************/
+package org.osgi.test.cases.dmt.tc4.ext.junit;
+
+import org.osgi.service.dmt.Acl;
+import org.osgi.service.dmt.DmtException;
+import org.osgi.service.dmt.DmtSession;
+import org.osgi.test.cases.dmt.tc4.ext.util.TestTransactionalDataPlugin;
+
+/**
+ * Checks that node ACLs are inherited, and that they follow their nodes when
+ * the nodes are renamed or deleted, or an atomic session is rolled back.
+ */
+public class NodeAclTest extends DmtAdminTestCase {
+
+	private static final Acl			ACL_B	= new Acl("Get=*&Replace=server1");
+	private static final Acl			ACL_C	= new Acl("Get=server2");
+	private static final Acl			ACL_E	= new Acl("Add=server3&Get=*");
+
+	private TestTransactionalDataPlugin	dataPlugin;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		getDmtAdmin();
+
+		dataPlugin = new TestTransactionalDataPlugin();
+		setInteriorNode(dataPlugin, "./A");
+		setInteriorNode(dataPlugin, "./A/B");
+		setLeafNode(dataPlugin, "./A/B/C");
+		setLeafNode(dataPlugin, "./A/B/D");
+		setInteriorNode(dataPlugin, "./A/E");
+		setLeafNode(dataPlugin, "./A/E/F");
+		registerDataPlugin(dataPlugin, "./A");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		closeDmtSession();
+		// node ACLs are kept by the DmtAdmin, remove the ones left behind
+		session = dmtAdmin.getSession("./A", DmtSession.LOCK_TYPE_EXCLUSIVE);
+		removeAcls("./A");
+		session.close();
+		unregisterPlugins();
+		super.tearDown();
+	}
+
+	private void removeAcls(String uri) throws DmtException {
+		if (session.getNodeAcl(uri) != null) {
+			session.setNodeAcl(uri, null);
+		}
+		if (!session.isLeafNode(uri)) {
+			for (String child : session.getChildNodeNames(uri)) {
+				removeAcls(uri + "/" + child);
+			}
+		}
+	}
+
+	public void testEffectiveAcl() throws DmtException {
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_EXCLUSIVE);
+		Acl rootAcl = session.getNodeAcl(".");
+		session.setNodeAcl("./A/B", ACL_B);
+		session.setNodeAcl("./A/B/C", ACL_C);
+
+		assertEquals(null, session.getNodeAcl("./A"));
+		assertEquals(rootAcl, session.getEffectiveNodeAcl("./A"));
+		assertEquals(ACL_B, session.getNodeAcl("./A/B"));
+		assertEquals(ACL_B, session.getEffectiveNodeAcl("./A/B"));
+		assertEquals(ACL_C, session.getEffectiveNodeAcl("./A/B/C"));
+		assertEquals(null, session.getNodeAcl("./A/B/D"));
+		assertEquals(ACL_B, session.getEffectiveNodeAcl("./A/B/D"));
+		assertEquals(rootAcl, session.getEffectiveNodeAcl("./A/E/F"));
+
+		session.setNodeAcl("./A/B", null);
+		assertEquals(null, session.getNodeAcl("./A/B"));
+		assertEquals(rootAcl, session.getEffectiveNodeAcl("./A/B/D"));
+		assertEquals(ACL_C, session.getEffectiveNodeAcl("./A/B/C"));
+
+		// an empty ACL is not kept
+		session.setNodeAcl("./A/B", new Acl(""));
+		assertEquals(null, session.getNodeAcl("./A/B"));
+		session.close();
+
+		session = dmtAdmin.getSession("./A/B", DmtSession.LOCK_TYPE_SHARED);
+		assertEquals(ACL_C, session.getNodeAcl("C"));
+		assertEquals(rootAcl, session.getEffectiveNodeAcl("D"));
+		session.close();
+	}
+
+	public void testRenameMovesAcls() throws DmtException {
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_EXCLUSIVE);
+		Acl rootAcl = session.getNodeAcl(".");
+		session.setNodeAcl("./A/B", ACL_B);
+		session.setNodeAcl("./A/B/C", ACL_C);
+
+		session.renameNode("./A/B", "X");
+		assertEquals(ACL_B, session.getNodeAcl("./A/X"));
+		assertEquals(ACL_C, session.getNodeAcl("./A/X/C"));
+		assertEquals(ACL_B, session.getEffectiveNodeAcl("./A/X/D"));
+		session.close();
+
+		// a new node with the old name has no ACLs
+		setInteriorNode(dataPlugin, "./A/B");
+		setLeafNode(dataPlugin, "./A/B/C");
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		assertEquals(null, session.getNodeAcl("./A/B"));
+		assertEquals(null, session.getNodeAcl("./A/B/C"));
+		assertEquals(rootAcl, session.getEffectiveNodeAcl("./A/B/C"));
+		session.close();
+	}
+
+	public void testDeleteRemovesAcls() throws DmtException {
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_EXCLUSIVE);
+		Acl rootAcl = session.getNodeAcl(".");
+		session.setNodeAcl("./A/E", ACL_E);
+		session.setNodeAcl("./A/E/F", ACL_C);
+
+		session.deleteNode("./A/E");
+		session.close();
+
+		setInteriorNode(dataPlugin, "./A/E");
+		setLeafNode(dataPlugin, "./A/E/F");
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		assertEquals(null, session.getNodeAcl("./A/E"));
+		assertEquals(null, session.getNodeAcl("./A/E/F"));
+		assertEquals(rootAcl, session.getEffectiveNodeAcl("./A/E/F"));
+		session.close();
+	}
+
+	public void testAtomicSessionRollback() throws DmtException {
+		session = dmtAdmin.getSession("./A", DmtSession.LOCK_TYPE_ATOMIC);
+		session.setNodeAcl("./A/B", ACL_B);
+		session.commit();
+		session.setNodeAcl("./A/B", ACL_C);
+		session.setNodeAcl("./A/E", ACL_E);
+		session.renameNode("./A/B", "X");
+		assertEquals(ACL_C, session.getNodeAcl("./A/X"));
+		session.rollback();
+		session.close();
+
+		// the plugin does not roll back its nodes, only the ACLs are restored
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		assertEquals(null, session.getNodeAcl("./A/X"));
+		assertEquals(null, session.getNodeAcl("./A/E"));
+		session.close();
+		setInteriorNode(dataPlugin, "./A/B");
+		session = dmtAdmin.getSession(".", DmtSession.LOCK_TYPE_SHARED);
+		assertEquals(ACL_B, session.getNodeAcl("./A/B"));
+		session.close();
+	}
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0 
+ *******************************************************************************/
+package org.osgi.test.cases.dmt.tc4.ext.junit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.service.dmt.DmtException;
+import org.osgi.service.dmt.DmtSession;
+import org.osgi.test.cases.dmt.tc4.ext.util.TestTransactionalDataPlugin;
+
+/**
+ * Checks which sessions on overlapping subtrees may be open at the same time,
+ * and that waiting sessions are admitted in the order of their requests.
+ */
+public class SessionLockTest extends DmtAdminTestCase {
+
+	// how long a request is given to show that it is not granted
+	private static final long	BLOCKED_MILLIS	= 300;
+	private static final long	GRANT_SECONDS	= 5;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		getDmtAdmin();
+
+		TestTransactionalDataPlugin dataPlugin = new TestTransactionalDataPlugin();
+		setInteriorNode(dataPlugin, "./A");
+		setInteriorNode(dataPlugin, "./A/B");
+		setLeafNode(dataPlugin, "./A/B/C");
+		setInteriorNode(dataPlugin, "./A/E");
+		setLeafNode(dataPlugin, "./A/E/F");
+		registerDataPlugin(dataPlugin, "./A");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		closeDmtSession();
+		unregisterPlugins();
+		super.tearDown();
+	}
+
+	public void testSharedSessionsOverlap() throws Exception {
+		session = dmtAdmin.getSession("./A", DmtSession.LOCK_TYPE_SHARED);
+		SessionRequest request = request("./A/B", DmtSession.LOCK_TYPE_SHARED);
+		request.assertGranted();
+		request.close();
+	}
+
+	public void testDisjointExclusiveSessions() throws Exception {
+		session = dmtAdmin.getSession("./A/B", DmtSession.LOCK_TYPE_EXCLUSIVE);
+		SessionRequest request = request("./A/E", DmtSession.LOCK_TYPE_ATOMIC);
+		request.assertGranted();
+		request.close();
+	}
+
+	public void testExclusiveBlocksDescendant() throws Exception {
+		session = dmtAdmin.getSession("./A", DmtSession.LOCK_TYPE_EXCLUSIVE);
+		SessionRequest request = request("./A/B/C", DmtSession.LOCK_TYPE_SHARED);
+		request.assertBlocked();
+
+		session.close();
+		request.assertGranted();
+		request.close();
+	}
+
+	public void testExclusiveBlocksAncestor() throws Exception {
+		session = dmtAdmin.getSession("./A/B", DmtSession.LOCK_TYPE_EXCLUSIVE);
+		SessionRequest request = request(".", DmtSession.LOCK_TYPE_SHARED);
+		request.assertBlocked();
+
+		session.close();
+		request.assertGranted();
+		request.close();
+	}
+
+	public void testAtomicBlocksShared() throws Exception {
+		session = dmtAdmin.getSession("./A/E", DmtSession.LOCK_TYPE_ATOMIC);
+		SessionRequest blocked = request("./A/E/F", DmtSession.LOCK_TYPE_SHARED);
+		SessionRequest other = request("./A/B", DmtSession.LOCK_TYPE_SHARED);
+		other.assertGranted();
+		blocked.assertBlocked();
+
+		session.close();
+		blocked.assertGranted();
+		blocked.close();
+		other.close();
+	}
+
+	public void testRequestsGrantedInOrder() throws Exception {
+		session = dmtAdmin.getSession("./A", DmtSession.LOCK_TYPE_SHARED);
+		SessionRequest writer = request("./A", DmtSession.LOCK_TYPE_EXCLUSIVE);
+		writer.assertBlocked();
+
+		// compatible with the open session, but not with the earlier writer
+		SessionRequest reader = request("./A/B", DmtSession.LOCK_TYPE_SHARED);
+		reader.assertBlocked();
+
+		session.close();
+		writer.assertGranted();
+		reader.assertBlocked();
+
+		writer.close();
+		reader.assertGranted();
+		reader.close();
+	}
+
+	private SessionRequest request(String subtreeUri, int lockMode) {
+		SessionRequest request = new SessionRequest(subtreeUri, lockMode);
+		request.start();
+		return request;
+	}
+
+	/**
+	 * Opens a session in its own thread.
+	 */
+	private class SessionRequest extends Thread {
+		private final String			subtreeUri;
+		private final int				lockMode;
+		private final CountDownLatch	done	= new CountDownLatch(1);
+		private volatile DmtSession		requested;
+		private volatile DmtException	failure;
+
+		SessionRequest(String subtreeUri, int lockMode) {
+			super("SessionRequest " + subtreeUri);
+			this.subtreeUri = subtreeUri;
+			this.lockMode = lockMode;
+		}
+
+		@Override
+		public void run() {
+			try {
+				requested = dmtAdmin.getSession(subtreeUri, lockMode);
+			} catch (DmtException e) {
+				failure = e;
+			} finally {
+				done.countDown();
+			}
+		}
+
+		void assertBlocked() throws InterruptedException {
+			assertFalse("Session on " + subtreeUri + " was opened",
+					done.await(BLOCKED_MILLIS, TimeUnit.MILLISECONDS));
+		}
+
+		void assertGranted() throws InterruptedException {
+			assertTrue("Session on " + subtreeUri + " was not opened",
+					done.await(GRANT_SECONDS, TimeUnit.SECONDS));
+			if (failure != null) {
+				fail("Session on " + subtreeUri + " failed: " + failure);
+			}
+			assertEquals(DmtSession.STATE_OPEN, requested.getState());
+		}
+
+		void close() throws DmtException {
+			requested.close();
+		}
+	}
+}
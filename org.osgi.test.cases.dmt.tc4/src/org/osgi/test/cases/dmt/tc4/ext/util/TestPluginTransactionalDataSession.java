@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0 
+ *******************************************************************************/
+package org.osgi.test.cases.dmt.tc4.ext.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.service.dmt.DmtException;
+import org.osgi.service.dmt.MetaNode;
+import org.osgi.service.dmt.Uri;
+import org.osgi.service.dmt.spi.TransactionalDataSession;
+
+/**
+ * A session which applies changes immediately, and which deletes and renames
+ * whole subtrees. Commit and rollback do nothing.
+ */
+public class TestPluginTransactionalDataSession extends TestPluginReadWriteDataSession implements TransactionalDataSession {
+
+	public TestPluginTransactionalDataSession(Map<String,TestNode> nodeMap) {
+        super(nodeMap);
+    }
+
+    @Override
+	public MetaNode getMetaNode(String[] nodePath) throws DmtException {
+        // also asked for the nodes about to be created
+        TestNode node = nodeMap.get(Uri.toUri(nodePath));
+        return (node == null) ? null : node.getMetaNode();
+    }
+
+    @Override
+	public void deleteNode(String[] nodePath) throws DmtException {
+        for (String uri : getSubtreeUris(nodePath)) {
+            nodeMap.remove(uri);
+        }
+    }
+
+    @Override
+	public void renameNode(String[] nodePath, String newName) throws DmtException {
+        String uri = Uri.toUri(nodePath);
+        String[] newNodePath = nodePath.clone();
+        newNodePath[newNodePath.length - 1] = newName;
+        String newUri = Uri.toUri(newNodePath);
+        for (String nodeUri : getSubtreeUris(nodePath)) {
+            nodeMap.put(newUri + nodeUri.substring(uri.length()), nodeMap.remove(nodeUri));
+        }
+    }
+
+    @Override
+	public void commit() throws DmtException {
+    }
+
+    @Override
+	public void rollback() throws DmtException {
+    }
+
+    private List<String> getSubtreeUris(String[] nodePath) {
+        String uri = Uri.toUri(nodePath);
+        List<String> uris = new ArrayList<>();
+        for (String nodeUri : nodeMap.keySet()) {
+            if (nodeUri.equals(uri) || nodeUri.startsWith(uri + "/")) {
+                uris.add(nodeUri);
+            }
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0 
+ *******************************************************************************/
+package org.osgi.test.cases.framework.junit.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FilterIndex;
+import org.osgi.framework.FrameworkUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the FilterIndex class.
+ */
+public class FilterIndexTests extends TestCase {
+	private static final String[]	FILTERS	= {
+			"(objectClass=a.Foo)",
+			"(&(objectClass=a.Foo)(rank>=5))",
+			"(&(name=x)(objectClass=a.Bar))",
+			"(|(objectClass=a.Foo)(objectClass=a.Bar))",
+			"(name=x)",
+			"(!(name=x))",
+			"(&(name=y)(count=3))",
+			"(count=3)",
+			"(name=X*)",
+			"(&(version>=1.2)(version<=2))"
+	};
+
+	private FilterIndex<String> newIndex() {
+		FilterIndex<String> index = new FilterIndex<>();
+		for (String filter : FILTERS) {
+			index.add(FrameworkUtil.createFilter(filter), filter);
+		}
+		assertEquals(FILTERS.length, index.size());
+		return index;
+	}
+
+	private static List<Map<String,Object>> properties() {
+		List<Map<String,Object>> result = new ArrayList<>();
+		result.add(map(Constants.OBJECTCLASS, new String[] {
+				"a.Foo", "a.Bar", "a.Foo"
+		}, "rank", Integer.valueOf(7), "name", "x"));
+		result.add(map(Constants.OBJECTCLASS, new String[] {
+				"a.Bar"
+		}, "name", "y", "count", Long.valueOf(3)));
+		result.add(map("objectClass", Arrays.asList("a.Foo", "b.Baz"), "rank",
+				"4", "name", "X1"));
+		result.add(map("name", Collections.singletonList(Integer.valueOf(1)),
+				"count", "3", "version", "1.5"));
+		result.add(map("version", "2.0.0", "count", new int[] {
+				2, 3
+		}));
+		result.add(map());
+		return result;
+	}
+
+	private static Map<String,Object> map(Object... keysAndValues) {
+		Map<String,Object> map = new HashMap<>();
+		for (int i = 0; i < keysAndValues.length; i += 2) {
+			map.put((String) keysAndValues[i], keysAndValues[i + 1]);
+		}
+		return map;
+	}
+
+	/*
+	 * The index must return exactly the filters which match when each filter
+	 * is evaluated on its own.
+	 */
+	private static List<String> expected(Map<String,Object> map,
+			boolean ignoreCase) {
+		Hashtable<String,Object> dictionary = new Hashtable<>(map);
+		List<String> result = new ArrayList<>();
+		for (String filterString : FILTERS) {
+			Filter filter = FrameworkUtil.createFilter(filterString);
+			if (ignoreCase ? filter.match(dictionary)
+					: filter.matches(map)) {
+				result.add(filterString);
+			}
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	private static List<String> sorted(List<String> values) {
+		List<String> result = new ArrayList<>(values);
+		Collections.sort(result);
+		return result;
+	}
+
+	public void testMatches() {
+		FilterIndex<String> index = newIndex();
+		for (Map<String,Object> map : properties()) {
+			assertEquals(map.toString(), expected(map, false),
+					sorted(index.matches(map)));
+			assertEquals(map.toString(), expected(map, false),
+					sorted(index.matchCase(new Hashtable<>(map))));
+		}
+	}
+
+	public void testMatchIgnoresCase() {
+		FilterIndex<String> index = newIndex();
+		for (Map<String,Object> map : properties()) {
+			Map<String,Object> upper = new HashMap<>();
+			for (Map.Entry<String,Object> entry : map.entrySet()) {
+				upper.put(entry.getKey().toUpperCase(), entry.getValue());
+			}
+			assertEquals(map.toString(), expected(map, true),
+					sorted(index.match(new Hashtable<>(upper))));
+			assertEquals(map.toString(), expected(upper, false),
+					sorted(index.matches(upper)));
+		}
+	}
+
+	public void testMatchCaseVariants() {
+		FilterIndex<String> index = newIndex();
+		Hashtable<String,Object> dictionary = new Hashtable<>();
+		dictionary.put("name", "x");
+		dictionary.put("NAME", "y");
+		try {
+			index.match(dictionary);
+			fail("case variants of the same key name");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testRemove() {
+		FilterIndex<String> index = newIndex();
+		Map<String,Object> map = properties().get(0);
+		List<String> expected = new ArrayList<>(expected(map, false));
+
+		assertFalse(index.remove(FrameworkUtil.createFilter("(objectClass=a.Foo)"),
+				"other"));
+		assertFalse(index.remove(FrameworkUtil.createFilter("(objectClass=a.Baz)"),
+				"(objectClass=a.Foo)"));
+		assertEquals(FILTERS.length, index.size());
+
+		for (String filter : new String[] {
+				"(objectClass=a.Foo)", "(&(name=x)(objectClass=a.Bar))",
+				"(!(name=x))"
+		}) {
+			// the filter string need not be normalized
+			assertTrue(filter, index.remove(
+					FrameworkUtil.createFilter(" " + filter + " "), filter));
+			expected.remove(filter);
+			assertEquals(filter, expected, sorted(index.matches(map)));
+		}
+		assertEquals(FILTERS.length - 3, index.size());
+		assertFalse(index.remove(FrameworkUtil.createFilter("(objectClass=a.Foo)"),
+				"(objectClass=a.Foo)"));
+	}
+
+	public void testSameFilterTwice() {
+		FilterIndex<String> index = new FilterIndex<>();
+		Filter filter = FrameworkUtil.createFilter("(objectClass=a.Foo)");
+		index.add(filter, "1");
+		index.add(filter, "2");
+		index.add(filter, "1");
+		Map<String,Object> map = map(Constants.OBJECTCLASS, "a.Foo");
+		assertEquals(Arrays.asList("1", "1", "2"), sorted(index.matches(map)));
+		assertTrue(index.remove(filter, "1"));
+		assertEquals(Arrays.asList("1", "2"), sorted(index.matches(map)));
+		assertEquals(2, index.size());
+	}
+
+	public void testNonStringValues() {
+		FilterIndex<String> index = new FilterIndex<>();
+		index.add(FrameworkUtil.createFilter("(count=03)"), "03");
+		index.add(FrameworkUtil.createFilter("(count=3)"), "3");
+		index.add(FrameworkUtil.createFilter("(count=4)"), "4");
+		assertEquals(Arrays.asList("03", "3"),
+				sorted(index.matches(map("count", Integer.valueOf(3)))));
+		assertEquals(Arrays.asList("3"),
+				sorted(index.matches(map("count", "3"))));
+		assertEquals(Arrays.asList("03", "3", "4"),
+				sorted(index.matches(map("count", new Object[] {
+						"3", Long.valueOf(4), "03"
+				}))));
+	}
+}
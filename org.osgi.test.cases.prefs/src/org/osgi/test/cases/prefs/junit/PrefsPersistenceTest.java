@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.test.cases.prefs.junit;
+
+import java.util.Arrays;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.prefs.Preferences;
+import org.osgi.service.prefs.PreferencesService;
+import org.osgi.test.support.compatibility.DefaultTestBundleControl;
+
+/**
+ * Checks that flushed preferences are restored when the Preferences Service
+ * implementation is restarted, whether a flush writes a few nodes of a tree
+ * or all of them.
+ */
+public class PrefsPersistenceTest extends DefaultTestBundleControl {
+	private static final String	USER	= "persistuser";
+	private PreferencesService	prefs;
+
+	protected void setUp() {
+		prefs = getService(PreferencesService.class);
+		assertNotNull(prefs);
+	}
+
+	protected void tearDown() throws Exception {
+		Preferences root = prefs.getUserPreferences(USER);
+		String[] children = root.childrenNames();
+		for (int i = 0; i < children.length; i++) {
+			root.node(children[i]).removeNode();
+		}
+		root.clear();
+		root.flush();
+		ungetService(prefs);
+	}
+
+	public void testFlushedChangesRestored() throws Exception {
+		Preferences root = prefs.getUserPreferences(USER);
+		Preferences node = root.node("a/b");
+		node.put("string", "value");
+		node.putInt("int", 42);
+		node.putByteArray("bytes", new byte[] {1, 2, 3});
+		node.put("gone", "value");
+		node.remove("gone");
+		root.node("a/removed").put("key", "value");
+		root.node("a/removed").removeNode();
+		root.put("rootkey", "rootvalue");
+		root.flush();
+
+		restart();
+
+		root = prefs.getUserPreferences(USER);
+		assertTrue("node not restored", root.nodeExists("a/b"));
+		assertFalse("removed node restored", root.nodeExists("a/removed"));
+		node = root.node("a/b");
+		assertEquals("string", "value", node.get("string", null));
+		assertEquals("int", 42, node.getInt("int", 0));
+		assertTrue("bytes", Arrays.equals(new byte[] {1, 2, 3},
+				node.getByteArray("bytes", null)));
+		assertNull("removed key", node.get("gone", null));
+		assertEquals("root", "rootvalue", root.get("rootkey", null));
+	}
+
+	public void testSuccessiveFlushesRestored() throws Exception {
+		Preferences root = prefs.getUserPreferences(USER);
+		for (int i = 0; i < 20; i++) {
+			root.node("node" + i).putInt("value", i);
+		}
+		root.flush();
+
+		// a record spanning several pages, replaced by shorter ones
+		Preferences big = root.node("node3");
+		big.put("big", repeat('x', 10000));
+		big.flush();
+		big.put("big", repeat('y', 3000));
+		root.node("node7").putInt("value", 700);
+		root.flush();
+		big.put("big", "small");
+		root.node("node11").removeNode();
+		root.flush();
+		// not flushed; written when the implementation is stopped
+		root.node("node15").putInt("value", 1500);
+
+		restart();
+
+		root = prefs.getUserPreferences(USER);
+		assertFalse("removed node restored", root.nodeExists("node11"));
+		assertEquals("big", "small", root.node("node3").get("big", null));
+		for (int i = 0; i < 20; i++) {
+			if (i == 11) {
+				continue;
+			}
+			int expected = (i == 7) ? 700 : (i == 15) ? 1500 : i;
+			assertEquals("node" + i, expected,
+					root.node("node" + i).getInt("value", -1));
+		}
+	}
+
+	public void testLargeValueRestored() throws Exception {
+		Preferences node = prefs.getUserPreferences(USER).node("large");
+		byte[] value = new byte[100 * 1024];
+		for (int i = 0; i < value.length; i++) {
+			value[i] = (byte) i;
+		}
+		node.putByteArray("value", value);
+		node.flush();
+
+		restart();
+
+		node = prefs.getUserPreferences(USER).node("large");
+		assertTrue("large value", Arrays.equals(value,
+				node.getByteArray("value", null)));
+	}
+
+	private void restart() throws Exception {
+		Bundle impl = getServiceReference(prefs).getBundle();
+		ungetService(prefs);
+		impl.stop();
+		impl.start();
+		prefs = getService(PreferencesService.class);
+		assertNotNull(prefs);
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
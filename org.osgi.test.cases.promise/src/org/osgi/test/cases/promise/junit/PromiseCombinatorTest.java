@@ -0,0 +1,404 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.test.cases.promise.junit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+import static org.osgi.test.assertj.promise.PromiseAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.util.promise.Deferred;
+import org.osgi.util.promise.FailedPromisesException;
+import org.osgi.util.promise.Promise;
+import org.osgi.util.promise.PromiseFactory;
+import org.osgi.util.promise.Promises;
+
+/**
+ * Tests of the {@code any}, {@code firstN}, {@code fold} and
+ * {@code allSettled} methods of {@link PromiseFactory} and {@link Promises}.
+ */
+public class PromiseCombinatorTest {
+	public static final long	WAIT_TIME		= 2L;
+	private static final int	PROMISES		= 200;
+	private static final int	THREADS			= 4;
+
+	ExecutorService				callbackExecutor;
+	ScheduledExecutorService	scheduledExecutor;
+	PromiseFactory				factory;
+	/**
+	 * Runs the callbacks on the resolving thread, so the order in which the
+	 * Promises are resolved is the order in which they are seen.
+	 */
+	PromiseFactory				inlineFactory;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		callbackExecutor = Executors.newFixedThreadPool(2);
+		scheduledExecutor = Executors.newScheduledThreadPool(2);
+		factory = new PromiseFactory(callbackExecutor, scheduledExecutor);
+		inlineFactory = new PromiseFactory(PromiseFactory.inlineExecutor(),
+				scheduledExecutor);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		callbackExecutor.shutdown();
+		scheduledExecutor.shutdown();
+	}
+
+	@Test
+	public void testEmptyInput() throws Exception {
+		Collection<Promise<String>> none = Collections.emptyList();
+
+		assertThat(factory.<String, String> any(none))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(NoSuchElementException.class);
+		assertThat(Promises.<String, String> any(none))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(NoSuchElementException.class);
+
+		assertThat(factory.<String, String> firstN(none, 0))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(Collections.emptyList());
+		assertThat(factory.<String, String> firstN(none, 1))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(NoSuchElementException.class);
+
+		assertThat(factory.fold(none, "identity", String::concat))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue("identity");
+		assertThat(Promises.fold(none, "identity", String::concat))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue("identity");
+
+		assertThat(factory.allSettled(none))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(Collections.emptyList());
+		assertThat(Promises.allSettled(none))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(Collections.emptyList());
+	}
+
+	@Test
+	public void testFirstNMoreThanSize() throws Exception {
+		List<Promise<String>> promises = Arrays.asList(factory.resolved("a"),
+				factory.resolved("b"));
+
+		assertThat(factory.<String, String> firstN(promises, 3))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(NoSuchElementException.class);
+		assertThat(Promises.<String, String> firstN(promises, 3))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(NoSuchElementException.class);
+		assertThat(factory.<String, String> firstN(promises, 2))
+				.resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(Arrays.asList("a", "b"));
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> factory.firstN(promises, -1));
+	}
+
+	@Test
+	public void testAnyAllFailed() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 3);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<String> any = factory.any(promises);
+
+		deferreds.get(1).fail(new Exception("fail1"));
+		deferreds.get(0).fail(new Exception("fail0"));
+		assertThat(any).isNotDone();
+		deferreds.get(2).fail(new Exception("fail2"));
+
+		assertThat(any).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(FailedPromisesException.class);
+		assertThat(((FailedPromisesException) any.getFailure())
+				.getFailedPromises())
+						.containsExactlyInAnyOrder(promises.toArray());
+	}
+
+	@Test
+	public void testAnyPartiallyFailed() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 3);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<String> any = Promises.any(promises);
+
+		deferreds.get(0).fail(new Exception("fail0"));
+		deferreds.get(2).resolve("value2");
+
+		// the remaining Promise is not waited for
+		assertThat(any).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue("value2");
+		assertThat(promises.get(1)).isNotDone();
+	}
+
+	@Test
+	public void testFirstNPartiallyFailed() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 4);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<List<String>> first = factory.firstN(promises, 2);
+
+		deferreds.get(0).fail(new Exception("fail0"));
+		deferreds.get(3).fail(new Exception("fail3"));
+		assertThat(first).isNotDone();
+		deferreds.get(1).resolve("value1");
+		deferreds.get(2).resolve("value2");
+
+		assertThat(first).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS);
+		assertThat(first.getValue()).containsExactlyInAnyOrder("value1",
+				"value2");
+	}
+
+	@Test
+	public void testFirstNTooManyFailed() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 4);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<List<String>> first = factory.firstN(promises, 3);
+
+		deferreds.get(0).resolve("value0");
+		deferreds.get(2).fail(new Exception("fail2"));
+		assertThat(first).isNotDone();
+		deferreds.get(1).fail(new Exception("fail1"));
+
+		// fails as soon as fewer than 3 can succeed, without waiting for the
+		// last Promise
+		assertThat(first).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(FailedPromisesException.class);
+		assertThat(((FailedPromisesException) first.getFailure())
+				.getFailedPromises()).containsExactlyInAnyOrder(
+						promises.get(1), promises.get(2));
+		assertThat(promises.get(3)).isNotDone();
+	}
+
+	@Test
+	public void testFirstNResolutionOrder() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(inlineFactory, 4);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<List<String>> first = inlineFactory.firstN(promises, 3);
+		Promise<String> any = inlineFactory.any(promises);
+
+		deferreds.get(3).resolve("value3");
+		deferreds.get(1).resolve("value1");
+		deferreds.get(2).resolve("value2");
+		deferreds.get(0).resolve("value0");
+
+		assertThat(first).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(Arrays.asList("value3", "value1", "value2"));
+		assertThat(any).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue("value3");
+	}
+
+	@Test
+	public void testFoldResolutionOrder() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(inlineFactory, 4);
+		Promise<String> fold = inlineFactory.fold(promises(deferreds), "",
+				String::concat);
+
+		deferreds.get(2).resolve("c");
+		deferreds.get(0).resolve("a");
+		deferreds.get(3).resolve("d");
+		assertThat(fold).isNotDone();
+		deferreds.get(1).resolve("b");
+
+		assertThat(fold).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue("cadb");
+	}
+
+	@Test
+	public void testFoldPartiallyFailed() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 3);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<String> fold = factory.fold(promises, "", String::concat);
+
+		deferreds.get(1).fail(new Exception("fail1"));
+		deferreds.get(0).resolve("a");
+		// a failure does not resolve the fold before all the Promises are
+		// resolved
+		assertThat(fold).isNotDone();
+		deferreds.get(2).resolve("c");
+
+		assertThat(fold).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(FailedPromisesException.class);
+		assertThat(((FailedPromisesException) fold.getFailure())
+				.getFailedPromises()).containsExactly(promises.get(1));
+	}
+
+	@Test
+	public void testFoldAllFailed() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 3);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<String> fold = Promises.fold(promises, "", String::concat);
+
+		for (Deferred<String> d : deferreds) {
+			d.fail(new Exception("fail"));
+		}
+
+		assertThat(fold).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isInstanceOf(FailedPromisesException.class);
+		assertThat(((FailedPromisesException) fold.getFailure())
+				.getFailedPromises())
+						.containsExactlyInAnyOrder(promises.toArray());
+	}
+
+	@Test
+	public void testFoldAccumulatorFailure() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 2);
+		IllegalStateException failure = new IllegalStateException("fold");
+		Promise<String> fold = factory.fold(promises(deferreds), "",
+				(a, v) -> {
+					throw failure;
+				});
+
+		deferreds.get(0).resolve("a");
+
+		assertThat(fold).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasFailedWithThrowableThat()
+				.isSameAs(failure);
+	}
+
+	@Test
+	public void testAllSettledOrder() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 3);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<List<Promise<String>>> settled = factory.allSettled(promises);
+
+		deferreds.get(2).resolve("value2");
+		deferreds.get(0).fail(new Exception("fail0"));
+		assertThat(settled).isNotDone();
+		deferreds.get(1).resolve("value1");
+
+		// in the order of the specified Promises, not of their resolution
+		assertThat(settled).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(promises);
+		assertThat(promises.get(0)).hasFailed();
+	}
+
+	@Test
+	public void testAllSettledAllFailed() throws Exception {
+		List<Deferred<String>> deferreds = deferreds(factory, 3);
+		List<Promise<String>> promises = promises(deferreds);
+		Promise<List<Promise<String>>> settled = Promises.allSettled(promises);
+
+		for (Deferred<String> d : deferreds) {
+			d.fail(new Exception("fail"));
+		}
+
+		assertThat(settled).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(promises);
+	}
+
+	@Test
+	public void testConcurrentResolution() throws Exception {
+		List<Deferred<Integer>> deferreds = deferreds(factory, PROMISES);
+		List<Promise<Integer>> promises = promises(deferreds);
+
+		AtomicInteger accumulating = new AtomicInteger();
+		AtomicBoolean overlapped = new AtomicBoolean();
+		Promise<Integer> any = factory.any(promises);
+		Promise<List<Integer>> first = factory.firstN(promises, PROMISES / 2);
+		Promise<Long> fold = factory.fold(promises, Long.valueOf(0), (a, v) -> {
+			if (accumulating.incrementAndGet() != 1) {
+				overlapped.set(true);
+			}
+			Long sum = Long.valueOf(a.longValue() + v.longValue());
+			accumulating.decrementAndGet();
+			return sum;
+		});
+		Promise<List<Promise<Integer>>> settled = factory.allSettled(promises);
+
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			int offset = t;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = offset; i < PROMISES; i += THREADS) {
+					deferreds.get(i).resolve(Integer.valueOf(i));
+				}
+			}, "resolver" + t);
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join(TimeUnit.SECONDS.toMillis(WAIT_TIME));
+		}
+
+		assertThat(any).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS);
+		assertThat(any.getValue().intValue()).isBetween(0, PROMISES - 1);
+
+		assertThat(first).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS);
+		Set<Integer> distinct = new HashSet<>(first.getValue());
+		assertThat(distinct).hasSize(PROMISES / 2);
+
+		assertThat(fold).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(Long.valueOf((long) PROMISES * (PROMISES - 1) / 2));
+		assertThat(overlapped.get()).as("accumulator called concurrently")
+				.isFalse();
+
+		assertThat(settled).resolvesWithin(WAIT_TIME, TimeUnit.SECONDS)
+				.hasValue(promises);
+	}
+
+	private static <T> List<Deferred<T>> deferreds(PromiseFactory factory,
+			int count) {
+		List<Deferred<T>> deferreds = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			deferreds.add(factory.deferred());
+		}
+		return deferreds;
+	}
+
+	private static <T> List<Promise<T>> promises(List<Deferred<T>> deferreds) {
+		List<Promise<T>> promises = new ArrayList<>(deferreds.size());
+		for (Deferred<T> d : deferreds) {
+			promises.add(d.getPromise());
+		}
+		return promises;
+	}
+}
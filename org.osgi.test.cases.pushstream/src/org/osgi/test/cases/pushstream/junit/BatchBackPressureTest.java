@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.test.cases.pushstream.junit;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.util.pushstream.PushStreamProvider;
+import org.osgi.util.pushstream.SimplePushEventSource;
+
+/**
+ * Checks that back pressure returned by a consumer that does not handle
+ * batches is honoured when events are delivered to it in batches.
+ */
+public class BatchBackPressureTest {
+
+	private PushStreamProvider			psp;
+
+	private ExecutorService				executor;
+
+	private ScheduledExecutorService	scheduler;
+
+	@BeforeEach
+	public void setUp() {
+		psp = new PushStreamProvider();
+		executor = Executors.newFixedThreadPool(2);
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testPublishAllHonoursBackPressure() throws Exception {
+		SimplePushEventSource<Integer> spes = psp
+				.createSimpleEventSource(Integer.class);
+
+		List<Integer> received = new CopyOnWriteArrayList<>();
+		List<Long> times = new CopyOnWriteArrayList<>();
+		Semaphore latch = new Semaphore(0);
+
+		spes.open(pe -> {
+			if (pe.isTerminal()) {
+				latch.release();
+				return 0;
+			}
+			Integer i = pe.getData();
+			received.add(i);
+			times.add(Long.valueOf(System.nanoTime()));
+			return (i.intValue() % 10 == 0) ? 100L : 0L;
+		});
+
+		spes.publishAll(range(1, 30));
+		spes.endOfStream();
+
+		assertTrue(latch.tryAcquire(5, SECONDS));
+		assertEquals(range(1, 30), received);
+
+		// Back pressure after events 10 and 20 must delay the next event
+		for (int i : new int[] {
+				10, 20
+		}) {
+			long gap = NANOSECONDS
+					.toMillis(times.get(i).longValue()
+							- times.get(i - 1).longValue());
+			assertTrue(gap >= 90, "Back pressure ignored after event " + i
+					+ ", next event came after " + gap + "ms");
+		}
+
+		spes.close();
+	}
+
+	@Test
+	public void testStreamOfHonoursBackPressure() throws Exception {
+		List<Integer> received = new CopyOnWriteArrayList<>();
+
+		long start = System.nanoTime();
+		psp.streamOf(executor, scheduler, range(1, 20).stream())
+				.forEachEvent(pe -> {
+					if (pe.isTerminal()) {
+						return 0;
+					}
+					received.add(pe.getData());
+					return 20L;
+				})
+				.getValue();
+		long elapsed = NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertEquals(range(1, 20), received);
+		assertTrue(elapsed >= 19 * 20 - 10,
+				"Twenty events each requesting 20ms of back pressure took only "
+						+ elapsed + "ms");
+	}
+
+	@Test
+	public void testCloseDuringDelayedDelivery() throws Exception {
+		SimplePushEventSource<Integer> spes = psp
+				.createSimpleEventSource(Integer.class);
+
+		List<Integer> received = new CopyOnWriteArrayList<>();
+		Semaphore latch = new Semaphore(0);
+
+		spes.open(pe -> {
+			if (pe.isTerminal()) {
+				latch.release();
+				return 0;
+			}
+			Integer i = pe.getData();
+			received.add(i);
+			switch (i.intValue()) {
+				case 3 :
+					return 50L;
+				case 5 :
+					return -1L;
+				default :
+					return 0L;
+			}
+		});
+
+		spes.publishAll(range(1, 10));
+
+		assertTrue(latch.tryAcquire(5, SECONDS));
+		assertEquals(range(1, 5), received);
+
+		// Events published after the consumer closed must not arrive
+		spes.publishAll(range(11, 15));
+		spes.endOfStream();
+		Thread.sleep(200);
+		assertEquals(range(1, 5), received);
+		assertEquals(0, latch.availablePermits(),
+				"Only one terminal event may be delivered");
+
+		spes.close();
+	}
+
+	private static List<Integer> range(int from, int to) {
+		return IntStream.rangeClosed(from, to)
+				.boxed()
+				.collect(Collectors.toCollection(ArrayList::new));
+	}
+}
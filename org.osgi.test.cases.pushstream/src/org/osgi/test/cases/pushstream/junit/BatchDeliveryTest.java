@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.test.cases.pushstream.junit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.util.promise.Promise;
+import org.osgi.util.pushstream.PushStream;
+import org.osgi.util.pushstream.PushStreamProvider;
+import org.osgi.util.pushstream.SimplePushEventSource;
+
+/**
+ * Checks that a buffered stream hands the data it has buffered to the
+ * operations of its pipeline in batches.
+ */
+public class BatchDeliveryTest {
+
+	private PushStreamProvider	psp;
+
+	private ExecutorService		executor;
+
+	@BeforeEach
+	public void setUp() {
+		psp = new PushStreamProvider();
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testBufferedMapForEachReceivesBatches() throws Exception {
+		SimplePushEventSource<Integer> spes = psp
+				.createSimpleEventSource(Integer.class);
+		PushStream<Integer> stream = psp.buildStream(spes)
+				.withBuffer(new ArrayBlockingQueue<>(1024))
+				.withExecutor(executor)
+				.build();
+
+		List<String> trace = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch firstReceived = new CountDownLatch(1);
+		CountDownLatch resume = new CountDownLatch(1);
+
+		Promise<Void> done = stream.map(i -> {
+			trace.add("map " + i);
+			return i;
+		}).forEach(i -> {
+			trace.add("each " + i);
+			if (i.intValue() == 1) {
+				// the rest of the events are buffered meanwhile
+				firstReceived.countDown();
+				await(resume);
+			}
+		});
+
+		spes.connectPromise().getValue();
+		spes.publish(Integer.valueOf(1));
+		assertTrue(firstReceived.await(5, SECONDS));
+		for (int i = 2; i <= 20; i++) {
+			spes.publish(Integer.valueOf(i));
+		}
+		// wait until the source has handed the events to the buffer
+		Thread.sleep(200);
+		resume.countDown();
+		spes.endOfStream();
+		done.getValue();
+
+		assertEquals(prefixed("each ", range(1, 20)), trace.stream()
+				.filter(s -> s.startsWith("each "))
+				.collect(Collectors.toList()));
+		// the buffered events are mapped as a batch before any of them is
+		// passed to forEach
+		assertTrue(trace.indexOf("map 20") < trace.indexOf("each 2"),
+				"Buffered events were not delivered in a batch: " + trace);
+
+		spes.close();
+	}
+
+	@Test
+	public void testBufferedTerminalOperationsOverBatches() throws Exception {
+		SimplePushEventSource<Integer> spes = psp
+				.createSimpleEventSource(Integer.class);
+		PushStream<Integer> stream = psp.buildStream(spes)
+				.withBuffer(new ArrayBlockingQueue<>(1024))
+				.withExecutor(executor)
+				.build();
+
+		CountDownLatch firstReceived = new CountDownLatch(1);
+		CountDownLatch resume = new CountDownLatch(1);
+		Promise<List<Integer>> collected = stream.filter(i -> {
+			if (i.intValue() == 1) {
+				firstReceived.countDown();
+				resume.await(5, SECONDS);
+			}
+			return i.intValue() % 2 == 1;
+		}).collect(Collectors.toList());
+
+		spes.connectPromise().getValue();
+		spes.publishAll(range(1, 30));
+		assertTrue(firstReceived.await(5, SECONDS));
+		resume.countDown();
+		spes.endOfStream();
+
+		List<Integer> odd = range(1, 30).stream()
+				.filter(i -> i.intValue() % 2 == 1)
+				.collect(Collectors.toList());
+		assertEquals(odd, collected.getValue());
+
+		spes.close();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static List<Integer> range(int from, int to) {
+		return IntStream.rangeClosed(from, to)
+				.boxed()
+				.collect(Collectors.toCollection(ArrayList::new));
+	}
+
+	private static List<String> prefixed(String prefix, List<Integer> values) {
+		return values.stream()
+				.map(i -> prefix + i)
+				.collect(Collectors.toList());
+	}
+}
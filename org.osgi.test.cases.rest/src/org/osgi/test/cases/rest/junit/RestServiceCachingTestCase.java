@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.test.cases.rest.junit;
+
+import java.net.HttpURLConnection;
+import java.util.Hashtable;
+
+import org.json.JSONArray;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Tests the entity tags of the REST Management Service listings.
+ */
+public class RestServiceCachingTestCase extends RestTestUtils {
+
+  public void testBundleListNotModified() throws Exception {
+    Response first = get(BUNDLE_LIST_URI, BUNDLE_LIST_CONTENT_TYPE_JSON, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, first.code);
+    assertNotNull("ETag", first.etag);
+
+    Response second = get(BUNDLE_LIST_URI, BUNDLE_LIST_CONTENT_TYPE_JSON, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, second.code);
+    assertEquals("ETag of unchanged list", first.etag, second.etag);
+    assertEquals("Body of unchanged list", first.body, second.body);
+
+    Response notModified = get(BUNDLE_LIST_URI, BUNDLE_LIST_CONTENT_TYPE_JSON, first.etag);
+    assertEquals("Response code", HttpURLConnection.HTTP_NOT_MODIFIED, notModified.code);
+
+    Response xml = get(BUNDLE_LIST_URI, BUNDLE_LIST_CONTENT_TYPE_XML, first.etag);
+    assertEquals("Response code of other media type", HttpURLConnection.HTTP_OK, xml.code);
+    assertFalse("ETag of other media type", first.etag.equals(xml.etag));
+
+    Bundle tb1 = getTestBundle(TB1_TEST_BUNDLE_SYMBOLIC_NAME, TB1);
+    Response changed = get(BUNDLE_LIST_URI, BUNDLE_LIST_CONTENT_TYPE_JSON, first.etag);
+    assertEquals("Response code after install", HttpURLConnection.HTTP_OK, changed.code);
+    assertFalse("ETag after install", first.etag.equals(changed.etag));
+    assertTrue("Bundle list contains installed bundle",
+      toList(new JSONArray(changed.body)).contains(getBundleURI(tb1)));
+
+    tb1.uninstall();
+    Response removed = get(BUNDLE_LIST_URI, BUNDLE_LIST_CONTENT_TYPE_JSON, changed.etag);
+    assertEquals("Response code after uninstall", HttpURLConnection.HTTP_OK, removed.code);
+    assertFalse("Bundle list contains uninstalled bundle",
+      toList(new JSONArray(removed.body)).contains(getBundleURI(tb1)));
+  }
+
+  public void testServiceListNotModified() throws Exception {
+    Response first = get(SERVICE_LIST_URI, SERVICE_LIST_CONTENT_TYPE_JSON, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, first.code);
+    assertNotNull("ETag", first.etag);
+
+    Response notModified = get(SERVICE_LIST_URI, SERVICE_LIST_CONTENT_TYPE_JSON, first.etag);
+    assertEquals("Response code", HttpURLConnection.HTTP_NOT_MODIFIED, notModified.code);
+
+    ServiceRegistration<?> reg = registerTestService();
+    try {
+      Response changed = get(SERVICE_LIST_URI, SERVICE_LIST_CONTENT_TYPE_JSON, first.etag);
+      assertEquals("Response code after register", HttpURLConnection.HTTP_OK, changed.code);
+      assertFalse("ETag after register", first.etag.equals(changed.etag));
+      assertTrue("Service list contains registered service",
+        toList(new JSONArray(changed.body)).contains(getServiceURI(reg.getReference())));
+    } finally {
+      reg.unregister();
+    }
+  }
+
+  public void testServiceRepresentationsUsingBundles() throws Exception {
+    ServiceRegistration<?> reg = registerTestService();
+    try {
+      String uri = getServiceRepresentationListURI("(" + Constants.SERVICE_ID + "=" + getServiceId(reg.getReference()) + ")");
+      Response first = get(uri, SERVICE_REPRESENTATIONS_LIST_CONTENT_TYPE_JSON, null);
+      assertEquals("Response code", HttpURLConnection.HTTP_OK, first.code);
+      assertNotNull("ETag", first.etag);
+
+      // getting a service fires no service event
+      assertNotNull(getContext().getService(reg.getReference()));
+      try {
+        Response used = get(uri, SERVICE_REPRESENTATIONS_LIST_CONTENT_TYPE_JSON, first.etag);
+        assertEquals("Response code after get", HttpURLConnection.HTTP_OK, used.code);
+        assertFalse("ETag after get", first.etag.equals(used.etag));
+        assertEquals("Using bundles", 1,
+          new JSONArray(used.body).getJSONObject(0).getJSONArray("usingBundles").length());
+      } finally {
+        getContext().ungetService(reg.getReference());
+      }
+    } finally {
+      reg.unregister();
+    }
+  }
+
+  private ServiceRegistration<?> registerTestService() {
+    Hashtable<String, Object> props = new Hashtable<String, Object>();
+    props.put("test", getClass().getName());
+    return getContext().registerService(Object.class.getName(), new Object(), props);
+  }
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.test.cases.rest.junit;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Tests the offset, limit and fields query parameters of the REST Management
+ * Service listings.
+ */
+public class RestServicePagingTestCase extends RestTestUtils {
+
+  public void testBundleListPages() throws Exception {
+    List<String> expected = new ArrayList<String>();
+    for (long id : getBundleIds()) {
+      expected.add(getBundleURI(id));
+    }
+    assertPages(BUNDLE_LIST_URI + "?", BUNDLE_LIST_CONTENT_TYPE_JSON, expected);
+  }
+
+  public void testServiceListPages() throws Exception {
+    ServiceReference<?>[] refs = getServices(null);
+    List<Long> ids = new ArrayList<Long>();
+    for (ServiceReference<?> ref : refs) {
+      ids.add(getServiceId(ref));
+    }
+    Collections.sort(ids);
+    List<String> expected = new ArrayList<String>();
+    for (Long id : ids) {
+      expected.add(getServiceURI(id.toString()));
+    }
+    assertPages(SERVICE_LIST_URI + "?", SERVICE_LIST_CONTENT_TYPE_JSON, expected);
+  }
+
+  public void testFilteredBundleListPage() throws Exception {
+    Bundle bundle = getBundle(TEST_BUNDLE_SYMBOLIC_NAME);
+    String uri = getBundleListURI(getFilter(TEST_BUNDLE_SYMBOLIC_NAME));
+
+    Response response = get(uri + "&limit=1", BUNDLE_LIST_CONTENT_TYPE_JSON, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, response.code);
+    assertEquals("Filtered page", Collections.singletonList(getBundleURI(bundle)),
+      toList(new JSONArray(response.body)));
+
+    response = get(uri + "&offset=1", BUNDLE_LIST_CONTENT_TYPE_JSON, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, response.code);
+    assertEquals("Filtered page after the end", 0, new JSONArray(response.body).length());
+  }
+
+  public void testInvalidPage() throws Exception {
+    assertEquals("Negative limit", HttpURLConnection.HTTP_BAD_REQUEST,
+      get(BUNDLE_LIST_URI + "?limit=-1", BUNDLE_LIST_CONTENT_TYPE_JSON, null).code);
+    assertEquals("Non numeric offset", HttpURLConnection.HTTP_BAD_REQUEST,
+      get(BUNDLE_LIST_URI + "?offset=x", BUNDLE_LIST_CONTENT_TYPE_JSON, null).code);
+    assertEquals("Empty offset", HttpURLConnection.HTTP_BAD_REQUEST,
+      get(SERVICE_LIST_URI + "?offset=", SERVICE_LIST_CONTENT_TYPE_JSON, null).code);
+  }
+
+  public void testBundleRepresentationsFields() throws Exception {
+    long[] ids = getBundleIds();
+    Response response = get(BUNDLE_REPRESENTATIONS_LIST_URI + "?fields=id,symbolicName&offset=0&limit=2",
+      BUNDLE_REPRESENTATIONS_LIST_CONTENT_TYPE_JSON, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, response.code);
+
+    JSONArray representations = new JSONArray(response.body);
+    assertEquals("Page size", Math.min(2, ids.length), representations.length());
+    for (int k = 0; k < representations.length(); k++) {
+      JSONObject representation = representations.getJSONObject(k);
+      assertEquals("Fields", new HashSet<String>(Arrays.asList("id", "symbolicName")),
+        new HashSet<String>(Arrays.asList(JSONObject.getNames(representation))));
+      assertEquals("id", ids[k], representation.getLong("id"));
+      assertEquals("symbolicName", getContext().getBundle(ids[k]).getSymbolicName(),
+        representation.getString("symbolicName"));
+    }
+  }
+
+  public void testServiceRepresentationsFields() throws Exception {
+    Response response = get(getServiceRepresentationListURI(null) + "?fields=id",
+      SERVICE_REPRESENTATIONS_LIST_CONTENT_TYPE_JSON, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, response.code);
+
+    JSONArray representations = new JSONArray(response.body);
+    assertEquals("Service count", getServices(null).length, representations.length());
+    for (int k = 0; k < representations.length(); k++) {
+      JSONObject representation = representations.getJSONObject(k);
+      assertEquals("Fields", Collections.singletonList("id"),
+        Arrays.asList(JSONObject.getNames(representation)));
+    }
+  }
+
+  /*
+   * Checks that pages of a listing, requested with an offset and a limit,
+   * together give the whole listing in id order.
+   */
+  private void assertPages(String uri, String contentType, List<String> expected) throws Exception {
+    int pageSize = Math.max(1, expected.size() / 3);
+    List<String> all = new ArrayList<String>();
+    for (int offset = 0; offset < expected.size(); offset += pageSize) {
+      Response response = get(uri + "offset=" + offset + "&limit=" + pageSize, contentType, null);
+      assertEquals("Response code", HttpURLConnection.HTTP_OK, response.code);
+      List<String> page = toList(new JSONArray(response.body));
+      assertEquals("Page size", Math.min(pageSize, expected.size() - offset), page.size());
+      all.addAll(page);
+    }
+    assertEquals("Pages", expected, all);
+
+    Response response = get(uri + "offset=" + expected.size(), contentType, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, response.code);
+    assertEquals("Page after the end", 0, new JSONArray(response.body).length());
+
+    response = get(uri + "limit=0", contentType, null);
+    assertEquals("Response code", HttpURLConnection.HTTP_OK, response.code);
+    assertEquals("Empty page", 0, new JSONArray(response.body).length());
+  }
+
+  private long[] getBundleIds() {
+    Bundle[] bundles = getInstalledBundles();
+    long[] ids = new long[bundles.length];
+    for (int k = 0; k < bundles.length; k++) {
+      ids[k] = bundles[k].getBundleId();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+}
@@ -23,9 +23,15 @@ import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
@@ -357,4 +363,48 @@ public abstract class RestTestUtils extends OSGiTestCase {
     return connection;
   }
 
+  protected Response get(String uri, String acceptType, String ifNoneMatch) throws IOException {
+    Map<String, String> additionalProps = null;
+    if (ifNoneMatch != null) {
+      additionalProps = new HashMap<String, String>();
+      additionalProps.put("If-None-Match", ifNoneMatch);
+    }
+    HttpURLConnection connection = getHttpConnection(baseURI + uri, "GET", acceptType, null, additionalProps);
+    try {
+      connection.connect();
+      Response response = new Response();
+      response.code = connection.getResponseCode();
+      response.etag = connection.getHeaderField("ETag");
+      if (response.code == HttpURLConnection.HTTP_OK) {
+        InputStream in = connection.getInputStream();
+        try {
+          response.body = new String(toByteArray(in), "UTF-8");
+        } finally {
+          in.close();
+        }
+      }
+      debug("Response:" + response.code + " ETag:" + response.etag, null);
+      return response;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  protected List<String> toList(JSONArray array) throws JSONException {
+    List<String> list = new ArrayList<String>();
+    for (int k = 0; k < array.length(); k++) {
+      list.add(array.getString(k));
+    }
+    return list;
+  }
+
+  /**
+   * The status, entity tag and body of a GET request.
+   */
+  protected static class Response {
+    int    code;
+    String etag;
+    String body;
+  }
+
 }
@@ -18,9 +18,14 @@
 
 package org.osgi.test.cases.tracker.junit;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.Semaphore;
 
 import org.osgi.framework.Bundle;
@@ -29,6 +34,8 @@ import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.test.cases.tracker.service.TestService1;
@@ -1068,6 +1075,301 @@ public class ServiceTrackerTests extends DefaultTestBundleControl {
 		}
 	}
 
+	public void testOverriddenServiceReferences() {
+		Runnable runIt = new Service();
+		Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(getName(), Boolean.TRUE);
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(15));
+		ServiceRegistration<Runnable> reg1 = getContext()
+				.registerService(Runnable.class, runIt, props);
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(10));
+		ServiceRegistration<Runnable> reg2 = getContext()
+				.registerService(Runnable.class, runIt, props);
+		final ServiceReference<Runnable> hidden = reg1.getReference();
+		ServiceTracker<Runnable, Runnable> testTracker = null;
+		try {
+			try {
+				testTracker = new ServiceTracker<Runnable, Runnable>(
+						getContext(),
+						FrameworkUtil
+								.createFilter("(&(objectclass=java.lang.Runnable)("
+										+ getName().toLowerCase() + "=true))"),
+						null) {
+					@Override
+					public ServiceReference<Runnable>[] getServiceReferences() {
+						ServiceReference<Runnable>[] references = super.getServiceReferences();
+						if (references == null) {
+							return null;
+						}
+						@SuppressWarnings("unchecked")
+						ServiceReference<Runnable>[] result = new ServiceReference[references.length - 1];
+						int i = 0;
+						for (ServiceReference<Runnable> reference : references) {
+							if (!reference.equals(hidden)) {
+								result[i++] = reference;
+							}
+						}
+						return result;
+					}
+				};
+			} catch (InvalidSyntaxException e) {
+				fail("filter error", e);
+			}
+			testTracker.open();
+			assertEquals("wrong size", 2, testTracker.size());
+			assertEquals("getServiceReferences not called",
+					reg2.getReference(), testTracker.getServiceReference());
+			assertEquals("getServiceReferences not called", 1,
+					testTracker.getServices().length);
+			assertEquals("getServiceReferences not called", 1,
+					testTracker.getServices(new Runnable[0]).length);
+		} finally {
+			if (reg1 != null)
+				reg1.unregister();
+			if (reg2 != null)
+				reg2.unregister();
+			if (testTracker != null)
+				testTracker.close();
+		}
+	}
+
+	public void testTrackedSortedMap() {
+		Service runIt = new Service();
+		Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(getName(), Boolean.TRUE);
+		@SuppressWarnings("unchecked")
+		ServiceRegistration<Service>[] regs = new ServiceRegistration[4];
+		ServiceTracker<Service, Service> testTracker = null;
+		try {
+			for (int i = 0; i < regs.length; i++) {
+				props.put(Constants.SERVICE_RANKING, Integer.valueOf(i));
+				regs[i] = getContext().registerService(Service.class, runIt,
+						props);
+			}
+			testTracker = new ServiceTracker<Service, Service>(getContext(),
+					Service.class, null);
+			testTracker.open();
+
+			SortedMap<ServiceReference<Service>, Service> sortedMap = testTracker
+					.getTracked();
+			assertEquals("wrong size", 4, sortedMap.size());
+			assertEquals("wrong first key", regs[3].getReference(),
+					sortedMap.firstKey());
+			assertEquals("wrong last key", regs[0].getReference(),
+					sortedMap.lastKey());
+			SortedMap<ServiceReference<Service>, Service> head = sortedMap
+					.headMap(regs[1].getReference());
+			assertEquals("wrong head size", 2, head.size());
+			assertEquals("wrong head last key", regs[2].getReference(),
+					head.lastKey());
+			SortedMap<ServiceReference<Service>, Service> tail = sortedMap
+					.tailMap(regs[1].getReference());
+			assertEquals("wrong tail size", 2, tail.size());
+			assertEquals("wrong tail first key", regs[1].getReference(),
+					tail.firstKey());
+			assertEquals("wrong sub map size", 1,
+					sortedMap.subMap(regs[2].getReference(),
+							regs[1].getReference()).size());
+		} finally {
+			for (ServiceRegistration<Service> reg : regs) {
+				if (reg != null)
+					reg.unregister();
+			}
+			if (testTracker != null)
+				testTracker.close();
+		}
+	}
+
+	public void testReranking() {
+		Service runIt = new Service();
+		Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(getName(), Boolean.TRUE);
+		@SuppressWarnings("unchecked")
+		ServiceRegistration<Service>[] regs = new ServiceRegistration[8];
+		ServiceTracker<Service, Service> testTracker = null;
+		try {
+			for (int i = 0; i < regs.length; i++) {
+				props.put(Constants.SERVICE_RANKING, Integer.valueOf(i));
+				regs[i] = getContext().registerService(Service.class, runIt,
+						props);
+			}
+			testTracker = new ServiceTracker<Service, Service>(getContext(),
+					Service.class, null);
+			testTracker.open();
+			assertRankingOrder(testTracker, regs);
+
+			// move services to the front, the back and into the middle
+			int[] rankings = {100, -100, 3, 5, -7, 3, 42, 0};
+			for (int i = 0; i < regs.length; i++) {
+				props.put(Constants.SERVICE_RANKING,
+						Integer.valueOf(rankings[i]));
+				regs[(i * 3) % regs.length].setProperties(props);
+				assertRankingOrder(testTracker, regs);
+			}
+
+			regs[4].unregister();
+			regs[4] = null;
+			assertRankingOrder(testTracker, regs);
+		} finally {
+			for (ServiceRegistration<Service> reg : regs) {
+				if (reg != null)
+					reg.unregister();
+			}
+			if (testTracker != null)
+				testTracker.close();
+		}
+	}
+
+	public void testRerankingDuringEvent() {
+		Service runIt = new Service();
+		final Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(getName(), Boolean.TRUE);
+		@SuppressWarnings("unchecked")
+		final ServiceRegistration<Service>[] regs = new ServiceRegistration[5];
+		ServiceTracker<Service, Service> testTracker = null;
+		/*
+		 * If this listener is called before the tracker, the tracker sees
+		 * services added and modified while the ranking of the first service
+		 * has changed but its event is not yet delivered to the tracker.
+		 */
+		ServiceListener listener = new ServiceListener() {
+			@Override
+			public void serviceChanged(ServiceEvent event) {
+				if ((event.getType() == ServiceEvent.MODIFIED)
+						&& event.getServiceReference()
+								.equals(regs[1].getReference())
+						&& (regs[4] == null)) {
+					props.put(Constants.SERVICE_RANKING, Integer.valueOf(-7));
+					regs[4] = getContext().registerService(Service.class,
+							new Service(), props);
+					props.put(Constants.SERVICE_RANKING, Integer.valueOf(20));
+					regs[3].setProperties(props);
+				}
+			}
+		};
+		try {
+			for (int i = 0; i < 4; i++) {
+				props.put(Constants.SERVICE_RANKING,
+						Integer.valueOf(10 - 5 * i));
+				regs[i] = getContext().registerService(Service.class, runIt,
+						props);
+			}
+			getContext().addServiceListener(listener,
+					"(" + getName().toLowerCase() + "=true)");
+			testTracker = new ServiceTracker<Service, Service>(getContext(),
+					Service.class, null);
+			testTracker.open();
+			assertRankingOrder(testTracker, regs);
+
+			props.put(Constants.SERVICE_RANKING, Integer.valueOf(-10));
+			regs[1].setProperties(props);
+			assertNotNull("service not registered", regs[4]);
+			assertRankingOrder(testTracker, regs);
+		} catch (InvalidSyntaxException e) {
+			fail("filter error", e);
+		} finally {
+			getContext().removeServiceListener(listener);
+			for (ServiceRegistration<Service> reg : regs) {
+				if (reg != null)
+					reg.unregister();
+			}
+			if (testTracker != null)
+				testTracker.close();
+		}
+	}
+
+	public void testTrackedDuringReranking() {
+		Service runIt = new Service();
+		final Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(getName(), Boolean.TRUE);
+		@SuppressWarnings("unchecked")
+		final ServiceRegistration<Service>[] regs = new ServiceRegistration[4];
+		@SuppressWarnings("unchecked")
+		final ServiceTracker<Service, Service>[] testTracker = new ServiceTracker[1];
+		final List<SortedMap<ServiceReference<Service>, Service>> tracked = new ArrayList<SortedMap<ServiceReference<Service>, Service>>();
+		/*
+		 * If this listener is called before the tracker, it sees the tracked
+		 * services while the ranking of a service has changed but its event is
+		 * not yet delivered to the tracker.
+		 */
+		ServiceListener listener = new ServiceListener() {
+			@Override
+			public void serviceChanged(ServiceEvent event) {
+				if ((event.getType() == ServiceEvent.MODIFIED)
+						&& (testTracker[0] != null)) {
+					tracked.add(testTracker[0].getTracked());
+				}
+			}
+		};
+		try {
+			for (int i = 0; i < regs.length; i++) {
+				props.put(Constants.SERVICE_RANKING,
+						Integer.valueOf(10 - 5 * i));
+				regs[i] = getContext().registerService(Service.class, runIt,
+						props);
+			}
+			getContext().addServiceListener(listener,
+					"(" + getName().toLowerCase() + "=true)");
+			testTracker[0] = new ServiceTracker<Service, Service>(
+					getContext(), Service.class, null);
+			testTracker[0].open();
+
+			props.put(Constants.SERVICE_RANKING, Integer.valueOf(20));
+			regs[2].setProperties(props);
+			assertEquals("listener not called", 1, tracked.size());
+
+			SortedMap<ServiceReference<Service>, Service> map = tracked
+					.get(0);
+			assertEquals("wrong size", regs.length, map.size());
+			ServiceReference<Service> previous = null;
+			for (ServiceReference<Service> reference : map.keySet()) {
+				if (previous != null) {
+					assertTrue("wrong order", map.comparator()
+							.compare(previous, reference) < 0);
+				}
+				previous = reference;
+			}
+			for (ServiceRegistration<Service> reg : regs) {
+				assertTrue("service not found",
+						map.containsKey(reg.getReference()));
+				assertSame("wrong service", runIt, map.get(reg
+						.getReference()));
+			}
+			assertEquals("wrong first key", regs[2].getReference(),
+					map.firstKey());
+		} catch (InvalidSyntaxException e) {
+			fail("filter error", e);
+		} finally {
+			getContext().removeServiceListener(listener);
+			for (ServiceRegistration<Service> reg : regs) {
+				if (reg != null)
+					reg.unregister();
+			}
+			if (testTracker[0] != null)
+				testTracker[0].close();
+		}
+	}
+
+	private void assertRankingOrder(ServiceTracker<Service, Service> tracker,
+			ServiceRegistration<Service>[] regs) {
+		SortedMap<ServiceReference<Service>, Service> expected = new TreeMap<ServiceReference<Service>, Service>(
+				Collections.<ServiceReference<Service>> reverseOrder());
+		for (ServiceRegistration<Service> reg : regs) {
+			if (reg != null) {
+				expected.put(reg.getReference(), tracker.getService(reg
+						.getReference()));
+			}
+		}
+		assertEquals("wrong service reference", expected.firstKey(),
+				tracker.getServiceReference());
+		assertEquals("wrong order", new ArrayList<ServiceReference<Service>>(
+				expected.keySet()), Arrays.asList(tracker
+				.getServiceReferences()));
+		assertEquals("wrong order", new ArrayList<ServiceReference<Service>>(
+				expected.keySet()), new ArrayList<ServiceReference<Service>>(
+				tracker.getTracked().keySet()));
+	}
+
 	private void clearResults(boolean[] results) {
 		for (int i = 0; i < results.length; i++)
 			results[i] = false;
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+package org.osgi.test.cases.useradmin.junit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.useradmin.Authorization;
+import org.osgi.service.useradmin.Group;
+import org.osgi.service.useradmin.Role;
+import org.osgi.service.useradmin.User;
+import org.osgi.service.useradmin.UserAdmin;
+import org.osgi.test.support.compatibility.DefaultTestBundleControl;
+
+/**
+ * Checks that the changes made to the role database are restored when the
+ * UserAdmin implementation is restarted, including after the database has
+ * been compacted.
+ */
+public class UserAdminPersistenceTest extends DefaultTestBundleControl {
+	private UserAdmin	useradmin;
+	private List<Role>	rolesToKeep;
+
+	protected void setUp() throws Exception {
+		useradmin = getService(UserAdmin.class);
+		rolesToKeep = asList(useradmin.getRoles(null));
+	}
+
+	protected void tearDown() throws Exception {
+		List<Role> roles = new ArrayList<>(asList(useradmin.getRoles(null)));
+		roles.removeAll(rolesToKeep);
+		for (Iterator<Role> iter = roles.iterator(); iter.hasNext();) {
+			Role role = iter.next();
+			useradmin.removeRole(role.getName());
+		}
+		ungetService(useradmin);
+	}
+
+	private List<Role> asList(Role[] roles) {
+		if (roles == null) {
+			return Collections.emptyList();
+		}
+		return Arrays.asList(roles);
+	}
+
+	public void testChangesRestored() throws Exception {
+		User user = (User) useradmin.createRole("persist-user", Role.USER);
+		User other = (User) useradmin.createRole("persist-other", Role.USER);
+		User removed = (User) useradmin.createRole("persist-removed",
+				Role.USER);
+		Group group = (Group) useradmin.createRole("persist-group",
+				Role.GROUP);
+		Group required = (Group) useradmin.createRole("persist-required",
+				Role.GROUP);
+		assertTrue(group.addMember(user));
+		assertTrue(group.addMember(other));
+		assertTrue(group.addMember(removed));
+		assertTrue(group.addRequiredMember(required));
+		assertTrue(required.addMember(user));
+		assertTrue(group.removeMember(other));
+		user.getProperties().put("name", "value");
+		user.getProperties().put("bytes", new byte[] {1, 2, 3});
+		user.getProperties().put("gone", "value");
+		user.getProperties().remove("gone");
+		user.getCredentials().put("password", "secret");
+		assertTrue(useradmin.removeRole("persist-removed"));
+
+		restart();
+
+		user = (User) useradmin.getRole("persist-user");
+		assertNotNull("user not restored", user);
+		assertNotNull("user not restored",
+				useradmin.getRole("persist-other"));
+		assertNull("removed role restored",
+				useradmin.getRole("persist-removed"));
+		group = (Group) useradmin.getRole("persist-group");
+		assertNotNull("group not restored", group);
+		assertEquals("basic members", Collections.singletonList("persist-user"),
+				names(group.getMembers()));
+		assertEquals("required members",
+				Collections.singletonList("persist-required"),
+				names(group.getRequiredMembers()));
+		assertEquals("property", "value", user.getProperties().get("name"));
+		assertTrue("byte[] property", Arrays.equals(new byte[] {1, 2, 3},
+				(byte[]) user.getProperties().get("bytes")));
+		assertNull("removed property", user.getProperties().get("gone"));
+		assertTrue("credential", user.hasCredential("password", "secret"));
+		assertEquals("user", "persist-user",
+				useradmin.getUser("name", "value").getName());
+
+		Authorization auth = useradmin.getAuthorization(user);
+		assertTrue("implied group", auth.hasRole("persist-group"));
+		assertTrue("implied required group", auth.hasRole("persist-required"));
+		auth = useradmin.getAuthorization(
+				(User) useradmin.getRole("persist-other"));
+		assertFalse("removed member", auth.hasRole("persist-group"));
+	}
+
+	public void testChangesRestoredAfterCompaction() throws Exception {
+		User user = (User) useradmin.createRole("persist-big", Role.USER);
+		// replace a large property until the journal is compacted
+		byte[] value = null;
+		for (int i = 0; i < 40; i++) {
+			value = new byte[64 * 1024];
+			Arrays.fill(value, (byte) i);
+			user.getProperties().put("blob", value);
+		}
+		// changes made after the compaction are kept in the journal
+		user.getProperties().put("after", "compaction");
+		Group group = (Group) useradmin.createRole("persist-big-group",
+				Role.GROUP);
+		assertTrue(group.addMember(user));
+
+		restart();
+
+		user = (User) useradmin.getRole("persist-big");
+		assertNotNull("user not restored", user);
+		assertTrue("last value", Arrays.equals(value,
+				(byte[]) user.getProperties().get("blob")));
+		assertEquals("property", "compaction",
+				user.getProperties().get("after"));
+		assertTrue("implied group", useradmin.getAuthorization(user)
+				.hasRole("persist-big-group"));
+	}
+
+	private void restart() throws Exception {
+		Bundle impl = getServiceReference(useradmin).getBundle();
+		ungetService(useradmin);
+		impl.stop();
+		impl.start();
+		useradmin = getService(UserAdmin.class);
+	}
+
+	private static List<String> names(Role[] roles) {
+		List<String> names = new ArrayList<>();
+		if (roles != null) {
+			for (Role role : roles) {
+				names.add(role.getName());
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+}
@@ -0,0 +1,435 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.util.converter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The reflective metadata of a class used by the converter.
+ * <p>
+ * The metadata of a class is computed on first use and held in a
+ * {@link ClassValue}, which does not prevent the class from being unloaded.
+ * Each table is computed lazily. Racing threads may compute a table more than
+ * once, which is harmless since they compute equal tables.
+ * <p>
+ * The accessors of DTO fields and JavaBean methods use {@link MethodHandle}s
+ * where the converter has access to the member and otherwise fall back to
+ * reflection, which then reports the access failure as before.
+ *
+ * @author $Id$
+ */
+final class ClassMetadata {
+	private static final ClassValue<ClassMetadata>		METADATA			= new Metadata();
+	private static final Lookup							LOOKUP				= MethodHandles
+			.lookup();
+	private static final MethodType						GETTER				= MethodType
+			.methodType(Object.class, Object.class);
+	private static final MethodType						SETTER				= MethodType
+			.methodType(void.class, Object.class, Object.class);
+
+	private final Class< ? >							type;
+	private volatile String								prefix;
+	private volatile Optional<String>					singleElementAnnotationKey;
+	private volatile Map<String,Accessor>				dtoKeys;
+	private volatile Map<String,Accessor>				dtoFields;
+	private volatile List<String>						dtoFieldNames;
+	private volatile Map<String,Accessor>				beanKeys;
+	private volatile List<Accessor>						setters;
+	private volatile Set<Class< ? >>					interfaces;
+	private volatile Constructor< ? >					proxyConstructor;
+	private final ConcurrentMap<Method,String>			proxyPropertyNames	= new ConcurrentHashMap<>();
+	private final ConcurrentMap<Method,MethodHandle>	defaultMethods		= new ConcurrentHashMap<>();
+
+	private ClassMetadata(Class< ? > type) {
+		this.type = type;
+	}
+
+	private static final class Metadata extends ClassValue<ClassMetadata> {
+		Metadata() {
+		}
+
+		@Override
+		protected ClassMetadata computeValue(Class< ? > type) {
+			return new ClassMetadata(type);
+		}
+	}
+
+	static ClassMetadata of(Class< ? > type) {
+		return METADATA.get(type);
+	}
+
+	/**
+	 * Returns the value of the {@code PREFIX_} constant which applies to the
+	 * class.
+	 */
+	String prefix() {
+		String p = prefix;
+		if (p == null) {
+			prefix = p = Util.computePrefix(type);
+		}
+		return p;
+	}
+
+	/**
+	 * Returns the key of the class as a single element annotation, or
+	 * {@code null}.
+	 */
+	String singleElementAnnotationKey(Object annotation) {
+		Optional<String> key = singleElementAnnotationKey;
+		if (key == null) {
+			singleElementAnnotationKey = key = Optional.ofNullable(Util
+					.computeSingleElementAnnotationKey(type, annotation));
+		}
+		return key.orElse(null);
+	}
+
+	/**
+	 * Returns the accessors of the public instance fields of the DTO class by
+	 * their map key, in the order of {@link Class#getFields()}.
+	 */
+	Map<String,Accessor> dtoKeys() {
+		Map<String,Accessor> keys = dtoKeys;
+		if (keys == null) {
+			Map<String,Accessor> m = new LinkedHashMap<>();
+			for (Field f : type.getFields()) {
+				String key = Util.getDTOKey(f);
+				if (key != null && !m.containsKey(key))
+					m.put(key, new Accessor(key, f));
+			}
+			dtoKeys = keys = Collections.unmodifiableMap(m);
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the accessors of the public fields of the class by field name,
+	 * resolved as by {@link Class#getField(String)}.
+	 */
+	Map<String,Accessor> dtoFields() {
+		Map<String,Accessor> fields = dtoFields;
+		if (fields == null) {
+			Map<String,Accessor> m = new LinkedHashMap<>();
+			for (Field f : type.getFields()) {
+				String name = f.getName();
+				if (!m.containsKey(name)) {
+					try {
+						m.put(name, new Accessor(name, type.getField(name)));
+					} catch (NoSuchFieldException e) {
+						// Cannot happen for a field returned by getFields
+					}
+				}
+			}
+			dtoFields = fields = Collections.unmodifiableMap(m);
+		}
+		return fields;
+	}
+
+	/**
+	 * Returns the distinct names of the public instance fields of the class.
+	 */
+	List<String> dtoFieldNames() {
+		List<String> names = dtoFieldNames;
+		if (names == null) {
+			List<String> l = new ArrayList<>();
+			for (Field field : type.getFields()) {
+				if (Modifier.isStatic(field.getModifiers()))
+					continue;
+
+				String name = field.getName();
+				if (!l.contains(name))
+					l.add(name);
+			}
+			dtoFieldNames = names = Collections.unmodifiableList(l);
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the accessors of the JavaBean properties of the class by their
+	 * map key, in the order of {@link Class#getMethods()}.
+	 */
+	Map<String,Accessor> beanKeys() {
+		Map<String,Accessor> keys = beanKeys;
+		if (keys == null) {
+			Map<String,Accessor> m = new LinkedHashMap<>();
+			// Bean methods must be public and can be on parent classes
+			for (Method md : type.getMethods()) {
+				String key = Util.getBeanKey(md);
+				if (key != null && !m.containsKey(key)) {
+					m.put(key, new Accessor(key, md));
+				}
+			}
+			beanKeys = keys = Collections.unmodifiableMap(m);
+		}
+		return keys;
+	}
+
+	/**
+	 * Returns the JavaBean setters of the class, keyed by the map key of their
+	 * property.
+	 */
+	List<Accessor> setters() {
+		List<Accessor> s = setters;
+		if (s == null) {
+			Set<Method> methods = new LinkedHashSet<>();
+			for (Class< ? > cls = type; cls != null
+					&& !Object.class.equals(cls); cls = cls.getSuperclass()) {
+				// Only public methods can be Java Bean setters
+				for (Method md : cls.getMethods()) {
+					if (md.getParameterTypes().length != 1)
+						continue; // Only setters with a single argument
+					String name = md.getName();
+					if (name.length() < 4)
+						continue;
+					if (name.startsWith("set")
+							&& Character.isUpperCase(name.charAt(3)))
+						methods.add(md);
+				}
+			}
+			String p = prefix();
+			List<Accessor> l = new ArrayList<>(methods.size());
+			for (Method md : methods) {
+				String name = md.getName();
+				String propName = Character.toLowerCase(name.charAt(3))
+						+ name.substring(4);
+				l.add(new Accessor(Util.unMangleName(p, propName), md));
+			}
+			setters = s = Collections.unmodifiableList(l);
+		}
+		return s;
+	}
+
+	/**
+	 * Returns the interfaces of the class which can provide a map view.
+	 */
+	Set<Class< ? >> interfaces() {
+		Set<Class< ? >> i = interfaces;
+		if (i == null) {
+			interfaces = i = Collections
+					.unmodifiableSet(ConvertingImpl.computeInterfaces(type));
+		}
+		return i;
+	}
+
+	/**
+	 * Create a proxy implementing the interface. The first proxy is created
+	 * through {@link Proxy#newProxyInstance}; the constructor of its class is
+	 * then reused for every further proxy when the class is public.
+	 */
+	Object newProxy(InvocationHandler handler) {
+		Constructor< ? > ctor = proxyConstructor;
+		if (ctor != null) {
+			try {
+				return ctor.newInstance(handler);
+			} catch (InvocationTargetException e) {
+				throw new ConversionException(
+						"Cannot create proxy for " + type, e.getCause());
+			} catch (ReflectiveOperationException | SecurityException e) {
+				// Fall back to the default proxy creation
+			}
+		}
+		Object proxy = Proxy.newProxyInstance(type.getClassLoader(),
+				new Class< ? >[] {
+						type
+				}, handler);
+		Class< ? > proxyClass = proxy.getClass();
+		if (ctor == null && Modifier.isPublic(proxyClass.getModifiers())) {
+			try {
+				proxyConstructor = proxyClass
+						.getConstructor(InvocationHandler.class);
+			} catch (NoSuchMethodException | SecurityException e) {
+				// Keep creating proxies through Proxy.newProxyInstance
+			}
+		}
+		return proxy;
+	}
+
+	/**
+	 * Returns the property name of a method invoked on a proxy for this
+	 * interface, computing it once per method.
+	 * <p>
+	 * The name only depends on the method for annotations and for interfaces
+	 * without an {@code annotationType} method. Otherwise it is computed on
+	 * every call.
+	 */
+	String proxyPropertyName(Method method, Object proxy) {
+		String name = proxyPropertyNames.get(method);
+		if (name != null)
+			return name;
+
+		name = Util.getInterfacePropertyName(method,
+				Util.getSingleElementAnnotationKey(type, proxy), proxy);
+		if (name != null && hasStablePropertyNames()) {
+			proxyPropertyNames.putIfAbsent(method, name);
+		}
+		return name;
+	}
+
+	private boolean hasStablePropertyNames() {
+		if (type.isAnnotation())
+			return true;
+		try {
+			type.getMethod("annotationType");
+			return false;
+		} catch (NoSuchMethodException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the cached unbound handle of a default method, or {@code null}.
+	 */
+	MethodHandle defaultMethod(Method method) {
+		return defaultMethods.get(method);
+	}
+
+	/**
+	 * Cache the unbound handle of a default method.
+	 */
+	MethodHandle defaultMethod(Method method, MethodHandle handle) {
+		MethodHandle existing = defaultMethods.putIfAbsent(method, handle);
+		return existing != null ? existing : handle;
+	}
+
+	/**
+	 * Read and write access to a DTO field or JavaBean property.
+	 */
+	static final class Accessor {
+		final String				key;
+		final Class< ? >			type;
+		final Type					genericType;
+		private final Member		member;
+		private final MethodHandle	getter;
+		private final MethodHandle	setter;
+
+		Accessor(String key, Field field) {
+			this.key = key;
+			this.member = field;
+			this.type = field.getType();
+			this.genericType = field.getGenericType();
+			MethodHandle get = null;
+			MethodHandle set = null;
+			if (!Modifier.isStatic(field.getModifiers())) {
+				try {
+					get = LOOKUP.unreflectGetter(field).asType(GETTER);
+				} catch (IllegalAccessException e) {
+					// use reflection
+				}
+				if (!Modifier.isFinal(field.getModifiers())) {
+					try {
+						set = LOOKUP.unreflectSetter(field).asType(SETTER);
+					} catch (IllegalAccessException e) {
+						// use reflection
+					}
+				}
+			}
+			this.getter = get;
+			this.setter = set;
+		}
+
+		Accessor(String key, Method method) {
+			this.key = key;
+			this.member = method;
+			Class< ? >[] params = method.getParameterTypes();
+			this.type = params.length == 1 ? params[0]
+					: method.getReturnType();
+			this.genericType = params.length == 1
+					? method.getGenericParameterTypes()[0]
+					: method.getGenericReturnType();
+			MethodHandle get = null;
+			MethodHandle set = null;
+			if (!Modifier.isStatic(method.getModifiers())) {
+				try {
+					MethodHandle mh = LOOKUP.unreflect(method);
+					if (params.length == 0) {
+						get = mh.asType(GETTER);
+					} else {
+						set = mh.asType(SETTER);
+					}
+				} catch (IllegalAccessException e) {
+					// use reflection
+				}
+			}
+			this.getter = get;
+			this.setter = set;
+		}
+
+		/**
+		 * Read the value of the field or call the getter.
+		 *
+		 * @throws InvocationTargetException If the getter throws an
+		 *             exception.
+		 */
+		Object get(Object target) throws Exception {
+			if (getter == null) {
+				if (member instanceof Field)
+					return ((Field) member).get(target);
+				return ((Method) member).invoke(target);
+			}
+			try {
+				return getter.invokeExact(target);
+			} catch (Throwable t) {
+				throw new InvocationTargetException(t);
+			}
+		}
+
+		/**
+		 * Write the value of the field or call the setter.
+		 *
+		 * @throws InvocationTargetException If the setter throws an
+		 *             exception.
+		 */
+		void set(Object target, Object value) throws Exception {
+			if (setter == null) {
+				if (member instanceof Field)
+					((Field) member).set(target, value);
+				else
+					((Method) member).invoke(target, value);
+				return;
+			}
+			try {
+				setter.invokeExact(target, value);
+			} catch (Throwable t) {
+				throw new InvocationTargetException(t);
+			}
+		}
+	}
+}
@@ -19,18 +19,17 @@
 package org.osgi.util.converter;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.lang.reflect.GenericArrayType;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Proxy;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.lang.reflect.WildcardType;
@@ -448,11 +447,14 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		Map m = mapView(object, sourceCls, converter);
 
 		try {
-			String prefix = Util.getPrefix(targetAsCls);
+			ClassMetadata metadata = ClassMetadata.of(targetAsCls);
+			String prefix = metadata.prefix();
+			Map<String,ClassMetadata.Accessor> fields = metadata.dtoFields();
 
 			T dto = (T) targetClass.newInstance();
 
-			List<String> names = getNames(targetAsClass);
+			List<String> names = ClassMetadata.of(targetAsClass)
+					.dtoFieldNames();
 			for (Map.Entry entry : (Set<Map.Entry>) m.entrySet()) {
 				Object key = entry.getKey();
 				if (key == null)
@@ -463,27 +465,15 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 				if (fieldName == null)
 					continue;
 
-				Field f = null;
-				try {
-					f = targetAsCls.getField(fieldName);
-				} catch (NoSuchFieldException e) {
+				ClassMetadata.Accessor f = fields.get(fieldName);
+				if (f == null && keysIgnoreCase) {
 					// There is no field with this name
-					if (keysIgnoreCase) {
-						// If enabled, try again but now ignore case
-						for (Field fs : targetAsCls.getFields()) {
-							if (fs.getName().equalsIgnoreCase(fieldName)) {
-								f = fs;
-								break;
-							}
-						}
-
-						if (f == null) {
-							for (Field fs : targetAsCls.getFields()) {
-								if (fs.getName().equalsIgnoreCase(fieldName)) {
-									f = fs;
-									break;
-								}
-							}
+					// If enabled, try again but now ignore case
+					for (Map.Entry<String,ClassMetadata.Accessor> fs : fields
+							.entrySet()) {
+						if (fs.getKey().equalsIgnoreCase(fieldName)) {
+							f = fs.getValue();
+							break;
 						}
 					}
 				}
@@ -491,12 +481,12 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 				if (f != null) {
 					Object val = entry.getValue();
 					// Force strict DTO type (constructible)
-					if (sourceAsDTO && DTOUtil.isDTOType(f.getType(), false))
+					if (sourceAsDTO && DTOUtil.isDTOType(f.type, false))
 						val = converter.convert(val)
 								.sourceAsDTO()
-								.to(f.getType());
+								.to(f.type);
 					else {
-						Type genericType = reifyType(f.getGenericType(),
+						Type genericType = reifyType(f.genericType,
 								targetAsClass, typeArguments);
 						val = converter.convert(val).to(genericType);
 					}
@@ -598,21 +588,6 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		return typeToReify;
 	}
 
-	private List<String> getNames(Class< ? > cls) {
-		List<String> names = new ArrayList<>();
-		for (Field field : cls.getFields()) {
-			int modifiers = field.getModifiers();
-			if (Modifier.isStatic(modifiers))
-				continue;
-
-			String name = field.getName();
-			if (!names.contains(name))
-				names.add(name);
-
-		}
-		return names;
-	}
-
 	@SuppressWarnings({
 			"rawtypes", "unchecked"
 	})
@@ -776,23 +751,14 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 
 	private Object convertToJavaBean(Class< ? > sourceCls, Class< ? > targetCls,
 			InternalConverter converter) {
-		String prefix = Util.getPrefix(targetCls);
-
 		@SuppressWarnings("rawtypes")
 		Map m = mapView(object, sourceCls, converter);
 		try {
 			Object res = targetClass.newInstance();
-			for (Method setter : getSetters(targetCls)) {
-				String setterName = setter.getName();
-				StringBuilder propName = new StringBuilder(
-						setterName.length() - 3).append(
-								Character.toLowerCase(setterName.charAt(3)))
-								.append(setterName.substring(4));
-
-				Class< ? > setterType = setter.getParameterTypes()[0];
-				String key = propName.toString();
-				Object val = m.get(Util.unMangleName(prefix, key));
-				setter.invoke(res, converter.convert(val).to(setterType));
+			for (ClassMetadata.Accessor setter : ClassMetadata.of(targetCls)
+					.setters()) {
+				Object val = m.get(setter.key);
+				setter.set(res, converter.convert(val).to(setter.type));
 			}
 			return res;
 		} catch (Exception e) {
@@ -819,9 +785,8 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 
 	private Object createProxy(final Class< ? > cls, final Map< ? , ? > data,
 			final InternalConverter converter) {
-		return Proxy.newProxyInstance(cls.getClassLoader(), new Class[] {
-				cls
-		}, new InvocationHandler() {
+		final ClassMetadata metadata = ClassMetadata.of(cls);
+		return metadata.newProxy(new InvocationHandler() {
 			@Override
 			public Object invoke(Object proxy, Method method, Object[] args)
 					throws Throwable {
@@ -847,8 +812,7 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 					}
 				}
 
-				String propName = Util.getInterfacePropertyName(method,
-						Util.getSingleElementAnnotationKey(cls, proxy), proxy);
+				String propName = metadata.proxyPropertyName(method, proxy);
 				if (propName == null) {
 					throw new ConversionException(
 							"Can not convert. Calculated propertyName is `null` method: "
@@ -880,33 +844,13 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 						// null
 					} else if (method.isDefault()) {
 						try {
-							double javaVersion = Double.parseDouble(
-									System.getProperty("java.class.version"));
-							double java8 = 52.0d;
-							if (javaVersion > java8) {
-								val = MethodHandles.lookup()
-										.findSpecial(method.getDeclaringClass(),
-												method.getName(),
-												MethodType.methodType(
-														method.getReturnType(),
-														new Class[] {}),
-												method.getDeclaringClass())
-										.bindTo(proxy)
-										.invokeWithArguments(args);
-								handled = true;
-							} else {
-								Constructor<Lookup> constructor = Lookup.class
-										.getDeclaredConstructor(Class.class);
-								if (!constructor.isAccessible()) {
-									constructor.setAccessible(true);
-								}
-								val = constructor.newInstance(cls)
-										.in(cls)
-										.unreflectSpecial(method, cls)
-										.bindTo(proxy)
-										.invokeWithArguments(args);
-								handled = true;
+							MethodHandle mh = metadata.defaultMethod(method);
+							if (mh == null) {
+								mh = metadata.defaultMethod(method,
+										defaultMethodHandle(cls, method));
 							}
+							val = mh.bindTo(proxy).invokeWithArguments(args);
+							handled = true;
 						} catch (Exception e) {
 							throw new ConversionException(
 									"Can not convert. Exception is thrown in default method: "
@@ -935,6 +879,29 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		});
 	}
 
+	private static MethodHandle defaultMethodHandle(Class< ? > cls,
+			Method method) throws Exception {
+		double javaVersion = Double
+				.parseDouble(System.getProperty("java.class.version"));
+		double java8 = 52.0d;
+		if (javaVersion > java8) {
+			return MethodHandles.lookup()
+					.findSpecial(method.getDeclaringClass(), method.getName(),
+							MethodType.methodType(method.getReturnType(),
+									new Class[] {}),
+							method.getDeclaringClass());
+		} else {
+			Constructor<Lookup> constructor = Lookup.class
+					.getDeclaredConstructor(Class.class);
+			if (!constructor.isAccessible()) {
+				constructor.setAccessible(true);
+			}
+			return constructor.newInstance(cls)
+					.in(cls)
+					.unreflectSpecial(method, cls);
+		}
+	}
+
 	private Object handleNull(Class< ? > cls, InternalConverter converter) {
 		if (hasDefault)
 			return converter.convert(defaultValue).to(cls);
@@ -1157,28 +1124,41 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		return arr;
 	}
 
-	@SuppressWarnings("rawtypes")
+	@SuppressWarnings({
+			"rawtypes", "unchecked"
+	})
 	private static Map createMapFromBeanAccessors(Object obj,
 			Class< ? > sourceCls) {
-		Set<String> invokedMethods = new HashSet<>();
-
 		Map result = new HashMap();
 		// Bean accessors must be public
-		for (Method md : sourceCls.getMethods()) {
-			handleBeanMethod(obj, md, invokedMethods, result);
+		for (ClassMetadata.Accessor accessor : ClassMetadata.of(sourceCls)
+				.beanKeys()
+				.values()) {
+			try {
+				result.put(accessor.key, accessor.get(obj));
+			} catch (Exception e) {
+				// Ignore
+			}
 		}
 
 		return result;
 	}
 
-	@SuppressWarnings("rawtypes")
+	@SuppressWarnings({
+			"rawtypes", "unchecked"
+	})
 	private Map createMapFromDTO(Object obj, InternalConverter converter) {
-		Set<String> handledFields = new HashSet<>();
-
 		Map result = new HashMap();
 		// We only use public fields for mapping a DTO
-		for (Field f : obj.getClass().getFields()) {
-			handleDTOField(obj, f, handledFields, result, converter);
+		for (ClassMetadata.Accessor accessor : ClassMetadata
+				.of(obj.getClass())
+				.dtoKeys()
+				.values()) {
+			try {
+				result.put(accessor.key, accessor.get(obj));
+			} catch (Exception e) {
+				// Ignore
+			}
 		}
 		return result;
 	}
@@ -1259,6 +1239,14 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 
 	// Returns an ordered set
 	private static Set<Class< ? >> getInterfaces(Class< ? > cls) {
+		if (cls == null)
+			return Collections.emptySet();
+
+		return ClassMetadata.of(cls).interfaces();
+	}
+
+	// Returns an ordered set
+	static Set<Class< ? >> computeInterfaces(Class< ? > cls) {
 		if (NO_MAP_VIEW_TYPES.contains(cls))
 			return Collections.emptySet();
 
@@ -1301,48 +1289,6 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		return classes;
 	}
 
-	@SuppressWarnings({
-			"rawtypes", "unchecked"
-	})
-	private void handleDTOField(Object obj, Field field,
-			Set<String> handledFields, Map result,
-			InternalConverter converter) {
-		String fn = Util.getDTOKey(field);
-		if (fn == null)
-			return;
-
-		if (handledFields.contains(fn))
-			return; // Field with this name was already handled
-
-		try {
-			Object fVal = field.get(obj);
-			result.put(fn, fVal);
-			handledFields.add(fn);
-		} catch (Exception e) {
-			// Ignore
-		}
-	}
-
-	@SuppressWarnings({
-			"rawtypes", "unchecked"
-	})
-	private static void handleBeanMethod(Object obj, Method md,
-			Set<String> invokedMethods, Map res) {
-		String bp = Util.getBeanKey(md);
-		if (bp == null)
-			return;
-
-		if (invokedMethods.contains(bp))
-			return; // method with this name already invoked
-
-		try {
-			res.put(bp, md.invoke(obj));
-			invokedMethods.add(bp);
-		} catch (Exception e) {
-			// Ignore
-		}
-	}
-
 	@SuppressWarnings({
 			"rawtypes", "unchecked"
 	})
@@ -1428,27 +1374,6 @@ class ConvertingImpl extends AbstractSpecifying<Converting>
 		if (!hasNoArgCtor)
 			return false; // A JavaBean must have a public no-arg constructor
 
-		return getSetters(cls).size() > 0;
-	}
-
-	private static Set<Method> getSetters(Class< ? > cls) {
-		Set<Method> setters = new HashSet<>();
-		while (!Object.class.equals(cls)) {
-			Set<Method> methods = new HashSet<>();
-			// Only public methods can be Java Bean setters
-			methods.addAll(Arrays.asList(cls.getMethods()));
-			for (Method md : methods) {
-				if (md.getParameterTypes().length != 1)
-					continue; // Only setters with a single argument
-				String name = md.getName();
-				if (name.length() < 4)
-					continue;
-				if (name.startsWith("set")
-						&& Character.isUpperCase(name.charAt(3)))
-					setters.add(md);
-			}
-			cls = cls.getSuperclass();
-		}
-		return setters;
+		return !ClassMetadata.of(cls).setters().isEmpty();
 	}
 }
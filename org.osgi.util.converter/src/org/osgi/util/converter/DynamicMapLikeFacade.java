@@ -18,7 +18,6 @@
 
 package org.osgi.util.converter;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -144,7 +143,7 @@ abstract class DynamicMapLikeFacade<K, V> implements Map<K,V> {
 }
 
 class DynamicBeanFacade extends DynamicMapLikeFacade<String,Object> {
-	private Map<String,Method>	keys	= null;
+	private Map<String,ClassMetadata.Accessor>	keys	= null;
 	private final Object		backingObject;
 	private final Class< ? >	beanClass;
 
@@ -157,9 +156,9 @@ class DynamicBeanFacade extends DynamicMapLikeFacade<String,Object> {
 
 	@Override
 	public Object get(Object key) {
-		Method m = getKeys().get(key);
+		ClassMetadata.Accessor a = getKeys().get(key);
 		try {
-			return m.invoke(backingObject);
+			return a.get(backingObject);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -170,9 +169,9 @@ class DynamicBeanFacade extends DynamicMapLikeFacade<String,Object> {
 		return getKeys().keySet();
 	}
 
-	private Map<String,Method> getKeys() {
+	private Map<String,ClassMetadata.Accessor> getKeys() {
 		if (keys == null)
-			keys = Util.getBeanKeys(beanClass);
+			keys = ClassMetadata.of(beanClass).beanKeys();
 
 		return keys;
 	}
@@ -219,7 +218,7 @@ class DynamicMapFacade<K, V> extends DynamicMapLikeFacade<K,V> {
 }
 
 class DynamicDTOFacade extends DynamicMapLikeFacade<String,Object> {
-	private Map<String,Field>	keys	= null;
+	private Map<String,ClassMetadata.Accessor>	keys	= null;
 	private final Object		backingObject;
 	private final Class< ? >	dtoClass;
 
@@ -232,12 +231,12 @@ class DynamicDTOFacade extends DynamicMapLikeFacade<String,Object> {
 
 	@Override
 	public Object get(Object key) {
-		Field f = getKeys().get(key);
-		if (f == null)
+		ClassMetadata.Accessor a = getKeys().get(key);
+		if (a == null)
 			return null;
 
 		try {
-			return f.get(backingObject);
+			return a.get(backingObject);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
@@ -248,9 +247,9 @@ class DynamicDTOFacade extends DynamicMapLikeFacade<String,Object> {
 		return getKeys().keySet();
 	}
 
-	private Map<String,Field> getKeys() {
+	private Map<String,ClassMetadata.Accessor> getKeys() {
 		if (keys == null)
-			keys = Util.getDTOKeys(dtoClass);
+			keys = ClassMetadata.of(dtoClass).dtoKeys();
 
 		return keys;
 	}
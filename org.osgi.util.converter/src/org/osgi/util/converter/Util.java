@@ -82,18 +82,6 @@ class Util {
 			return cls;
 	}
 
-	static Map<String,Method> getBeanKeys(Class< ? > beanClass) {
-		Map<String,Method> keys = new LinkedHashMap<>();
-		// Bean methods must be public and can be on parent classes
-		for (Method md : beanClass.getMethods()) {
-			String key = getBeanKey(md);
-			if (key != null && !keys.containsKey(key)) {
-				keys.put(key, md);
-			}
-		}
-		return keys;
-	}
-
 	static String getBeanKey(Method md) {
 		if (Modifier.isStatic(md.getModifiers()))
 			return null;
@@ -139,17 +127,6 @@ class Util {
 				propName.toString());
 	}
 
-	static Map<String,Field> getDTOKeys(Class< ? > dto) {
-		Map<String,Field> keys = new LinkedHashMap<>();
-
-		for (Field f : dto.getFields()) {
-			String key = getDTOKey(f);
-			if (key != null && !keys.containsKey(key))
-				keys.put(key, f);
-		}
-		return keys;
-	}
-
 	static String getDTOKey(Field f) {
 		if (Modifier.isStatic(f.getModifiers()))
 			return null;
@@ -202,6 +179,16 @@ class Util {
 	}
 
 	static String getSingleElementAnnotationKey(Class< ? > intf, Object obj) {
+		if (intf.isAnnotation() && obj instanceof Annotation
+				&& ((Annotation) obj).annotationType() == intf) {
+			// The key only depends on the annotation type
+			return ClassMetadata.of(intf).singleElementAnnotationKey(obj);
+		}
+		return computeSingleElementAnnotationKey(intf, obj);
+	}
+
+	static String computeSingleElementAnnotationKey(Class< ? > intf,
+			Object obj) {
 		Class< ? > ann = getAnnotationType(intf, obj);
 		if (ann == null)
 			return null;
@@ -328,6 +315,10 @@ class Util {
 	}
 
 	static String getPrefix(Class< ? > cls) {
+		return ClassMetadata.of(cls).prefix();
+	}
+
+	static String computePrefix(Class< ? > cls) {
 		try {
 			// We can use getField as the PREFIX must be public (see spec
 			// erratum)
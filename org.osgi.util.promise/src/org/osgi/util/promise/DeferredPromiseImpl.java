@@ -24,9 +24,9 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.NoSuchElementException;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.BiConsumer;
 
 import org.osgi.util.function.Consumer;
@@ -47,36 +47,30 @@ import org.osgi.util.function.Predicate;
  */
 final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	/**
-	 * A CountDownLatch to manage the resolved state of this Promise.
+	 * The resolved state of this Promise.
 	 * <p>
-	 * This object is used as the synchronizing object to provide a critical
-	 * section in {@link #tryResolve(Object, Throwable)} so that only a single
-	 * thread can write the resolved state variables and open the latch.
+	 * This single word holds the complete state of this Promise and is only
+	 * updated with {@link #RESULT}. It is {@code null} while this Promise is
+	 * unresolved, or a {@link Waiting} lock if threads are also blocked waiting
+	 * for the resolution. Once resolved, it is the value of
+	 * this Promise, {@link #NIL} for a {@code null} value, or a
+	 * {@link Failed} holding the failure of this Promise, and never changes
+	 * again.
 	 * <p>
-	 * The resolved state variables, {@link #value} and {@link #fail}, must only
-	 * be written when the latch is closed (getCount() != 0) and must only be
-	 * read when the latch is open (getCount() == 0). The latch state must
-	 * always be checked before writing or reading since the resolved state
-	 * variables' memory consistency is guarded by the latch.
+	 * Waiting threads block on the monitor of the {@link Waiting} lock and are
+	 * notified by the thread resolving this Promise. The lock is private so
+	 * that code synchronizing on this Promise cannot interfere with waiters.
 	 */
-	private final CountDownLatch	resolved;
+	private volatile Object			result;
 
-	/**
-	 * The value of this Promise if successfully resolved.
-	 * 
-	 * @see resolved
-	 */
-	// @GuardedBy("resolved")
-	private T						value;
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<DeferredPromiseImpl,Object> RESULT	= AtomicReferenceFieldUpdater
+			.newUpdater(DeferredPromiseImpl.class, Object.class, "result");
 
 	/**
-	 * The failure of this Promise if resolved with a failure or {@code null} if
-	 * successfully resolved.
-	 * 
-	 * @see resolved
+	 * Resolved state for a {@code null} value.
 	 */
-	// @GuardedBy("resolved")
-	private Throwable				fail;
+	private static final Object		NIL		= new Object();
 
 	/**
 	 * Initialize this Promise.
@@ -85,7 +79,6 @@ final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	 */
 	DeferredPromiseImpl(PromiseFactory factory) {
 		super(factory);
-		resolved = new CountDownLatch(1);
 	}
 
 	/**
@@ -93,7 +86,20 @@ final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	 */
 	@Override
 	public boolean isDone() {
-		return resolved.getCount() == 0;
+		return isResolved(result);
+	}
+
+	private static boolean isResolved(Object r) {
+		return (r != null) && !(r instanceof Waiting);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T valueOf(Object r) {
+		return ((r == NIL) || (r instanceof Failed)) ? null : (T) r;
+	}
+
+	private static Throwable failureOf(Object r) {
+		return (r instanceof Failed) ? ((Failed) r).fail : null;
 	}
 
 	/**
@@ -105,14 +111,42 @@ final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	 *         DeferredPromiseImpl is not resolved.
 	 */
 	PromiseImpl<T> orDone() {
-		// ensure latch open before reading state
-		if (!isDone()) {
+		Object r = result;
+		if (!isResolved(r)) {
 			return this;
 		}
-		if (fail == null) {
-			return resolved(value);
+		if (r instanceof Failed) {
+			return failed(((Failed) r).fail);
+		}
+		return resolved(valueOf(r));
+	}
+
+	/**
+	 * Wait for this Promise to be resolved.
+	 * 
+	 * @return The resolved state.
+	 * @throws InterruptedException If the current thread was interrupted.
+	 */
+	private Object await() throws InterruptedException {
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+		for (;;) {
+			Object r = result;
+			if (isResolved(r)) {
+				return r;
+			}
+			if ((r == null)
+					&& !RESULT.compareAndSet(this, null, r = new Waiting())) {
+				continue; // resolved or another waiter
+			}
+			Waiting waiting = (Waiting) r;
+			synchronized (waiting) {
+				while (result == waiting) {
+					waiting.wait();
+				}
+			}
 		}
-		return failed(fail);
 	}
 
 	/**
@@ -120,12 +154,11 @@ final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	 */
 	@Override
 	public T getValue() throws InvocationTargetException, InterruptedException {
-		// ensure latch open before reading state
-		resolved.await();
-		if (fail == null) {
-			return value;
+		Object r = await();
+		if (r instanceof Failed) {
+			throw new InvocationTargetException(((Failed) r).fail);
 		}
-		throw new InvocationTargetException(fail);
+		return valueOf(r);
 	}
 
 	/**
@@ -133,9 +166,7 @@ final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	 */
 	@Override
 	public Throwable getFailure() throws InterruptedException {
-		// ensure latch open before reading state
-		resolved.await();
-		return fail;
+		return failureOf(await());
 	}
 
 	/**
@@ -143,24 +174,48 @@ final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	 */
 	@Override
 	void result(Result< ? super T> consumer) {
-		// ensure latch open before reading state
-		if (!isDone()) {
+		Object r = result;
+		if (!isResolved(r)) {
 			consumer.accept(null, new AssertionError("promise not resolved"));
 			return;
 		}
-		consumer.accept(value, fail);
+		consumer.accept(valueOf(r), failureOf(r));
 	}
 
 	@Override
 	public String toString() {
-		// ensure latch open before reading state
-		if (!isDone()) {
+		Object r = result;
+		if (!isResolved(r)) {
 			return super.toString() + "[unresolved]";
 		}
-		if (fail == null) {
-			return super.toString() + "[resolved: " + value + "]";
+		if (r instanceof Failed) {
+			return super.toString() + "[failed: " + ((Failed) r).fail + "]";
 		}
-		return super.toString() + "[failed: " + fail + "]";
+		return super.toString() + "[resolved: " + valueOf(r) + "]";
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public <R> Promise<R> map(Function< ? super T, ? extends R> mapper) {
+		PromiseImpl<T> done = orDone();
+		if ((done != this) && allowCurrentThread()) {
+			return done.map(mapper); // fused: no chained promise
+		}
+		return super.map(mapper);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Promise<T> filter(Predicate< ? super T> predicate) {
+		PromiseImpl<T> done = orDone();
+		if ((done != this) && allowCurrentThread()) {
+			return done.filter(predicate); // fused: no chained promise
+		}
+		return super.filter(predicate);
 	}
 
 	/**
@@ -175,27 +230,49 @@ final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	 *         resolved this Promise.
 	 */
 	boolean tryResolve(T v, Throwable f) {
-		// critical section: only one resolver at a time
-		synchronized (resolved) {
-			if (isDone()) {
+		Object update = (f != null) ? new Failed(f) : (v != null) ? v : NIL;
+		for (;;) {
+			Object r = result;
+			if (isResolved(r)) {
 				return false;
 			}
-			/*
-			 * The resolved state variables must be set before opening the
-			 * latch. This safely publishes them to be read by other threads
-			 * that must verify the latch is open before reading.
-			 */
-			if (f == null) {
-				value = v;
-			} else {
-				fail = f;
+			// only one resolver can change the unresolved state
+			if (RESULT.compareAndSet(this, r, update)) {
+				if (r instanceof Waiting) {
+					synchronized (r) {
+						r.notifyAll();
+					}
+				}
+				break;
 			}
-			resolved.countDown();
 		}
 		notifyCallbacks(); // call any registered callbacks
 		return true;
 	}
 
+	/**
+	 * The unresolved state of a Promise when threads are waiting for the
+	 * resolution. Waiting threads block on its monitor.
+	 */
+	private static final class Waiting {
+		Waiting() {
+			// empty
+		}
+	}
+
+	/**
+	 * The resolved state of a Promise resolved with a failure.
+	 * 
+	 * @Immutable
+	 */
+	private static final class Failed {
+		final Throwable fail;
+
+		Failed(Throwable fail) {
+			this.fail = fail;
+		}
+	}
+
 	/**
 	 * Resolve this Promise.
 	 * <p>
@@ -699,7 +776,7 @@ final class DeferredPromiseImpl<T> extends PromiseImpl<T> {
 	 */
 	final class Timeout implements Runnable, InlineCallback, Result<T> {
 		private final PromiseImpl<T>		promise;
-		private final ScheduledFuture< ? > future;
+		private final Future< ? > future;
 
 		Timeout(PromiseImpl<T> promise, long millis) {
 			this.promise = requireNonNull(promise);
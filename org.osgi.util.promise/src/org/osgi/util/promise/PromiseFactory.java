@@ -22,8 +22,10 @@ import static java.util.Objects.requireNonNull;
 import static org.osgi.util.promise.PromiseImpl.uncaughtException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
@@ -31,7 +33,10 @@ import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.RunnableScheduledFuture;
 import java.util.concurrent.ScheduledExecutorService;
@@ -42,10 +47,14 @@ import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.BiFunction;
 import java.util.stream.Collector;
 
 import org.osgi.annotation.versioning.ConsumerType;
 import org.osgi.util.promise.PromiseImpl.InlineCallback;
+import org.osgi.util.promise.PromiseImpl.Result;
 
 /**
  * Promise factory to create Deferred and Promise objects.
@@ -68,6 +77,12 @@ public class PromiseFactory {
 	 * {@code org.osgi.util.promise.allowCurrentThread} is set to {@code false}.
 	 * When this is the case, the option {@link Option#CALLBACKS_EXECUTOR_THREAD}
 	 * is a default option.
+	 * <p>
+	 * If the system property {@code org.osgi.util.promise.callbacksExecutor} is
+	 * set to {@code virtualThreads}, the option
+	 * {@link Option#CALLBACKS_VIRTUAL_THREADS} is a default option. If it is
+	 * set to {@code forkJoinPool}, the option
+	 * {@link Option#CALLBACKS_FORK_JOIN_POOL} is a default option.
 	 *
 	 * @since 1.2
 	 */
@@ -77,7 +92,31 @@ public class PromiseFactory {
 		 * callbacks added to a resolved Promise may be immediately called on
 		 * the caller's thread to avoid a thread context switch.
 		 */
-		CALLBACKS_EXECUTOR_THREAD
+		CALLBACKS_EXECUTOR_THREAD,
+		/**
+		 * Use a default callback executor which runs each callback on a new
+		 * virtual thread. If virtual threads are not supported by the Java
+		 * runtime, the default callback executor is used.
+		 * <p>
+		 * This option is ignored if a callback executor is specified. This
+		 * option must not be specified together with
+		 * {@link #CALLBACKS_FORK_JOIN_POOL}.
+		 * 
+		 * @since 1.4
+		 */
+		CALLBACKS_VIRTUAL_THREADS,
+		/**
+		 * Use a default callback executor which runs callbacks on a
+		 * {@code ForkJoinPool} whose parallelism is the number of available
+		 * processors.
+		 * <p>
+		 * This option is ignored if a callback executor is specified. This
+		 * option must not be specified together with
+		 * {@link #CALLBACKS_VIRTUAL_THREADS}.
+		 * 
+		 * @since 1.4
+		 */
+		CALLBACKS_FORK_JOIN_POOL
 	}
 
 	/**
@@ -131,12 +170,21 @@ public class PromiseFactory {
 	}
 
 	private static Option[] defaultOptions() {
+		List<Option> options = new ArrayList<>(2);
 		boolean allowCurrentThread = Boolean.parseBoolean(
 				System.getProperty("org.osgi.util.promise.allowCurrentThread",
 						Boolean.TRUE.toString()));
-		return allowCurrentThread ? new Option[0] : new Option[] {
-				Option.CALLBACKS_EXECUTOR_THREAD
-		};
+		if (!allowCurrentThread) {
+			options.add(Option.CALLBACKS_EXECUTOR_THREAD);
+		}
+		String callbacksExecutor = System
+				.getProperty("org.osgi.util.promise.callbacksExecutor", "");
+		if (callbacksExecutor.equalsIgnoreCase("virtualThreads")) {
+			options.add(Option.CALLBACKS_VIRTUAL_THREADS);
+		} else if (callbacksExecutor.equalsIgnoreCase("forkJoinPool")) {
+			options.add(Option.CALLBACKS_FORK_JOIN_POOL);
+		}
+		return options.toArray(new Option[0]);
 	}
 
 	/**
@@ -149,22 +197,42 @@ public class PromiseFactory {
 	 *            operations. {@code null} can be specified for the default
 	 *            scheduled executor.
 	 * @param options Options for PromiseFactory.
+	 * @throws IllegalArgumentException If both
+	 *             {@link Option#CALLBACKS_VIRTUAL_THREADS} and
+	 *             {@link Option#CALLBACKS_FORK_JOIN_POOL} are specified.
 	 * @since 1.2
 	 */
 	public PromiseFactory(Executor callbackExecutor,
 			ScheduledExecutorService scheduledExecutor, Option... options) {
-		this.callbackExecutor = callbackExecutor;
 		this.scheduledExecutor = scheduledExecutor;
 		boolean callbacksExecutorOnly = false;
+		Option defaultExecutor = null;
 		for (Option option : options) {
-			if (option == Option.CALLBACKS_EXECUTOR_THREAD) {
-				callbacksExecutorOnly = true;
-				continue;
+			switch (requireNonNull(option)) {
+				case CALLBACKS_EXECUTOR_THREAD :
+					callbacksExecutorOnly = true;
+					continue;
+				case CALLBACKS_VIRTUAL_THREADS :
+				case CALLBACKS_FORK_JOIN_POOL :
+					if ((defaultExecutor != null)
+							&& (defaultExecutor != option)) {
+						throw new IllegalArgumentException(
+								"conflicting options: " + defaultExecutor
+										+ ", " + option);
+					}
+					defaultExecutor = option;
+					continue;
+				default :
+					throw new AssertionError("unrecognized option: " + option);
 			}
-			requireNonNull(option);
-			throw new AssertionError("unrecognized option: " + option);
 		}
 		this.allowCurrentThread = !callbacksExecutorOnly;
+		if ((callbackExecutor == null) && (defaultExecutor != null)) {
+			callbackExecutor = (defaultExecutor == Option.CALLBACKS_VIRTUAL_THREADS)
+					? DefaultExecutors.virtualThreadExecutor()
+					: DefaultExecutors.forkJoinExecutor();
+		}
+		this.callbackExecutor = callbackExecutor;
 	}
 
 	/**
@@ -195,6 +263,30 @@ public class PromiseFactory {
 		return scheduledExecutor;
 	}
 
+	/**
+	 * Schedule an operation for the {@link Promise#timeout(long)} and
+	 * {@link Promise#delay(long)} methods.
+	 * <p>
+	 * If {@code null} was specified for the scheduled executor when this
+	 * PromiseFactory was created, the operation is scheduled on the default
+	 * timing wheel instead of the default scheduled executor so that pending
+	 * operations do not each occupy the scheduled executor's delay queue.
+	 * 
+	 * @param operation The operation to schedule.
+	 * @param delay The delay.
+	 * @param unit The unit of the delay.
+	 * @return A Future which can be used to cancel the operation.
+	 * @throws RejectedExecutionException If the operation cannot be
+	 *             scheduled.
+	 */
+	Future< ? > schedule(Runnable operation, long delay, TimeUnit unit) {
+		if (scheduledExecutor == null) {
+			return DefaultExecutors.timingWheel().schedule(operation, delay,
+					unit);
+		}
+		return scheduledExecutor.schedule(operation, delay, unit);
+	}
+
 	/**
 	 * Create a new Deferred with the callback executor and scheduled executor
 	 * of this PromiseFactory object.
@@ -319,50 +411,498 @@ public class PromiseFactory {
 	 * A callback used to resolve the specified Promise when the specified list
 	 * of Promises are resolved for the {@link PromiseFactory#all(Collection)}
 	 * method.
+	 * <p>
+	 * A single callback object is registered with all the Promises and counts
+	 * down the number of unresolved Promises. The results are only read once
+	 * all the Promises are resolved.
 	 * 
 	 * @ThreadSafe
 	 */
 	private static final class All<T, S extends T>
-			implements Runnable, InlineCallback {
+			implements Runnable, InlineCallback, Result<S> {
 		private final DeferredPromiseImpl<List<T>>	chained;
 		private final List<Promise<S>>				promises;
-		private final AtomicInteger					promiseCount;
+		private volatile int						remaining;
+		/*
+		 * The results are only collected by the thread which resolved the last
+		 * Promise.
+		 */
+		private Object[]							values;
+		private int									index;
+		private boolean								failed;
+
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<All> REMAINING = AtomicIntegerFieldUpdater
+				.newUpdater(All.class, "remaining");
 
 		All(DeferredPromiseImpl<List<T>> chained, List<Promise<S>> promises) {
 			this.chained = requireNonNull(chained);
 			this.promises = requireNonNull(promises);
-			this.promiseCount = new AtomicInteger(promises.size());
+			this.remaining = promises.size();
 		}
 
 		@Override
 		public void run() {
-			if (promiseCount.decrementAndGet() != 0) {
+			if (REMAINING.decrementAndGet(this) != 0) {
+				return;
+			}
+			values = new Object[promises.size()];
+			for (index = 0; (index < values.length) && !failed; index++) {
+				PromiseImpl.result(promises.get(index), this);
+			}
+			if (failed) {
+				chained.tryResolve(null, failure(promises));
 				return;
 			}
-			List<T> value = new ArrayList<>(promises.size());
-			List<Promise< ? >> failed = new ArrayList<>(promises.size());
-			for (Promise<S> p : promises) {
+			@SuppressWarnings("unchecked")
+			List<T> value = new ArrayList<>((List<T>) Arrays.asList(values));
+			chained.tryResolve(value, null);
+		}
+
+		@Override
+		public void accept(S v, Throwable f) {
+			if (f != null) {
+				failed = true;
+			} else {
+				values[index] = v;
+			}
+		}
+	}
+
+	/**
+	 * Returns a new Promise that is resolved with the value of the first of
+	 * the specified Promises to be successfully resolved.
+	 * <p>
+	 * The returned Promise uses the callback executor and scheduled executor of
+	 * this PromiseFactory object.
+	 * <p>
+	 * The returned Promise is resolved as soon as one of the specified
+	 * Promises is successfully resolved. The remaining Promises are not waited
+	 * for.
+	 * 
+	 * @param <T> The value type associated with the returned Promise.
+	 * @param <S> The value type of the specified Promises.
+	 * @param promises The Promises whose first successful value is used to
+	 *            resolve the returned Promise. Must not be {@code null} and all
+	 *            of the elements in the collection must not be {@code null}.
+	 * @return A Promise that must be successfully resolved with the value of
+	 *         the first of the specified Promises to be successfully resolved.
+	 *         The returned Promise must be resolved with a failure of
+	 *         {@link FailedPromisesException} if all of the specified Promises
+	 *         are resolved with a failure. The failure
+	 *         {@link FailedPromisesException} must contain all of the specified
+	 *         Promises. The returned Promise must be resolved with a failure of
+	 *         {@code NoSuchElementException} if no Promises are specified.
+	 * @since 1.4
+	 */
+	public <T, S extends T> Promise<T> any(Collection<Promise<S>> promises) {
+		return firstN(promises, 1).map(list -> list.get(0));
+	}
+
+	/**
+	 * Returns a new Promise that is resolved with the values of the first
+	 * {@code n} of the specified Promises to be successfully resolved.
+	 * <p>
+	 * The returned Promise uses the callback executor and scheduled executor of
+	 * this PromiseFactory object.
+	 * <p>
+	 * The returned Promise is resolved as soon as {@code n} of the specified
+	 * Promises are successfully resolved, or as soon as so many of the
+	 * specified Promises are resolved with a failure that fewer than {@code n}
+	 * of them can be successfully resolved. The remaining Promises are not
+	 * waited for.
+	 * 
+	 * @param <T> The value type of the List value associated with the returned
+	 *            Promise.
+	 * @param <S> The value type of the specified Promises.
+	 * @param promises The Promises whose first {@code n} successful values are
+	 *            used to resolve the returned Promise. Must not be
+	 *            {@code null} and all of the elements in the collection must
+	 *            not be {@code null}.
+	 * @param n The number of successful values. Must not be negative.
+	 * @return A Promise that must be successfully resolved with a List of the
+	 *         values of the first {@code n} of the specified Promises to be
+	 *         successfully resolved, in the order they were resolved. The List
+	 *         in the returned Promise is the property of the caller and is
+	 *         modifiable. The returned Promise must be resolved with a failure
+	 *         of {@link FailedPromisesException} if fewer than {@code n} of the
+	 *         specified Promises can be successfully resolved. The failure
+	 *         {@link FailedPromisesException} must contain the specified
+	 *         Promises which resolved with a failure. The returned Promise must
+	 *         be resolved with a failure of {@code NoSuchElementException} if
+	 *         fewer than {@code n} Promises are specified.
+	 * @throws IllegalArgumentException If {@code n} is negative.
+	 * @since 1.4
+	 */
+	public <T, S extends T> Promise<List<T>> firstN(
+			Collection<Promise<S>> promises, int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException("negative count: " + n);
+		}
+		if (n == 0) {
+			List<T> value = new ArrayList<>();
+			return resolved(value);
+		}
+		if (promises.size() < n) {
+			return failed(new NoSuchElementException(
+					"fewer than " + n + " promises: " + promises.size()));
+		}
+
+		/* make a copy and capture the ordering */
+		List<Promise<S>> list = new ArrayList<>(promises);
+
+		DeferredPromiseImpl<List<T>> chained = new DeferredPromiseImpl<>(this);
+		FirstN<T,S> first = new FirstN<>(chained, list, n);
+		for (Promise<S> p : list) {
+			p.onResolve(first.new Element(p));
+		}
+		return chained.orDone();
+	}
+
+	/**
+	 * A latch used to resolve the specified Promise when the first {@code n}
+	 * of the specified list of Promises are successfully resolved for the
+	 * {@link PromiseFactory#firstN(Collection, int)} method.
+	 * <p>
+	 * Successful values claim a slot in a pre-sized array. The specified
+	 * Promise is resolved by the thread filling the last slot, so no locking
+	 * is required.
+	 * 
+	 * @ThreadSafe
+	 */
+	private static final class FirstN<T, S extends T> {
+		private final DeferredPromiseImpl<List<T>>	chained;
+		private final List<Promise<S>>				promises;
+		private final Object[]						values;
+		/**
+		 * The number of slots claimed by successful values.
+		 */
+		private volatile int						claimed;
+		/**
+		 * The number of slots written by successful values.
+		 */
+		private volatile int						filled;
+		private volatile int						failures;
+
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<FirstN>	CLAIMED		= AtomicIntegerFieldUpdater
+				.newUpdater(FirstN.class, "claimed");
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<FirstN>	FILLED		= AtomicIntegerFieldUpdater
+				.newUpdater(FirstN.class, "filled");
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<FirstN>	FAILURES	= AtomicIntegerFieldUpdater
+				.newUpdater(FirstN.class, "failures");
+
+		FirstN(DeferredPromiseImpl<List<T>> chained, List<Promise<S>> promises,
+				int n) {
+			this.chained = requireNonNull(chained);
+			this.promises = requireNonNull(promises);
+			this.values = new Object[n];
+		}
+
+		/**
+		 * A callback for one of the Promises.
+		 * 
+		 * @Immutable
+		 */
+		final class Element implements Runnable, InlineCallback, Result<S> {
+			private final Promise<S> promise;
+
+			Element(Promise<S> promise) {
+				this.promise = requireNonNull(promise);
+			}
+
+			@Override
+			public void run() {
+				if (!chained.isDone()) {
+					PromiseImpl.result(promise, this);
+				}
+			}
+
+			@Override
+			public void accept(S v, Throwable f) {
+				if (f != null) {
+					// fail when too few promises remain to fill the slots
+					if (FAILURES.incrementAndGet(FirstN.this) == promises.size()
+							- values.length + 1) {
+						chained.tryResolve(null, failure(promises));
+					}
+					return;
+				}
+				int slot = CLAIMED.getAndIncrement(FirstN.this);
+				if (slot >= values.length) {
+					return;
+				}
+				values[slot] = v;
+				// the thread filling the last slot sees all the values
+				if (FILLED.incrementAndGet(FirstN.this) == values.length) {
+					@SuppressWarnings("unchecked")
+					List<T> value = new ArrayList<>(
+							(List<T>) Arrays.asList(values));
+					chained.tryResolve(value, null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a new Promise that is resolved with the result of accumulating
+	 * the values of the specified Promises as they are resolved.
+	 * <p>
+	 * The returned Promise uses the callback executor and scheduled executor of
+	 * this PromiseFactory object.
+	 * <p>
+	 * The value of each specified Promise is accumulated when that Promise is
+	 * successfully resolved, so the values are not retained until all the
+	 * Promises are resolved. The values are accumulated in the order the
+	 * Promises are resolved, which is not necessarily the order of the
+	 * specified Promises. The accumulator is never called concurrently.
+	 * 
+	 * @param <T> The value type of the specified Promises.
+	 * @param <R> The value type associated with the returned Promise.
+	 * @param promises The Promises whose values are accumulated. Must not be
+	 *            {@code null} and all of the elements in the collection must
+	 *            not be {@code null}.
+	 * @param identity The initial accumulated value.
+	 * @param accumulator The function which returns the accumulated value for
+	 *            the current accumulated value and the value of a Promise. Must
+	 *            not be {@code null}.
+	 * @return A Promise that must be successfully resolved with the
+	 *         accumulated value if all the specified Promises are successfully
+	 *         resolved. The returned Promise must be resolved with a failure of
+	 *         {@link FailedPromisesException} if any of the specified Promises
+	 *         are resolved with a failure. The failure
+	 *         {@link FailedPromisesException} must contain all of the specified
+	 *         Promises which resolved with a failure. If the accumulator throws
+	 *         an exception, the returned Promise must be resolved with that
+	 *         exception.
+	 * @since 1.4
+	 */
+	public <T, R> Promise<R> fold(Collection<Promise<T>> promises, R identity,
+			BiFunction<R, ? super T,R> accumulator) {
+		requireNonNull(accumulator);
+		if (promises.isEmpty()) {
+			return resolved(identity);
+		}
+
+		/* make a copy and capture the ordering */
+		List<Promise<T>> list = new ArrayList<>(promises);
+
+		DeferredPromiseImpl<R> chained = new DeferredPromiseImpl<>(this);
+		Fold<T,R> fold = new Fold<>(chained, list, identity, accumulator);
+		for (Promise<T> p : list) {
+			p.onResolve(fold.new Element(p));
+		}
+		return chained.orDone();
+	}
+
+	/**
+	 * A callback used to resolve the specified Promise with the accumulated
+	 * values of the specified list of Promises for the
+	 * {@link PromiseFactory#fold(Collection, Object, BiFunction)} method.
+	 * <p>
+	 * Resolved elements are pushed on a lock free stack. The thread which
+	 * raises the pending work count from zero drains the stack and calls the
+	 * accumulator until no work is pending, so the accumulator is never called
+	 * concurrently and no thread blocks.
+	 * 
+	 * @ThreadSafe
+	 */
+	private static final class Fold<T, R> {
+		private final DeferredPromiseImpl<R>		chained;
+		private final List<Promise<T>>				promises;
+		private final BiFunction<R, ? super T,R>	accumulator;
+		/**
+		 * The accumulated value. Only accessed by the draining thread.
+		 */
+		private R									accumulated;
+		private boolean								failed;
+		private int									remaining;
+		/**
+		 * Stack of resolved elements not yet accumulated.
+		 */
+		private volatile Object						resolved;
+		/**
+		 * The number of elements pushed but not yet accumulated.
+		 */
+		private volatile int						pending;
+
+		@SuppressWarnings("rawtypes")
+		private static final AtomicReferenceFieldUpdater<Fold,Object>	RESOLVED	= AtomicReferenceFieldUpdater
+				.newUpdater(Fold.class, Object.class, "resolved");
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<Fold>			PENDING		= AtomicIntegerFieldUpdater
+				.newUpdater(Fold.class, "pending");
+
+		Fold(DeferredPromiseImpl<R> chained, List<Promise<T>> promises,
+				R identity, BiFunction<R, ? super T,R> accumulator) {
+			this.chained = requireNonNull(chained);
+			this.promises = requireNonNull(promises);
+			this.accumulator = requireNonNull(accumulator);
+			this.accumulated = identity;
+			this.remaining = promises.size();
+		}
+
+		@SuppressWarnings("unchecked")
+		void push(Element element) {
+			for (;;) {
+				Object head = resolved;
+				element.next = (Element) head;
+				if (RESOLVED.compareAndSet(this, head, element)) {
+					break;
+				}
+			}
+			if (PENDING.getAndIncrement(this) != 0) {
+				return; // another thread is draining
+			}
+			int missed = 1;
+			do {
+				Element drained = (Element) RESOLVED.getAndSet(this, null);
+				for (; drained != null; drained = drained.next) {
+					PromiseImpl.result(drained.promise, drained);
+					remaining--;
+				}
+				missed = PENDING.addAndGet(this, -missed);
+			} while (missed != 0);
+		}
+
+		/**
+		 * A callback for one of the Promises.
+		 */
+		final class Element implements Runnable, Result<T> {
+			final Promise<T>	promise;
+			Element				next;
+
+			Element(Promise<T> promise) {
+				this.promise = requireNonNull(promise);
+			}
+
+			@Override
+			public void run() {
+				push(this);
+			}
+
+			/**
+			 * Called by the draining thread.
+			 */
+			@Override
+			public void accept(T v, Throwable f) {
+				if (chained.isDone()) {
+					return;
+				}
+				if (f != null) {
+					failed = true;
+				} else if (!failed) {
+					try {
+						accumulated = accumulator.apply(accumulated, v);
+					} catch (Throwable e) {
+						chained.tryResolve(null, e);
+						return;
+					}
+				}
+				if (remaining == 1) {
+					if (failed) {
+						chained.tryResolve(null, failure(promises));
+					} else {
+						chained.tryResolve(accumulated, null);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a new Promise that is resolved with the specified Promises once
+	 * all of them are resolved, whether successfully or with a failure.
+	 * <p>
+	 * The returned Promise uses the callback executor and scheduled executor of
+	 * this PromiseFactory object.
+	 * <p>
+	 * The returned Promise acts as a gate and must be resolved after all of the
+	 * specified Promises are resolved. Unlike {@link #all(Collection)}, a
+	 * failure of some of the specified Promises does not fail the returned
+	 * Promise, so the successful values and the failures can be collected
+	 * together.
+	 * 
+	 * @param <T> The value type of the specified Promises.
+	 * @param promises The Promises which must be resolved before the returned
+	 *            Promise must be resolved. Must not be {@code null} and all of
+	 *            the elements in the collection must not be {@code null}.
+	 * @return A Promise that must be successfully resolved with a List of the
+	 *         specified Promises, in the order of the specified Promises, when
+	 *         all the specified Promises are resolved. The List in the
+	 *         returned Promise is the property of the caller and is modifiable.
+	 * @since 1.4
+	 */
+	public <T> Promise<List<Promise<T>>> allSettled(
+			Collection<Promise<T>> promises) {
+		/* make a copy and capture the ordering */
+		List<Promise<T>> list = new ArrayList<>(promises);
+		if (list.isEmpty()) {
+			return resolved(list);
+		}
+
+		DeferredPromiseImpl<List<Promise<T>>> chained = new DeferredPromiseImpl<>(
+				this);
+		Settled<T> settled = new Settled<>(chained, list);
+		for (Promise<T> p : list) {
+			p.onResolve(settled);
+		}
+		return chained.orDone();
+	}
+
+	/**
+	 * A callback used to resolve the specified Promise when the specified list
+	 * of Promises are resolved for the
+	 * {@link PromiseFactory#allSettled(Collection)} method.
+	 * 
+	 * @ThreadSafe
+	 */
+	private static final class Settled<T> implements Runnable, InlineCallback {
+		private final DeferredPromiseImpl<List<Promise<T>>>	chained;
+		private final List<Promise<T>>						promises;
+		private volatile int								remaining;
+
+		@SuppressWarnings("rawtypes")
+		private static final AtomicIntegerFieldUpdater<Settled> REMAINING = AtomicIntegerFieldUpdater
+				.newUpdater(Settled.class, "remaining");
+
+		Settled(DeferredPromiseImpl<List<Promise<T>>> chained,
+				List<Promise<T>> promises) {
+			this.chained = requireNonNull(chained);
+			this.promises = requireNonNull(promises);
+			this.remaining = promises.size();
+		}
+
+		@Override
+		public void run() {
+			if (REMAINING.decrementAndGet(this) == 0) {
+				chained.tryResolve(promises, null);
+			}
+		}
+	}
+
+	/**
+	 * Returns a FailedPromisesException for the resolved Promises in the
+	 * specified list which failed.
+	 */
+	static FailedPromisesException failure(List< ? extends Promise< ? >> promises) {
+		List<Promise< ? >> failed = new ArrayList<>();
+		Throwable[] cause = new Throwable[1];
+		for (Promise< ? > p : promises) {
+			if (p.isDone()) {
 				PromiseImpl.result(p, (v, f) -> {
 					if (f != null) {
 						failed.add(p);
-					} else {
-						value.add(v);
+						if (cause[0] == null) {
+							cause[0] = f;
+						}
 					}
 				});
 			}
-			if (failed.isEmpty()) {
-				chained.tryResolve(value, null);
-			} else {
-				Throwable cause;
-				try {
-					cause = failed.get(0).getFailure();
-				} catch (Throwable e) {
-					cause = e;
-				}
-				chained.tryResolve(null,
-						new FailedPromisesException(failed, cause));
-			}
 		}
+		return new FailedPromisesException(failed, cause[0]);
 	}
 
 	/**
@@ -406,9 +946,11 @@ public class PromiseFactory {
 		private static final DefaultExecutors	callbacks;
 		private static final ScheduledExecutor	scheduledExecutor;
 		private static final ThreadPoolExecutor	callbackExecutor;
+		private static final TimingWheel		timingWheel;
 		static {
 			callbacks = new DefaultExecutors();
 			scheduledExecutor = new ScheduledExecutor(2, callbacks);
+			timingWheel = new TimingWheel(callbacks);
 			callbackExecutor = new ThreadPoolExecutor(0, 64, 60L,
 					TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
 					callbacks, callbacks);
@@ -422,6 +964,56 @@ public class PromiseFactory {
 			return scheduledExecutor;
 		}
 
+		static TimingWheel timingWheel() {
+			return timingWheel;
+		}
+
+		static Executor virtualThreadExecutor() {
+			return VirtualThreadExecutorHolder.executor;
+		}
+
+		static Executor forkJoinExecutor() {
+			return ForkJoinExecutorHolder.executor;
+		}
+
+		/**
+		 * Lazily created default executor which runs each task on a new
+		 * virtual thread.
+		 */
+		private static final class VirtualThreadExecutorHolder {
+			static final Executor executor = newVirtualThreadExecutor();
+
+			/*
+			 * Virtual threads are found reflectively since this code must run
+			 * on Java runtimes without virtual threads.
+			 */
+			private static Executor newVirtualThreadExecutor() {
+				try {
+					return (Executor) Executors.class
+							.getMethod("newVirtualThreadPerTaskExecutor")
+							.invoke(null);
+				} catch (Exception e) {
+					// virtual threads are not supported
+					return callbackExecutor;
+				}
+			}
+		}
+
+		/**
+		 * Lazily created default executor which runs tasks on a ForkJoinPool.
+		 */
+		private static final class ForkJoinExecutorHolder {
+			static final ForkJoinPool executor = new ForkJoinPool(
+					Runtime.getRuntime().availableProcessors(),
+					pool -> {
+						ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+								.newThread(pool);
+						t.setName("PromiseFactory," + t.getName());
+						t.setDaemon(true);
+						return t;
+					}, (t, e) -> uncaughtException(e), true);
+		}
+
 		private final AtomicBoolean	shutdownHookInstalled;
 		private final ThreadFactory	delegateThreadFactory;
 
@@ -476,6 +1068,7 @@ public class PromiseFactory {
 			callbackExecutor.setMaximumPoolSize(
 					Math.max(1, callbackExecutor.getPoolSize()));
 			// Run all delayed callbacks now
+			timingWheel.shutdown();
 			scheduledExecutor.shutdown();
 			BlockingQueue<Runnable> queue = scheduledExecutor.getQueue();
 			if (!queue.isEmpty()) {
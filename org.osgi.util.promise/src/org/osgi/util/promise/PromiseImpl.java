@@ -22,10 +22,10 @@ import static java.util.Objects.requireNonNull;
 
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.osgi.util.function.Consumer;
 import org.osgi.util.function.Function;
@@ -45,13 +45,23 @@ abstract class PromiseImpl<T> implements Promise<T> {
 	/**
 	 * The factory to use for callbacks and scheduled operations.
 	 */
-	private final PromiseFactory					factory;
+	private final PromiseFactory	factory;
 	/**
-	 * A ConcurrentLinkedQueue to hold the callbacks for this Promise, so no
-	 * additional synchronization is required to write to or read from the
-	 * queue.
+	 * The callbacks registered with this Promise which have not yet been
+	 * called.
+	 * <p>
+	 * This is {@code null} if there are no such callbacks, the callback itself
+	 * if there is a single callback, or a {@link Callbacks} list of the
+	 * callbacks with the most recently registered callback first. The common
+	 * case of a single callback is held inline so that it does not allocate.
+	 * The field is only updated with {@link #CALLBACKS} so no additional
+	 * synchronization is required.
 	 */
-	private final ConcurrentLinkedQueue<Runnable>	callbacks;
+	private volatile Object			callbacks;
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<PromiseImpl,Object> CALLBACKS = AtomicReferenceFieldUpdater
+			.newUpdater(PromiseImpl.class, Object.class, "callbacks");
 
 	/**
 	 * Initialize this Promise.
@@ -61,7 +71,18 @@ abstract class PromiseImpl<T> implements Promise<T> {
 	 */
 	PromiseImpl(PromiseFactory factory) {
 		this.factory = requireNonNull(factory);
-		callbacks = new ConcurrentLinkedQueue<>();
+	}
+
+	/**
+	 * Return whether callbacks for this Promise may be called on the current
+	 * thread.
+	 * 
+	 * @return {@code true} if the PromiseFactory of this PromiseImpl allows
+	 *         callbacks to be called on the current thread.
+	 * @since 1.4
+	 */
+	boolean allowCurrentThread() {
+		return factory.allowCurrentThread();
 	}
 
 	/**
@@ -128,7 +149,14 @@ abstract class PromiseImpl<T> implements Promise<T> {
 				uncaughtException(t);
 			}
 		} else {
-			callbacks.offer(callback);
+			for (;;) {
+				Object current = callbacks;
+				Object update = (current == null) ? callback
+						: new Callbacks(callback, current);
+				if (CALLBACKS.compareAndSet(this, current, update)) {
+					break;
+				}
+			}
 			notifyCallbacks(); // call any registered callbacks
 		}
 		return this;
@@ -142,12 +170,60 @@ abstract class PromiseImpl<T> implements Promise<T> {
 			return; // return if not resolved
 		}
 		/*
-		 * Note: multiple threads can be in this method removing callbacks from
-		 * the queue and executing them, so the order in which callbacks are
-		 * executed cannot be specified.
+		 * Note: multiple threads can be in this method removing callbacks and
+		 * executing them, so the order in which callbacks are executed cannot
+		 * be specified.
+		 */
+		if (callbacks == null) {
+			return; // avoid the write if there are no callbacks
+		}
+		Object current = CALLBACKS.getAndSet(this, null);
+		if (current instanceof Callbacks) {
+			// execute in the order registered
+			Runnable[] ordered = ((Callbacks) current).toArray();
+			for (int i = ordered.length - 1; i >= 0; i--) {
+				execute(ordered[i]);
+			}
+		} else if (current != null) {
+			execute((Runnable) current);
+		}
+	}
+
+	/**
+	 * An immutable list of registered callbacks.
+	 * 
+	 * @Immutable
+	 * @since 1.4
+	 */
+	private static final class Callbacks {
+		final Runnable	callback;
+		/**
+		 * The next Callbacks or the first registered callback.
 		 */
-		for (Runnable callback; (callback = callbacks.poll()) != null;) {
-			execute(callback);
+		final Object	next;
+
+		Callbacks(Runnable callback, Object next) {
+			this.callback = callback;
+			this.next = next;
+		}
+
+		/**
+		 * Return the callbacks, most recently registered first.
+		 */
+		Runnable[] toArray() {
+			int size = 1;
+			Object next = this;
+			for (; next instanceof Callbacks; next = ((Callbacks) next).next) {
+				size++;
+			}
+			Runnable[] result = new Runnable[size];
+			int i = 0;
+			next = this;
+			for (; next instanceof Callbacks; next = ((Callbacks) next).next) {
+				result[i++] = ((Callbacks) next).callback;
+			}
+			result[i] = (Runnable) next;
+			return result;
 		}
 	}
 
@@ -173,12 +249,10 @@ abstract class PromiseImpl<T> implements Promise<T> {
 	 * 
 	 * @since 1.1
 	 */
-	ScheduledFuture< ? > schedule(Runnable operation, long delay,
-			TimeUnit unit) {
+	Future< ? > schedule(Runnable operation, long delay, TimeUnit unit) {
 		try {
 			try {
-				return factory.scheduledExecutor().schedule(operation, delay,
-						unit);
+				return factory.schedule(operation, delay, unit);
 			} catch (RejectedExecutionException e) {
 				execute(operation);
 			}
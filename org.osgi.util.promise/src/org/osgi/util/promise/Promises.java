@@ -23,6 +23,7 @@ import static org.osgi.util.promise.PromiseFactory.defaultFactory;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.BiFunction;
 
 /**
  * Static helper methods for {@link Promise}s.
@@ -131,4 +132,90 @@ public class Promises {
 		List<Promise<T>> list = Arrays.asList((Promise<T>[]) promises);
 		return defaultFactory.all(list);
 	}
+
+	/**
+	 * Returns a new Promise that is resolved with the value of the first of
+	 * the specified Promises to be successfully resolved.
+	 * 
+	 * @param <T> The value type associated with the returned Promise.
+	 * @param <S> The value type of the specified Promises.
+	 * @param promises The Promises whose first successful value is used to
+	 *            resolve the returned Promise. Must not be {@code null} and all
+	 *            of the elements in the collection must not be {@code null}.
+	 * @return A Promise which uses the default callback executor and default
+	 *         scheduled executor that is resolved with the value of the first
+	 *         of the specified Promises to be successfully resolved.
+	 * @see PromiseFactory#any(Collection)
+	 * @since 1.4
+	 */
+	public static <T, S extends T> Promise<T> any(
+			Collection<Promise<S>> promises) {
+		return defaultFactory.any(promises);
+	}
+
+	/**
+	 * Returns a new Promise that is resolved with the values of the first
+	 * {@code n} of the specified Promises to be successfully resolved.
+	 * 
+	 * @param <T> The value type of the List value associated with the returned
+	 *            Promise.
+	 * @param <S> The value type of the specified Promises.
+	 * @param promises The Promises whose first {@code n} successful values are
+	 *            used to resolve the returned Promise. Must not be
+	 *            {@code null} and all of the elements in the collection must
+	 *            not be {@code null}.
+	 * @param n The number of successful values. Must not be negative.
+	 * @return A Promise which uses the default callback executor and default
+	 *         scheduled executor that is resolved with a List of the values of
+	 *         the first {@code n} of the specified Promises to be successfully
+	 *         resolved.
+	 * @see PromiseFactory#firstN(Collection, int)
+	 * @since 1.4
+	 */
+	public static <T, S extends T> Promise<List<T>> firstN(
+			Collection<Promise<S>> promises, int n) {
+		return defaultFactory.firstN(promises, n);
+	}
+
+	/**
+	 * Returns a new Promise that is resolved with the result of accumulating
+	 * the values of the specified Promises as they are resolved.
+	 * 
+	 * @param <T> The value type of the specified Promises.
+	 * @param <R> The value type associated with the returned Promise.
+	 * @param promises The Promises whose values are accumulated. Must not be
+	 *            {@code null} and all of the elements in the collection must
+	 *            not be {@code null}.
+	 * @param identity The initial accumulated value.
+	 * @param accumulator The function which returns the accumulated value for
+	 *            the current accumulated value and the value of a Promise. Must
+	 *            not be {@code null}.
+	 * @return A Promise which uses the default callback executor and default
+	 *         scheduled executor that is resolved with the accumulated value.
+	 * @see PromiseFactory#fold(Collection, Object, BiFunction)
+	 * @since 1.4
+	 */
+	public static <T, R> Promise<R> fold(Collection<Promise<T>> promises,
+			R identity, BiFunction<R, ? super T,R> accumulator) {
+		return defaultFactory.fold(promises, identity, accumulator);
+	}
+
+	/**
+	 * Returns a new Promise that is resolved with the specified Promises once
+	 * all of them are resolved, whether successfully or with a failure.
+	 * 
+	 * @param <T> The value type of the specified Promises.
+	 * @param promises The Promises which must be resolved before the returned
+	 *            Promise must be resolved. Must not be {@code null} and all of
+	 *            the elements in the collection must not be {@code null}.
+	 * @return A Promise which uses the default callback executor and default
+	 *         scheduled executor that is resolved with a List of the specified
+	 *         Promises when all the specified Promises are resolved.
+	 * @see PromiseFactory#allSettled(Collection)
+	 * @since 1.4
+	 */
+	public static <T> Promise<List<Promise<T>>> allSettled(
+			Collection<Promise<T>> promises) {
+		return defaultFactory.allSettled(promises);
+	}
 }
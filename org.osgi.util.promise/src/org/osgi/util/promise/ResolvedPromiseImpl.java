@@ -20,11 +20,13 @@ package org.osgi.util.promise;
 
 import static java.util.Objects.requireNonNull;
 
+import java.util.NoSuchElementException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 import org.osgi.util.function.Consumer;
 import org.osgi.util.function.Function;
+import org.osgi.util.function.Predicate;
 
 /**
  * Resolved Promise implementation.
@@ -123,6 +125,61 @@ final class ResolvedPromiseImpl<T> extends PromiseImpl<T> {
 		return super.then(success, failure);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Promise<T> thenAccept(Consumer< ? super T> consumer) {
+		if (!allowCurrentThread()) {
+			return super.thenAccept(consumer);
+		}
+		// fused: no chained promise
+		requireNonNull(consumer);
+		try {
+			consumer.accept(value);
+		} catch (Throwable e) {
+			return failed(e);
+		}
+		return this;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Promise<T> filter(Predicate< ? super T> predicate) {
+		if (!allowCurrentThread()) {
+			return super.filter(predicate);
+		}
+		// fused: no chained promise
+		requireNonNull(predicate);
+		try {
+			if (predicate.test(value)) {
+				return this;
+			}
+		} catch (Throwable e) {
+			return failed(e);
+		}
+		return failed(new NoSuchElementException());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public <R> Promise<R> map(Function< ? super T, ? extends R> mapper) {
+		if (!allowCurrentThread()) {
+			return super.map(mapper);
+		}
+		// fused: no chained promise
+		requireNonNull(mapper);
+		try {
+			return resolved(mapper.apply(value));
+		} catch (Throwable e) {
+			return failed(e);
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
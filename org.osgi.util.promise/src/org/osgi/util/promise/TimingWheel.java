@@ -0,0 +1,381 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.util.promise;
+
+import static java.util.Objects.requireNonNull;
+import static org.osgi.util.promise.PromiseImpl.uncaughtException;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timing wheel for the delayed operations of
+ * {@link Promise#timeout(long)} and {@link Promise#delay(long)}.
+ * <p>
+ * The wheel has a resolution of one millisecond. Each level of the wheel has
+ * 64 slots and each slot of a level spans all the slots of the level below.
+ * An operation is placed in the lowest level whose slots can distinguish its
+ * deadline from the current time and moves down one or more levels when the
+ * slot it is in is reached. Scheduling and cancelling an operation are
+ * constant time operations which unlink the operation from its slot, so a
+ * cancelled timeout does not remain queued until its deadline.
+ * <p>
+ * A single ticker thread, created when the first operation is scheduled,
+ * sleeps until the next occupied slot and runs the expired operations. The
+ * operations run by the ticker thread must be short since they delay the
+ * expiry of other operations. The Promise operations only resolve a Promise
+ * whose callbacks are run by the callback executor.
+ *
+ * @ThreadSafe
+ * @author $Id$
+ */
+final class TimingWheel implements Runnable {
+	private static final int	SLOT_BITS	= 6;
+	private static final int	SLOTS		= 1 << SLOT_BITS;
+	private static final int	SLOT_MASK	= SLOTS - 1;
+	/*
+	 * 6 levels of 64 one millisecond slots cover more than 2 years.
+	 */
+	private static final int	LEVELS		= 6;
+	private static final long	TICK_NANOS	= TimeUnit.MILLISECONDS
+			.toNanos(1L);
+
+	private final ThreadFactory	threadFactory;
+	private final long			origin;
+	/**
+	 * The head of the list of operations in each slot, level by level.
+	 */
+	// @GuardedBy("this")
+	private final Timer[]		slots;
+	/**
+	 * The next tick to be processed.
+	 */
+	// @GuardedBy("this")
+	private long				current;
+	/**
+	 * The tick at which the ticker thread will wake up.
+	 */
+	// @GuardedBy("this")
+	private long				wakeup;
+	// @GuardedBy("this")
+	private int					size;
+	// @GuardedBy("this")
+	private Thread				ticker;
+	// @GuardedBy("this")
+	private boolean				shutdown;
+
+	/**
+	 * Create a timing wheel.
+	 *
+	 * @param threadFactory The thread factory for the ticker thread.
+	 */
+	TimingWheel(ThreadFactory threadFactory) {
+		this.threadFactory = requireNonNull(threadFactory);
+		this.origin = System.nanoTime();
+		this.slots = new Timer[LEVELS * SLOTS];
+		this.wakeup = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Schedule an operation.
+	 *
+	 * @param operation The operation to run when the delay has elapsed.
+	 * @param delay The delay.
+	 * @param unit The unit of the delay.
+	 * @return A Future which can be used to cancel the operation.
+	 * @throws RejectedExecutionException If this timing wheel has been shut
+	 *             down.
+	 */
+	Future< ? > schedule(Runnable operation, long delay, TimeUnit unit) {
+		long nanos = Math.max(0L, unit.toNanos(delay));
+		// round up, and add a tick for the part of the current tick which has
+		// already elapsed, so the operation never runs early
+		long ticks = (nanos / TICK_NANOS)
+				+ (((nanos % TICK_NANOS) == 0L) ? 1L : 2L);
+		Timer timer = new Timer(operation);
+		synchronized (this) {
+			if (shutdown) {
+				throw new RejectedExecutionException("timing wheel shut down");
+			}
+			long now = now();
+			if (size == 0) {
+				// nothing pending: skip the idle ticks
+				current = Math.max(current, now);
+			}
+			timer.deadline = Math.max(now + ticks, current);
+			add(timer);
+			size++;
+			if (ticker == null) {
+				ticker = threadFactory.newThread(this);
+				ticker.start();
+			} else if (timer.deadline < wakeup) {
+				notifyAll();
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * Shut down this timing wheel and run all pending operations on the
+	 * calling thread. Operations scheduled after shut down are rejected.
+	 */
+	void shutdown() {
+		Timer expired = null;
+		synchronized (this) {
+			if (shutdown) {
+				return;
+			}
+			shutdown = true;
+			for (int i = 0; i < slots.length; i++) {
+				expired = detach(i, expired);
+			}
+			notifyAll();
+		}
+		runAll(expired);
+	}
+
+	/**
+	 * Ticker thread.
+	 */
+	@Override
+	public void run() {
+		for (;;) {
+			Timer expired = null;
+			synchronized (this) {
+				for (;;) {
+					if (shutdown) {
+						return;
+					}
+					long now = now();
+					while (current <= now) {
+						cascade();
+						expired = detach((int) current & SLOT_MASK, expired);
+						current++;
+						// skip the ticks at which nothing happens
+						current = Math.min(nextTick(), now + 1L);
+					}
+					if (expired != null) {
+						break;
+					}
+					wakeup = nextTick();
+					try {
+						if (wakeup == Long.MAX_VALUE) {
+							wait();
+						} else {
+							long nanos = origin + (wakeup * TICK_NANOS)
+									- System.nanoTime();
+							if (nanos > 0L) {
+								TimeUnit.NANOSECONDS.timedWait(this, nanos);
+							}
+						}
+					} catch (InterruptedException e) {
+						// ignore
+					} finally {
+						wakeup = Long.MAX_VALUE;
+					}
+				}
+			}
+			runAll(expired);
+		}
+	}
+
+	private long now() {
+		return (System.nanoTime() - origin) / TICK_NANOS;
+	}
+
+	/**
+	 * Returns the first tick, not before the current tick, at which an
+	 * occupied level 0 slot expires or an occupied slot of a higher level
+	 * must be cascaded.
+	 */
+	// @GuardedBy("this")
+	private long nextTick() {
+		if (size == 0) {
+			return Long.MAX_VALUE;
+		}
+		long next = Long.MAX_VALUE;
+		for (int level = 0; level < LEVELS; level++) {
+			int shift = level * SLOT_BITS;
+			long first = current >>> shift;
+			if ((current & ((1L << shift) - 1L)) != 0L) {
+				// the current slot of this level has already been cascaded
+				first++;
+			}
+			// only the top level holds slots beyond the current window
+			long last = (level == LEVELS - 1) ? first + SLOT_MASK
+					: (current >>> shift) | SLOT_MASK;
+			for (long slot = first; slot <= last; slot++) {
+				if (slots[(level * SLOTS) + ((int) slot & SLOT_MASK)] != null) {
+					next = Math.min(next, slot << shift);
+					break;
+				}
+			}
+		}
+		return (next == Long.MAX_VALUE) ? (current | SLOT_MASK) + 1L : next;
+	}
+
+	/**
+	 * Move the operations in the slots reached at the current tick down to
+	 * the lower levels, highest level first.
+	 */
+	// @GuardedBy("this")
+	private void cascade() {
+		for (int level = LEVELS - 1; level > 0; level--) {
+			int shift = level * SLOT_BITS;
+			if ((current & ((1L << shift) - 1L)) != 0L) {
+				continue;
+			}
+			int index = (level * SLOTS) + ((int) (current >>> shift) & SLOT_MASK);
+			Timer timer = slots[index];
+			slots[index] = null;
+			while (timer != null) {
+				Timer next = timer.next;
+				add(timer);
+				timer = next;
+			}
+		}
+	}
+
+	/**
+	 * Link the timer into the slot for its deadline.
+	 */
+	// @GuardedBy("this")
+	private void add(Timer timer) {
+		long deadline = timer.deadline;
+		int level = 0;
+		while ((level < LEVELS) && ((deadline
+				>>> ((level + 1) * SLOT_BITS)) != (current >>> ((level + 1)
+						* SLOT_BITS)))) {
+			level++;
+		}
+		int index;
+		if (level == LEVELS) {
+			// beyond the top level: park in the last top level slot and place
+			// again when that slot is reached
+			level = LEVELS - 1;
+			index = (level * SLOTS) + ((int) ((current >>> (level * SLOT_BITS))
+					- 1L) & SLOT_MASK);
+		} else {
+			index = (level * SLOTS)
+					+ ((int) (deadline >>> (level * SLOT_BITS)) & SLOT_MASK);
+		}
+		Timer head = slots[index];
+		timer.slot = index;
+		timer.prev = null;
+		timer.next = head;
+		if (head != null) {
+			head.prev = timer;
+		}
+		slots[index] = timer;
+	}
+
+	/**
+	 * Unlink a cancelled timer.
+	 */
+	synchronized void remove(Timer timer) {
+		int index = timer.slot;
+		if (index < 0) {
+			// already expired
+			return;
+		}
+		if (timer.prev == null) {
+			slots[index] = timer.next;
+		} else {
+			timer.prev.next = timer.next;
+		}
+		if (timer.next != null) {
+			timer.next.prev = timer.prev;
+		}
+		timer.slot = -1;
+		timer.prev = null;
+		timer.next = null;
+		size--;
+	}
+
+	/**
+	 * Detach the timers in a slot and prepend them to the expired list.
+	 */
+	// @GuardedBy("this")
+	private Timer detach(int index, Timer expired) {
+		Timer timer = slots[index];
+		slots[index] = null;
+		while (timer != null) {
+			Timer next = timer.next;
+			timer.slot = -1;
+			timer.prev = null;
+			timer.next = expired;
+			expired = timer;
+			size--;
+			timer = next;
+		}
+		return expired;
+	}
+
+	private static void runAll(Timer expired) {
+		while (expired != null) {
+			Timer next = expired.next;
+			expired.next = null;
+			expired.run();
+			expired = next;
+		}
+	}
+
+	/**
+	 * A scheduled operation. The operation is run at most once and not at all
+	 * if cancelled first.
+	 */
+	final class Timer extends FutureTask<Void> {
+		// @GuardedBy("TimingWheel.this")
+		long	deadline;
+		/**
+		 * Index of the slot holding this timer or -1 if not in a slot.
+		 */
+		// @GuardedBy("TimingWheel.this")
+		int		slot	= -1;
+		// @GuardedBy("TimingWheel.this")
+		Timer	prev;
+		// @GuardedBy("TimingWheel.this")
+		Timer	next;
+
+		Timer(Runnable operation) {
+			super(operation, null);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				remove(this);
+			}
+			return cancelled;
+		}
+
+		/**
+		 * Handle uncaught exceptions
+		 */
+		@Override
+		protected void setException(Throwable t) {
+			super.setException(t);
+			uncaughtException(t);
+		}
+	}
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.util.promise;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.util.promise.PromiseFactory.Option;
+
+@SuppressWarnings("javadoc")
+public class PromiseFactoryOptionsTest {
+	private static final String	CALLBACKS_EXECUTOR	= "org.osgi.util.promise.callbacksExecutor";
+	private static final long	SLACK_MILLIS		= 200L;
+	private static final long	WAIT_MILLIS			= 5000L;
+
+	@Test
+	public void testConflictingOptions() {
+		assertThatIllegalArgumentException()
+				.isThrownBy(() -> new PromiseFactory(null, null,
+						Option.CALLBACKS_VIRTUAL_THREADS,
+						Option.CALLBACKS_FORK_JOIN_POOL));
+		// repeating an option is not a conflict
+		new PromiseFactory(null, null, Option.CALLBACKS_FORK_JOIN_POOL,
+				Option.CALLBACKS_FORK_JOIN_POOL);
+	}
+
+	@Test
+	public void testForkJoinPoolOption() throws Exception {
+		PromiseFactory factory = new PromiseFactory(null, null,
+				Option.CALLBACKS_FORK_JOIN_POOL);
+		assertThat(factory.executor()).isInstanceOf(ForkJoinPool.class);
+		assertThat(((ForkJoinPool) factory.executor()).getParallelism())
+				.isEqualTo(Runtime.getRuntime().availableProcessors());
+
+		Thread thread = callbackThread(factory);
+		assertThat(thread).isInstanceOf(ForkJoinWorkerThread.class);
+		assertThat(thread.isDaemon()).isTrue();
+		assertThat(thread.getName()).startsWith("PromiseFactory,");
+	}
+
+	@Test
+	public void testVirtualThreadsOption() throws Exception {
+		PromiseFactory factory = new PromiseFactory(null, null,
+				Option.CALLBACKS_VIRTUAL_THREADS);
+		Thread thread = callbackThread(factory);
+
+		Method isVirtual;
+		try {
+			isVirtual = Thread.class.getMethod("isVirtual");
+		} catch (NoSuchMethodException e) {
+			// without virtual threads the default callback executor is used
+			assertThat(factory.executor())
+					.isSameAs(new PromiseFactory(null, null).executor());
+			return;
+		}
+		assertThat(isVirtual.invoke(thread)).isEqualTo(Boolean.TRUE);
+	}
+
+	@Test
+	public void testCallbackExecutorOverridesOption() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			PromiseFactory factory = new PromiseFactory(executor, null,
+					Option.CALLBACKS_FORK_JOIN_POOL);
+			assertThat(factory.executor()).isSameAs(executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testCallbacksExecutorProperty() throws Exception {
+		String original = System.getProperty(CALLBACKS_EXECUTOR);
+		try {
+			System.setProperty(CALLBACKS_EXECUTOR, "forkJoinPool");
+			assertThat(new PromiseFactory(null).executor())
+					.isInstanceOf(ForkJoinPool.class);
+
+			System.setProperty(CALLBACKS_EXECUTOR, "unknown");
+			assertThat(new PromiseFactory(null).executor())
+					.isSameAs(new PromiseFactory(null, null, new Option[0])
+							.executor());
+		} finally {
+			if (original == null) {
+				System.clearProperty(CALLBACKS_EXECUTOR);
+			} else {
+				System.setProperty(CALLBACKS_EXECUTOR, original);
+			}
+		}
+	}
+
+	@Test
+	public void testDefaultTimeout() throws Exception {
+		PromiseFactory factory = new PromiseFactory(null, null);
+		Deferred<String> deferred = factory.deferred();
+		long start = System.nanoTime();
+		Promise<String> timeout = deferred.getPromise().timeout(50L);
+
+		Throwable failure = timeout.getFailure();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertThat(failure).isInstanceOf(TimeoutException.class);
+		assertThat(millis).isBetween(50L, 50L + SLACK_MILLIS);
+	}
+
+	@Test
+	public void testDefaultTimeoutCancelledOnResolution() throws Exception {
+		PromiseFactory factory = new PromiseFactory(null, null);
+		Deferred<String> deferred = factory.deferred();
+		Promise<String> timeout = deferred.getPromise().timeout(100L);
+		deferred.resolve("value");
+
+		assertThat(timeout.getValue()).isEqualTo("value");
+		// the cancelled timeout does not fail the resolved Promise later
+		Thread.sleep(100L + SLACK_MILLIS);
+		assertThat(timeout.getFailure()).isNull();
+	}
+
+	@Test
+	public void testDefaultDelay() throws Exception {
+		PromiseFactory factory = new PromiseFactory(null, null);
+		long start = System.nanoTime();
+		Promise<String> delayed = factory.resolved("value").delay(50L);
+
+		assertThat(delayed.getValue()).isEqualTo("value");
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertThat(millis).isBetween(50L, 50L + SLACK_MILLIS);
+	}
+
+	@Test
+	public void testScheduledExecutorUsedWhenSpecified() throws Exception {
+		AtomicInteger scheduled = new AtomicInteger();
+		ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(
+				1) {
+			@Override
+			public ScheduledFuture< ? > schedule(Runnable command, long delay,
+					TimeUnit unit) {
+				scheduled.incrementAndGet();
+				return super.schedule(command, delay, unit);
+			}
+		};
+		try {
+			PromiseFactory factory = new PromiseFactory(null,
+					scheduledExecutor);
+			Promise<String> delayed = factory.resolved("value").delay(10L);
+			Promise<String> timeout = factory.<String> deferred()
+					.getPromise()
+					.timeout(10L);
+
+			assertThat(delayed.getValue()).isEqualTo("value");
+			assertThat(timeout.getFailure())
+					.isInstanceOf(TimeoutException.class);
+			assertThat(scheduled.get()).isEqualTo(2);
+		} finally {
+			scheduledExecutor.shutdown();
+		}
+	}
+
+	private static Thread callbackThread(PromiseFactory factory)
+			throws InterruptedException {
+		AtomicReference<Thread> thread = new AtomicReference<>();
+		CountDownLatch latch = new CountDownLatch(1);
+		Deferred<String> deferred = factory.deferred();
+		deferred.getPromise().onResolve(() -> {
+			thread.set(Thread.currentThread());
+			latch.countDown();
+		});
+		deferred.resolve("value");
+		assertThat(latch.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+		return thread.get();
+	}
+}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.util.promise;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("javadoc")
+public class TimingWheelTest {
+	/*
+	 * The slack allowed for an operation to run after its deadline, to
+	 * tolerate a busy test machine.
+	 */
+	private static final long	SLACK_MILLIS	= 200L;
+	private static final long	WAIT_MILLIS		= 5000L;
+	private static final int	SLOTS			= 64;
+
+	private List<Thread>		tickers;
+	private TimingWheel			wheel;
+
+	@BeforeEach
+	public void setUp() {
+		tickers = Collections.synchronizedList(new ArrayList<>());
+		wheel = new TimingWheel(r -> {
+			Thread t = new Thread(r, "TimingWheelTest");
+			t.setDaemon(true);
+			tickers.add(t);
+			return t;
+		});
+	}
+
+	@AfterEach
+	public void tearDown() {
+		wheel.shutdown();
+	}
+
+	@Test
+	public void testDelayAccuracy() throws Exception {
+		long[] delays = {
+				0L, 1L, 5L, 20L, 50L
+		};
+		List<CountDownLatch> ran = new ArrayList<>();
+		List<AtomicLong> elapsed = new ArrayList<>();
+		long start = System.nanoTime();
+		for (long delay : delays) {
+			CountDownLatch latch = new CountDownLatch(1);
+			AtomicLong time = new AtomicLong();
+			wheel.schedule(() -> {
+				time.set(System.nanoTime() - start);
+				latch.countDown();
+			}, delay, TimeUnit.MILLISECONDS);
+			ran.add(latch);
+			elapsed.add(time);
+		}
+		for (int i = 0; i < delays.length; i++) {
+			assertThat(ran.get(i).await(WAIT_MILLIS, TimeUnit.MILLISECONDS))
+					.isTrue();
+			long millis = TimeUnit.NANOSECONDS.toMillis(elapsed.get(i).get());
+			assertThat(millis).as("delay %s", delays[i])
+					.isBetween(delays[i], delays[i] + SLACK_MILLIS);
+		}
+	}
+
+	@Test
+	public void testSubMillisecondDelayNeverEarly() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		AtomicLong elapsed = new AtomicLong();
+		long start = System.nanoTime();
+		wheel.schedule(() -> {
+			elapsed.set(System.nanoTime() - start);
+			latch.countDown();
+		}, 1500L, TimeUnit.MICROSECONDS);
+		assertThat(latch.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+		assertThat(elapsed.get())
+				.isGreaterThanOrEqualTo(TimeUnit.MICROSECONDS.toNanos(1500L));
+	}
+
+	@Test
+	public void testDeadlineOrder() throws Exception {
+		List<Long> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch latch = new CountDownLatch(4);
+		// scheduled out of order and in different levels of the wheel
+		for (long delay : new long[] {
+				150L, 10L, 70L, 40L
+		}) {
+			wheel.schedule(() -> {
+				order.add(Long.valueOf(delay));
+				latch.countDown();
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+		assertThat(latch.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+		assertThat(order).containsExactly(Long.valueOf(10L),
+				Long.valueOf(40L), Long.valueOf(70L), Long.valueOf(150L));
+	}
+
+	@Test
+	public void testCancelUnlinksTimer() throws Exception {
+		AtomicBoolean ran = new AtomicBoolean();
+		TimingWheel.Timer timer = (TimingWheel.Timer) wheel
+				.schedule(() -> ran.set(true), 50L, TimeUnit.MILLISECONDS);
+		TimingWheel.Timer other = (TimingWheel.Timer) wheel
+				.schedule(() -> {}, 50L, TimeUnit.MILLISECONDS);
+		synchronized (wheel) {
+			assertThat(timer.slot).isNotNegative();
+		}
+
+		assertThat(timer.cancel(false)).isTrue();
+		synchronized (wheel) {
+			assertThat(timer.slot).isEqualTo(-1);
+			assertThat(timer.prev).isNull();
+			assertThat(timer.next).isNull();
+			// the other timer of the slot is still linked
+			assertThat(other.slot).isNotNegative();
+			assertThat(other.prev).isNull();
+			assertThat(other.next).isNull();
+		}
+		// cancelling again has no effect
+		assertThat(timer.cancel(false)).isFalse();
+
+		Thread.sleep(50L + SLACK_MILLIS);
+		assertThat(ran).isFalse();
+		assertThat(other.isDone()).isTrue();
+	}
+
+	@Test
+	public void testCancelAfterExpiry() throws Exception {
+		CountDownLatch latch = new CountDownLatch(1);
+		Future< ? > future = wheel.schedule(latch::countDown, 1L,
+				TimeUnit.MILLISECONDS);
+		assertThat(latch.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+		future.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+		assertThat(future.cancel(false)).isFalse();
+		assertThat(((TimingWheel.Timer) future).slot).isEqualTo(-1);
+	}
+
+	@Test
+	public void testLongDelaysUseHigherLevels() throws Exception {
+		long[] delays = {
+				100L, // level 1
+				TimeUnit.SECONDS.toMillis(10L), // level 2
+				TimeUnit.MINUTES.toMillis(10L), // level 3
+				TimeUnit.DAYS.toMillis(1L), // level 4
+				TimeUnit.DAYS.toMillis(100L), // level 5
+				TimeUnit.DAYS.toMillis(10000L) // beyond the top level
+		};
+		int[] levels = {
+				1, 2, 3, 4, 5, 5
+		};
+		List<TimingWheel.Timer> timers = new ArrayList<>();
+		for (long delay : delays) {
+			timers.add((TimingWheel.Timer) wheel.schedule(() -> {}, delay,
+					TimeUnit.MILLISECONDS));
+		}
+		synchronized (wheel) {
+			for (int i = 0; i < delays.length; i++) {
+				// a deadline in the next slot of the level above is placed
+				// in that level
+				int level = timers.get(i).slot / SLOTS;
+				assertThat(level).as("delay %s", delays[i])
+						.isBetween(levels[i], Math.min(levels[i] + 1, 5));
+			}
+		}
+		for (TimingWheel.Timer timer : timers) {
+			assertThat(timer.cancel(false)).isTrue();
+		}
+	}
+
+	@Test
+	public void testCascadeAcrossLevels() throws Exception {
+		// 64 ms is the span of level 0, 4096 ms the span of level 1
+		long[] delays = {
+				63L, 64L, 65L, 130L, 4100L
+		};
+		List<CountDownLatch> ran = new ArrayList<>();
+		List<AtomicLong> elapsed = new ArrayList<>();
+		long start = System.nanoTime();
+		for (long delay : delays) {
+			CountDownLatch latch = new CountDownLatch(1);
+			AtomicLong time = new AtomicLong();
+			wheel.schedule(() -> {
+				time.set(System.nanoTime() - start);
+				latch.countDown();
+			}, delay, TimeUnit.MILLISECONDS);
+			ran.add(latch);
+			elapsed.add(time);
+		}
+		for (int i = 0; i < delays.length; i++) {
+			assertThat(ran.get(i).await(delays[i] + WAIT_MILLIS,
+					TimeUnit.MILLISECONDS)).isTrue();
+			long millis = TimeUnit.NANOSECONDS.toMillis(elapsed.get(i).get());
+			assertThat(millis).as("delay %s", delays[i])
+					.isBetween(delays[i], delays[i] + SLACK_MILLIS);
+		}
+	}
+
+	@Test
+	public void testShutdownRunsPendingOperations() throws Exception {
+		AtomicReference<Thread> ranOn = new AtomicReference<>();
+		AtomicBoolean cancelledRan = new AtomicBoolean();
+		Future< ? > pending = wheel.schedule(
+				() -> ranOn.set(Thread.currentThread()), 1L, TimeUnit.HOURS);
+		Future< ? > cancelled = wheel.schedule(() -> cancelledRan.set(true),
+				1L, TimeUnit.HOURS);
+		cancelled.cancel(false);
+
+		wheel.shutdown();
+
+		assertThat(pending.isDone()).isTrue();
+		assertThat(ranOn.get()).isSameAs(Thread.currentThread());
+		assertThat(cancelledRan).isFalse();
+		assertThatExceptionOfType(RejectedExecutionException.class)
+				.isThrownBy(() -> wheel.schedule(() -> {}, 1L,
+						TimeUnit.MILLISECONDS));
+		// the ticker thread ends
+		assertThat(tickers).hasSize(1);
+		tickers.get(0).join(WAIT_MILLIS);
+		assertThat(tickers.get(0).isAlive()).isFalse();
+		// shutting down again has no effect
+		wheel.shutdown();
+	}
+
+	@Test
+	public void testTickerThreadCreatedOnce() throws Exception {
+		assertThat(tickers).isEmpty();
+		CountDownLatch latch = new CountDownLatch(2);
+		wheel.schedule(latch::countDown, 1L, TimeUnit.MILLISECONDS);
+		wheel.schedule(latch::countDown, 10L, TimeUnit.MILLISECONDS);
+		assertThat(latch.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+		// an idle wheel keeps its ticker thread for later operations
+		Thread.sleep(20L);
+		CountDownLatch later = new CountDownLatch(1);
+		wheel.schedule(later::countDown, 1L, TimeUnit.MILLISECONDS);
+		assertThat(later.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)).isTrue();
+		assertThat(tickers).hasSize(1);
+	}
+}
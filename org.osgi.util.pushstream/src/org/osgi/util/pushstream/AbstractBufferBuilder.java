@@ -32,16 +32,52 @@ abstract class AbstractBufferBuilder<R, T, U extends BlockingQueue<PushEvent< ?
 	protected QueuePolicy<T,U>			bufferingPolicy;
 	protected U							buffer;
 
+	/*
+	 * Whether the queue policy and the pushback policy were supplied for the
+	 * buffer type U, rather than obtained from an option which works with any
+	 * buffer type.
+	 */
+	private boolean						queuePolicyForBuffer;
+	private boolean						pushbackPolicyForBuffer;
+
 	@Override
 	public BufferBuilder<R,T,U> withBuffer(U queue) {
 		this.buffer = queue;
 		return this;
 	}
 
+	@Override
+	public BufferBuilder<R,T,BlockingQueue<PushEvent< ? extends T>>> withLockFreeBuffer(
+			int capacity) {
+		RingBuffer<PushEvent< ? extends T>> ring = new RingBuffer<>(capacity);
+		AbstractBufferBuilder<R,T,BlockingQueue<PushEvent< ? extends T>>> builder = withAnyBuffer();
+		builder.buffer = ring;
+		return builder;
+	}
+
+	/**
+	 * Returns this builder typed for any buffer type. The policies supplied
+	 * for the buffer type U cannot be used with other buffer types and are
+	 * discarded.
+	 */
+	@SuppressWarnings("unchecked")
+	private AbstractBufferBuilder<R,T,BlockingQueue<PushEvent< ? extends T>>> withAnyBuffer() {
+		if (queuePolicyForBuffer) {
+			bufferingPolicy = null;
+			queuePolicyForBuffer = false;
+		}
+		if (pushbackPolicyForBuffer) {
+			backPressure = null;
+			pushbackPolicyForBuffer = false;
+		}
+		return (AbstractBufferBuilder<R,T,BlockingQueue<PushEvent< ? extends T>>>) (AbstractBufferBuilder<R,T, ? >) this;
+	}
+
 	@Override
 	public BufferBuilder<R,T,U> withQueuePolicy(
 			QueuePolicy<T,U> queuePolicy) {
 		this.bufferingPolicy = queuePolicy;
+		this.queuePolicyForBuffer = true;
 		return this;
 	}
 
@@ -49,6 +85,7 @@ abstract class AbstractBufferBuilder<R, T, U extends BlockingQueue<PushEvent< ?
 	public BufferBuilder<R,T,U> withQueuePolicy(
 			QueuePolicyOption queuePolicyOption) {
 		this.bufferingPolicy = queuePolicyOption.getPolicy();
+		this.queuePolicyForBuffer = false;
 		return this;
 	}
 
@@ -56,6 +93,7 @@ abstract class AbstractBufferBuilder<R, T, U extends BlockingQueue<PushEvent< ?
 	public BufferBuilder<R,T,U> withPushbackPolicy(
 			PushbackPolicy<T,U> pushbackPolicy) {
 		this.backPressure = pushbackPolicy;
+		this.pushbackPolicyForBuffer = true;
 		return this;
 	}
 
@@ -63,6 +101,7 @@ abstract class AbstractBufferBuilder<R, T, U extends BlockingQueue<PushEvent< ?
 	public BufferBuilder<R,T,U> withPushbackPolicy(
 			PushbackPolicyOption pushbackPolicyOption, long time) {
 		this.backPressure = pushbackPolicyOption.getPolicy(time);
+		this.pushbackPolicyForBuffer = false;
 		return this;
 	}
 
@@ -132,6 +132,92 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		}
 		return ABORT;
 	}
+
+	/**
+	 * Handle a batch of data events in a single call. Operations which do not
+	 * process batches receive the data as individual events.
+	 * 
+	 * @param batch The data of the events, in delivery order
+	 * @return The back pressure for the whole batch
+	 */
+	protected long handleBatch(List< ? extends T> batch) {
+		if(closed.get() != CLOSED) {
+			try {
+				PushEventConsumer<T> consumer = next.get();
+				long val;
+				if(consumer == null) {
+					//TODO log a warning
+					val = CONTINUE;
+				} else if (batch.isEmpty()) {
+					val = CONTINUE;
+				} else {
+					// updateNext only installs batch consumers
+					val = ((BatchConsumer<T>) consumer).acceptAll(batch);
+				}
+				if(val < 0) {
+					close();
+				}
+				return val;
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
+		}
+		return ABORT;
+	}
+
+	/**
+	 * Returns the most data events to deliver to the next consumer in a single
+	 * batch.
+	 * 
+	 * @return The batch limit of the next consumer
+	 */
+	int batchLimit() {
+		PushEventConsumer<T> consumer = next.get();
+		// updateNext only installs batch consumers
+		return (consumer == null) ? BatchConsumer.MAX_BATCH
+				: ((BatchConsumer<T>) consumer).batchLimit();
+	}
+
+	/**
+	 * Close this stream when the next consumer aborts, or fails, while the
+	 * rest of a batch is delivered to it after a back pressure delay.
+	 * 
+	 * @param event The terminal event
+	 */
+	private void abortDelivery(PushEvent<T> event) {
+		if (event.getType() == EventType.ERROR) {
+			close(event);
+		} else {
+			close();
+		}
+	}
+
+	/**
+	 * Returns the consumer through which the upstream delivers events, and
+	 * batches of data events, to this stream.
+	 * 
+	 * @return A consumer delegating to {@link #handleEvent(PushEvent)} and
+	 *         {@link #handleBatch(List)}
+	 */
+	protected BatchConsumer<T> upstreamConsumer() {
+		return new BatchConsumer<T>() {
+			@Override
+			public long accept(PushEvent< ? extends T> event) {
+				return handleEvent(event);
+			}
+
+			@Override
+			public long acceptAll(List< ? extends T> batch) {
+				return handleBatch(batch);
+			}
+
+			@Override
+			public int batchLimit() {
+				return AbstractPushStreamImpl.this.batchLimit();
+			}
+		};
+	}
 	
 	@Override
 	public void close() {
@@ -210,9 +296,15 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 	}
 
 	private void updateNext(PushEventConsumer<T> consumer) {
-		if(!next.compareAndSet(null, consumer)) {
+		// a consumer which does not accept batches is paced by its back
+		// pressure when it receives a batch
+		PushEventConsumer<T> batchConsumer = (consumer instanceof BatchConsumer)
+				? consumer
+				: new PacedConsumer<>(consumer, promiseFactory,
+						this::abortDelivery);
+		if(!next.compareAndSet(null, batchConsumer)) {
 			throw new IllegalStateException("This stream has already been chained");
-		} else if(closed.get() == CLOSED && next.compareAndSet(consumer, null)) {
+		} else if(closed.get() == CLOSED && next.compareAndSet(batchConsumer, null)) {
 			try {
 				consumer.accept(PushEvent.close());
 			} catch (Exception e) {
@@ -222,6 +314,66 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		}
 	}
 
+	/**
+	 * A batch handler for an operation which processes a batch of data events
+	 * in one pass.
+	 */
+	@FunctionalInterface
+	private interface BatchHandler<T> {
+		long acceptAll(List< ? extends T> batch) throws Exception;
+	}
+
+	/**
+	 * Install an operation which collects the batches it receives.
+	 */
+	private void updateNext(PushEventConsumer<T> consumer,
+			BatchHandler<T> batchHandler) {
+		updateNext(consumer, batchHandler, null);
+	}
+
+	/**
+	 * Install an operation which passes the batches it processes on to the
+	 * downstream stream, so that it reports the batch limit of the downstream.
+	 */
+	private void updateNext(PushEventConsumer<T> consumer,
+			BatchHandler<T> batchHandler,
+			AbstractPushStreamImpl< ? > downstream) {
+		updateNext(new BatchConsumer<T>() {
+			@Override
+			public long accept(PushEvent< ? extends T> event)
+					throws Exception {
+				return consumer.accept(event);
+			}
+
+			@Override
+			public long acceptAll(List< ? extends T> batch) throws Exception {
+				return batchHandler.acceptAll(batch);
+			}
+
+			@Override
+			public int batchLimit() {
+				return (downstream == null) ? MAX_BATCH
+						: downstream.batchLimit();
+			}
+		});
+	}
+
+	/**
+	 * Returns a new stage which passes the events of this stream on
+	 * unchanged. Unlike a {@link #map(Function)} with the identity function,
+	 * a batch is passed on as it is, so a buffer upstream still takes the
+	 * data out of its queue only as the operations downstream reach it.
+	 * 
+	 * @return The new stage
+	 */
+	PushStream<T> passThrough() {
+		AbstractPushStreamImpl<T> eventStream = new IntermediatePushStreamImpl<>(
+				psp, promiseFactory, this);
+		updateNext(eventStream::handleEvent, eventStream::handleBatch,
+				eventStream);
+		return eventStream;
+	}
+
 	@Override
 	public PushStream<T> filter(Predicate< ? super T> predicate) {
 		AbstractPushStreamImpl<T> eventStream = new IntermediatePushStreamImpl<>(
@@ -240,7 +392,20 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
-		});
+		}, batch -> {
+			try {
+				List<T> accepted = new ArrayList<>(batch.size());
+				for (T t : batch) {
+					if (predicate.test(t)) {
+						accepted.add(t);
+					}
+				}
+				return eventStream.handleBatch(accepted);
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
+		}, eventStream);
 		return eventStream;
 	}
 
@@ -261,7 +426,18 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
-		});
+		}, batch -> {
+			try {
+				List<R> mapped = new ArrayList<>(batch.size());
+				for (T t : batch) {
+					mapped.add(mapper.apply(t));
+				}
+				return eventStream.handleBatch(mapped);
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
+		}, eventStream);
 		return eventStream;
 	}
 
@@ -360,7 +536,25 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
-		});
+		}, batch -> {
+			try {
+				long backPressure = CONTINUE;
+				for (T t : batch) {
+					long value = mapper.apply(t)
+							.forEachEvent(consumer)
+							.getValue()
+							.longValue();
+					if (value < 0) {
+						return value;
+					}
+					backPressure = Math.max(backPressure, value);
+				}
+				return backPressure;
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
+		}, eventStream);
 		return eventStream;
 	}
 
@@ -824,7 +1018,18 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
-		});
+		}, batch -> {
+			try {
+				List<R> coalesced = new ArrayList<>();
+				for (T t : batch) {
+					accumulator.apply(t).ifPresent(coalesced::add);
+				}
+				return eventStream.handleBatch(coalesced);
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
+		}, eventStream);
 		return eventStream;
 	}
 
@@ -857,7 +1062,7 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 
 		AtomicBoolean endPending = new AtomicBoolean();
 		Object lock = new Object();
-		updateNext((event) -> {
+		PushEventConsumer<T> consumer = (event) -> {
 			try {
 				Queue<T> queue;
 				if (!event.isTerminal()) {
@@ -903,10 +1108,50 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
+		};
+		updateNext(consumer, batch -> {
+			try {
+				return fillAndForward(batch, lock, queueRef, consumer);
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
 		});
 		return eventStream;
 	}
 
+	/**
+	 * Offer as much of a batch as fits to the current queue of a coalesce or
+	 * window operation while holding its lock once. The element which does
+	 * not fit is passed as a single event to the consumer of the operation,
+	 * which forwards the full queue and starts a new one.
+	 */
+	private static <T> long fillAndForward(List< ? extends T> batch,
+			Object lock, AtomicReference<Queue<T>> queueRef,
+			PushEventConsumer<T> consumer) throws Exception {
+		long backPressure = CONTINUE;
+		int size = batch.size();
+		int i = 0;
+		while (i < size) {
+			synchronized (lock) {
+				Queue<T> queue = queueRef.get();
+				if (queue != null) {
+					while ((i < size) && queue.offer(batch.get(i))) {
+						i++;
+					}
+				}
+			}
+			if (i < size) {
+				long value = consumer.accept(PushEvent.data(batch.get(i++)));
+				if (value < 0) {
+					return value;
+				}
+				backPressure = Math.max(backPressure, value);
+			}
+		}
+		return backPressure;
+	}
+
 	private <R> long aggregateAndForward(Function<Collection<T>,R> f,
 			AbstractPushStreamImpl<R> eventStream,
 			PushEvent< ? extends T> event, Queue<T> queue) throws Exception {
@@ -986,7 +1231,7 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		};
 
 		AtomicBoolean endPending = new AtomicBoolean(false);
-		updateNext((event) -> {
+		PushEventConsumer<T> consumer = (event) -> {
 			try {
 				if (eventStream.closed.get() == CLOSED) {
 					return ABORT;
@@ -1074,6 +1319,17 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
+		};
+		updateNext(consumer, batch -> {
+			if (eventStream.closed.get() == CLOSED) {
+				return ABORT;
+			}
+			try {
+				return fillAndForward(batch, lock, queueRef, consumer);
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
 		});
 		return eventStream;
 	}
@@ -1352,6 +1608,16 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 					return ABORT;
 				}
+			}, batch -> {
+				try {
+					for (T t : batch) {
+						action.accept(t);
+					}
+					return CONTINUE;
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
+				}
 			});
 		begin();
 		return d.getPromise();
@@ -1395,6 +1661,16 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
+		}, batch -> {
+			try {
+				for (T t : batch) {
+					iden.accumulateAndGet(t, accumulator);
+				}
+				return CONTINUE;
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
 		});
 		begin();
 		return d.getPromise();
@@ -1425,6 +1701,17 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
+		}, batch -> {
+			try {
+				for (T t : batch) {
+					if (!iden.compareAndSet(null, t))
+						iden.accumulateAndGet(t, accumulator);
+				}
+				return CONTINUE;
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
 		});
 		begin();
 		return d.getPromise();
@@ -1454,6 +1741,16 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 				return ABORT;
 			}
+		}, batch -> {
+			try {
+				for (T t : batch) {
+					iden.updateAndGet((e) -> accumulator.apply(e, t));
+				}
+				return CONTINUE;
+			} catch (Exception e) {
+				close(PushEvent.error(e));
+				return ABORT;
+			}
 		});
 		begin();
 		return d.getPromise();
@@ -1465,6 +1762,7 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 		BiConsumer<A, ? super T> accumulator = collector.accumulator();
 		Deferred<R> d = promiseFactory.deferred();
 		PushEventConsumer<T> consumer;
+		BatchHandler<T> batchHandler;
 
 		if (collector.characteristics().contains(CONCURRENT)) {
 			consumer = event -> {
@@ -1502,6 +1800,17 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 					return ABORT;
 				}
 			};
+			batchHandler = batch -> {
+				try {
+					for (T t : batch) {
+						accumulator.accept(result, t);
+					}
+					return CONTINUE;
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
+				}
+			};
 		} else {
 			consumer = event -> {
 				try {
@@ -1540,9 +1849,22 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 					return ABORT;
 				}
 			};
+			batchHandler = batch -> {
+				try {
+					synchronized (result) {
+						for (T t : batch) {
+							accumulator.accept(result, t);
+						}
+					}
+					return CONTINUE;
+				} catch (Exception e) {
+					close(PushEvent.error(e));
+					return ABORT;
+				}
+			};
 		}
 
-		updateNext(consumer);
+		updateNext(consumer, batchHandler);
 		begin();
 		return d.getPromise();
 	}
@@ -1580,6 +1902,9 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 					return ABORT;
 				}
+			}, batch -> {
+				counter.add(batch.size());
+				return CONTINUE;
 			});
 		begin();
 		return d.getPromise();
@@ -1627,6 +1952,10 @@ abstract class AbstractPushStreamImpl<T> implements PushStream<T> {
 				close(PushEvent.error(e));
 					return ABORT;
 				}
+			}, batch -> {
+				if (!d.getPromise().isDone())
+					d.resolve(Optional.of(batch.get(0)));
+				return ABORT;
 			});
 		begin();
 		return d.getPromise();
@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.util.pushstream;
+
+import java.util.List;
+
+/**
+ * A {@link PushEventConsumer} which can also accept a batch of data events in
+ * a single call.
+ * <p>
+ * The stages of a {@link PushStream} pipeline implement this interface so that
+ * buffers and sources can hand over the data they have available at once, and
+ * so that intermediate operations can process a batch in one pass. A single
+ * back pressure value is returned for the whole batch. Consumers which do not
+ * implement this interface are connected through a {@link PacedConsumer},
+ * which delivers a batch as individual events until the consumer requests
+ * back pressure and delivers the rest of the batch after the delay. Buffers
+ * drain one event at a time for such consumers, so that the buffer fills up
+ * and pushes back while the consumer requests back pressure.
+ *
+ * @param <T> The type for the event payload
+ */
+interface BatchConsumer<T> extends PushEventConsumer<T> {
+
+	/**
+	 * The maximum number of data events a buffer or source collects into a
+	 * single batch.
+	 */
+	int MAX_BATCH = 128;
+
+	/**
+	 * Returns the maximum number of data events a buffer drains into a single
+	 * batch for this consumer. A consumer passing batches on reports the
+	 * limit of the consumer it passes them to.
+	 *
+	 * @return The batch limit, by default {@link #MAX_BATCH}
+	 */
+	default int batchLimit() {
+		return MAX_BATCH;
+	}
+
+	/**
+	 * Accept a batch of data events. The batch is only valid for the duration
+	 * of the call and must not be retained or modified. A buffer takes the
+	 * data of a batch out of its queue as the batch is read, so a consumer
+	 * should iterate the batch once rather than copy it when it processes
+	 * each event in turn.
+	 *
+	 * @param batch The data of the events, in delivery order
+	 * @return less than 0 means abort, 0 means continue, more than 0 means
+	 *         delay ms before the next batch
+	 * @throws Exception to indicate that an error has occurred and that no
+	 *             further events should be delivered to this consumer
+	 */
+	long acceptAll(List< ? extends T> batch) throws Exception;
+}
@@ -42,6 +42,31 @@ public interface BufferBuilder<R, T, U extends BlockingQueue<PushEvent<? extends
 	 */
 	BufferBuilder<R, T, U> withBuffer(U queue);
 
+	/**
+	 * Use a bounded lock free queue as a buffer.
+	 * <p>
+	 * Offering an event to the buffer and polling an event from the buffer
+	 * never take a lock, which suits sources publishing events from many
+	 * threads at high rates. Blocking operations on the buffer, as used by
+	 * {@link QueuePolicyOption#BLOCK}, wait until they are signalled by the
+	 * other side of the buffer.
+	 * <p>
+	 * The returned builder is typed for a {@code BlockingQueue} buffer since
+	 * the lock free queue is not of the type {@code U}. A queue policy or
+	 * pushback policy previously set with a {@link QueuePolicy} or
+	 * {@link PushbackPolicy} for the type {@code U} is discarded, while a
+	 * policy set with a {@link QueuePolicyOption} or
+	 * {@link PushbackPolicyOption} is retained.
+	 * 
+	 * @param capacity The minimum capacity of the buffer, which is rounded up
+	 *            to a power of two of at least two. Must be positive.
+	 * @return this builder
+	 * @throws IllegalArgumentException If the capacity is not positive.
+	 * @since 1.2
+	 */
+	BufferBuilder<R,T,BlockingQueue<PushEvent< ? extends T>>> withLockFreeBuffer(
+			int capacity);
+
 	/**
 	 * Set the {@link QueuePolicy} of this Builder
 	 * 
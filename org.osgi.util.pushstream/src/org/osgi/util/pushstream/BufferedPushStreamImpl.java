@@ -22,6 +22,11 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.osgi.util.pushstream.AbstractPushStreamImpl.State.CLOSED;
 import static org.osgi.util.pushstream.PushEventConsumer.ABORT;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -88,25 +93,70 @@ class BufferedPushStreamImpl<T, U extends BlockingQueue<PushEvent< ? extends T>>
 		}
 	}
 
+	@Override
+	protected long handleBatch(List< ? extends T> batch) {
+
+		// If we have already been soft closed, or hard closed then abort
+		if (softClose.get() || closed.get() == CLOSED) {
+			return ABORT;
+		}
+
+		try {
+			for (T t : batch) {
+				queuePolicy.doOffer(eventQueue, PushEvent.data(t));
+				// a blocking queue policy needs a worker draining the buffer
+				if(semaphore.tryAcquire()) {
+					startWorker();
+				}
+			}
+			long backPressure = pushbackPolicy.pushback(eventQueue);
+			if(backPressure < 0) {
+				close();
+				return ABORT;
+			}
+			return backPressure;
+		} catch (Exception e) {
+			close(PushEvent.error(e));
+			return ABORT;
+		}
+	}
+
+	/**
+	 * The worker drains the buffered data events in batches of up to
+	 * {@link #batchLimit()} events and applies the back pressure once per
+	 * batch. A terminal event is delivered directly after the data
+	 * events preceding it.
+	 */
 	private void startWorker() {
 		promiseFactory.executor().execute(() -> {
 			try {
-				PushEvent< ? extends T> event;
-				while ((event = eventQueue.poll()) != null) {
-					if (event.isTerminal()) {
-						// Wait for the other threads to finish
-						semaphore.acquire(parallelism - 1);
+				int limit = batchLimit();
+				for (;;) {
+					DrainingBatch<T> batch = new DrainingBatch<>(eventQueue,
+							limit);
+					if (!batch.isEmpty()) {
+						long backpressure = super.handleBatch(batch);
+						if(backpressure < 0) {
+							close();
+							return;
+						} else if (backpressure > 0
+								&& batch.terminal() == null) {
+							promiseFactory.scheduledExecutor().schedule(
+									this::startWorker, backpressure,
+									MILLISECONDS);
+							return;
+						}
 					}
 
-					long backpressure = super.handleEvent(event);
-					if(backpressure < 0) {
+					PushEvent< ? extends T> event = batch.terminal();
+					if (event != null) {
+						// Wait for the other threads to finish
+						semaphore.acquire(parallelism - 1);
+						super.handleEvent(event);
 						close();
 						return;
-					} else if(backpressure > 0) {
-						promiseFactory.scheduledExecutor().schedule(
-								this::startWorker, backpressure,
-								MILLISECONDS);
-						return;
+					} else if (batch.isEmpty()) {
+						break;
 					}
 				}
 				// Only release this now the queue is empty
@@ -124,4 +174,112 @@ class BufferedPushStreamImpl<T, U extends BlockingQueue<PushEvent< ? extends T>>
 		});
 		
 	}
+
+	/**
+	 * A batch of the data events at the head of the buffer. An event is only
+	 * taken out of the buffer when the batch is read up to it, so that the
+	 * events a consumer has not reached yet still count against the capacity
+	 * of the buffer and are seen by the pushback policy. Operations which
+	 * process a batch in one pass, such as map and filter, read its size and
+	 * so take all of its events out of the buffer at once.
+	 * <p>
+	 * The batch ends at the batch limit, when the buffer is empty, or at a
+	 * terminal event, which is taken out of the buffer and kept for the
+	 * worker to deliver.
+	 */
+	private static final class DrainingBatch<T> extends AbstractList<T> {
+		private final BlockingQueue<PushEvent< ? extends T>>	queue;
+		private final int										limit;
+		private final List<T>									taken	= new ArrayList<>();
+		private PushEvent< ? extends T>							terminal;
+		private boolean											ended;
+
+		DrainingBatch(BlockingQueue<PushEvent< ? extends T>> queue,
+				int limit) {
+			this.queue = queue;
+			this.limit = limit;
+		}
+
+		/**
+		 * Returns the terminal event which ended the batch.
+		 * 
+		 * @return The terminal event, or {@code null} if the batch has not
+		 *         been read up to a terminal event
+		 */
+		PushEvent< ? extends T> terminal() {
+			return terminal;
+		}
+
+		/*
+		 * Take the next data event out of the buffer, returns false when the
+		 * batch has ended.
+		 */
+		private boolean takeNext() {
+			if (ended) {
+				return false;
+			}
+			PushEvent< ? extends T> event = queue.poll();
+			if (event == null) {
+				ended = true;
+				return false;
+			} else if (event.isTerminal()) {
+				terminal = event;
+				ended = true;
+				return false;
+			}
+			taken.add(event.getData());
+			ended = taken.size() >= limit;
+			return true;
+		}
+
+		private boolean has(int index) {
+			while (index >= taken.size()) {
+				if (!takeNext()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public T get(int index) {
+			if (index < 0 || !has(index)) {
+				throw new IndexOutOfBoundsException("Index: " + index);
+			}
+			return taken.get(index);
+		}
+
+		@Override
+		public int size() {
+			while (takeNext()) {
+				// take the rest of the batch
+			}
+			return taken.size();
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return !has(0);
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private int index;
+
+				@Override
+				public boolean hasNext() {
+					return has(index);
+				}
+
+				@Override
+				public T next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return taken.get(index++);
+				}
+			};
+		}
+	}
 }
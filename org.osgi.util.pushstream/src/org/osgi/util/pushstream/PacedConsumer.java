@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.util.pushstream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.osgi.util.pushstream.PushEventConsumer.ABORT;
+import static org.osgi.util.pushstream.PushEventConsumer.CONTINUE;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import org.osgi.util.promise.PromiseFactory;
+
+/**
+ * Delivers batches of data events to a {@link PushEventConsumer} which does
+ * not accept batches.
+ * <p>
+ * The events of a batch are delivered one at a time until the consumer
+ * requests back pressure. The rest of the batch is kept and delivered once
+ * the requested delay has passed. Events arriving while events are kept are
+ * queued behind them, so the consumer receives the events in order and a
+ * terminal event after all data events.
+ * <p>
+ * While events are kept the back pressure returned covers the delivery of
+ * all kept events, assuming that each of them requests the same back pressure
+ * as the event which paused the delivery. This stops the producer from
+ * refilling the kept events faster than the consumer drains them, so that
+ * bounded buffers upstream still fill up and push back.
+ * <p>
+ * If the consumer aborts, or throws an exception, during a delayed delivery,
+ * the kept events are discarded and the owner is told through its abort
+ * handler, which is expected to close the consumer with the given terminal
+ * event.
+ *
+ * @param <T> The type for the event payload
+ * @ThreadSafe
+ */
+final class PacedConsumer<T> implements BatchConsumer<T> {
+	private final PushEventConsumer< ? super T>	delegate;
+	private final PromiseFactory				promiseFactory;
+	private final Consumer<PushEvent<T>>		onAbort;
+
+	/**
+	 * Set while events are kept for a delayed delivery, or once no more data
+	 * events are delivered. Read without the lock so that delivery does not
+	 * lock while the consumer keeps up.
+	 */
+	private volatile boolean					paced;
+	// @GuardedBy("this")
+	private Deque<PushEvent< ? extends T>>		pending;
+	// @GuardedBy("this")
+	private long								resumeAt;
+	// @GuardedBy("this")
+	private long								backPressure;
+	// @GuardedBy("this")
+	private boolean								closed;
+
+	/**
+	 * Create a paced consumer.
+	 *
+	 * @param delegate The consumer which does not accept batches
+	 * @param promiseFactory The executors for delayed deliveries
+	 * @param onAbort Called with a terminal event when the consumer aborts or
+	 *            fails during a delayed delivery
+	 */
+	PacedConsumer(PushEventConsumer< ? super T> delegate,
+			PromiseFactory promiseFactory, Consumer<PushEvent<T>> onAbort) {
+		this.delegate = delegate;
+		this.promiseFactory = promiseFactory;
+		this.onAbort = onAbort;
+	}
+
+	/**
+	 * Returns the consumer to which this paced consumer delivers.
+	 *
+	 * @return The consumer which does not accept batches
+	 */
+	PushEventConsumer< ? super T> delegate() {
+		return delegate;
+	}
+
+	/**
+	 * Buffers drain one event at a time for a consumer which does not accept
+	 * batches.
+	 */
+	@Override
+	public int batchLimit() {
+		return 1;
+	}
+
+	@Override
+	public long accept(PushEvent< ? extends T> event) throws Exception {
+		if (paced) {
+			synchronized (this) {
+				if (closed) {
+					if (!event.isTerminal()) {
+						return ABORT;
+					}
+				} else if (pending != null) {
+					pending.add(event);
+					return delay();
+				}
+			}
+		}
+		return delegate.accept(event);
+	}
+
+	@Override
+	public long acceptAll(List< ? extends T> batch) throws Exception {
+		if (paced) {
+			synchronized (this) {
+				if (closed) {
+					return ABORT;
+				} else if (pending != null) {
+					for (T t : batch) {
+						pending.add(PushEvent.data(t));
+					}
+					return delay();
+				}
+			}
+		}
+		Iterator< ? extends T> it = batch.iterator();
+		while (it.hasNext()) {
+			long backPressure = delegate.accept(PushEvent.data(it.next()));
+			if (backPressure != CONTINUE) {
+				if (backPressure > 0 && it.hasNext()) {
+					return keep(it, backPressure);
+				}
+				return backPressure;
+			}
+		}
+		return CONTINUE;
+	}
+
+	/*
+	 * Keep the rest of a batch for delivery after the back pressure delay.
+	 */
+	private long keep(Iterator< ? extends T> rest, long backPressure) {
+		boolean schedule;
+		long delay;
+		synchronized (this) {
+			schedule = (pending == null);
+			if (schedule) {
+				pending = new ArrayDeque<>();
+				resumeAt = System.nanoTime()
+						+ MILLISECONDS.toNanos(backPressure);
+				this.backPressure = backPressure;
+			}
+			while (rest.hasNext()) {
+				pending.add(PushEvent.data(rest.next()));
+			}
+			paced = true;
+			delay = delay();
+		}
+		if (schedule) {
+			schedule(backPressure);
+		}
+		return delay;
+	}
+
+	/*
+	 * The time until the kept events are expected to be delivered, and the
+	 * last of them to have requested its back pressure.
+	 */
+	// @GuardedBy("this")
+	private long delay() {
+		long wait = Math.max(CONTINUE, MILLISECONDS
+				.convert(resumeAt - System.nanoTime(), NANOSECONDS));
+		int kept = pending.size();
+		if (backPressure > (Long.MAX_VALUE - wait) / kept) {
+			return Long.MAX_VALUE;
+		}
+		return wait + backPressure * kept;
+	}
+
+	private void schedule(long backPressure) {
+		try {
+			promiseFactory.scheduledExecutor().schedule(() -> {
+				try {
+					promiseFactory.executor().execute(this::flush);
+				} catch (RejectedExecutionException e) {
+					abort(PushEvent.error(e));
+				}
+			}, backPressure, MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			abort(PushEvent.error(e));
+		}
+	}
+
+	/*
+	 * Deliver the kept events until the consumer requests back pressure
+	 * again. Only one flush runs at a time since a flush is only scheduled
+	 * when the kept events are created or by the previous flush.
+	 */
+	private void flush() {
+		for (;;) {
+			PushEvent< ? extends T> event;
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				event = pending.poll();
+				if (event == null) {
+					pending = null;
+					paced = false;
+					return;
+				}
+			}
+			long backPressure;
+			try {
+				backPressure = delegate.accept(event);
+			} catch (Exception e) {
+				abort(PushEvent.error(e));
+				return;
+			}
+			if (event.isTerminal()) {
+				synchronized (this) {
+					closed = true;
+					pending = null;
+				}
+				return;
+			} else if (backPressure < 0) {
+				abort(PushEvent.close());
+				return;
+			} else if (backPressure > 0) {
+				synchronized (this) {
+					resumeAt = System.nanoTime()
+							+ MILLISECONDS.toNanos(backPressure);
+					this.backPressure = backPressure;
+				}
+				// events arriving meanwhile are still kept in order
+				schedule(backPressure);
+				return;
+			}
+		}
+	}
+
+	private void abort(PushEvent<T> event) {
+		synchronized (this) {
+			closed = true;
+			pending = null;
+		}
+		onAbort.accept(event);
+	}
+}
@@ -44,6 +44,7 @@ public interface PushStreamBuilder<T, U extends BlockingQueue<PushEvent< ? exten
 	 * calling one of:
 	 * <ul>
 	 * <li>{@link #withBuffer(BlockingQueue)}</li>
+	 * <li>{@link #withLockFreeBuffer(int)}</li>
 	 * <li>{@link #withQueuePolicy(QueuePolicy)}</li>
 	 * <li>{@link #withQueuePolicy(QueuePolicyOption)}</li>
 	 * <li>{@link #withPushbackPolicy(PushbackPolicy)}</li>
@@ -63,6 +64,15 @@ public interface PushStreamBuilder<T, U extends BlockingQueue<PushEvent< ? exten
 	@Override
 	PushStreamBuilder<T,U> withBuffer(U queue);
 
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * @since 1.2
+	 */
+	@Override
+	PushStreamBuilder<T,BlockingQueue<PushEvent< ? extends T>>> withLockFreeBuffer(
+			int capacity);
+
 	@Override
 	PushStreamBuilder<T,U> withQueuePolicy(QueuePolicy<T,U> queuePolicy);
 
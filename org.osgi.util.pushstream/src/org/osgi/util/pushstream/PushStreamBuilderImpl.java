@@ -48,6 +48,14 @@ class PushStreamBuilderImpl<T, U extends BlockingQueue<PushEvent< ? extends T>>>
 		return (PushStreamBuilder<T,U>) super.withBuffer(queue);
 	}
 
+	@Override
+	public PushStreamBuilder<T,BlockingQueue<PushEvent< ? extends T>>> withLockFreeBuffer(
+			int capacity) {
+		unbuffered = false;
+		return (PushStreamBuilder<T,BlockingQueue<PushEvent< ? extends T>>>) super.withLockFreeBuffer(
+				capacity);
+	}
+
 	@Override
 	public PushStreamBuilder<T,U> withQueuePolicy(
 			QueuePolicy<T,U> queuePolicy) {
@@ -25,7 +25,9 @@ import static org.osgi.util.pushstream.PushEvent.error;
 import static org.osgi.util.pushstream.PushbackPolicyOption.LINEAR;
 import static org.osgi.util.pushstream.QueuePolicyOption.FAIL;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
@@ -213,14 +215,14 @@ public final class PushStreamProvider {
 			Executor workerToUse, boolean releaseSchedulerOnClose,
 			PushStream<T> stream) {
 		if (closeExecutorOnClose || releaseSchedulerOnClose) {
-			stream = stream.onClose(() -> {
+			stream = ((AbstractPushStreamImpl<T>) stream.onClose(() -> {
 				if (closeExecutorOnClose) {
 					((ExecutorService) workerToUse).shutdown();
 				}
 				if (releaseSchedulerOnClose) {
 					releaseScheduler();
 				}
-			}).map(x -> x);
+			})).passThrough();
 		}
 		return stream;
 	}
@@ -315,6 +317,15 @@ public final class PushStreamProvider {
 				return this;
 			}
 
+			@SuppressWarnings("unchecked")
+			@Override
+			public BufferBuilder<PushEventSource<T>,T,BlockingQueue<PushEvent< ? extends T>>> withLockFreeBuffer(
+					int capacity) {
+				// the stream builder discards the policies supplied for U
+				builder.withLockFreeBuffer(capacity);
+				return (BufferBuilder<PushEventSource<T>,T,BlockingQueue<PushEvent< ? extends T>>>) (BufferBuilder<PushEventSource<T>,T, ? >) this;
+			}
+
 			@Override
 			public BufferBuilder<PushEventSource<T>,T,U> withQueuePolicy(
 					QueuePolicy<T,U> queuePolicy) {
@@ -743,10 +754,16 @@ public final class PushStreamProvider {
 			}
 
 			private void pushData(Iterator<T> it) {
+				List<T> batch = new ArrayList<>();
 				while (it.hasNext()) {
 					try {
+						batch.clear();
+						do {
+							batch.add(it.next());
+						} while (batch.size() < BatchConsumer.MAX_BATCH
+								&& it.hasNext());
 						long returnValue = closed.get() == CLOSED ? -1
-								: handleEvent(data(it.next()));
+								: handleBatch(batch);
 						if (returnValue != 0) {
 							if (returnValue < 0) {
 								close();
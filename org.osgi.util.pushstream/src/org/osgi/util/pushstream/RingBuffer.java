@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * Copyright (c) Contributors to the Eclipse Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ *******************************************************************************/
+
+package org.osgi.util.pushstream;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded lock free {@link BlockingQueue} backed by a ring buffer.
+ * <p>
+ * Each slot of the ring carries a sequence number which tells producers and
+ * consumers whether the slot is free for the lap of the ring they are on.
+ * {@link #offer(Object)} and {@link #poll()} claim a position with a single
+ * compare-and-set and never block or allocate. Producers are normally many
+ * threads publishing events while the consumer is the single delivery thread
+ * of the buffer, but the queue remains correct with several concurrent
+ * consumers, as used by buffers with a parallelism greater than one.
+ * <p>
+ * The blocking operations wait on a condition until space or an element is
+ * available. A successful offer or poll only takes the lock to signal the
+ * condition when a thread is waiting on it.
+ * <p>
+ * The iterator is weakly consistent and does not support removal.
+ *
+ * @param <E> The type of the elements
+ * @ThreadSafe
+ */
+final class RingBuffer<E> extends AbstractQueue<E>
+		implements BlockingQueue<E> {
+	private final int							mask;
+	private final AtomicReferenceArray<E>		elements;
+	private final AtomicLongArray				sequences;
+	/**
+	 * The next position to be written.
+	 */
+	private final AtomicLong					tail		= new AtomicLong();
+	/**
+	 * The next position to be read.
+	 */
+	private final AtomicLong					head		= new AtomicLong();
+
+	private final ReentrantLock					lock		= new ReentrantLock();
+	private final Condition						notEmpty	= lock.newCondition();
+	private final Condition						notFull		= lock.newCondition();
+	/*
+	 * The number of threads waiting on each condition. Only changed while
+	 * holding the lock. A waiter counts itself before checking the buffer
+	 * again, so a producer or consumer that changes the buffer afterwards
+	 * sees the count and signals.
+	 */
+	private volatile int						takers;
+	private volatile int						putters;
+
+	/**
+	 * Create a ring buffer.
+	 *
+	 * @param capacity The minimum capacity, which is rounded up to a power of
+	 *            two of at least two.
+	 * @throws IllegalArgumentException If the capacity is not positive.
+	 */
+	RingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(
+					"The capacity must be positive. It was " + capacity);
+		}
+		// a single slot cannot tell a published element from a free slot
+		int size = Math.max(2, Integer.highestOneBit(capacity));
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.elements = new AtomicReferenceArray<>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	@Override
+	public boolean offer(E e) {
+		requireNonNull(e);
+		for (;;) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long available = sequences.get(index) - position;
+			if (available == 0L) {
+				if (tail.compareAndSet(position, position + 1L)) {
+					elements.lazySet(index, e);
+					// publish the element to consumers
+					sequences.set(index, position + 1L);
+					if (takers > 0) {
+						signal(notEmpty);
+					}
+					return true;
+				}
+			} else if (available < 0L) {
+				return false; // full
+			}
+			// else another producer claimed the position
+		}
+	}
+
+	@Override
+	public E poll() {
+		for (;;) {
+			long position = head.get();
+			int index = (int) position & mask;
+			long available = sequences.get(index) - (position + 1L);
+			if (available == 0L) {
+				if (head.compareAndSet(position, position + 1L)) {
+					E e = elements.get(index);
+					elements.lazySet(index, null);
+					// free the slot for the next lap of producers
+					sequences.set(index, position + mask + 1L);
+					if (putters > 0) {
+						signal(notFull);
+					}
+					return e;
+				}
+			} else if (available < 0L) {
+				return null; // empty
+			}
+			// else another consumer claimed the position
+		}
+	}
+
+	@Override
+	public E peek() {
+		for (;;) {
+			long position = head.get();
+			int index = (int) position & mask;
+			if (sequences.get(index) != position + 1L) {
+				if (position == head.get()) {
+					return null; // empty
+				}
+				continue;
+			}
+			E e = elements.get(index);
+			if ((e != null) && (position == head.get())) {
+				return e;
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		for (;;) {
+			long h = head.get();
+			long t = tail.get();
+			if (h == head.get()) {
+				return (int) Math.max(0L, Math.min(t - h, mask + 1L));
+			}
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return peek() == null;
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return mask + 1 - size();
+	}
+
+	@Override
+	public void put(E e) throws InterruptedException {
+		if (offer(e)) {
+			return;
+		}
+		lock.lockInterruptibly();
+		try {
+			putters++;
+			try {
+				while (!offer(e)) {
+					notFull.await();
+				}
+			} finally {
+				putters--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean offer(E e, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		if (offer(e)) {
+			return true;
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			putters++;
+			try {
+				while (!offer(e)) {
+					if (nanos <= 0L) {
+						return false;
+					}
+					nanos = notFull.awaitNanos(nanos);
+				}
+				return true;
+			} finally {
+				putters--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		E e = poll();
+		if (e != null) {
+			return e;
+		}
+		lock.lockInterruptibly();
+		try {
+			takers++;
+			try {
+				while ((e = poll()) == null) {
+					notEmpty.await();
+				}
+				return e;
+			} finally {
+				takers--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		E e = poll();
+		if (e != null) {
+			return e;
+		}
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			takers++;
+			try {
+				while ((e = poll()) == null) {
+					if (nanos <= 0L) {
+						return null;
+					}
+					nanos = notEmpty.awaitNanos(nanos);
+				}
+				return e;
+			} finally {
+				takers--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void signal(Condition condition) {
+		lock.lock();
+		try {
+			condition.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection< ? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection< ? super E> c, int maxElements) {
+		requireNonNull(c);
+		if (c == this) {
+			throw new IllegalArgumentException();
+		}
+		int n = 0;
+		E e;
+		while ((n < maxElements) && ((e = poll()) != null)) {
+			c.add(e);
+			n++;
+		}
+		return n;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		List<E> snapshot = new ArrayList<>();
+		long t = tail.get();
+		for (long position = head.get(); position < t; position++) {
+			int index = (int) position & mask;
+			E e = elements.get(index);
+			if ((e != null) && (sequences.get(index) == position + 1L)) {
+				snapshot.add(e);
+			}
+		}
+		Iterator<E> it = snapshot.iterator();
+		return new Iterator<E>() {
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public E next() {
+				return it.next();
+			}
+		};
+	}
+}
@@ -18,6 +18,8 @@
 
 package org.osgi.util.pushstream;
 
+import java.util.Collection;
+
 import org.osgi.annotation.versioning.ProviderType;
 import org.osgi.util.promise.Promise;
 
@@ -54,6 +56,19 @@ public interface SimplePushEventSource<T>
 	 */
 	void publish(T t);
 
+	/**
+	 * Asynchronously publish a chunk of events to this stream and all
+	 * connected {@link PushEventConsumer} instances. This is equivalent to
+	 * calling {@link #publish(Object)} for each of the events in iteration
+	 * order, but allows the events to be delivered to the connected consumers
+	 * in batches.
+	 * 
+	 * @param events The events to publish
+	 * @throws IllegalStateException if the source is closed
+	 * @since 1.2
+	 */
+	void publishAll(Collection< ? extends T> events);
+
 	/**
 	 * Close this source for now, but potentially reopen it later. Calling this
 	 * method asynchronously sends a close event to all connected consumers and
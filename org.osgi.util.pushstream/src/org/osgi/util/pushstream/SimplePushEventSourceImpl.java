@@ -19,14 +19,18 @@
 package org.osgi.util.pushstream;
 
 import static java.util.Collections.emptyList;
+import static java.util.Collections.unmodifiableList;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.stream.Collectors.toList;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.function.ToLongFunction;
 
 import org.osgi.util.promise.Deferred;
 import org.osgi.util.promise.Promise;
@@ -50,13 +54,26 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 
 	private final List<PushEventConsumer< ? super T>>	connected	= new ArrayList<>();
 
+	/**
+	 * Immutable copy of {@link #connected}, replaced whenever the connections
+	 * change, so that publishing and delivery can read the connections without
+	 * holding the lock.
+	 */
+	private volatile List<PushEventConsumer< ? super T>>	consumers	= emptyList();
+
+	/**
+	 * The most data events drained into a batch for the connections.
+	 */
+	// @GuardedBy("lock")
+	private int											batchLimit	= BatchConsumer.MAX_BATCH;
+
 	private final Runnable								onClose;
 
 	private boolean										closed;
 	
 	private Deferred<Void>								connectPromise;
 
-	private boolean										waitForFinishes;
+	private volatile boolean							waitForFinishes;
 
 
 	public SimplePushEventSourceImpl(PromiseFactory promiseFactory,
@@ -79,6 +96,12 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 	public AutoCloseable open(PushEventConsumer< ? super T> pec)
 			throws Exception {
 		Deferred<Void> toResolve = null;
+		// consumers are connected as batch consumers, a consumer which does
+		// not accept batches is paced by its back pressure
+		PushEventConsumer< ? super T> consumer = (pec instanceof BatchConsumer)
+				? pec
+				: new PacedConsumer<T>(pec, promiseFactory,
+						event -> closeConsumer(pec, event));
 		synchronized (lock) {
 			if (closed) {
 				throw new IllegalStateException(
@@ -88,7 +111,8 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 			toResolve = connectPromise;
 			connectPromise = null;
 
-			connected.add(pec);
+			connected.add(consumer);
+			connectionsChanged();
 		}
 
 		if (toResolve != null) {
@@ -96,19 +120,43 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 		}
 
 		return () -> {
-			closeConsumer(pec, PushEvent.close());
+			closeConsumer(consumer, PushEvent.close());
 		};
 	}
 
 	private void closeConsumer(PushEventConsumer< ? super T> pec,
 			PushEvent<T> event) {
-		boolean sendClose;
+		PushEventConsumer< ? super T> toClose;
 		synchronized (lock) {
-			sendClose = connected.remove(pec);
+			toClose = disconnect(pec);
+			if (toClose != null) {
+				connectionsChanged();
+			}
+		}
+		if (toClose != null) {
+			doSend(toClose, event);
 		}
-		if (sendClose) {
-			doSend(pec, event);
+	}
+
+	/**
+	 * Remove the connected consumer, or the paced consumer delivering to it.
+	 * 
+	 * @return The removed connected consumer or {@code null} if it was not
+	 *         connected
+	 */
+	// @GuardedBy("lock")
+	private PushEventConsumer< ? super T> disconnect(
+			PushEventConsumer< ? super T> pec) {
+		for (Iterator<PushEventConsumer< ? super T>> it = connected
+				.iterator(); it.hasNext();) {
+			PushEventConsumer< ? super T> consumer = it.next();
+			if (consumer == pec || ((consumer instanceof PacedConsumer)
+					&& ((PacedConsumer< ? >) consumer).delegate() == pec)) {
+				it.remove();
+				return consumer;
+			}
 		}
+		return null;
 	}
 
 	private void doSend(PushEventConsumer< ? super T> pec, PushEvent<T> event) {
@@ -125,21 +173,23 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 	}
 
 	private Promise<Long> doSendWithBackPressure(
-			PushEventConsumer< ? super T> pec, PushEvent<T> event) {
+			PushEventConsumer< ? super T> pec,
+			ToLongFunction<PushEventConsumer< ? super T>> push,
+			boolean terminal) {
 		Deferred<Long> d = sameThread.deferred();
 		try {
 			promiseFactory.executor().execute(
 					() -> d.resolve(Long.valueOf(
-							System.nanoTime() + safePush(pec, event))));
+							System.nanoTime() + push.applyAsLong(pec))));
 		} catch (RejectedExecutionException ree) {
 			// TODO log?
 
-			if (!event.isTerminal()) {
+			if (!terminal) {
 				close(PushEvent.error(ree));
 				d.resolve(Long.valueOf(System.nanoTime()));
 			} else {
 				d.resolve(
-						Long.valueOf(System.nanoTime() + safePush(pec, event)));
+						Long.valueOf(System.nanoTime() + push.applyAsLong(pec)));
 			}
 		}
 		return d.getPromise();
@@ -163,6 +213,24 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 		}
 	}
 
+	private long safePushAll(PushEventConsumer< ? super T> pec,
+			List<T> batch) {
+		try {
+			// open connects every consumer as a batch consumer
+			long backpressure = ((BatchConsumer< ? super T>) pec).acceptAll(batch)
+					* 1000000;
+			if (backpressure < 0) {
+				closeConsumer(pec, PushEvent.close());
+				return -1;
+			}
+			return backpressure;
+		} catch (Exception e) {
+			// TODO log?
+			closeConsumer(pec, PushEvent.error(e));
+			return -1;
+		}
+	}
+
 	@Override
 	public void close() {
 		close(PushEvent.close());
@@ -175,8 +243,9 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 			if(!closed) {
 				closed = true;
 				
-				toClose = new ArrayList<>(connected);
+				toClose = consumers;
 				connected.clear();
+				connectionsChanged();
 				queue.clear();
 
 				if(connectPromise != null) {
@@ -202,6 +271,33 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 		enqueueEvent(PushEvent.data(t));
 	}
 
+	/**
+	 * All events are queued before a worker is started, so that the worker
+	 * delivers them in batches. A worker is only started earlier if the
+	 * buffer is full, since the queue policy may then wait for the buffer to
+	 * be drained.
+	 */
+	@Override
+	public void publishAll(Collection< ? extends T> events) {
+		if (consumers.isEmpty()) {
+			return;
+		}
+
+		try {
+			for (T t : events) {
+				if (queue.remainingCapacity() == 0) {
+					startWorkerIfIdle();
+				}
+				queuePolicy.doOffer(queue, PushEvent.data(t));
+			}
+			startWorkerIfIdle();
+		} catch (Exception e) {
+			close(PushEvent.error(e));
+			throw new IllegalStateException(
+					"The queue policy threw an exception", e);
+		}
+	}
+
 	@Override
 	public void endOfStream() {
 		enqueueEvent(PushEvent.close());
@@ -212,22 +308,24 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 		enqueueEvent(PushEvent.error(t));
 	}
 
+	/**
+	 * Publishing does not take the lock. The connections are read from their
+	 * immutable copy, which is empty once this source is closed. A worker
+	 * started while a terminal event is being delivered finds
+	 * {@link #waitForFinishes} set when it takes the lock and waits.
+	 */
 	private void enqueueEvent(PushEvent<T> event) {
-		synchronized (lock) {
-			if (closed || connected.isEmpty()) {
-				return;
-			}
+		if (consumers.isEmpty()) {
+			return;
 		}
 
+		offer(event);
+	}
+
+	private void offer(PushEvent<T> event) {
 		try {
 			queuePolicy.doOffer(queue, event);
-			boolean start;
-			synchronized (lock) {
-				start = !waitForFinishes && semaphore.tryAcquire();
-			}
-			if (start) {
-				startWorker();
-			}
+			startWorkerIfIdle();
 		} catch (Exception e) {
 			close(PushEvent.error(e));
 			throw new IllegalStateException(
@@ -235,6 +333,12 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 		}
 	}
 
+	private void startWorkerIfIdle() {
+		if (!waitForFinishes && semaphore.tryAcquire()) {
+			startWorker();
+		}
+	}
+
 	@SuppressWarnings({
 			"unchecked", "boxing"
 	})
@@ -245,6 +349,7 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 				for(;;) {
 					PushEvent<T> event;
 					List<PushEventConsumer< ? super T>> toCall;
+					List<T> batch;
 					boolean resetWait;
 					synchronized (lock) {
 						if(waitForFinishes) {
@@ -267,20 +372,25 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 							break;
 						}
 
-						toCall = new ArrayList<>(connected);
+						toCall = consumers;
 						if (event.isTerminal()) {
 							waitForFinishes = true;
 							resetWait = true;
 							connected.clear();
+							connectionsChanged();
 							while (!semaphore.tryAcquire(parallelism - 1)) {
 								lock.wait();
 							}
+							batch = null;
 						} else {
 							resetWait = false;
+							batch = drainBatch(event);
 						}
 					}
 					
-					Promise<Long> backPressure = deliver(toCall, event);
+					Promise<Long> backPressure = (batch == null)
+							? deliver(toCall, event)
+							: deliverBatch(toCall, batch);
 					
 					if (backPressure.isDone()) {
 						handleReset(resetWait);
@@ -328,6 +438,18 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 
 	}
 
+	// @GuardedBy("lock")
+	private void connectionsChanged() {
+		consumers = connected.isEmpty() ? emptyList()
+				: unmodifiableList(new ArrayList<>(connected));
+		batchLimit = BatchConsumer.MAX_BATCH;
+		for (PushEventConsumer< ? super T> consumer : connected) {
+			// open connects every consumer as a batch consumer
+			batchLimit = Math.min(batchLimit,
+					((BatchConsumer< ? super T>) consumer).batchLimit());
+		}
+	}
+
 	private void handleReset(boolean resetWait) {
 		if (resetWait == true) {
 			synchronized (lock) {
@@ -337,17 +459,53 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 		}
 	}
 
+	/**
+	 * Poll the data events following a data event from the queue, up to
+	 * {@link #batchLimit} events and not past a terminal event.
+	 * The queue is only ever polled while holding the lock, so the event seen
+	 * by peek is the event removed by poll.
+	 * 
+	 * @return The batch or {@code null} if no data events follow, or events
+	 *         are delivered one at a time
+	 */
+	// @GuardedBy("lock")
+	private List<T> drainBatch(PushEvent<T> first) {
+		PushEvent< ? extends T> next = queue.peek();
+		if (batchLimit < 2 || next == null || next.isTerminal()) {
+			return null;
+		}
+		List<T> batch = new ArrayList<>();
+		batch.add(first.getData());
+		do {
+			batch.add(queue.poll().getData());
+		} while (batch.size() < batchLimit
+				&& (next = queue.peek()) != null && !next.isTerminal());
+		return batch;
+	}
+
 	private Promise<Long> deliver(List<PushEventConsumer< ? super T>> toCall,
 			PushEvent<T> event) {
+		return deliver(toCall, pec -> safePush(pec, event),
+				event.isTerminal());
+	}
+
+	private Promise<Long> deliverBatch(
+			List<PushEventConsumer< ? super T>> toCall, List<T> batch) {
+		return deliver(toCall, pec -> safePushAll(pec, batch), false);
+	}
+
+	private Promise<Long> deliver(List<PushEventConsumer< ? super T>> toCall,
+			ToLongFunction<PushEventConsumer< ? super T>> push,
+			boolean terminal) {
 		if (toCall.size() == 1) {
-			return doCall(event, toCall.get(0));
+			return doCall(toCall.get(0), push);
 		} else {
 			List<Promise<Long>> calls = toCall.stream().map(pec -> {
 				if (semaphore.tryAcquire()) {
-					return doSendWithBackPressure(pec, event)
+					return doSendWithBackPressure(pec, push, terminal)
 							.onResolve(() -> semaphore.release());
 				} else {
-					return doCall(event, pec);
+					return doCall(pec, push);
 				}
 			}).collect(toList());
 			return sameThread.all(calls)
@@ -356,10 +514,10 @@ class SimplePushEventSourceImpl<T, U extends BlockingQueue<PushEvent< ? extends
 		}
 	}
 
-	private Promise<Long> doCall(PushEvent<T> event,
-			PushEventConsumer< ? super T> pec) {
+	private Promise<Long> doCall(PushEventConsumer< ? super T> pec,
+			ToLongFunction<PushEventConsumer< ? super T>> push) {
 		return sameThread.resolved(
-				Long.valueOf(System.nanoTime() + safePush(pec, event)));
+				Long.valueOf(System.nanoTime() + push.applyAsLong(pec)));
 	}
 
 	@Override
@@ -70,7 +70,7 @@ class UnbufferedPushStreamImpl<T, U extends BlockingQueue<PushEvent< ? extends T
 	@Override
 	protected boolean begin() {
 		if(closed.compareAndSet(BUILDING, STARTED)) {
-			AutoCloseable toClose = connector.apply(this::handleEvent);
+			AutoCloseable toClose = connector.apply(upstreamConsumer());
 			if(!upstream.compareAndSet(null,toClose)) {
 				//TODO log that we tried to connect twice...
 				try {
@@ -19,6 +19,8 @@
 package org.osgi.util.tracker;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -101,15 +103,50 @@ abstract class AbstractTracked<S, T, R> {
 	 */
 	private final LinkedList<S>	initial;
 
+	/**
+	 * Order of the sort keys of the tracked items in the snapshot or
+	 * {@code null} if no snapshot is maintained.
+	 */
+	private final Comparator<Object>	order;
+
+	/**
+	 * Immutable snapshot of the tracked items and customized objects, sorted
+	 * by their sort keys in {@link #order}. Writers derive a new snapshot from
+	 * the current one while synchronized on this object by inserting or
+	 * removing a single item in place, so the snapshot is never re-sorted. The
+	 * sort key of an item is captured when the item is inserted, so the
+	 * snapshot stays sorted when the properties the key is derived from
+	 * change before the item is modified. The snapshot is published through
+	 * this field so that readers do not need to synchronize.
+	 * 
+	 * This field is volatile because it is set by one thread and read by
+	 * another.
+	 */
+	private volatile Snapshot	snapshot;
+
 	/**
 	 * AbstractTracked constructor.
 	 */
 	AbstractTracked() {
+		this(null);
+	}
+
+	/**
+	 * AbstractTracked constructor which maintains a snapshot of the tracked
+	 * items.
+	 * 
+	 * @param order The order of the sort keys of the tracked items in the
+	 *        snapshot or {@code null} if no snapshot is to be maintained.
+	 * @see #snapshotKey(Object)
+	 */
+	AbstractTracked(final Comparator<Object> order) {
 		tracked = new HashMap<S, T>();
 		trackingCount = 0;
 		adding = new ArrayList<S>(6);
 		initial = new LinkedList<S>();
 		closed = false;
+		this.order = order;
+		snapshot = Snapshot.EMPTY;
 	}
 
 	/**
@@ -223,6 +260,9 @@ abstract class AbstractTracked<S, T, R> {
 				if (DEBUG) {
 					System.out.println("AbstractTracked.track[modified]: " + item); //$NON-NLS-1$
 				}
+				/* the sort key of the item may have changed */
+				snapshotRemove(item);
+				snapshotInsert(item, object);
 				modified(); /* increment modification count */
 			}
 		}
@@ -269,6 +309,7 @@ abstract class AbstractTracked<S, T, R> {
 					 */
 					if (object != null) {
 						tracked.put(item, object);
+						snapshotInsert(item, object);
 						modified(); /* increment modification count */
 						notifyAll(); /* notify any waiters */
 					}
@@ -334,6 +375,7 @@ abstract class AbstractTracked<S, T, R> {
 			if (object == null) { /* are we actually tracking the item */
 				return;
 			}
+			snapshotRemove(item);
 			modified(); /* increment modification count */
 		}
 		if (DEBUG) {
@@ -404,6 +446,106 @@ abstract class AbstractTracked<S, T, R> {
 		trackingCount++;
 	}
 
+	/**
+	 * Returns the current snapshot of the tracked items and customized
+	 * objects. This method does not need to be called while synchronized on
+	 * this object.
+	 * 
+	 * @return The current snapshot. The snapshot is empty if this object does
+	 *         not maintain a snapshot.
+	 */
+	Snapshot snapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Returns the sort key of a tracked item in the snapshot. The sort key
+	 * must not change once it is returned.
+	 * 
+	 * <p>
+	 * This implementation returns the item itself.
+	 * 
+	 * @param item The tracked item.
+	 * @return The sort key of the item.
+	 */
+	Object snapshotKey(final S item) {
+		return item;
+	}
+
+	/**
+	 * Insert a tracked item into the snapshot at the sorted position of its
+	 * current sort key.
+	 * 
+	 * @param item The tracked item.
+	 * @param object The customized object for the tracked item.
+	 * @GuardedBy this
+	 */
+	private void snapshotInsert(final S item, final T object) {
+		if (order == null) {
+			return;
+		}
+		final Snapshot current = snapshot;
+		final Object key = snapshotKey(item);
+		int index = Arrays.binarySearch(current.keys, key, order);
+		if (index < 0) {
+			index = -(index + 1);
+		}
+		final int length = current.items.length;
+		final Object[] newItems = new Object[length + 1];
+		final Object[] newObjects = new Object[length + 1];
+		final Object[] newKeys = new Object[length + 1];
+		System.arraycopy(current.items, 0, newItems, 0, index);
+		System.arraycopy(current.objects, 0, newObjects, 0, index);
+		System.arraycopy(current.keys, 0, newKeys, 0, index);
+		newItems[index] = item;
+		newObjects[index] = object;
+		newKeys[index] = key;
+		System.arraycopy(current.items, index, newItems, index + 1, length - index);
+		System.arraycopy(current.objects, index, newObjects, index + 1, length - index);
+		System.arraycopy(current.keys, index, newKeys, index + 1, length - index);
+		snapshot = new Snapshot(newItems, newObjects, newKeys);
+	}
+
+	/**
+	 * Remove a tracked item from the snapshot. The item is searched by
+	 * identity since its current sort key may differ from the sort key it was
+	 * inserted with. This costs no more than the array copy.
+	 * 
+	 * @param item The tracked item.
+	 * @GuardedBy this
+	 */
+	private void snapshotRemove(final S item) {
+		if (order == null) {
+			return;
+		}
+		final Snapshot current = snapshot;
+		final Object[] items = current.items;
+		int index;
+		for (index = items.length - 1; index >= 0; index--) {
+			if (items[index] == item) {
+				break;
+			}
+		}
+		if (index < 0) {
+			return;
+		}
+		final int length = items.length - 1;
+		if (length == 0) {
+			snapshot = Snapshot.EMPTY;
+			return;
+		}
+		final Object[] newItems = new Object[length];
+		final Object[] newObjects = new Object[length];
+		final Object[] newKeys = new Object[length];
+		System.arraycopy(items, 0, newItems, 0, index);
+		System.arraycopy(current.objects, 0, newObjects, 0, index);
+		System.arraycopy(current.keys, 0, newKeys, 0, index);
+		System.arraycopy(items, index + 1, newItems, index, length - index);
+		System.arraycopy(current.objects, index + 1, newObjects, index, length - index);
+		System.arraycopy(current.keys, index + 1, newKeys, index, length - index);
+		snapshot = new Snapshot(newItems, newObjects, newKeys);
+	}
+
 	/**
 	 * Returns the tracking count for this {@code ServiceTracker} object.
 	 * 
@@ -465,4 +607,35 @@ abstract class AbstractTracked<S, T, R> {
 	 * @param object Customized object for the tracked item.
 	 */
 	abstract void customizerRemoved(final S item, final R related, final T object);
+
+	/**
+	 * Immutable snapshot of the tracked items and their customized objects in
+	 * the order of the tracker. The arrays must not be modified or made
+	 * available to user code.
+	 * 
+	 * @Immutable
+	 */
+	static final class Snapshot {
+		static final Snapshot	EMPTY	= new Snapshot(new Object[0], new Object[0], new Object[0]);
+
+		/**
+		 * The tracked items.
+		 */
+		final Object[]			items;
+		/**
+		 * The customized objects at the same index as their tracked item.
+		 */
+		final Object[]			objects;
+		/**
+		 * The sort keys captured when the items were inserted, at the same
+		 * index as their tracked item.
+		 */
+		final Object[]			keys;
+
+		Snapshot(Object[] items, Object[] objects, Object[] keys) {
+			this.items = items;
+			this.objects = objects;
+			this.keys = keys;
+		}
+	}
 }
@@ -19,7 +19,9 @@
 package org.osgi.util.tracker;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
@@ -124,6 +126,54 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 	 */
 	private volatile T						cachedService;
 
+	/**
+	 * The methods called by {@link #getServiceReference()},
+	 * {@link #getServices()} and {@link #getServices(Object[])} which are
+	 * overridden by the class of this {@code ServiceTracker}. Those methods
+	 * only read the snapshot of the tracked services directly if the methods
+	 * they are specified to call are not overridden.
+	 */
+	private final int						overridden	= OVERRIDDEN.get(getClass()).intValue();
+	private static final int				GET_SERVICE_REFERENCES	= 1;
+	private static final int				GET_SERVICE				= 2;
+	private static final ClassValue<Integer>	OVERRIDDEN				= new ClassValue<Integer>() {
+		@Override
+		protected Integer computeValue(Class<?> type) {
+			int result = 0;
+			if (isOverridden(type, "getServiceReferences")) {
+				result |= GET_SERVICE_REFERENCES;
+			}
+			if (isOverridden(type, "getService", ServiceReference.class)) {
+				result |= GET_SERVICE;
+			}
+			return Integer.valueOf(result);
+		}
+	};
+
+	/**
+	 * Returns whether the specified public method of {@code ServiceTracker}
+	 * is overridden by the specified class.
+	 * 
+	 * @param type The class of a {@code ServiceTracker}.
+	 * @param name The name of the method.
+	 * @param parameterTypes The parameter types of the method.
+	 * @return {@code false} if the method is declared by
+	 *         {@code ServiceTracker}; {@code true} if it is overridden or this
+	 *         cannot be determined.
+	 */
+	private static boolean isOverridden(Class<?> type, String name, Class<?>... parameterTypes) {
+		if (type == ServiceTracker.class) {
+			return false;
+		}
+		try {
+			return type.getMethod(name, parameterTypes).getDeclaringClass() != ServiceTracker.class;
+		} catch (NoSuchMethodException e) {
+			return true;
+		} catch (SecurityException e) {
+			return true;
+		}
+	}
+
 	/**
 	 * Create a {@code ServiceTracker} on the specified {@code ServiceReference}
 	 * .
@@ -531,14 +581,14 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		if (t == null) { /* if ServiceTracker is not open */
 			return null;
 		}
-		synchronized (t) {
-			if (t.isEmpty()) {
-				return null;
-			}
-			@SuppressWarnings("unchecked")
-			ServiceReference<S>[] result = new ServiceReference[0];
-			return t.copyKeys(result);
+		/* read the snapshot without synchronizing */
+		final Object[] items = t.snapshot().items;
+		if (items.length == 0) {
+			return null;
 		}
+		@SuppressWarnings("unchecked")
+		ServiceReference<S>[] result = Arrays.copyOf(items, items.length, ServiceReference[].class);
+		return result;
 	}
 
 	/**
@@ -568,6 +618,20 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		if (DEBUG) {
 			System.out.println("ServiceTracker.getServiceReference: " + filter);
 		}
+		if ((overridden & GET_SERVICE_REFERENCES) == 0) {
+			final Tracked t = tracked();
+			if (t == null) { /* if ServiceTracker is not open */
+				return null;
+			}
+			/* the snapshot is in ranking order so the first is the highest */
+			final Object[] items = t.snapshot().items;
+			if (items.length == 0) { /* if no service is being tracked */
+				return null;
+			}
+			@SuppressWarnings("unchecked")
+			ServiceReference<S> first = (ServiceReference<S>) items[0];
+			return cachedReference = first;
+		}
 		ServiceReference<S>[] references = getServiceReferences();
 		int length = (references == null) ? 0 : references.length;
 		if (length == 0) { /* if no service is being tracked */
@@ -645,6 +709,14 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		if (t == null) { /* if ServiceTracker is not open */
 			return null;
 		}
+		if (overridden == 0) {
+			/* read the snapshot without synchronizing */
+			final Object[] objects = t.snapshot().objects;
+			if (objects.length == 0) {
+				return null;
+			}
+			return objects.clone();
+		}
 		synchronized (t) {
 			ServiceReference<S>[] references = getServiceReferences();
 			int length = (references == null) ? 0 : references.length;
@@ -717,9 +789,7 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		if (t == null) { /* if ServiceTracker is not open */
 			return 0;
 		}
-		synchronized (t) {
-			return t.size();
-		}
+		return t.snapshot().items.length;
 	}
 
 	/**
@@ -781,14 +851,26 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 	 * @since 1.5
 	 */
 	public SortedMap<ServiceReference<S>, T> getTracked() {
-		SortedMap<ServiceReference<S>, T> map = new TreeMap<ServiceReference<S>, T>(Collections.reverseOrder());
+		SortedMap<ServiceReference<S>, T> map = new TreeMap<ServiceReference<S>, T>(Collections.<ServiceReference<S>> reverseOrder());
 		final Tracked t = tracked();
 		if (t == null) { /* if ServiceTracker is not open */
 			return map;
 		}
-		synchronized (t) {
-			return t.copyEntries(map);
+		/*
+		 * read the snapshot without synchronizing. The entries are inserted one
+		 * by one, since the snapshot is sorted by the rankings captured when the
+		 * services were tracked, which may differ from the current rankings the
+		 * map is sorted by.
+		 */
+		final AbstractTracked.Snapshot snapshot = t.snapshot();
+		for (int i = 0; i < snapshot.items.length; i++) {
+			@SuppressWarnings("unchecked")
+			ServiceReference<S> reference = (ServiceReference<S>) snapshot.items[i];
+			@SuppressWarnings("unchecked")
+			T object = (T) snapshot.objects[i];
+			map.put(reference, object);
 		}
+		return map;
 	}
 
 	/**
@@ -803,9 +885,7 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 		if (t == null) { /* if ServiceTracker is not open */
 			return true;
 		}
-		synchronized (t) {
-			return t.isEmpty();
-		}
+		return t.snapshot().items.length == 0;
 	}
 
 	/**
@@ -837,6 +917,27 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 			}
 			return array;
 		}
+		if (overridden == 0) {
+			/* read the snapshot without synchronizing */
+			final Object[] objects = t.snapshot().objects;
+			final int length = objects.length;
+			if (length == 0) {
+				if (array.length > 0) {
+					array[0] = null;
+				}
+				return array;
+			}
+			if (length > array.length) {
+				@SuppressWarnings("unchecked")
+				T[] newInstance = (T[]) Array.newInstance(array.getClass().getComponentType(), length);
+				array = newInstance;
+			}
+			System.arraycopy(objects, 0, array, 0, length);
+			if (array.length > length) {
+				array[length] = null;
+			}
+			return array;
+		}
 		synchronized (t) {
 			ServiceReference<S>[] references = getServiceReferences();
 			int length = (references == null) ? 0 : references.length;
@@ -869,10 +970,22 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 	 */
 	private class Tracked extends AbstractTracked<ServiceReference<S>, T, ServiceEvent> implements ServiceListener {
 		/**
-		 * Tracked constructor.
+		 * Tracked constructor. The snapshot of the tracked services is
+		 * maintained in ranking order, highest ranking first.
 		 */
 		Tracked() {
-			super();
+			super(Ranking.ORDER);
+		}
+
+		/**
+		 * Returns the ranking of the service as the sort key of the snapshot.
+		 * 
+		 * @param item Tracked item.
+		 * @return The current ranking of the service.
+		 */
+		@Override
+		final Object snapshotKey(final ServiceReference<S> item) {
+			return new Ranking(item);
 		}
 
 		/**
@@ -984,4 +1097,38 @@ public class ServiceTracker<S, T> implements ServiceTrackerCustomizer<S, T> {
 			super();
 		}
 	}
+
+	/**
+	 * Sort key of a tracked service in the snapshot. It captures the service
+	 * ranking and service id of a {@code ServiceReference} when the service is
+	 * added or modified, since the ranking can change before the tracker
+	 * receives the corresponding service event.
+	 * 
+	 * @Immutable
+	 */
+	private static final class Ranking {
+		/**
+		 * The {@link ServiceReference#compareTo(Object) ranking order},
+		 * highest ranking first and then lowest service id first.
+		 */
+		static final Comparator<Object>	ORDER	= new Comparator<Object>() {
+													@Override
+													public int compare(Object o1, Object o2) {
+														Ranking r1 = (Ranking) o1;
+														Ranking r2 = (Ranking) o2;
+														if (r1.ranking != r2.ranking) {
+															return (r1.ranking > r2.ranking) ? -1 : 1;
+														}
+														return (r1.id < r2.id) ? -1 : ((r1.id == r2.id) ? 0 : 1);
+													}
+												};
+		final int						ranking;
+		final long						id;
+
+		Ranking(ServiceReference<?> reference) {
+			Object property = reference.getProperty(Constants.SERVICE_RANKING);
+			ranking = (property instanceof Integer) ? ((Integer) property).intValue() : 0;
+			id = ((Long) reference.getProperty(Constants.SERVICE_ID)).longValue();
+		}
+	}
 }